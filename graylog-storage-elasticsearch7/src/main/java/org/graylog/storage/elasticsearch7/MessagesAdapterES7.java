@@ -18,27 +18,28 @@ package org.graylog.storage.elasticsearch7;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
 import jakarta.inject.Inject;
-import org.graylog.shaded.elasticsearch7.org.elasticsearch.ElasticsearchException;
-import org.graylog.shaded.elasticsearch7.org.elasticsearch.action.bulk.BulkItemResponse;
-import org.graylog.shaded.elasticsearch7.org.elasticsearch.action.bulk.BulkRequest;
-import org.graylog.shaded.elasticsearch7.org.elasticsearch.action.bulk.BulkResponse;
+import org.graylog.shaded.elasticsearch7.org.apache.http.entity.ByteArrayEntity;
+import org.graylog.shaded.elasticsearch7.org.apache.http.entity.ContentType;
 import org.graylog.shaded.elasticsearch7.org.elasticsearch.action.get.GetRequest;
 import org.graylog.shaded.elasticsearch7.org.elasticsearch.action.get.GetResponse;
-import org.graylog.shaded.elasticsearch7.org.elasticsearch.action.index.IndexRequest;
+import org.graylog.shaded.elasticsearch7.org.elasticsearch.client.Request;
+import org.graylog.shaded.elasticsearch7.org.elasticsearch.client.Response;
+import org.graylog.shaded.elasticsearch7.org.elasticsearch.client.ResponseException;
 import org.graylog.shaded.elasticsearch7.org.elasticsearch.client.indices.AnalyzeRequest;
 import org.graylog.shaded.elasticsearch7.org.elasticsearch.client.indices.AnalyzeResponse;
-import org.graylog.shaded.elasticsearch7.org.elasticsearch.common.xcontent.XContentType;
 import org.graylog.shaded.elasticsearch7.org.elasticsearch.rest.RestStatus;
+import org.graylog2.indexer.messages.BulkRequestBody;
+import org.graylog2.indexer.messages.BulkResponseParser;
 import org.graylog2.indexer.messages.ChunkedBulkIndexer;
 import org.graylog2.indexer.messages.DocumentNotFoundException;
 import org.graylog2.indexer.messages.Indexable;
 import org.graylog2.indexer.messages.IndexingError;
 import org.graylog2.indexer.messages.IndexingRequest;
-import org.graylog2.indexer.messages.IndexingResult;
 import org.graylog2.indexer.messages.IndexingResults;
-import org.graylog2.indexer.messages.IndexingSuccess;
 import org.graylog2.indexer.messages.Messages;
 import org.graylog2.indexer.messages.MessagesAdapter;
 import org.graylog2.indexer.messages.SerializationContext;
@@ -46,11 +47,8 @@ import org.graylog2.indexer.results.ResultMessage;
 import org.graylog2.indexer.results.ResultMessageFactory;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -69,6 +67,8 @@ public class MessagesAdapterES7 implements MessagesAdapter {
     static final String CIRCUIT_BREAKING_EXCEPTION = "circuit_breaking_exception";
     static final String DATA_TOO_LARGE = "Data too large";
 
+    private static final String BULK_TIMEOUT = "1m";
+
     private final ResultMessageFactory resultMessageFactory;
     private final ElasticsearchClient client;
     private final Meter invalidTimestampMeter;
@@ -113,118 +113,96 @@ public class MessagesAdapterES7 implements MessagesAdapter {
         return chunkedBulkIndexer.index(messageList, this::runBulkRequest);
     }
 
-    private ChunkedBulkIndexer.BulkIndexResult runBulkRequest(int indexedSuccessfully, IndexingResults previousResults, List<IndexingRequest> chunk) throws ChunkedBulkIndexer.EntityTooLargeException {
-        final BulkRequest bulkRequest = createBulkRequest(chunk);
+    private ChunkedBulkIndexer.BulkIndexResult runBulkRequest(int indexedSuccessfully, IndexingResults previousResults, List<IndexingRequest> chunk) throws ChunkedBulkIndexer.EntityTooLargeException, IOException {
+        final BulkResponseParser.Result result;
+        try (BulkRequestBody body = BulkRequestBody.write(chunk, SerializationContext.of(objectMapper, invalidTimestampMeter), client.compressionEnabled())) {
+            final Request request = new Request("POST", "/_bulk");
+            request.addParameter("timeout", BULK_TIMEOUT);
+            final ByteArrayEntity entity = new ByteArrayEntity(body.array(), 0, body.length(), ContentType.APPLICATION_JSON);
+            if (body.gzipped()) {
+                entity.setContentEncoding("gzip");
+            }
+            request.setEntity(entity);
 
-        final BulkResponse result;
-        try {
-            result = this.client.execute((c, requestOptions) -> c.bulk(bulkRequest, requestOptions));
-        } catch (ElasticsearchException e) {
-            for (ElasticsearchException cause : e.guessRootCauses()) {
-                if (cause.status().equals(RestStatus.REQUEST_ENTITY_TOO_LARGE)) {
-                    throw new ChunkedBulkIndexer.EntityTooLargeException(indexedSuccessfully, previousResults);
+            result = client.executeWithIOException((c, requestOptions) -> {
+                request.setOptions(requestOptions);
+                final Response response = c.getLowLevelClient().performRequest(request);
+                try (InputStream content = response.getEntity().getContent()) {
+                    return BulkResponseParser.parse(objectMapper.getFactory(), content, chunk, MessagesAdapterES7::indexingErrorFrom);
                 }
-                if (cause.status().equals(RestStatus.TOO_MANY_REQUESTS)) {
-                    if (cause.getDetailedMessage().contains(CIRCUIT_BREAKING_EXCEPTION)) {
-                        throw new ChunkedBulkIndexer.CircuitBreakerException(indexedSuccessfully, previousResults, durabilityFrom(cause));
-                    }
-                    throw new ChunkedBulkIndexer.TooManyRequestsException(indexedSuccessfully, previousResults);
+            }, "Unable to index messages: ");
+        } catch (ResponseException e) {
+            final int status = e.getResponse().getStatusLine().getStatusCode();
+            if (status == RestStatus.REQUEST_ENTITY_TOO_LARGE.getStatus()) {
+                throw new ChunkedBulkIndexer.EntityTooLargeException(indexedSuccessfully, previousResults);
+            } else if (status == RestStatus.TOO_MANY_REQUESTS.getStatus()) {
+                final JsonNode error = errorFrom(e);
+                if (isCircuitBreakingException(error)) {
+                    throw new ChunkedBulkIndexer.CircuitBreakerException(indexedSuccessfully, previousResults, durabilityFrom(error));
                 }
+                throw new ChunkedBulkIndexer.TooManyRequestsException(indexedSuccessfully, previousResults);
             }
-            throw new org.graylog2.indexer.ElasticsearchException(e);
+            throw ChunkedBulkIndexer.bulkRequestFailed(status, e);
         }
-        return new ChunkedBulkIndexer.BulkIndexResult(indexingResultsFrom(result, chunk), result::buildFailureMessage, result.getItems().length);
-    }
-
-    private ChunkedBulkIndexer.CircuitBreakerException.Durability durabilityFrom(ElasticsearchException elasticsearchException) {
-        return Optional.ofNullable(elasticsearchException.getMetadata("es.durability"))
-                .map(durabilities -> durabilities.get(0))
-                .map(durability -> switch (durability) {
-                    case "TRANSIENT" -> ChunkedBulkIndexer.CircuitBreakerException.Durability.Transient;
-                    case "PERMANENT" -> ChunkedBulkIndexer.CircuitBreakerException.Durability.Permanent;
-                    default -> throw new IllegalStateException("Invalid durability: " + durability);
-                })
-                .orElse(ChunkedBulkIndexer.CircuitBreakerException.Durability.Permanent);
-    }
-
-    private BulkRequest createBulkRequest(List<IndexingRequest> chunk) {
-        final BulkRequest bulkRequest = new BulkRequest();
-        chunk.forEach(request -> bulkRequest.add(
-                indexRequestFrom(request)
-        ));
-        return bulkRequest;
+        return new ChunkedBulkIndexer.BulkIndexResult(result.indexingResults(), result::failureMessage, result.items());
     }
 
-    private IndexingResults indexingResultsFrom(BulkResponse response, List<IndexingRequest> request) {
-        final Map<Boolean, List<BulkItemResponse>> partitionedResults = Arrays.stream(response.getItems()).collect(Collectors.partitioningBy(BulkItemResponse::isFailed));
-        final List<BulkItemResponse> failures = partitionedResults.get(true);
-        final List<BulkItemResponse> successes = partitionedResults.get(false);
-
-        final Map<String, Indexable> messageMap = request.stream()
-                .map(IndexingRequest::message)
-                .distinct()
-                .collect(Collectors.toMap(Indexable::getId, Function.identity(), (a, b) -> a));
-
-        return IndexingResults.create(indexingSuccessFrom(successes, messageMap), indexingErrorsFrom(failures, messageMap));
-    }
-
-    private List<IndexingError> indexingErrorsFrom(List<BulkItemResponse> failedItems, Map<String, Indexable> messageMap) {
-        return indexingResultsFrom(failedItems, messageMap)
-                .stream().filter(IndexingError.class::isInstance).map(IndexingError.class::cast).toList();
+    private JsonNode errorFrom(ResponseException e) {
+        try (InputStream content = e.getResponse().getEntity().getContent()) {
+            return objectMapper.readTree(content).path("error");
+        } catch (IOException | RuntimeException ignored) {
+            return MissingNode.getInstance();
+        }
     }
 
-    private List<IndexingSuccess> indexingSuccessFrom(List<BulkItemResponse> failedItems, Map<String, Indexable> messageMap) {
-        return indexingResultsFrom(failedItems, messageMap)
-                .stream().filter(IndexingSuccess.class::isInstance).map(IndexingSuccess.class::cast).toList();
+    private static boolean isCircuitBreakingException(JsonNode error) {
+        if (CIRCUIT_BREAKING_EXCEPTION.equals(error.path("type").asText())) {
+            return true;
+        }
+        for (JsonNode rootCause : error.path("root_cause")) {
+            if (CIRCUIT_BREAKING_EXCEPTION.equals(rootCause.path("type").asText())) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private List<IndexingResult> indexingResultsFrom(List<BulkItemResponse> responses, Map<String, Indexable> messageMap) {
-        return responses.stream()
-                .map(item -> {
-                    final Indexable message = messageMap.get(item.getId());
-                    return indexingResultFromResponse(item, message);
-                })
-                .collect(Collectors.toList());
+    private static ChunkedBulkIndexer.CircuitBreakerException.Durability durabilityFrom(JsonNode error) {
+        return switch (error.path("durability").asText("PERMANENT")) {
+            case "TRANSIENT" -> ChunkedBulkIndexer.CircuitBreakerException.Durability.Transient;
+            case "PERMANENT" -> ChunkedBulkIndexer.CircuitBreakerException.Durability.Permanent;
+            default -> throw new IllegalStateException("Invalid durability: " + error.path("durability").asText());
+        };
     }
 
-    private IndexingResult indexingResultFromResponse(BulkItemResponse response, Indexable message) {
-        if (response.isFailed()) {
-            return IndexingError.create(message, response.getIndex(), errorTypeFromResponse(response), response.getFailureMessage());
-        }
-        return IndexingSuccess.create(message, response.getIndex());
+    // Keeps the failure message in the format of the high-level client, which is stored in the index failures
+    private static IndexingError indexingErrorFrom(Indexable message, String index, String type, String reason) {
+        final String failureMessage = "ElasticsearchException[Elasticsearch exception [type=" + type + ", reason=" + reason + "]]";
+        return IndexingError.create(message, index, errorTypeFrom(type, reason), failureMessage);
     }
 
-    private IndexingError.Type errorTypeFromResponse(BulkItemResponse item) {
-        final ParsedElasticsearchException exception = ParsedElasticsearchException.from(item.getFailureMessage());
-        switch (exception.type()) {
+    private static IndexingError.Type errorTypeFrom(String type, String reason) {
+        switch (type) {
             case MAPPER_PARSING_EXCEPTION:
                 return IndexingError.Type.MappingError;
             case INDEX_BLOCK_ERROR:
-                if (exception.reason().contains(INDEX_BLOCK_REASON) || exception.reason().contains(FLOOD_STAGE_WATERMARK))
+                if (reason.contains(INDEX_BLOCK_REASON) || reason.contains(FLOOD_STAGE_WATERMARK)) {
                     return IndexingError.Type.IndexBlocked;
+                }
             case UNAVAILABLE_SHARDS_EXCEPTION:
-                if (exception.reason().contains(PRIMARY_SHARD_NOT_ACTIVE_REASON))
+                if (reason.contains(PRIMARY_SHARD_NOT_ACTIVE_REASON)) {
                     return IndexingError.Type.IndexBlocked;
+                }
             case ILLEGAL_ARGUMENT_EXCEPTION:
-                if (exception.reason().contains(NO_WRITE_INDEX_DEFINED_FOR_ALIAS))
+                if (reason.contains(NO_WRITE_INDEX_DEFINED_FOR_ALIAS)) {
                     return IndexingError.Type.IndexBlocked;
+                }
             case CIRCUIT_BREAKING_EXCEPTION:
-                if (exception.reason().contains(DATA_TOO_LARGE))
+                if (reason.contains(DATA_TOO_LARGE)) {
                     return IndexingError.Type.DataTooLarge;
+                }
             default:
                 return IndexingError.Type.Unknown;
         }
     }
-
-    private IndexRequest indexRequestFrom(IndexingRequest request) {
-        final byte[] body;
-        try {
-            body = request.message().serialize(SerializationContext.of(objectMapper, this.invalidTimestampMeter));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        return new IndexRequest(request.indexSet().getWriteIndexAlias())
-                .id(request.message().getId())
-                .source(body, XContentType.JSON);
-    }
 }
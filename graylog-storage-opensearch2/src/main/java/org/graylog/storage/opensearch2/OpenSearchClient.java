@@ -175,6 +175,13 @@ public class OpenSearchClient {
         }, errorMessage);
     }
 
+    /**
+     * @return {@code true} if requests and responses should be gzip compressed
+     */
+    public boolean compressionEnabled() {
+        return compressionEnabled;
+    }
+
     private RequestOptions requestOptions() {
         return compressionEnabled
                 ? RequestOptions.DEFAULT.toBuilder()
@@ -41,28 +41,31 @@ public class ExportClient {
 
     public SearchResponse search(SearchRequest request, String errorMessage) {
         try {
-            final SearchResponse response = this.client.search(request, errorMessage);
-            if (response.getFailedShards() > 0) {
-                final List<String> errors = Arrays.stream(response.getShardFailures())
-                        .map(ShardOperationFailedException::getCause)
-                        .map(Throwable::getMessage)
-                        .distinct()
-                        .toList();
-                throw new ElasticsearchException("Unable to perform export query: ", errors);
-            }
-            return response;
+            return failOnShardFailures(this.client.search(request, errorMessage));
         } catch (Exception e) {
             throw wrapException(e);
         }
     }
 
+    private SearchResponse failOnShardFailures(SearchResponse response) {
+        if (response.getFailedShards() > 0) {
+            final List<String> errors = Arrays.stream(response.getShardFailures())
+                    .map(ShardOperationFailedException::getCause)
+                    .map(Throwable::getMessage)
+                    .distinct()
+                    .toList();
+            throw new ElasticsearchException("Unable to perform export query: ", errors);
+        }
+        return response;
+    }
+
     private ExportException wrapException(Exception e) {
         return new ExportException("Unable to complete export: ", new ElasticsearchException(e));
     }
 
     public SearchResponse singleSearch(SearchRequest request, String errorMessage) {
         try {
-            return this.client.singleSearch(request, errorMessage);
+            return failOnShardFailures(this.client.singleSearch(request, errorMessage));
         } catch (Exception e) {
             throw wrapException(e);
         }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.storage.opensearch2.views.export;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the slices of exports with parallel slices on a thread pool which is shared by all exports. Only a limited
+ * number of exports can read slices at the same time, so the pool has a thread for every slice of these exports and
+ * slices never wait for each other.
+ */
+@Singleton
+public class ExportSliceExecutor {
+    private final Semaphore slicedExports;
+    private final ThreadPoolExecutor executor;
+
+    @Inject
+    public ExportSliceExecutor(@Named("search_export_parallel_slices") int parallelSlices,
+                               @Named("search_export_max_sliced_exports") int maxSlicedExports) {
+        final int threads = parallelSlices * maxSlicedExports;
+        this.slicedExports = new Semaphore(maxSlicedExports);
+        this.executor = new ThreadPoolExecutor(threads, threads, 1L, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("export-slice-%d").setDaemon(true).build());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return {@code true} if the export can read its slices, it has to call {@link #release()} when it's done.
+     * {@code false} if the maximum number of exports are reading slices already.
+     */
+    boolean tryAcquire() {
+        return slicedExports.tryAcquire();
+    }
+
+    void release() {
+        slicedExports.release();
+    }
+
+    Future<?> submit(Runnable slice) {
+        return executor.submit(slice);
+    }
+}
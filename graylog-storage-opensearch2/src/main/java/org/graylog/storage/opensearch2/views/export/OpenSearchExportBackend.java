@@ -16,24 +16,33 @@
  */
 package org.graylog.storage.opensearch2.views.export;
 
+import com.github.joschi.jadconfig.util.Duration;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
 import org.graylog.plugins.views.search.elasticsearch.IndexLookup;
 import org.graylog.plugins.views.search.export.ExportBackend;
+import org.graylog.plugins.views.search.export.ExportException;
 import org.graylog.plugins.views.search.export.ExportMessagesCommand;
 import org.graylog.plugins.views.search.export.SimpleMessage;
 import org.graylog.plugins.views.search.export.SimpleMessageChunk;
 import org.graylog.plugins.views.search.searchfilters.db.UsedSearchFiltersToQueryStringsMapper;
 import org.graylog.plugins.views.search.searchfilters.model.UsedSearchFilter;
+import org.graylog.shaded.opensearch2.org.opensearch.action.search.CreatePitRequest;
+import org.graylog.shaded.opensearch2.org.opensearch.action.search.DeletePitRequest;
 import org.graylog.shaded.opensearch2.org.opensearch.action.search.SearchRequest;
 import org.graylog.shaded.opensearch2.org.opensearch.action.support.IndicesOptions;
+import org.graylog.shaded.opensearch2.org.opensearch.common.unit.TimeValue;
 import org.graylog.shaded.opensearch2.org.opensearch.index.query.BoolQueryBuilder;
 import org.graylog.shaded.opensearch2.org.opensearch.index.query.QueryBuilder;
 import org.graylog.shaded.opensearch2.org.opensearch.index.query.QueryBuilders;
 import org.graylog.shaded.opensearch2.org.opensearch.index.query.TermsQueryBuilder;
 import org.graylog.shaded.opensearch2.org.opensearch.search.SearchHit;
+import org.graylog.shaded.opensearch2.org.opensearch.search.builder.PointInTimeBuilder;
 import org.graylog.shaded.opensearch2.org.opensearch.search.builder.SearchSourceBuilder;
+import org.graylog.shaded.opensearch2.org.opensearch.search.slice.SliceBuilder;
+import org.graylog.shaded.opensearch2.org.opensearch.search.sort.SortBuilders;
+import org.graylog.shaded.opensearch2.org.opensearch.search.sort.SortOrder;
 import org.graylog.storage.opensearch2.TimeRangeQueryFactory;
 import org.graylog2.database.filtering.AttributeFilter;
 import org.graylog2.plugin.Message;
@@ -41,11 +50,17 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 import static java.util.Objects.requireNonNull;
@@ -61,6 +76,10 @@ public class OpenSearchExportBackend implements ExportBackend {
 
     private final IndexLookup indexLookup;
     private final RequestStrategy requestStrategy;
+    private final ExportClient exportClient;
+    private final int parallelSlices;
+    private final ExportSliceExecutor sliceExecutor;
+    private final TimeValue pointInTimeKeepAlive;
     private final boolean allowLeadingWildcard;
 
     private final UsedSearchFiltersToQueryStringsMapper usedSearchFiltersToQueryStringsMapper;
@@ -68,16 +87,33 @@ public class OpenSearchExportBackend implements ExportBackend {
     @Inject
     public OpenSearchExportBackend(IndexLookup indexLookup,
                                    RequestStrategy requestStrategy,
+                                   ExportClient exportClient,
+                                   @Named("search_export_parallel_slices") int parallelSlices,
+                                   ExportSliceExecutor sliceExecutor,
+                                   @Named("search_export_point_in_time_keep_alive") Duration pointInTimeKeepAlive,
                                    @Named("allow_leading_wildcard_searches") boolean allowLeadingWildcard,
                                    final UsedSearchFiltersToQueryStringsMapper usedSearchFiltersToQueryStringsMapper) {
         this.indexLookup = indexLookup;
         this.requestStrategy = requestStrategy;
+        this.exportClient = exportClient;
+        this.parallelSlices = parallelSlices;
+        this.sliceExecutor = sliceExecutor;
+        this.pointInTimeKeepAlive = TimeValue.timeValueMillis(pointInTimeKeepAlive.toMilliseconds());
         this.allowLeadingWildcard = allowLeadingWildcard;
         this.usedSearchFiltersToQueryStringsMapper = usedSearchFiltersToQueryStringsMapper;
     }
 
     @Override
     public void run(ExportMessagesCommand command, Consumer<SimpleMessageChunk> chunkCollector) {
+        // The slices are read in parallel, so a limit would export an arbitrary subset of the matching messages.
+        if (parallelSlices > 1 && !command.limit().isPresent()) {
+            runSliced(command, chunkCollector);
+        } else {
+            runSequentially(command, chunkCollector);
+        }
+    }
+
+    private void runSequentially(ExportMessagesCommand command, Consumer<SimpleMessageChunk> chunkCollector) {
         boolean isFirstChunk = true;
         int totalCount = 0;
 
@@ -122,6 +158,10 @@ public class OpenSearchExportBackend implements ExportBackend {
     }
 
     private SearchSourceBuilder searchSourceBuilderFrom(ExportMessagesCommand command) {
+        return requestStrategy.configure(baseSearchSourceBuilderFrom(command));
+    }
+
+    private SearchSourceBuilder baseSearchSourceBuilderFrom(ExportMessagesCommand command) {
         QueryBuilder query = queryFrom(command);
 
         SearchSourceBuilder ssb = new SearchSourceBuilder()
@@ -131,7 +171,144 @@ public class OpenSearchExportBackend implements ExportBackend {
             ssb = ssb.fetchSource(command.fieldsInOrder().toArray(new String[]{}), null);
         }
 
-        return requestStrategy.configure(ssb);
+        return ssb;
+    }
+
+    /**
+     * Reads the messages through a point in time of the indices, split into slices which are searched in parallel.
+     * The slices hand their chunks over through a queue with room for one chunk per slice, so reading pauses while the
+     * client consumes the export more slowly than the slices are read. Messages are sorted by timestamp within each
+     * chunk, but the chunks of the slices are interleaved.
+     * <p>
+     * The slices are read on the {@link ExportSliceExecutor} shared by all exports. If too many exports are reading
+     * slices already, the export is read sequentially.
+     */
+    private void runSliced(ExportMessagesCommand command, Consumer<SimpleMessageChunk> chunkCollector) {
+        final Set<String> indices = indicesFor(command);
+        if (indices.isEmpty()) {
+            publishChunk(chunkCollector, Collections.emptyList(), command.fieldsInOrder(), command.timeZone(), SimpleMessageChunk.ChunkOrder.LAST);
+            return;
+        }
+        if (!sliceExecutor.tryAcquire()) {
+            LOG.debug("Too many exports with parallel slices are running, exporting without parallel slices.");
+            runSequentially(command, chunkCollector);
+            return;
+        }
+        try {
+            readSlices(command, chunkCollector, indices);
+        } finally {
+            sliceExecutor.release();
+        }
+    }
+
+    private void readSlices(ExportMessagesCommand command, Consumer<SimpleMessageChunk> chunkCollector, Set<String> indices) {
+        final String pointInTimeId;
+        try {
+            pointInTimeId = exportClient.execute((c, requestOptions) -> c.createPit(
+                    new CreatePitRequest(pointInTimeKeepAlive, false, indices.toArray(new String[0])), requestOptions).getId(),
+                    "Unable to create point in time for export");
+        } catch (ExportException e) {
+            // point in time searches require OpenSearch 2.4 or later
+            LOG.warn("Unable to create point in time for export, exporting without parallel slices.", e);
+            runSequentially(command, chunkCollector);
+            return;
+        }
+
+        final BlockingQueue<SliceChunk> chunks = new ArrayBlockingQueue<>(parallelSlices);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final List<Future<?>> slices = new ArrayList<>(parallelSlices);
+        try {
+            for (int slice = 0; slice < parallelSlices; slice++) {
+                final int sliceId = slice;
+                slices.add(sliceExecutor.submit(() -> readSlice(command, pointInTimeId, sliceId, chunks, failure)));
+            }
+            publishSlices(command, chunkCollector, chunks, failure);
+        } finally {
+            // stops slices which are still running if the export ended early
+            slices.forEach(slice -> slice.cancel(true));
+            deletePointInTime(pointInTimeId);
+        }
+    }
+
+    private void publishSlices(ExportMessagesCommand command, Consumer<SimpleMessageChunk> chunkCollector,
+                               BlockingQueue<SliceChunk> chunks, AtomicReference<Exception> failure) {
+        boolean isFirstChunk = true;
+        int finishedSlices = 0;
+
+        while (finishedSlices < parallelSlices) {
+            final SliceChunk chunk;
+            try {
+                chunk = chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExportException("Export has been interrupted", e);
+            }
+            if (failure.get() != null) {
+                throw new ExportException("Unable to complete export: ", failure.get());
+            }
+            if (chunk.isLast()) {
+                finishedSlices++;
+                continue;
+            }
+
+            boolean success = publishChunk(chunkCollector, chunk.hits(), command.fieldsInOrder(), command.timeZone(), isFirstChunk ? SimpleMessageChunk.ChunkOrder.FIRST : SimpleMessageChunk.ChunkOrder.INTERMEDIATE);
+            if (!success) {
+                return;
+            }
+
+            isFirstChunk = false;
+        }
+        publishChunk(chunkCollector, Collections.emptyList(), command.fieldsInOrder(), command.timeZone(), SimpleMessageChunk.ChunkOrder.LAST);
+    }
+
+    private void readSlice(ExportMessagesCommand command, String pointInTimeId, int slice,
+                           BlockingQueue<SliceChunk> chunks, AtomicReference<Exception> failure) {
+        try {
+            Object[] searchAfterValues = null;
+            while (true) {
+                final SearchSourceBuilder source = baseSearchSourceBuilderFrom(command)
+                        .pointInTimeBuilder(new PointInTimeBuilder(pointInTimeId).setKeepAlive(pointInTimeKeepAlive))
+                        .slice(new SliceBuilder(slice, parallelSlices))
+                        .sort(SortBuilders.fieldSort(Message.FIELD_TIMESTAMP).order(SortOrder.ASC))
+                        .sort(SortBuilders.fieldSort(SearchAfter.DEFAULT_TIEBREAKER_FIELD).order(SortOrder.ASC).unmappedType("keyword"));
+                if (searchAfterValues != null) {
+                    source.searchAfter(searchAfterValues);
+                }
+
+                final SearchHit[] hits = exportClient.singleSearch(new SearchRequest().source(source), "Failed to read slice of export")
+                        .getHits()
+                        .getHits();
+                if (hits.length == 0) {
+                    break;
+                }
+                chunks.put(new SliceChunk(Arrays.asList(hits), false));
+                if (hits.length < command.chunkSize()) {
+                    break;
+                }
+                searchAfterValues = hits[hits.length - 1].getSortValues();
+            }
+        } catch (InterruptedException e) {
+            // the export has ended, nobody is waiting for this slice anymore
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            LOG.debug("Reading slice {} of export failed", slice, e);
+            failure.compareAndSet(null, e);
+        }
+        try {
+            chunks.put(SliceChunk.LAST);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deletePointInTime(String pointInTimeId) {
+        try {
+            exportClient.execute((c, requestOptions) -> c.deletePit(new DeletePitRequest(pointInTimeId), requestOptions),
+                    "Unable to delete point in time of export");
+        } catch (Exception e) {
+            LOG.warn("Unable to delete point in time of export, it expires after {}.", pointInTimeKeepAlive, e);
+        }
     }
 
     private QueryBuilder queryFrom(ExportMessagesCommand command) {
@@ -206,4 +383,7 @@ public class OpenSearchExportBackend implements ExportBackend {
                 .collect(toCollection(LinkedHashSet::new));
     }
 
+    private record SliceChunk(List<SearchHit> hits, boolean isLast) {
+        static final SliceChunk LAST = new SliceChunk(List.of(), true);
+    }
 }
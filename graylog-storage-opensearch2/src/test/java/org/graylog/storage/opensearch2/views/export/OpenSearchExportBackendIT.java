@@ -16,6 +16,7 @@
  */
 package org.graylog.storage.opensearch2.views.export;
 
+import com.github.joschi.jadconfig.util.Duration;
 import com.google.common.collect.ImmutableSet;
 import jakarta.annotation.Nonnull;
 import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
@@ -72,7 +73,7 @@ public class OpenSearchExportBackendIT extends ElasticsearchBaseTest {
     @Before
     public void setUp() {
         indexLookup = mock(IndexLookup.class);
-        backend = new OpenSearchExportBackend(indexLookup, requestStrategy(), false, new IgnoreSearchFilters());
+        backend = new OpenSearchExportBackend(indexLookup, requestStrategy(), exportClient(), 1, new ExportSliceExecutor(1, 1), Duration.minutes(1), false, new IgnoreSearchFilters());
         helper = new OpenSearchExportITHelper(indexLookup, backend);
     }
 
@@ -82,8 +83,11 @@ public class OpenSearchExportBackendIT extends ElasticsearchBaseTest {
     }
 
     private RequestStrategy requestStrategy() {
-        final ExportClient exportClient = new ExportClient(openSearchInstance.openSearchClient());
-        return new SearchAfter(exportClient);
+        return new SearchAfter(exportClient());
+    }
+
+    private ExportClient exportClient() {
+        return new ExportClient(openSearchInstance.openSearchClient());
     }
 
     @Test
@@ -227,6 +231,22 @@ public class OpenSearchExportBackendIT extends ElasticsearchBaseTest {
                 "graylog_0, 2015-01-01T04:00:00.000Z, source-2, Ho");
     }
 
+    @Test
+    public void exportsAllMessagesWithParallelSlices() {
+        importFixture("messages.json");
+
+        final OpenSearchExportBackend slicedBackend = new OpenSearchExportBackend(indexLookup, requestStrategy(), exportClient(), 2, new ExportSliceExecutor(2, 1), Duration.minutes(1), false, new IgnoreSearchFilters());
+        final OpenSearchExportITHelper slicedHelper = new OpenSearchExportITHelper(indexLookup, slicedBackend);
+        ExportMessagesCommand command = slicedHelper.commandBuilderWithAllTestDefaultStreams().chunkSize(1).build();
+        slicedHelper.mockIndexLookupFor(command, "graylog_0", "graylog_1");
+
+        slicedHelper.runWithExpectedResultIgnoringSort(command, "timestamp,source,message",
+                "graylog_0, 2015-01-01T01:00:00.000Z, source-1, Ha",
+                "graylog_1, 2015-01-01T01:59:59.999Z, source-2, He",
+                "graylog_0, 2015-01-01T03:00:00.000Z, source-1, Hi",
+                "graylog_0, 2015-01-01T04:00:00.000Z, source-2, Ho");
+    }
+
     @Test
     public void usesProvidedTimeZone() {
         importFixture("messages.json");
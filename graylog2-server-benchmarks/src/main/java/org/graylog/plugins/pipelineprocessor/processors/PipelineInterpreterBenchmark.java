@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.db.PipelineDao;
+import org.graylog.plugins.pipelineprocessor.db.RuleDao;
+import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigDto;
+import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigService;
+import org.graylog.plugins.pipelineprocessor.db.memory.InMemoryPipelineService;
+import org.graylog.plugins.pipelineprocessor.db.memory.InMemoryPipelineStreamConnectionsService;
+import org.graylog.plugins.pipelineprocessor.db.memory.InMemoryRuleService;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.DoubleConversion;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.LongConversion;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RemoveField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetFields;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Concat;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Contains;
+import org.graylog.plugins.pipelineprocessor.functions.strings.KeyValue;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Lowercase;
+import org.graylog.plugins.pipelineprocessor.functions.strings.RegexMatch;
+import org.graylog.plugins.pipelineprocessor.functions.strings.StartsWith;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Substring;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
+import org.graylog.plugins.pipelineprocessor.rest.PipelineConnections;
+import org.graylog2.benchmarks.Corpus;
+import org.graylog2.benchmarks.Fixtures;
+import org.graylog2.events.ClusterEventBus;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageCollection;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.shared.messageq.noop.NoopMessageQueueAcknowledger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the decoded GELF corpus through a {@link PipelineInterpreter} with the checked-in pipeline and rule fixtures
+ * connected to the default stream.
+ * <p>
+ * The same message instances are processed in every invocation. The fixture rules are idempotent, so after the first
+ * invocation every run evaluates the same conditions and performs the same field writes.
+ * <p>
+ * The rule conditions are either interpreted or compiled by the {@link org.graylog.plugins.pipelineprocessor.compiler.RuleConditionCompiler}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineInterpreterBenchmark {
+    private static final int CORPUS_SIZE = 16;
+
+    @Param({"false", "true"})
+    public boolean compiledRuleConditions;
+
+    private ScheduledExecutorService scheduler;
+    private PipelineInterpreter interpreter;
+    private MessageCollection messages;
+
+    @Setup
+    public void setUp() {
+        scheduler = Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder()
+                .setNameFormat("pipeline-benchmark-%d")
+                .setDaemon(true)
+                .build());
+        final ClusterEventBus clusterEventBus = new ClusterEventBus("pipeline-benchmark", MoreExecutors.directExecutor());
+
+        final InMemoryRuleService ruleService = new InMemoryRuleService(clusterEventBus);
+        final List<String> ruleSources = List.of(Corpus.read(Corpus.PIPELINE_RULES)
+                .replaceAll("(?m)^#.*$", "")
+                .split("(?m)^---$"));
+        for (int i = 0; i < ruleSources.size(); i++) {
+            ruleService.save(RuleDao.create(null, "rule-" + i, null, ruleSources.get(i).trim(), Tools.nowUTC(), null, null, null));
+        }
+
+        final InMemoryPipelineService pipelineService = new InMemoryPipelineService(clusterEventBus);
+        final PipelineDao pipeline = pipelineService.save(
+                PipelineDao.create(null, null, "benchmark pipeline", null, Corpus.read(Corpus.PIPELINE), Tools.nowUTC(), null));
+
+        final InMemoryPipelineStreamConnectionsService connectionsService = new InMemoryPipelineStreamConnectionsService(clusterEventBus);
+        connectionsService.save(PipelineConnections.create(null, Stream.DEFAULT_STREAM_ID, Set.of(pipeline.id())));
+
+        final Map<String, Function<?>> functions = ImmutableMap.<String, Function<?>>builder()
+                .put(Concat.NAME, new Concat())
+                .put(Contains.NAME, new Contains())
+                .put(DoubleConversion.NAME, new DoubleConversion())
+                .put(HasField.NAME, new HasField())
+                .put(KeyValue.NAME, new KeyValue())
+                .put(LongConversion.NAME, new LongConversion())
+                .put(Lowercase.NAME, new Lowercase())
+                .put(RegexMatch.NAME, new RegexMatch())
+                .put(RemoveField.NAME, new RemoveField())
+                .put(SetField.NAME, new SetField())
+                .put(SetFields.NAME, new SetFields())
+                .put(StartsWith.NAME, new StartsWith())
+                .put(StringConversion.NAME, new StringConversion())
+                .put(Substring.NAME, new Substring())
+                .build();
+        final PipelineRuleParser parser = new PipelineRuleParser(new FunctionRegistry(functions));
+
+        final RuleMetricsConfigService ruleMetricsConfigService = new RuleMetricsConfigService(null, clusterEventBus) {
+            @Override
+            public RuleMetricsConfigDto get() {
+                return RuleMetricsConfigDto.createDefault();
+            }
+        };
+
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final ConfigurationStateUpdater stateUpdater = new ConfigurationStateUpdater(ruleService,
+                pipelineService,
+                connectionsService,
+                parser,
+                (config, ruleParser) -> new PipelineResolver(ruleParser, config),
+                ruleMetricsConfigService,
+                metricRegistry,
+                scheduler,
+                new EventBus("pipeline-benchmark"),
+                (currentPipelines, streamPipelineConnections, ruleMetricsConfig) ->
+                        new PipelineInterpreter.State(currentPipelines, streamPipelineConnections, ruleMetricsConfig, metricRegistry, 1, true),
+                compiledRuleConditions);
+        interpreter = new PipelineInterpreter(new NoopMessageQueueAcknowledger(), metricRegistry, stateUpdater);
+
+        final Stream defaultStream = Fixtures.defaultStream();
+        final List<Message> decoded = Fixtures.gelfMessages();
+        decoded.forEach(message -> message.addStream(defaultStream));
+        if (decoded.size() != CORPUS_SIZE) {
+            throw new IllegalStateException("Expected " + CORPUS_SIZE + " GELF messages in corpus but got " + decoded.size());
+        }
+        messages = new MessageCollection(decoded);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public Object process() {
+        return interpreter.process(messages);
+    }
+}
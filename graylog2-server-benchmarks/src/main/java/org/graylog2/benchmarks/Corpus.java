@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks;
+
+import com.google.common.io.Resources;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Loads the message corpora and fixtures that are checked in next to the benchmarks.
+ * <p>
+ * All benchmarks read their input through this class so that a run never depends on external services or on files
+ * outside of the benchmark jar.
+ */
+public final class Corpus {
+    public static final String GELF = "corpus/gelf.ndjson";
+    public static final String SYSLOG = "corpus/syslog.txt";
+    public static final String STREAMS = "fixtures/streams.json";
+    public static final String PIPELINE_RULES = "fixtures/pipeline-rules.txt";
+    public static final String PIPELINE = "fixtures/pipeline.txt";
+
+    private Corpus() {
+    }
+
+    /**
+     * Returns the non-empty lines of the given resource, skipping lines starting with {@code #}.
+     */
+    public static List<String> lines(String resource) {
+        return read(resource).lines()
+                .filter(line -> !line.isBlank() && !line.startsWith("#"))
+                .toList();
+    }
+
+    /**
+     * Returns the non-empty lines of the given resource as UTF-8 encoded byte arrays.
+     */
+    public static List<byte[]> payloads(String resource) {
+        return lines(resource).stream().map(line -> line.getBytes(UTF_8)).toList();
+    }
+
+    public static String read(String resource) {
+        final URL url = Resources.getResource(Corpus.class, "/" + resource);
+        try {
+            return Resources.toString(url, UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read benchmark resource " + resource, e);
+        }
+    }
+}
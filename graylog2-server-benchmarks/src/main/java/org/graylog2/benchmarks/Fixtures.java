@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.eventbus.EventBus;
+import org.bson.types.ObjectId;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.TestIndexSet;
+import org.graylog2.indexer.indexset.IndexSetConfig;
+import org.graylog2.indexer.retention.strategies.DeletionRetentionStrategy;
+import org.graylog2.indexer.retention.strategies.DeletionRetentionStrategyConfig;
+import org.graylog2.indexer.rotation.strategies.MessageCountRotationStrategy;
+import org.graylog2.indexer.rotation.strategies.MessageCountRotationStrategyConfig;
+import org.graylog2.inputs.codecs.GelfCodec;
+import org.graylog2.inputs.codecs.gelf.GELFBulkDroppedMsgService;
+import org.graylog2.inputs.codecs.gelf.GELFDecompressor;
+import org.graylog2.inputs.diagnosis.InputDiagnosisMetrics;
+import org.graylog2.plugin.BenchmarkMessageFactory;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.graylog2.streams.StreamImpl;
+import org.graylog2.streams.StreamRuleImpl;
+
+import java.io.UncheckedIOException;
+import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the in-memory objects (decoded messages, streams and stream rules) the benchmarks operate on from the
+ * checked-in {@link Corpus} resources.
+ */
+public final class Fixtures {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapperProvider().get();
+    // Messages can only be routed into streams which have an index set.
+    private static final IndexSet INDEX_SET = new TestIndexSet(IndexSetConfig.builder()
+            .id("benchmark-index-set")
+            .title("Benchmark index set")
+            .indexPrefix("benchmark")
+            .creationDate(ZonedDateTime.now(ZoneOffset.UTC))
+            .shards(1)
+            .replicas(0)
+            .rotationStrategyClass(MessageCountRotationStrategy.class.getCanonicalName())
+            .rotationStrategyConfig(MessageCountRotationStrategyConfig.createDefault())
+            .retentionStrategyClass(DeletionRetentionStrategy.class.getCanonicalName())
+            .retentionStrategyConfig(DeletionRetentionStrategyConfig.createDefault())
+            .indexAnalyzer("standard")
+            .indexTemplateName("benchmark-template")
+            .indexOptimizationMaxNumSegments(1)
+            .indexOptimizationDisabled(false)
+            .build());
+
+    private Fixtures() {
+    }
+
+    public static ObjectMapper objectMapper() {
+        return OBJECT_MAPPER;
+    }
+
+    /**
+     * Decodes the GELF corpus into messages. Every call returns fresh instances that can be mutated by the caller.
+     */
+    public static List<Message> gelfMessages() {
+        final GELFBulkDroppedMsgService droppedMsgService = new GELFBulkDroppedMsgService(new InputDiagnosisMetrics(new MetricRegistry()));
+        final GelfCodec codec = new GelfCodec(new Configuration(Map.of()), null, new BenchmarkMessageFactory(), droppedMsgService,
+                new GELFDecompressor(new MetricRegistry(), new EventBus()));
+
+        return Corpus.payloads(Corpus.GELF).stream()
+                .map(payload -> codec.decodeSafe(new RawMessage(payload))
+                        .orElseThrow(() -> new IllegalStateException("Couldn't decode GELF corpus message")))
+                .toList();
+    }
+
+    /**
+     * Returns the stream fixtures, repeated {@code copies} times so the number of streams and rules can be scaled to
+     * the size of a real cluster. Each copy gets its own stream and rule ids.
+     */
+    public static List<Stream> streams(int copies) {
+        final List<Map<String, Object>> definitions;
+        try {
+            definitions = OBJECT_MAPPER.readValue(Corpus.read(Corpus.STREAMS), new TypeReference<>() {});
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException("Couldn't parse stream fixtures", e);
+        }
+
+        final List<Stream> streams = new ArrayList<>(definitions.size() * copies);
+        for (int copy = 0; copy < copies; copy++) {
+            for (Map<String, Object> definition : definitions) {
+                streams.add(stream(definition, copy));
+            }
+        }
+        return streams;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Stream stream(Map<String, Object> definition, int copy) {
+        final ObjectId streamId = new ObjectId();
+        final Map<String, Object> fields = new HashMap<>();
+        fields.put(StreamImpl.FIELD_TITLE, definition.get("title") + " #" + copy);
+        fields.put(StreamImpl.FIELD_MATCHING_TYPE, definition.getOrDefault("matching_type", "AND"));
+        fields.put(StreamImpl.FIELD_REMOVE_MATCHES_FROM_DEFAULT_STREAM,
+                definition.getOrDefault("remove_matches_from_default_stream", false));
+
+        final List<StreamRule> rules = new ArrayList<>();
+        for (Map<String, Object> ruleDefinition : (List<Map<String, Object>>) definition.get("rules")) {
+            final Map<String, Object> ruleFields = new HashMap<>();
+            ruleFields.put(StreamRuleImpl.FIELD_STREAM_ID, streamId);
+            ruleFields.put(StreamRuleImpl.FIELD_TYPE, StreamRuleType.valueOf((String) ruleDefinition.get("type")).toInteger());
+            ruleFields.put(StreamRuleImpl.FIELD_FIELD, ruleDefinition.get("field"));
+            ruleFields.put(StreamRuleImpl.FIELD_VALUE, ruleDefinition.get("value"));
+            ruleFields.put(StreamRuleImpl.FIELD_INVERTED, ruleDefinition.getOrDefault("inverted", false));
+            rules.add(new StreamRuleImpl(ruleFields));
+        }
+
+        return new StreamImpl(streamId, fields, rules, Set.of(), INDEX_SET);
+    }
+
+    /**
+     * Returns a stream instance with the id of the default stream.
+     */
+    public static Stream defaultStream() {
+        final Map<String, Object> fields = new HashMap<>();
+        fields.put(StreamImpl.FIELD_TITLE, "Default Stream");
+        fields.put(StreamImpl.FIELD_DEFAULT_STREAM, true);
+        return new StreamImpl(new ObjectId(Stream.DEFAULT_STREAM_ID), fields, List.of(), Set.of(), INDEX_SET);
+    }
+}
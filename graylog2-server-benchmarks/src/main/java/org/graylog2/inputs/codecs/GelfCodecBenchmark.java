@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.benchmarks.Corpus;
+import org.graylog2.inputs.codecs.gelf.GELFBulkDroppedMsgService;
+import org.graylog2.inputs.codecs.gelf.GELFDecompressor;
+import org.graylog2.inputs.diagnosis.InputDiagnosisMetrics;
+import org.graylog2.plugin.BenchmarkMessageFactory;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decodes the checked-in GELF corpus with {@link GelfCodec}, uncompressed and ZLIB or GZIP compressed. Results are
+ * reported per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GelfCodecBenchmark {
+    private static final int CORPUS_SIZE = 16;
+
+    @Param({"none", "zlib", "gzip"})
+    public String compression;
+
+    private GelfCodec codec;
+    private List<RawMessage> rawMessages;
+
+    @Setup
+    public void setUp() {
+        final GELFBulkDroppedMsgService droppedMsgService = new GELFBulkDroppedMsgService(new InputDiagnosisMetrics(new MetricRegistry()));
+        codec = new GelfCodec(new Configuration(Map.of()), null, new BenchmarkMessageFactory(), droppedMsgService,
+                new GELFDecompressor(new MetricRegistry(), new EventBus()));
+        rawMessages = Corpus.payloads(Corpus.GELF).stream().map(this::compress).map(RawMessage::new).toList();
+        if (rawMessages.size() != CORPUS_SIZE) {
+            throw new IllegalStateException("Expected " + CORPUS_SIZE + " GELF messages in corpus but got " + rawMessages.size());
+        }
+    }
+
+    private byte[] compress(byte[] payload) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream compressed = switch (compression) {
+            case "zlib" -> new DeflaterOutputStream(out);
+            case "gzip" -> new GZIPOutputStream(out);
+            default -> out;
+        }) {
+            compressed.write(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void decode(Blackhole blackhole) {
+        for (RawMessage rawMessage : rawMessages) {
+            blackhole.consume(codec.decodeSafe(rawMessage));
+        }
+    }
+}
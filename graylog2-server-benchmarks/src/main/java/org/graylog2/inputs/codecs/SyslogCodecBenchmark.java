@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.benchmarks.Corpus;
+import org.graylog2.plugin.BenchmarkMessageFactory;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes the checked-in syslog corpus (RFC 3164, RFC 5424, Cisco and FortiGate variants) with {@link SyslogCodec}.
+ * Results are reported per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyslogCodecBenchmark {
+    private static final int CORPUS_SIZE = 17;
+
+    private SyslogCodec codec;
+    private List<RawMessage> rawMessages;
+
+    @Setup
+    public void setUp() {
+        final Configuration configuration = new Configuration(Map.of(
+                SyslogCodec.CK_STORE_FULL_MESSAGE, true,
+                SyslogCodec.CK_EXPAND_STRUCTURED_DATA, true
+        ));
+        codec = new SyslogCodec(configuration, new MetricRegistry(), new BenchmarkMessageFactory());
+        final InetSocketAddress remoteAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), 514);
+        rawMessages = Corpus.payloads(Corpus.SYSLOG).stream()
+                .map(payload -> new RawMessage(payload, remoteAddress))
+                .toList();
+        if (rawMessages.size() != CORPUS_SIZE) {
+            throw new IllegalStateException("Expected " + CORPUS_SIZE + " syslog messages in corpus but got " + rawMessages.size());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void decode(Blackhole blackhole) {
+        for (RawMessage rawMessage : rawMessages) {
+            blackhole.consume(codec.decodeSafe(rawMessage));
+        }
+    }
+}
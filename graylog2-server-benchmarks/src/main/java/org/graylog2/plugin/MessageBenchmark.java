@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.graylog2.benchmarks.Fixtures;
+import org.graylog2.indexer.messages.SerializationContext;
+import org.graylog2.plugin.streams.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts the decoded GELF corpus into the document representation that is sent to the indexer, with and without
+ * the final JSON serialization step. {@code serialize} streams the document without the intermediate map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBenchmark {
+    private static final int CORPUS_SIZE = 16;
+
+    private ObjectMapper objectMapper;
+    private Meter invalidTimestampMeter;
+    private List<Message> messages;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Fixtures.objectMapper();
+        invalidTimestampMeter = new Meter();
+
+        final List<Stream> streams = Fixtures.streams(1).subList(0, 3);
+        messages = Fixtures.gelfMessages();
+        messages.forEach(message -> message.addStreams(streams));
+        if (messages.size() != CORPUS_SIZE) {
+            throw new IllegalStateException("Expected " + CORPUS_SIZE + " GELF messages in corpus but got " + messages.size());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void toElasticSearchObject(Blackhole blackhole) {
+        for (Message message : messages) {
+            blackhole.consume(message.toElasticSearchObject(objectMapper, invalidTimestampMeter));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void toElasticSearchObjectSerialized(Blackhole blackhole) throws JsonProcessingException {
+        for (Message message : messages) {
+            blackhole.consume(objectMapper.writeValueAsBytes(message.toElasticSearchObject(objectMapper, invalidTimestampMeter)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void serialize(Blackhole blackhole) throws IOException {
+        for (Message message : messages) {
+            blackhole.consume(message.serialize(SerializationContext.of(objectMapper, invalidTimestampMeter)));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import org.graylog2.benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills the field storage of a message with the fields of the decoded GELF corpus, comparing {@link MessageFields}
+ * with the {@link HashMap} it replaced. The storage is kept alive until it has been filled, so the allocation rate
+ * reported by {@code -prof gc} ({@code gc.alloc.rate.norm}) is the heap used for the fields of one message. The field
+ * names are copied for every message, like a codec creates them when parsing the payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageFieldsBenchmark {
+    private static final int CORPUS_SIZE = 16;
+
+    private List<Map<String, Object>> corpusFields;
+
+    @Setup
+    public void setUp() {
+        corpusFields = new ArrayList<>(CORPUS_SIZE);
+        for (Message message : Fixtures.gelfMessages()) {
+            corpusFields.add(message.getFields());
+        }
+        if (corpusFields.size() != CORPUS_SIZE) {
+            throw new IllegalStateException("Expected " + CORPUS_SIZE + " GELF messages in corpus but got " + corpusFields.size());
+        }
+    }
+
+    private static Map<String, Object> fill(Map<String, Object> target, Map<String, Object> source) {
+        for (Map.Entry<String, Object> field : source.entrySet()) {
+            target.put(new String(field.getKey()), field.getValue());
+        }
+        return target;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void hashMap(Blackhole blackhole) {
+        for (Map<String, Object> fields : corpusFields) {
+            blackhole.consume(fill(new HashMap<>(), fields));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void messageFields(Blackhole blackhole) {
+        for (Map<String, Object> fields : corpusFields) {
+            blackhole.consume(fill(new MessageFields(), fields));
+        }
+    }
+}
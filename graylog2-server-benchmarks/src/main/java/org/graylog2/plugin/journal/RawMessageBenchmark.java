@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin.journal;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.graylog2.benchmarks.Corpus;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.system.SimpleNodeId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes the GELF corpus as {@link RawMessage} journal entries, the format that is written to and read
+ * from the message journal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RawMessageBenchmark {
+    private static final int CORPUS_SIZE = 16;
+
+    private List<RawMessage> rawMessages;
+    private List<byte[]> encoded;
+    private final PooledByteBufAllocator allocator = new PooledByteBufAllocator(true);
+
+    @Setup
+    public void setUp() {
+        final InetSocketAddress remoteAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), 12201);
+        final Configuration codecConfig = new Configuration(Map.of("decompress_size_limit", 8388608));
+        final SimpleNodeId nodeId = new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000");
+
+        rawMessages = Corpus.payloads(Corpus.GELF).stream()
+                .map(payload -> {
+                    final RawMessage rawMessage = new RawMessage(payload, remoteAddress);
+                    rawMessage.setCodecName("gelf");
+                    rawMessage.setCodecConfig(codecConfig);
+                    rawMessage.addSourceNode("65f2a6b1c9e77c3f1a2b3c4d", nodeId);
+                    return rawMessage;
+                })
+                .toList();
+        encoded = rawMessages.stream().map(RawMessage::encode).toList();
+        if (rawMessages.size() != CORPUS_SIZE) {
+            throw new IllegalStateException("Expected " + CORPUS_SIZE + " GELF messages in corpus but got " + rawMessages.size());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void encode(Blackhole blackhole) {
+        for (RawMessage rawMessage : rawMessages) {
+            blackhole.consume(rawMessage.encode());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void encodePooled(Blackhole blackhole) {
+        for (RawMessage rawMessage : rawMessages) {
+            final ByteBuf buffer = rawMessage.encode(allocator);
+            blackhole.consume(buffer);
+            buffer.release();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void decode(Blackhole blackhole) {
+        long offset = 0;
+        for (byte[] bytes : encoded) {
+            blackhole.consume(RawMessage.decode(bytes, offset++));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void decodePayload(Blackhole blackhole) {
+        long offset = 0;
+        for (byte[] bytes : encoded) {
+            blackhole.consume(RawMessage.decode(bytes, offset++).getPayload());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void decodeBuffer(Blackhole blackhole) {
+        long offset = 0;
+        for (byte[] bytes : encoded) {
+            blackhole.consume(RawMessage.decode(ByteBuffer.wrap(bytes), offset++));
+        }
+    }
+}
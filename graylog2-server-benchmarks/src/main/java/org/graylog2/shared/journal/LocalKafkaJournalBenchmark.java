@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
+import org.graylog2.Configuration;
+import org.graylog2.audit.NullAuditEventSender;
+import org.graylog2.benchmarks.Corpus;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.system.SimpleNodeId;
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Writes and reads batches of encoded GELF {@link RawMessage}s to and from a {@link LocalKafkaJournal} in a temporary
+ * directory below {@code java.io.tmpdir}.
+ * <p>
+ * The journal retention is limited to 512 MB and enforced after every iteration, so a run needs a few GB of free
+ * disk space at most. Results are reported per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalKafkaJournalBenchmark {
+    private static final int CORPUS_SIZE = 16;
+    private static final int PREFILLED_BATCHES = 10_000;
+
+    private Path journalDirectory;
+    private ScheduledExecutorService scheduler;
+    private LocalKafkaJournal journal;
+    private List<Journal.Entry> entries;
+    private long readOffset;
+
+    @Setup
+    public void setUp() throws IOException, TimeoutException {
+        journalDirectory = Files.createTempDirectory(Path.of(System.getProperty("java.io.tmpdir")), "journal-benchmark");
+        scheduler = Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder()
+                .setNameFormat("journal-benchmark-%d")
+                .setDaemon(true)
+                .build());
+
+        final Configuration configuration = new Configuration();
+        final ServerStatus serverStatus = new ServerStatus(configuration, EnumSet.of(ServerStatus.Capability.SERVER),
+                new EventBus("journal-benchmark"), NullAuditEventSender::new,
+                new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"));
+
+        journal = new LocalKafkaJournal(journalDirectory,
+                scheduler,
+                Size.megabytes(64L),
+                Duration.standardHours(1L),
+                Size.megabytes(512L),
+                Duration.standardHours(1L),
+                1_000_000,
+                Duration.standardMinutes(1L),
+                -1,
+                new MetricRegistry(),
+                serverStatus);
+        journal.startAsync().awaitRunning(30, TimeUnit.SECONDS);
+
+        entries = Corpus.payloads(Corpus.GELF).stream()
+                .map(payload -> {
+                    final RawMessage rawMessage = new RawMessage(payload);
+                    rawMessage.setCodecName("gelf");
+                    rawMessage.setCodecConfig(new org.graylog2.plugin.configuration.Configuration(null));
+                    return journal.createEntry(rawMessage.getIdBytes(), rawMessage.encode());
+                })
+                .toList();
+        if (entries.size() != CORPUS_SIZE) {
+            throw new IllegalStateException("Expected " + CORPUS_SIZE + " GELF messages in corpus but got " + entries.size());
+        }
+
+        for (int i = 0; i < PREFILLED_BATCHES; i++) {
+            journal.write(entries);
+        }
+        journal.flush();
+        readOffset = journal.getLogStartOffset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void runRetention() {
+        journal.markJournalOffsetCommitted(journal.getLogEndOffset() - 1);
+        journal.runRetention();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, TimeoutException {
+        journal.stopAsync().awaitTerminated(30, TimeUnit.SECONDS);
+        scheduler.shutdownNow();
+        FileUtils.deleteDirectory(journalDirectory.toFile());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public long write() {
+        return journal.write(entries);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public List<Journal.JournalReadEntry> read() {
+        final List<Journal.JournalReadEntry> read = journal.read(readOffset, CORPUS_SIZE);
+        readOffset += CORPUS_SIZE;
+        if (readOffset >= journal.getLogEndOffset()) {
+            readOffset = journal.getLogStartOffset();
+        }
+        return read;
+    }
+}
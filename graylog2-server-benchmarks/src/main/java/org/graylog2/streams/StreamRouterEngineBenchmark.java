@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog2.Configuration;
+import org.graylog2.benchmarks.Fixtures;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes the decoded GELF corpus through a {@link StreamRouterEngine}. The stream fixtures are repeated
+ * {@link #copies} times: 50 copies correspond to 900 streams with 1700 rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamRouterEngineBenchmark {
+    private static final int CORPUS_SIZE = 16;
+
+    @Param({"1", "10", "50"})
+    public int copies;
+
+    private ExecutorService executorService;
+    private StreamRouterEngine engine;
+    private List<Message> messages;
+
+    @Setup
+    public void setUp() {
+        executorService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("stream-router-benchmark-%d")
+                .setDaemon(true)
+                .build());
+
+        final StreamMetrics streamMetrics = new StreamMetrics(new MetricRegistry());
+        final StreamFaultManager streamFaultManager = new StreamFaultManager(new Configuration(), streamMetrics, null, null);
+        final Stream defaultStream = Fixtures.defaultStream();
+
+        engine = new StreamRouterEngine(Fixtures.streams(copies), executorService, streamFaultManager, streamMetrics,
+                () -> defaultStream, new MetricRegistry());
+        messages = Fixtures.gelfMessages();
+        if (messages.size() != CORPUS_SIZE) {
+            throw new IllegalStateException("Expected " + CORPUS_SIZE + " GELF messages in corpus but got " + messages.size());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void match(Blackhole blackhole) {
+        for (Message message : messages) {
+            blackhole.consume(engine.match(message));
+        }
+    }
+}
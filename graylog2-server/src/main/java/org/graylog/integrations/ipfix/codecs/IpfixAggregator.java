@@ -19,8 +19,9 @@ package org.graylog.integrations.ipfix.codecs;
 import com.github.joschi.jadconfig.util.Size;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
-import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
@@ -41,20 +42,30 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
 
 public class IpfixAggregator implements RemoteAddressCodecAggregator {
     private static final Logger LOG = LoggerFactory.getLogger(IpfixAggregator.class);
     private final Cache<TemplateKey, ShallowTemplateSet.Record> templateCache;
     private final Cache<TemplateKey, Queue<ShallowDataSet>> packetCache;
+    // the ids of the cached templates per exporter, to avoid scanning the whole template cache for every packet
+    private final ConcurrentMap<TemplateKey, Set<Integer>> templateIdsByExporter = new ConcurrentHashMap<>();
     private final IpfixParser shallowParser = new IpfixParser(InformationElementDefinitions.empty());
 
     public IpfixAggregator() {
         this.templateCache = CacheBuilder.newBuilder()
                                          .maximumSize(5000)
-                                         .removalListener(notification -> LOG.debug("Removed [{}] from template cache for reason [{}]", notification.getKey(), notification.getCause()))
+                                         .removalListener((RemovalListener<TemplateKey, ShallowTemplateSet.Record>) notification -> {
+                                             LOG.debug("Removed [{}] from template cache for reason [{}]", notification.getKey(), notification.getCause());
+                                             if (notification.getCause() != RemovalCause.REPLACED) {
+                                                 removeTemplateId(notification.getKey());
+                                             }
+                                         })
                                          .recordStats()
                                          .build();
         this.packetCache = CacheBuilder.newBuilder()
@@ -86,16 +97,19 @@ public class IpfixAggregator implements RemoteAddressCodecAggregator {
 
             if (!messageDescription.declaredTemplateIds().isEmpty()) {
                 // if we have new templates, look for buffered data records that we have all the templates for now
-                final Set<Integer> knownTemplateIdsList = new HashSet<>();
-                collectAllTemplateIds(remoteAddress, observationDomainId, knownTemplateIdsList);
-
                 final Queue<ShallowDataSet> bufferedPackets = packetCache.getIfPresent(TemplateKey.idForExporter(remoteAddress, observationDomainId));
-                handleBufferedPackets(packetsToSendCollection, bufferedTemplateIdList, knownTemplateIdsList, bufferedPackets);
+                handleBufferedPackets(packetsToSendCollection, bufferedTemplateIdList,
+                        templateId -> templateCache.getIfPresent(new TemplateKey(remoteAddress, observationDomainId, templateId)) != null,
+                        bufferedPackets);
             }
             boolean packetBuffered = false;
 
-            // the list of template keys to return in the result ( TODO this copies all of the templates all the time :( )
-            final Set<TemplateKey> templatesList = new HashSet<>(templateCache.asMap().keySet());
+            // the list of template keys to return in the result: all templates of this exporter, because data records
+            // can reference further templates in their subTemplateLists
+            final Set<TemplateKey> templatesList = new HashSet<>();
+            for (int templateId : templateIdsByExporter.getOrDefault(TemplateKey.idForExporter(remoteAddress, observationDomainId), Set.of())) {
+                templatesList.add(new TemplateKey(remoteAddress, observationDomainId, templateId));
+            }
 
             bufferedTemplateIdList.addAll(messageDescription.referencedTemplateIds());
             LOG.debug("Finding the needed templates for the buffered and current packets");
@@ -148,9 +162,11 @@ public class IpfixAggregator implements RemoteAddressCodecAggregator {
         LOG.debug("Assembling the packet with necessary templates and data records which include the templates needed.");
         for (TemplateKey templateKey : templatesList) {
             final ShallowTemplateSet.Record record = templateCache.getIfPresent(templateKey);
-            journalBuilder.putTemplates(templateKey.getTemplateId(), ByteString.copyFrom(record.getRecordBytes()));
+            journalBuilder.putTemplates(templateKey.getTemplateId(), UnsafeByteOperations.unsafeWrap(record.getRecordBytes()));
         }
 
+        // the template and data set bytes are never modified after parsing, so they are wrapped instead of copied
+
         // TODO write out options template sets, too
 
         // in IPFIX a data set contains records for the same template id, so we can just dump the entire set and don't
@@ -160,7 +176,7 @@ public class IpfixAggregator implements RemoteAddressCodecAggregator {
             journalBuilder.addDataSets(IpfixJournal.DataSet.newBuilder()
                                                            .setTemplateId(dataSet.templateId())
                                                            .setTimestampEpochSeconds(dataSet.epochSeconds())
-                                                           .setDataRecords(ByteString.copyFrom(dataSet.content()))
+                                                           .setDataRecords(UnsafeByteOperations.unsafeWrap(dataSet.content()))
                                                            .build());
         }
     }
@@ -171,7 +187,7 @@ public class IpfixAggregator implements RemoteAddressCodecAggregator {
     }
 
     public void handleBufferedPackets(Set<ShallowDataSet> packetsToSendCollection, Set<Integer> bufferedTemplateIdList,
-                                      Set<Integer> knownTemplateIdsList, Queue<ShallowDataSet> bufferedPackets) {
+                                      IntPredicate knownTemplateId, Queue<ShallowDataSet> bufferedPackets) {
         if (bufferedPackets != null) {
             LOG.debug("Buffered packets detected in the packet cache.");
             final List<ShallowDataSet> tempQueue = new ArrayList<>(bufferedPackets.size());
@@ -179,7 +195,7 @@ public class IpfixAggregator implements RemoteAddressCodecAggregator {
             int addedPackets = 0;
             while (null != (previousPacket = bufferedPackets.poll())) {
                 // are all templates the packet references there?
-                if (knownTemplateIdsList.contains(previousPacket.templateId())) {
+                if (knownTemplateId.test(previousPacket.templateId())) {
                     LOG.debug("Packet contains template id from a known template, adding to packets to send set.");
                     packetsToSendCollection.add(previousPacket);
                     bufferedTemplateIdList.add(previousPacket.templateId());
@@ -198,16 +214,6 @@ public class IpfixAggregator implements RemoteAddressCodecAggregator {
         }
     }
 
-    public void collectAllTemplateIds(@Nullable SocketAddress remoteAddress, long observationDomainId, Set<Integer> knownTemplateIdsList) {
-        LOG.debug("Collecting all templateIds from templateKeys stored in templateCache.");
-        for (TemplateKey templateKey : templateCache.asMap().keySet()) {
-            if (templateKey.getRemoteAddress() == remoteAddress && templateKey.getObservationDomainId() == observationDomainId) {
-                final Integer templateId = templateKey.getTemplateId();
-                knownTemplateIdsList.add(templateId);
-            }
-        }
-    }
-
     public void addTemplateKeyInCache(@Nullable SocketAddress remoteAddress, IpfixParser.MessageDescription messageDescription, long observationDomainId) {
         for (Integer templateId : messageDescription.declaredTemplateIds()) {
             final TemplateKey templateKey = new TemplateKey(remoteAddress, observationDomainId, templateId);
@@ -215,7 +221,17 @@ public class IpfixAggregator implements RemoteAddressCodecAggregator {
                       "template ID [{}].", templateKey.getRemoteAddress(), templateKey.getObservationDomainId(), templateKey.getTemplateId());
 
             templateCache.put(templateKey, messageDescription.getTemplateRecord(templateId));
+            templateIdsByExporter.computeIfAbsent(TemplateKey.idForExporter(remoteAddress, observationDomainId), key -> ConcurrentHashMap.newKeySet())
+                    .add(templateId);
             LOG.debug("Saving templates key (raw bytes) in template cache to combine in new message later.");
         }
     }
+
+    private void removeTemplateId(TemplateKey templateKey) {
+        templateIdsByExporter.computeIfPresent(TemplateKey.idForExporter(templateKey.getRemoteAddress(), templateKey.getObservationDomainId()),
+                (exporter, templateIds) -> {
+                    templateIds.remove(templateKey.getTemplateId());
+                    return templateIds.isEmpty() ? null : templateIds;
+                });
+    }
 }
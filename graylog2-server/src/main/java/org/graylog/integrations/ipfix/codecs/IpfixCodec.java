@@ -17,10 +17,13 @@
 package org.graylog.integrations.ipfix.codecs;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Resources;
 import com.google.inject.assistedinject.Assisted;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import io.netty.buffer.Unpooled;
 import jakarta.inject.Inject;
 import org.graylog.integrations.ipfix.Flow;
@@ -85,6 +88,10 @@ public class IpfixCodec extends AbstractCodec implements MultiMessageCodec {
     private final IpfixAggregator ipfixAggregator;
     private final MessageFactory messageFactory;
     private final IpfixParser parser;
+    // Every journal entry carries the templates of its data sets, parse each distinct template only once
+    private final Cache<ByteString, TemplateRecord> templateRecords = CacheBuilder.newBuilder()
+            .maximumSize(5000)
+            .build();
     private InformationElementDefinitions infoElementDefs;
 
     @Inject
@@ -191,11 +198,14 @@ public class IpfixCodec extends AbstractCodec implements MultiMessageCodec {
         final ResolvableInetSocketAddress remoteAddress = rawMessage.getRemoteAddress();
         final InetSocketAddress sender = remoteAddress != null ? remoteAddress.getInetSocketAddress() : null;
         try {
-            final IpfixJournal.RawIpfix rawIpfix = IpfixJournal.RawIpfix.parseFrom(rawMessage.getPayload());
+            // the templates and data sets of the journal entry share the payload array instead of copying it
+            final CodedInputStream input = CodedInputStream.newInstance(rawMessage.getPayload());
+            input.enableAliasing(true);
+            final IpfixJournal.RawIpfix rawIpfix = IpfixJournal.RawIpfix.parseFrom(input);
             final Map<Integer, ByteString> templatesMap = rawIpfix.getTemplatesMap();
 
             final Map<Integer, TemplateRecord> templateRecordMap = Seq.seq(templatesMap)
-                    .map(entry -> entry.map2(byteString -> parser.parseTemplateRecord(Unpooled.wrappedBuffer(byteString.toByteArray()))))
+                    .map(entry -> entry.map2(this::templateRecord))
                     .toMap(Tuple2::v1, Tuple2::v2);
 
             return rawIpfix.getDataSetsList().stream()
@@ -207,7 +217,7 @@ public class IpfixCodec extends AbstractCodec implements MultiMessageCodec {
                             throw new IpfixException("Missing required template in journal entry for data records: template id " + templateId);
                         }
                         final Set<Flow> flows = parser.parseDataSet(templateRecord.informationElements(), templateRecordMap,
-                                Unpooled.wrappedBuffer(dataSet.getDataRecords().toByteArray()));
+                                Unpooled.wrappedBuffer(dataSet.getDataRecords().asReadOnlyByteBuffer()));
                         return flows.stream()
                                 .map(flow -> formatFlow(flowExportTimestamp, sender, flow));
                     })
@@ -217,6 +227,16 @@ public class IpfixCodec extends AbstractCodec implements MultiMessageCodec {
         }
     }
 
+    private TemplateRecord templateRecord(ByteString templateBytes) {
+        TemplateRecord templateRecord = templateRecords.getIfPresent(templateBytes);
+        if (templateRecord == null) {
+            templateRecord = parser.parseTemplateRecord(Unpooled.wrappedBuffer(templateBytes.asReadOnlyByteBuffer()));
+            // copy the key, the aliased bytes would keep the whole journal entry alive
+            templateRecords.put(ByteString.copyFrom(templateBytes.asReadOnlyByteBuffer()), templateRecord);
+        }
+        return templateRecord;
+    }
+
     private Message formatFlow(ZonedDateTime flowExportTimestamp, InetSocketAddress sender, Flow flow) {
         final ImmutableMap<String, Object> fields = flow.fields();
         final DateTime timestamp = new DateTime(Date.from(flowExportTimestamp.toInstant()));
@@ -71,7 +71,10 @@ public class TemplateKey {
 
     @Override
     public int hashCode() {
-        return Objects.hash(remoteAddress, observationDomainId, templateId);
+        // computed for every cache lookup, avoid the varargs array and boxing of Objects.hash()
+        int result = Objects.hashCode(remoteAddress);
+        result = 31 * result + Long.hashCode(observationDomainId);
+        return 31 * result + templateId;
     }
 
     @Override
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.beats;
+
+import java.util.List;
+
+/**
+ * The events decoded from the data which arrived on a Beats connection in one go.
+ *
+ * @param events the raw events in the order they were sent
+ * @param acks   the sequence numbers to acknowledge once all events of this and all earlier batches are journaled,
+ *               one for each window which has been completed by this batch
+ */
+record BeatsBatch(List<byte[]> events, List<Long> acks) {
+}
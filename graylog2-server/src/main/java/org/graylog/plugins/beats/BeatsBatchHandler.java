@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.beats;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import org.graylog2.plugin.buffers.InputBuffer;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.journal.RawMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the events of each {@link BeatsBatch} to the input buffer at once and acknowledges completed windows to the
+ * sender once all their events have been journaled.
+ * <p>
+ * Acknowledging only journaled events means that nothing is lost if the node goes down, and because the sender
+ * can pipeline windows, waiting for the journal doesn't cost throughput. Acknowledgements are always sent in order.
+ * If an event can't be journaled, the connection is closed, so that the sender retransmits all unacknowledged windows.
+ */
+public class BeatsBatchHandler extends SimpleChannelInboundHandler<BeatsBatch> {
+    private static final Logger LOG = LoggerFactory.getLogger(BeatsBatchHandler.class);
+
+    private final MessageInput input;
+    // Only accessed from the event loop
+    private final Queue<PendingBatch> pendingBatches = new ArrayDeque<>();
+
+    public BeatsBatchHandler(MessageInput input) {
+        this.input = input;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, BeatsBatch batch) {
+        final PendingBatch pending = new PendingBatch(ctx, batch.acks(), batch.events().size());
+        pendingBatches.add(pending);
+        if (batch.events().isEmpty()) {
+            sendAcks(ctx);
+            return;
+        }
+
+        final InetSocketAddress remoteAddress = ctx.channel().remoteAddress() instanceof InetSocketAddress address ? address : null;
+        final List<RawMessage> rawMessages = new ArrayList<>(batch.events().size());
+        for (byte[] event : batch.events()) {
+            rawMessages.add(new RawMessage(event, remoteAddress));
+        }
+        input.processRawMessages(rawMessages, pending);
+    }
+
+    private void sendAcks(ChannelHandlerContext ctx) {
+        boolean written = false;
+        while (!pendingBatches.isEmpty() && pendingBatches.peek().remaining.get() == 0) {
+            for (long sequenceNum : pendingBatches.poll().acks) {
+                LOG.trace("Sending ACK for sequence number {} on channel {}", sequenceNum, ctx.channel());
+                ctx.write(ackFrame(ctx.alloc(), sequenceNum));
+                written = true;
+            }
+        }
+        if (written) {
+            ctx.flush();
+        }
+    }
+
+    /**
+     * @see <a href="https://github.com/logstash-plugins/logstash-input-beats/blob/master/PROTOCOL.md#ack-frame-type">'ack' frame type</a>
+     */
+    static ByteBuf ackFrame(ByteBufAllocator alloc, long sequenceNum) {
+        final ByteBuf buffer = alloc.buffer(6);
+        buffer.writeByte(BeatsFrameDecoder.PROTOCOL_VERSION);
+        buffer.writeByte(BeatsFrameDecoder.FRAME_ACK);
+        buffer.writeInt((int) sequenceNum);
+        return buffer;
+    }
+
+    private class PendingBatch implements InputBuffer.InsertCallback {
+        private final ChannelHandlerContext ctx;
+        private final List<Long> acks;
+        private final AtomicInteger remaining;
+        private final AtomicBoolean failed = new AtomicBoolean(false);
+
+        PendingBatch(ChannelHandlerContext ctx, List<Long> acks, int events) {
+            this.ctx = ctx;
+            this.acks = acks;
+            this.remaining = new AtomicInteger(events);
+        }
+
+        /**
+         * Called from the input buffer threads once for every journaled event.
+         */
+        @Override
+        public void journaled() {
+            if (remaining.decrementAndGet() == 0) {
+                ctx.executor().execute(() -> sendAcks(ctx));
+            }
+        }
+
+        /**
+         * Called from the input buffer threads for every event which couldn't be journaled. The batch is never
+         * acknowledged.
+         */
+        @Override
+        public void failed(Throwable cause) {
+            if (failed.compareAndSet(false, true)) {
+                LOG.warn("Couldn't journal events received on channel {}, closing it: {}", ctx.channel(), cause.toString());
+                ctx.executor().execute(ctx::close);
+            }
+        }
+    }
+}
@@ -19,218 +19,228 @@ package org.graylog.plugins.beats;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.io.ByteStreams;
-import com.google.common.primitives.Ints;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
-import io.netty.channel.Channel;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.concurrent.FastThreadLocal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * FrameDecoder for the Beats/Lumberjack protocol.
+ * <p>
+ * Only complete frames are decoded, everything which is available at once is passed on as a single {@link BeatsBatch}
+ * including the events of compressed frames. Acknowledging the events is left to the {@link BeatsBatchHandler}, which
+ * does so once they have been journaled.
  *
  * @see <a href="https://github.com/logstash-plugins/logstash-input-beats/blob/master/PROTOCOL.md">Lumberjack protocol</a>
  */
-public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.DecodingState> {
+public class BeatsFrameDecoder extends ByteToMessageDecoder {
     private static final Logger LOG = LoggerFactory.getLogger(BeatsFrameDecoder.class);
 
-    private static final byte PROTOCOL_VERSION = '2';
-    private static final byte FRAME_ACK = 'A';
+    static final byte PROTOCOL_VERSION = '2';
+    static final byte FRAME_ACK = 'A';
     private static final byte FRAME_COMPRESSED = 'C';
     private static final byte FRAME_DATA = 'D';
     private static final byte FRAME_JSON = 'J';
     private static final byte FRAME_WINDOW_SIZE = 'W';
 
-    enum DecodingState {
-        PROTOCOL_VERSION,
-        FRAME_TYPE,
-        FRAME_COMPRESSED,
-        FRAME_DATA,
-        FRAME_JSON,
-        FRAME_WINDOW_SIZE
-    }
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // Decoding happens on the event loop threads, so an inflater per thread is enough for any number of connections.
+    private static final FastThreadLocal<Inflater> INFLATER = new FastThreadLocal<>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+
+        @Override
+        protected void onRemoval(Inflater inflater) {
+            inflater.end();
+        }
+    };
 
     private long windowSize;
     private long sequenceNum;
 
-    public BeatsFrameDecoder() {
-        super(DecodingState.PROTOCOL_VERSION);
-    }
-
     @Override
-    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf buffer, List<Object> list) throws Exception {
-        switch (state()) {
-            case PROTOCOL_VERSION:
-                checkVersion(buffer);
-                checkpoint(DecodingState.FRAME_TYPE);
-                // fall through
-            case FRAME_TYPE:
-                final byte frameType = buffer.readByte();
-                switch (frameType) {
-                    case FRAME_WINDOW_SIZE:
-                        checkpoint(DecodingState.FRAME_WINDOW_SIZE);
-                        break;
-                    case FRAME_DATA:
-                        checkpoint(DecodingState.FRAME_DATA);
-                        break;
-                    case FRAME_COMPRESSED:
-                        checkpoint(DecodingState.FRAME_COMPRESSED);
-                        break;
-                    case FRAME_JSON:
-                        checkpoint(DecodingState.FRAME_JSON);
-                        break;
-                    default:
-                        throw new Exception("Unknown frame type: " + frameType);
-                }
-                return;
-            case FRAME_WINDOW_SIZE:
-                processWindowSizeFrame(buffer);
-                break;
-            case FRAME_DATA:
-                list.addAll(parseDataFrame(channelHandlerContext.channel(), buffer));
-                break;
-            case FRAME_COMPRESSED:
-                list.addAll(processCompressedFrame(channelHandlerContext.channel(), buffer));
-                break;
-            case FRAME_JSON:
-                list.addAll(parseJsonFrame(channelHandlerContext.channel(), buffer));
-                break;
-            default:
-                throw new Exception("Unknown decoding state: " + state());
+    protected void decode(ChannelHandlerContext ctx, ByteBuf buffer, List<Object> out) throws Exception {
+        final List<byte[]> events = new ArrayList<>();
+        final List<Long> acks = new ArrayList<>();
+        while (decodeFrame(ctx, buffer, events, acks)) {
+            // keep going until there is no complete frame left
         }
 
-        checkpoint(DecodingState.PROTOCOL_VERSION);
+        if (!events.isEmpty() || !acks.isEmpty()) {
+            out.add(new BeatsBatch(events, acks));
+        }
     }
 
-    private Collection<ByteBuf> processUncompressedBuffer(Channel channel, ByteBuf buffer) throws Exception {
-        checkVersion(buffer);
-        byte frameType = buffer.readByte();
+    /**
+     * @return {@code false} if the buffer doesn't contain a complete frame
+     */
+    private boolean decodeFrame(ChannelHandlerContext ctx, ByteBuf buffer, List<byte[]> events, List<Long> acks) throws Exception {
+        if (buffer.readableBytes() < 2) {
+            return false;
+        }
+        final int start = buffer.readerIndex();
+        checkVersion(buffer.getByte(start));
+        final byte frameType = buffer.getByte(start + 1);
+        final long frameLength = frameLength(buffer, start, frameType);
+        if (frameLength < 0 || buffer.readableBytes() < frameLength) {
+            return false;
+        }
 
+        final ByteBuf frame = buffer.readSlice((int) frameLength).skipBytes(2);
         switch (frameType) {
-            case FRAME_WINDOW_SIZE:
-                processWindowSizeFrame(buffer);
-                return Collections.emptyList();
-            case FRAME_DATA:
-                return parseDataFrame(channel, buffer);
-            case FRAME_COMPRESSED:
-                return processCompressedFrame(channel, buffer);
-            case FRAME_JSON:
-                return parseJsonFrame(channel, buffer);
-            default:
-                throw new Exception("Unknown frame type: " + frameType);
+            case FRAME_WINDOW_SIZE -> processWindowSizeFrame(frame);
+            case FRAME_DATA -> addEvent(parseDataFrame(frame), events, acks);
+            case FRAME_JSON -> addEvent(parseJsonFrame(frame), events, acks);
+            case FRAME_COMPRESSED -> processCompressedFrame(ctx, frame, events, acks);
+            default -> throw new CorruptedFrameException("Unknown frame type: " + frameType);
+        }
+        return true;
+    }
+
+    /**
+     * @return the length of the frame starting at the given index, or {@code -1} if the header isn't complete yet
+     */
+    private long frameLength(ByteBuf buffer, int start, byte frameType) {
+        final long length = switch (frameType) {
+            case FRAME_WINDOW_SIZE -> 6;
+            case FRAME_JSON -> buffer.readableBytes() < 10 ? -1 : 10 + buffer.getUnsignedInt(start + 6);
+            case FRAME_COMPRESSED -> buffer.readableBytes() < 6 ? -1 : 6 + buffer.getUnsignedInt(start + 2);
+            case FRAME_DATA -> dataFrameLength(buffer, start);
+            default -> throw new CorruptedFrameException("Unknown frame type: " + frameType);
+        };
+        if (length > Integer.MAX_VALUE) {
+            throw new TooLongFrameException("Frame too long: " + length);
         }
+        return length;
     }
 
-    private void checkVersion(ByteBuf channelBuffer) {
-        byte version = channelBuffer.readByte();
+    private long dataFrameLength(ByteBuf buffer, int start) {
+        if (buffer.readableBytes() < 10) {
+            return -1;
+        }
+        final long items = 2 * buffer.getUnsignedInt(start + 6);
+        long offset = start + 10;
+        for (long i = 0; i < items; i++) {
+            if (offset + 4 > buffer.writerIndex()) {
+                return -1;
+            }
+            offset += 4 + buffer.getUnsignedInt((int) offset);
+        }
+        return offset - start;
+    }
+
+    private void checkVersion(byte version) {
         if (version != PROTOCOL_VERSION) {
             throw new IllegalStateException("Unknown beats protocol version: " + version);
         }
     }
 
-    /**
-     * @see <a href="https://github.com/logstash-plugins/logstash-input-beats/blob/master/PROTOCOL.md#ack-frame-type">'ack' frame type</a>
-     */
-    private void sendACK(Channel channel) throws IOException {
+    private void addEvent(byte[] event, List<byte[]> events, List<Long> acks) {
+        events.add(event);
         if (sequenceNum == windowSize) {
-            final ByteBuf buffer = channel.alloc().buffer(6);
-            buffer.writeByte(PROTOCOL_VERSION);
-            buffer.writeByte(FRAME_ACK);
-            buffer.writeInt((int) sequenceNum);
-
-            LOG.trace("Sending ACK for sequence number {} on channel {}", sequenceNum, channel);
-            channel.writeAndFlush(buffer);
+            acks.add(sequenceNum);
         }
     }
 
     /**
      * <a href="https://github.com/logstash-plugins/logstash-input-beats/blob/master/PROTOCOL.md#json-frame-type">'json' frame type</a>
      */
-    private Collection<ByteBuf> parseJsonFrame(Channel channel, ByteBuf channelBuffer) throws IOException {
-        sequenceNum = channelBuffer.readUnsignedInt();
+    private byte[] parseJsonFrame(ByteBuf frame) {
+        sequenceNum = frame.readUnsignedInt();
         LOG.trace("Received sequence number {}", sequenceNum);
 
-        final int jsonLength = Ints.saturatedCast(channelBuffer.readUnsignedInt());
-
-        final ByteBuf buffer = channelBuffer.readBytes(jsonLength);
-        sendACK(channel);
-
-        return Collections.singleton(buffer);
+        final int jsonLength = (int) frame.readUnsignedInt();
+        return ByteBufUtil.getBytes(frame, frame.readerIndex(), jsonLength);
     }
 
     /**
      * @see <a href="https://github.com/logstash-plugins/logstash-input-beats/blob/master/PROTOCOL.md#compressed-frame-type">'compressed' frame type</a>
      */
-    private Collection<ByteBuf> processCompressedFrame(Channel channel, ByteBuf channelBuffer) throws Exception {
-        final long payloadLength = channelBuffer.readUnsignedInt();
-        final byte[] data = new byte[(int) payloadLength];
-        channelBuffer.readBytes(data);
-        try (final ByteArrayInputStream dataStream = new ByteArrayInputStream(data);
-             final InputStream in = new InflaterInputStream(dataStream)) {
-            final ByteBuf buffer = Unpooled.wrappedBuffer(ByteStreams.toByteArray(in));
-            return processCompressedDataFrames(channel, buffer);
+    private void processCompressedFrame(ChannelHandlerContext ctx, ByteBuf frame, List<byte[]> events, List<Long> acks) throws Exception {
+        final int payloadLength = (int) frame.readUnsignedInt();
+        final ByteBuf inflated = inflate(ctx, frame.readSlice(payloadLength));
+        try {
+            while (inflated.isReadable()) {
+                if (!decodeFrame(ctx, inflated, events, acks)) {
+                    throw new CorruptedFrameException("Incomplete frame in compressed payload");
+                }
+            }
+        } finally {
+            inflated.release();
         }
     }
 
-    private Collection<ByteBuf> processCompressedDataFrames(Channel channel, ByteBuf channelBuffer) throws Exception {
-        final List<ByteBuf> events = new ArrayList<>();
-        while (channelBuffer.isReadable()) {
-            final Collection<ByteBuf> buffers = processUncompressedBuffer(channel, channelBuffer);
-            events.addAll(buffers);
+    private ByteBuf inflate(ChannelHandlerContext ctx, ByteBuf compressed) throws DataFormatException {
+        final Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(compressed.nioBuffer());
+
+        final ByteBuf inflated = ctx.alloc().buffer(Math.max(256, compressed.readableBytes() * 4));
+        try {
+            while (!inflater.finished()) {
+                if (!inflated.isWritable()) {
+                    inflated.ensureWritable(inflated.capacity());
+                }
+                final int length = inflater.inflate(inflated.nioBuffer(inflated.writerIndex(), inflated.writableBytes()));
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new CorruptedFrameException("Truncated compressed payload");
+                }
+                inflated.writerIndex(inflated.writerIndex() + length);
+            }
+            return inflated;
+        } catch (Exception e) {
+            inflated.release();
+            throw e;
         }
-        return events;
     }
 
     /**
      * @see <a href="https://github.com/logstash-plugins/logstash-input-beats/blob/master/PROTOCOL.md#window-size-frame-type">'window size' frame type</a>
      */
-    private void processWindowSizeFrame(ByteBuf channelBuffer) {
-        windowSize = channelBuffer.readUnsignedInt();
+    private void processWindowSizeFrame(ByteBuf frame) {
+        windowSize = frame.readUnsignedInt();
         LOG.trace("Changed window size to {}", windowSize);
     }
 
     /**
      * @see <a href="https://github.com/logstash-plugins/logstash-input-beats/blob/master/PROTOCOL.md#data-frame-type">'data' frame type</a>
      */
-    private Collection<ByteBuf> parseDataFrame(Channel channel, ByteBuf channelBuffer) throws IOException {
-        sequenceNum = channelBuffer.readUnsignedInt();
+    private byte[] parseDataFrame(ByteBuf frame) throws IOException {
+        sequenceNum = frame.readUnsignedInt();
         LOG.trace("Received sequence number {}", sequenceNum);
 
-        final int pairs = Ints.saturatedCast(channelBuffer.readUnsignedInt());
-        final JsonFactory jsonFactory = new JsonFactory();
+        final long pairs = frame.readUnsignedInt();
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        try (final JsonGenerator jg = jsonFactory.createGenerator(outputStream)) {
+        try (final JsonGenerator jg = JSON_FACTORY.createGenerator(outputStream)) {
             jg.writeStartObject();
-            for (int i = 0; i < pairs; i++) {
-                final String key = parseDataItem(channelBuffer);
-                final String value = parseDataItem(channelBuffer);
+            for (long i = 0; i < pairs; i++) {
+                final String key = parseDataItem(frame);
+                final String value = parseDataItem(frame);
                 jg.writeStringField(key, value);
             }
             jg.writeEndObject();
         }
-
-        final ByteBuf buffer = Unpooled.wrappedBuffer(outputStream.toByteArray());
-        sendACK(channel);
-
-        return Collections.singleton(buffer);
+        return outputStream.toByteArray();
     }
 
     private String parseDataItem(ByteBuf buf) {
-        int length = Ints.saturatedCast(buf.readUnsignedInt());
+        final int length = (int) buf.readUnsignedInt();
         final ByteBuf item = buf.readSlice(length);
         return item.toString(StandardCharsets.UTF_8);
     }
@@ -54,6 +54,7 @@ public class BeatsTransport extends AbstractTcpTransport {
     protected LinkedHashMap<String, Callable<? extends ChannelHandler>> getCustomChildChannelHandlers(MessageInput input) {
         final LinkedHashMap<String, Callable<? extends ChannelHandler>> handlers = new LinkedHashMap<>(super.getCustomChildChannelHandlers(input));
         handlers.put("beats", BeatsFrameDecoder::new);
+        handlers.put("beats-batch", () -> new BeatsBatchHandler(input));
 
         return handlers;
     }
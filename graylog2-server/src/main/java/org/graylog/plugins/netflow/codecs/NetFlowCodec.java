@@ -17,8 +17,12 @@
 package org.graylog.plugins.netflow.codecs;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
 import com.google.inject.assistedinject.Assisted;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
@@ -33,7 +37,8 @@ import org.graylog.plugins.netflow.v9.NetFlowV9Journal;
 import org.graylog.plugins.netflow.v9.NetFlowV9OptionTemplate;
 import org.graylog.plugins.netflow.v9.NetFlowV9Packet;
 import org.graylog.plugins.netflow.v9.NetFlowV9Parser;
-import org.graylog.plugins.netflow.v9.NetFlowV9Record;
+import org.graylog.plugins.netflow.v9.NetFlowV9RecordLayout;
+import org.graylog.plugins.netflow.v9.NetFlowV9RecordView;
 import org.graylog.plugins.netflow.v9.NetFlowV9Template;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
@@ -60,10 +65,14 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Codec(name = "netflow", displayName = "NetFlow")
@@ -83,6 +92,10 @@ public class NetFlowCodec extends AbstractCodec implements MultiMessageCodec {
     private final NetFlowV9FieldTypeRegistry typeRegistry;
     private final NetflowV9CodecAggregator netflowV9CodecAggregator;
     private final NetFlowFormatter netFlowFormatter;
+    // Exporters repeat their templates in every journal entry, parse each distinct template only once
+    private final Cache<ByteString, NetFlowV9RecordLayout> recordLayouts = CacheBuilder.newBuilder()
+            .maximumSize(5000)
+            .build();
 
     @Inject
     protected NetFlowCodec(@Assisted Configuration configuration, NetflowV9CodecAggregator netflowV9CodecAggregator,
@@ -164,39 +177,70 @@ public class NetFlowCodec extends AbstractCodec implements MultiMessageCodec {
 
     @VisibleForTesting
     Collection<Message> decodeV9(InetSocketAddress sender, ByteBuf buffer) throws InvalidProtocolBufferException {
-        final List<NetFlowV9Packet> netFlowV9Packets = decodeV9Packets(buffer);
+        final NetFlowV9Journal.RawNetflowV9 rawNetflowV9 = parseJournalEntry(buffer);
 
-        return netFlowV9Packets.stream().map(netFlowV9Packet -> netFlowV9Packet.records().stream()
-                        .filter(record -> record instanceof NetFlowV9Record)
-                        .map(record -> netFlowFormatter.toMessage(netFlowV9Packet.header(), record, sender))
-                        .collect(Collectors.toList())
-                ).flatMap(Collection::stream)
-                .collect(Collectors.toList());
+        final Map<Integer, NetFlowV9RecordLayout> layouts = new HashMap<>();
+        rawNetflowV9.getTemplatesMap().forEach((templateId, bytes) -> layouts.put(templateId, recordLayout(bytes)));
+        final Set<Integer> optionTemplateIds = new HashSet<>();
+        rawNetflowV9.getOptionTemplateMap().values().forEach(bytes -> optionTemplateIds.add(
+                NetFlowV9Parser.parseOptionTemplate(Unpooled.wrappedBuffer(bytes.asReadOnlyByteBuffer()), typeRegistry).templateId()));
+
+        final List<Message> messages = new ArrayList<>();
+        final NetFlowV9RecordView view = new NetFlowV9RecordView();
+        for (ByteString packet : rawNetflowV9.getPacketsList()) {
+            NetFlowV9Parser.forEachRecord(Unpooled.wrappedBuffer(packet.asReadOnlyByteBuffer()), typeRegistry, layouts, optionTemplateIds,
+                    view, (header, record) -> messages.add(netFlowFormatter.toMessage(header, record, sender)));
+        }
+        return messages;
     }
 
     @VisibleForTesting
     List<NetFlowV9Packet> decodeV9Packets(ByteBuf buffer) throws InvalidProtocolBufferException {
-        byte[] v9JournalEntry = new byte[buffer.readableBytes()];
-        buffer.readBytes(v9JournalEntry);
-        final NetFlowV9Journal.RawNetflowV9 rawNetflowV9 = NetFlowV9Journal.RawNetflowV9.parseFrom(v9JournalEntry);
+        final NetFlowV9Journal.RawNetflowV9 rawNetflowV9 = parseJournalEntry(buffer);
 
         // parse all templates used in the packet
         final Map<Integer, NetFlowV9Template> templateMap = Maps.newHashMap();
         rawNetflowV9.getTemplatesMap().forEach((templateId, byteString) -> {
             final NetFlowV9Template netFlowV9Template = NetFlowV9Parser.parseTemplate(
-                    Unpooled.wrappedBuffer(byteString.toByteArray()), typeRegistry);
+                    Unpooled.wrappedBuffer(byteString.asReadOnlyByteBuffer()), typeRegistry);
             templateMap.put(templateId, netFlowV9Template);
         });
         final NetFlowV9OptionTemplate[] optionTemplate = {null};
         rawNetflowV9.getOptionTemplateMap().forEach((templateId, byteString) ->
-                optionTemplate[0] = NetFlowV9Parser.parseOptionTemplate(Unpooled.wrappedBuffer(byteString.toByteArray()), typeRegistry));
+                optionTemplate[0] = NetFlowV9Parser.parseOptionTemplate(Unpooled.wrappedBuffer(byteString.asReadOnlyByteBuffer()), typeRegistry));
 
         return rawNetflowV9.getPacketsList().stream()
-                .map(bytes -> Unpooled.wrappedBuffer(bytes.toByteArray()))
+                .map(bytes -> Unpooled.wrappedBuffer(bytes.asReadOnlyByteBuffer()))
                 .map(buf -> NetFlowV9Parser.parsePacket(buf, typeRegistry, templateMap, optionTemplate[0]))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Parses the journal entry without copying: the templates and packets in the result share the payload array.
+     */
+    private static NetFlowV9Journal.RawNetflowV9 parseJournalEntry(ByteBuf buffer) throws InvalidProtocolBufferException {
+        final CodedInputStream input;
+        if (buffer.hasArray()) {
+            input = CodedInputStream.newInstance(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), buffer.readableBytes());
+        } else {
+            input = CodedInputStream.newInstance(buffer.nioBuffer());
+        }
+        input.enableAliasing(true);
+        final NetFlowV9Journal.RawNetflowV9 rawNetflowV9 = NetFlowV9Journal.RawNetflowV9.parser().parseFrom(input);
+        buffer.skipBytes(buffer.readableBytes());
+        return rawNetflowV9;
+    }
+
+    private NetFlowV9RecordLayout recordLayout(ByteString templateBytes) {
+        NetFlowV9RecordLayout layout = recordLayouts.getIfPresent(templateBytes);
+        if (layout == null) {
+            layout = NetFlowV9RecordLayout.of(NetFlowV9Parser.parseTemplate(Unpooled.wrappedBuffer(templateBytes.asReadOnlyByteBuffer()), typeRegistry));
+            // copy the key, the aliased bytes would keep the whole journal entry alive
+            recordLayouts.put(ByteString.copyFrom(templateBytes.asReadOnlyByteBuffer()), layout);
+        }
+        return layout;
+    }
+
     @FactoryClass
     public interface Factory extends AbstractCodec.Factory<NetFlowCodec> {
         @Override
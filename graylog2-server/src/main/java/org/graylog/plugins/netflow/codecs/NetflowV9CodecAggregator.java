@@ -21,6 +21,8 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UnsafeByteOperations;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
@@ -141,14 +143,6 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
 
             // if we have new templates, figure out which buffered packets template requirements are now satisfied
             if (!rawNetFlowV9Packet.templates().isEmpty() || rawNetFlowV9Packet.optionTemplate() != null) {
-                final Set<Integer> knownTemplateIds = new HashSet<>();
-                for (TemplateKey templateKey : templateCache.asMap().keySet()) {
-                    if (templateKey.getRemoteAddress() == remoteAddress && templateKey.getSourceId() == sourceId) {
-                        final Integer templateId = templateKey.getTemplateId();
-                        knownTemplateIds.add(templateId);
-                    }
-                }
-
                 final Queue<PacketBytes> bufferedPackets = packetCache.getIfPresent(TemplateKey.idForExporter(remoteAddress, sourceId));
                 if (bufferedPackets != null) {
                     final List<PacketBytes> tempQueue = new ArrayList<>(bufferedPackets.size());
@@ -156,7 +150,7 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
                     int addedPackets = 0;
                     while (null != (previousPacket = bufferedPackets.poll())) {
                         // are all templates the packet references there?
-                        if (knownTemplateIds.containsAll(previousPacket.getUsedTemplates())) {
+                        if (hasTemplates(remoteAddress, sourceId, previousPacket.getUsedTemplates())) {
                             packetsToSend.add(Unpooled.wrappedBuffer(previousPacket.getBytes()));
                             bufferedTemplateIds.addAll(previousPacket.getUsedTemplates());
                             addedPackets++;
@@ -216,6 +210,7 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
             }
 
             // add the used templates and option template to the journal message builder
+            // the cached template bytes are never modified, so they can be wrapped instead of copied
             final NetFlowV9Journal.RawNetflowV9.Builder builder = NetFlowV9Journal.RawNetflowV9.newBuilder();
             for (TemplateKey templateKey : templates) {
                 final TemplateBytes templateBytes = templateCache.getIfPresent(templateKey);
@@ -223,27 +218,27 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
                     LOG.warn("Template {} expired while processing, discarding netflow packet", templateKey);
                 } else if (templateBytes.isOptionTemplate()) {
                     LOG.debug("Writing options template flow {}", templateKey);
-                    final byte[] bytes = templateBytes.getBytes();
-                    builder.putOptionTemplate(1, ByteString.copyFrom(bytes));
+                    builder.putOptionTemplate(1, UnsafeByteOperations.unsafeWrap(templateBytes.getBytes()));
                 } else {
                     LOG.debug("Writing template {}", templateKey);
-                    final byte[] bytes = templateBytes.getBytes();
-                    builder.putTemplates(templateKey.getTemplateId(), ByteString.copyFrom(bytes));
+                    builder.putTemplates(templateKey.getTemplateId(), UnsafeByteOperations.unsafeWrap(templateBytes.getBytes()));
                 }
             }
 
             // finally write out all the packets we had buffered as well as the current one
             for (ByteBuf packetBuffer : packetsToSend) {
-                final byte[] bytes = ByteBufUtil.getBytes(packetBuffer);
-                final ByteString value = ByteString.copyFrom(bytes);
-                builder.addPackets(value);
+                builder.addPackets(ByteString.copyFrom(packetBuffer.nioBuffer()));
             }
 
-            final byte[] bytes = builder.build().toByteArray();
-            final ByteBuf resultBuffer = Unpooled.buffer(bytes.length + 1)
-                    .writeByte(NetFlowCodec.ORDERED_V9_MARKER)
-                    .writeBytes(bytes);
-            return new Result(resultBuffer, true);
+            // serialize the journal entry directly behind the marker byte
+            final NetFlowV9Journal.RawNetflowV9 rawNetflowV9 = builder.build();
+            final int size = rawNetflowV9.getSerializedSize();
+            final byte[] bytes = new byte[size + 1];
+            bytes[0] = NetFlowCodec.ORDERED_V9_MARKER;
+            final CodedOutputStream output = CodedOutputStream.newInstance(bytes, 1, size);
+            rawNetflowV9.writeTo(output);
+            output.checkNoSpaceLeft();
+            return new Result(Unpooled.wrappedBuffer(bytes), true);
 
         } catch (Exception e) {
             LOG.error("Unexpected failure while aggregating NetFlowV9 packet, discarding packet.", ExceptionUtils.getRootCause(e));
@@ -251,6 +246,15 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
         }
     }
 
+    private boolean hasTemplates(SocketAddress remoteAddress, long sourceId, Set<Integer> templateIds) {
+        for (int templateId : templateIds) {
+            if (templateCache.getIfPresent(new TemplateKey(remoteAddress, sourceId, templateId)) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static class TemplateBytes {
         private final byte[] bytes;
         private final boolean optionTemplate;
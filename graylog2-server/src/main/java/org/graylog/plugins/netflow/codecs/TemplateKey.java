@@ -71,7 +71,10 @@ public class TemplateKey {
 
     @Override
     public int hashCode() {
-        return Objects.hash(remoteAddress, sourceId, templateId);
+        // computed for every cache lookup, avoid the varargs array and boxing of Objects.hash()
+        int result = Objects.hashCode(remoteAddress);
+        result = 31 * result + Long.hashCode(sourceId);
+        return 31 * result + templateId;
     }
 
     @Override
@@ -16,7 +16,6 @@
  */
 package org.graylog.plugins.netflow.flows;
 
-import com.google.common.collect.ImmutableMap;
 import jakarta.inject.Inject;
 import org.graylog.plugins.netflow.utils.ByteBufUtils;
 import org.graylog.plugins.netflow.utils.Protocol;
@@ -24,6 +23,7 @@ import org.graylog.plugins.netflow.v5.NetFlowV5Header;
 import org.graylog.plugins.netflow.v5.NetFlowV5Record;
 import org.graylog.plugins.netflow.v9.NetFlowV9BaseRecord;
 import org.graylog.plugins.netflow.v9.NetFlowV9Header;
+import org.graylog.plugins.netflow.v9.NetFlowV9RecordView;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.MessageFactory;
 import org.joda.time.DateTime;
@@ -33,6 +33,11 @@ import javax.annotation.Nullable;
 import java.net.InetSocketAddress;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNullElse;
 
 public class NetFlowFormatter {
     private static final String MF_VERSION = "nf_version";
@@ -62,6 +67,8 @@ public class NetFlowFormatter {
     private static final String MF_SNMP_OUTPUT = "nf_snmp_output";
 
     private final MessageFactory messageFactory;
+    // Field names of NetFlow v9 records are prefixed for every message, avoid building the same strings over and over
+    private final ConcurrentMap<String, String> v9FieldNames = new ConcurrentHashMap<>();
 
     @Inject
     public NetFlowFormatter(MessageFactory messageFactory) {
@@ -75,18 +82,17 @@ public class NetFlowFormatter {
                 record.protocol(), record.packetCount(), record.octetCount());
     }
 
-    private static String toMessageString(NetFlowV9BaseRecord record) {
-        final ImmutableMap<String, Object> fields = record.fields();
-        final long packetCount = (long) fields.getOrDefault("in_pkts", 0L);
-        long octetCount = (long) fields.getOrDefault("in_bytes", 0L);
+    private static String toV9MessageString(Function<String, Object> fields) {
+        final long packetCount = (long) requireNonNullElse(fields.apply("in_pkts"), 0L);
+        long octetCount = (long) requireNonNullElse(fields.apply("in_bytes"), 0L);
         if (octetCount == 0L) {
-            octetCount = (long) fields.getOrDefault("fwd_flow_delta_bytes", 0L);
+            octetCount = (long) requireNonNullElse(fields.apply("fwd_flow_delta_bytes"), 0L);
         }
-        final String srcAddr = (String) fields.get("ipv4_src_addr");
-        final String dstAddr = (String) fields.get("ipv4_dst_addr");
-        final Integer srcPort = (Integer) fields.get("l4_src_port");
-        final Integer dstPort = (Integer) fields.get("l4_dst_port");
-        final Short protocol = (Short) fields.get("protocol");
+        final String srcAddr = (String) fields.apply("ipv4_src_addr");
+        final String dstAddr = (String) fields.apply("ipv4_dst_addr");
+        final Integer srcPort = (Integer) fields.apply("l4_src_port");
+        final Integer dstPort = (Integer) fields.apply("l4_dst_port");
+        final Short protocol = (Short) fields.apply("protocol");
 
         return String.format(Locale.ROOT, "NetFlowV9 [%s]:%d <> [%s]:%d proto:%d pkts:%d bytes:%d",
                 srcAddr, srcPort,
@@ -143,27 +149,56 @@ public class NetFlowFormatter {
     public Message toMessage(NetFlowV9Header header,
                              NetFlowV9BaseRecord record,
                              @Nullable InetSocketAddress sender) {
-        final String source = sender == null ? null : sender.getAddress().getHostAddress();
-        final long timestamp = header.unixSecs() * 1000L;
-        final Message message = messageFactory.createMessage(toMessageString(record), source, new DateTime(timestamp, DateTimeZone.UTC));
-
         final Map<String, Object> fields = record.fields();
+        final Message message = createV9Message(header, fields::get, sender);
+        fields.forEach((key, value) -> message.addField(v9FieldName(key), value));
+        addV9Fields(message, header, fields::get);
+        return message;
+    }
 
+    /**
+     * Creates the message for a record view, decoding only the fields contained in the record's template.
+     */
+    public Message toMessage(NetFlowV9Header header,
+                             NetFlowV9RecordView record,
+                             @Nullable InetSocketAddress sender) {
+        final Message message = createV9Message(header, record::get, sender);
+        for (int i = 0; i < record.size(); i++) {
+            final Object value = record.value(i);
+            if (value != null) {
+                message.addField(v9FieldName(record.name(i)), value);
+            }
+        }
+        addV9Fields(message, header, record::get);
+        return message;
+    }
+
+    private Message createV9Message(NetFlowV9Header header, Function<String, Object> fields, @Nullable InetSocketAddress sender) {
+        final String source = sender == null ? null : sender.getAddress().getHostAddress();
+        final long timestamp = header.unixSecs() * 1000L;
+        final Message message = messageFactory.createMessage(toV9MessageString(fields), source, new DateTime(timestamp, DateTimeZone.UTC));
         message.addField(MF_VERSION, 9);
-        fields.forEach((key, value) -> message.addField("nf_" + key, value));
+        return message;
+    }
 
-        final String srcAddr = (String) fields.get("ipv4_src_addr");
-        final String dstAddr = (String) fields.get("ipv4_dst_addr");
-        final Object srcPort = fields.get("l4_src_port");
-        final Object dstPort = fields.get("l4_dst_port");
-        final String ipv4NextHop = (String) fields.get("ipv4_next_hop");
-        final Long first = (Long) fields.get("first_switched");
-        final Long last = (Long) fields.get("last_switched");
+    private String v9FieldName(String key) {
+        return v9FieldNames.computeIfAbsent(key, k -> "nf_" + k);
+    }
+
+    private static void addV9Fields(Message message, NetFlowV9Header header, Function<String, Object> fields) {
+        final long timestamp = header.unixSecs() * 1000L;
+        final String srcAddr = (String) fields.apply("ipv4_src_addr");
+        final String dstAddr = (String) fields.apply("ipv4_dst_addr");
+        final Object srcPort = fields.apply("l4_src_port");
+        final Object dstPort = fields.apply("l4_dst_port");
+        final String ipv4NextHop = (String) fields.apply("ipv4_next_hop");
+        final Long first = (Long) fields.apply("first_switched");
+        final Long last = (Long) fields.apply("last_switched");
 
         message.addField(MF_FLOW_PACKET_ID, header.sequence());
-        message.addField(MF_TOS, fields.get("ip_tos"));
-        message.addField(MF_SRC_TOS, fields.get("ip_src_tos"));
-        message.addField(MF_DST_TOS, fields.get("ip_dst_tos"));
+        message.addField(MF_TOS, fields.apply("ip_tos"));
+        message.addField(MF_SRC_TOS, fields.apply("ip_src_tos"));
+        message.addField(MF_DST_TOS, fields.apply("ip_dst_tos"));
         message.addField(MF_SRC, srcAddr + ":" + srcPort);
         message.addField(MF_SRC_ADDRESS, srcAddr);
         message.addField(MF_DST, dstAddr + ":" + dstPort);
@@ -173,11 +208,11 @@ public class NetFlowFormatter {
         }
         message.addField(MF_SRC_PORT, srcPort);
         message.addField(MF_DST_PORT, dstPort);
-        message.addField(MF_SRC_MASK, fields.get("src_mask"));
-        message.addField(MF_DST_MASK, fields.get("dst_mask"));
-        message.addField(MF_SRC_AS, fields.get("src_as"));
-        message.addField(MF_DST_AS, fields.get("dst_as"));
-        final Object protocol = fields.get("protocol");
+        message.addField(MF_SRC_MASK, fields.apply("src_mask"));
+        message.addField(MF_DST_MASK, fields.apply("dst_mask"));
+        message.addField(MF_SRC_AS, fields.apply("src_as"));
+        message.addField(MF_DST_AS, fields.apply("dst_as"));
+        final Object protocol = fields.apply("protocol");
         if (protocol != null) {
             message.addField(MF_PROTO, protocol);
             short protocolNumber = ((Number) protocol).shortValue();
@@ -186,7 +221,7 @@ public class NetFlowFormatter {
                 message.addField(MF_PROTO_NAME, protocolInfo.getAlias());
             }
         }
-        message.addField(MF_TCP_FLAGS, fields.get("tcp_flags"));
+        message.addField(MF_TCP_FLAGS, fields.apply("tcp_flags"));
 
         if (first != null && first > 0) {
             long start = timestamp - (header.sysUptime() - first);
@@ -196,11 +231,9 @@ public class NetFlowFormatter {
             long stop = timestamp - (header.sysUptime() - last);
             message.addField(MF_STOP, new DateTime(stop, DateTimeZone.UTC));
         }
-        message.addField(MF_BYTES, fields.get("in_bytes"));
-        message.addField(MF_PKTS, fields.get("in_pkts"));
-        message.addField(MF_SNMP_INPUT, fields.get("input_snmp"));
-        message.addField(MF_SNMP_OUTPUT, fields.get("output_snmp"));
-
-        return message;
+        message.addField(MF_BYTES, fields.apply("in_bytes"));
+        message.addField(MF_PKTS, fields.apply("in_pkts"));
+        message.addField(MF_SNMP_INPUT, fields.apply("input_snmp"));
+        message.addField(MF_SNMP_OUTPUT, fields.apply("output_snmp"));
     }
 }
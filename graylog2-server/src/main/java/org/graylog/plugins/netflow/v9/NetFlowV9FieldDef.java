@@ -22,11 +22,11 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.auto.value.AutoValue;
 import io.netty.buffer.ByteBuf;
 
+import javax.annotation.Nullable;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
-import java.util.Locale;
 import java.util.Optional;
 
 import static com.google.common.base.Strings.emptyToNull;
@@ -34,6 +34,8 @@ import static com.google.common.base.Strings.emptyToNull;
 @JsonAutoDetect
 @AutoValue
 public abstract class NetFlowV9FieldDef {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     @JsonProperty("type")
     public abstract NetFlowV9FieldType type();
 
@@ -46,73 +48,105 @@ public abstract class NetFlowV9FieldDef {
     }
 
     public Optional<Object> parse(ByteBuf bb) {
-        int len = length() != 0 ? length() : type().valueType().getDefaultLength();
-        switch (type().valueType()) {
-            case UINT8:
-            case UINT16:
-            case UINT24:
-            case UINT32:
-            case UINT64:
-                return parseUnsignedNumber(bb, len);
-            case INT8:
-                return Optional.of(bb.readByte());
-            case INT16:
-                return Optional.of(bb.readShort());
-            case INT24:
-                return Optional.of(bb.readMedium());
-            case INT32:
-                return Optional.of(bb.readInt());
-            case INT64:
-                return Optional.of(bb.readLong());
-            case IPV4:
-                byte[] b = new byte[4];
-                bb.readBytes(b);
-                try {
-                    return Optional.of(InetAddress.getByAddress(b).getHostAddress());
-                } catch (UnknownHostException e) {
-                    return Optional.empty();
-                }
-            case IPV6:
-                byte[] b2 = new byte[16];
-                bb.readBytes(b2);
-                try {
-                    return Optional.of(InetAddress.getByAddress(b2).getHostAddress());
-                } catch (UnknownHostException e) {
-                    return Optional.empty();
-                }
-            case MAC:
-                byte[] b3 = new byte[6];
-                bb.readBytes(b3);
-                return Optional.of(String.format(Locale.ROOT, "%02x:%02x:%02x:%02x:%02x:%02x", b3[0], b3[1], b3[2], b3[3], b3[4], b3[5]));
-            case STRING:
-                byte[] b4 = new byte[len];
-                bb.readBytes(b4);
-                return Optional.ofNullable(emptyToNull(new String(b4, StandardCharsets.UTF_8).trim()));
-            case SKIP:
-                bb.skipBytes(len);
-                return Optional.empty();
-            default:
-                return Optional.empty();
-        }
+        final int index = bb.readerIndex();
+        final Object value = read(bb, index);
+        bb.readerIndex(index + consumedLength());
+        return Optional.ofNullable(value);
+    }
+
+    /**
+     * Decodes the field value at the given absolute index without changing the reader index of the buffer.
+     *
+     * @return the decoded value or {@code null} if the field is skipped or empty
+     */
+    @Nullable
+    public Object read(ByteBuf bb, int index) {
+        final int len = effectiveLength();
+        return switch (type().valueType()) {
+            case UINT8, UINT16, UINT24, UINT32, UINT64 -> readUnsignedNumber(bb, index, len);
+            case INT8 -> bb.getByte(index);
+            case INT16 -> bb.getShort(index);
+            case INT24 -> bb.getMedium(index);
+            case INT32 -> bb.getInt(index);
+            case INT64 -> bb.getLong(index);
+            case IPV4 -> ipv4Address(bb, index);
+            case IPV6 -> ipv6Address(bb, index);
+            case MAC -> macAddress(bb, index);
+            case STRING -> emptyToNull(bb.toString(index, len, StandardCharsets.UTF_8).trim());
+            case SKIP -> null;
+        };
+    }
+
+    /**
+     * The number of bytes this field occupies in a data record.
+     */
+    public int effectiveLength() {
+        return length() != 0 ? length() : type().valueType().getDefaultLength();
+    }
+
+    // Fixed-width types always consume their natural width, regardless of the length announced in the template.
+    private int consumedLength() {
+        return switch (type().valueType()) {
+            case INT8 -> 1;
+            case INT16 -> 2;
+            case INT24 -> 3;
+            case INT32, IPV4 -> 4;
+            case INT64 -> 8;
+            case IPV6 -> 16;
+            case MAC -> 6;
+            default -> effectiveLength();
+        };
     }
 
-    private Optional<Object> parseUnsignedNumber(ByteBuf bb, int length) {
+    private static Object readUnsignedNumber(ByteBuf bb, int index, int length) {
         switch (length) {
             case 1:
-                return Optional.of(bb.readUnsignedByte());
+                return bb.getUnsignedByte(index);
             case 2:
-                return Optional.of(bb.readUnsignedShort());
+                return bb.getUnsignedShort(index);
             case 3:
-                return Optional.of(bb.readUnsignedMedium());
+                return bb.getUnsignedMedium(index);
             case 4:
-                return Optional.of(bb.readUnsignedInt());
+                return bb.getUnsignedInt(index);
             case 8:
-                return Optional.of(bb.readLong());
+                return bb.getLong(index);
             default:
                 byte[] uint64Bytes = new byte[length];
-                bb.readBytes(uint64Bytes);
-                return Optional.of(new BigInteger(uint64Bytes));
+                bb.getBytes(index, uint64Bytes);
+                return new BigInteger(uint64Bytes);
+        }
+    }
+
+    private static String ipv4Address(ByteBuf bb, int index) {
+        return new StringBuilder(15)
+                .append(bb.getUnsignedByte(index)).append('.')
+                .append(bb.getUnsignedByte(index + 1)).append('.')
+                .append(bb.getUnsignedByte(index + 2)).append('.')
+                .append(bb.getUnsignedByte(index + 3))
+                .toString();
+    }
+
+    @Nullable
+    private static String ipv6Address(ByteBuf bb, int index) {
+        final byte[] bytes = new byte[16];
+        bb.getBytes(index, bytes);
+        try {
+            return InetAddress.getByAddress(bytes).getHostAddress();
+        } catch (UnknownHostException e) {
+            return null;
         }
+    }
 
+    private static String macAddress(ByteBuf bb, int index) {
+        final char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            final int b = bb.getUnsignedByte(index + i);
+            chars[i * 3] = HEX_DIGITS[b >>> 4];
+            chars[i * 3 + 1] = HEX_DIGITS[b & 0x0f];
+            if (i < 5) {
+                chars[i * 3 + 2] = ':';
+            }
+        }
+        return new String(chars);
     }
 }
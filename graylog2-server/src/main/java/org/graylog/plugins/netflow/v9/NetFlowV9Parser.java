@@ -22,6 +22,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
+import org.graylog.plugins.netflow.flows.CorruptFlowPacketException;
 import org.graylog.plugins.netflow.flows.EmptyTemplateException;
 import org.graylog.plugins.netflow.flows.InvalidFlowVersionException;
 import org.slf4j.Logger;
@@ -79,6 +80,60 @@ public class NetFlowV9Parser {
                 dataLength);
     }
 
+    /**
+     * Callback for {@link #forEachRecord}. The record view is reused and only valid during the invocation.
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(NetFlowV9Header header, NetFlowV9RecordView record);
+    }
+
+    /**
+     * Like {@link #parsePacket(ByteBuf, NetFlowV9FieldTypeRegistry, Map, NetFlowV9OptionTemplate)}, but hands each data
+     * record to the consumer as a view on the packet buffer instead of decoding it into a {@link NetFlowV9Record}.
+     * Templates declared in the packet are added to {@code layouts}, records of option templates are skipped.
+     */
+    public static void forEachRecord(ByteBuf bb,
+                                     NetFlowV9FieldTypeRegistry typeRegistry,
+                                     Map<Integer, NetFlowV9RecordLayout> layouts,
+                                     Set<Integer> optionTemplateIds,
+                                     NetFlowV9RecordView view,
+                                     RecordConsumer consumer) {
+        final NetFlowV9Header header = parseHeader(bb);
+
+        while (bb.isReadable()) {
+            final int flowSetId = bb.readUnsignedShort();
+            if (flowSetId == 0) {
+                for (NetFlowV9Template template : parseTemplates(bb, typeRegistry)) {
+                    layouts.put(template.templateId(), NetFlowV9RecordLayout.of(template));
+                }
+            } else if (flowSetId == 1) {
+                optionTemplateIds.add(parseOptionTemplate(bb, typeRegistry).templateId());
+            } else {
+                if (layouts.isEmpty() && optionTemplateIds.isEmpty()) {
+                    throw new EmptyTemplateException("Unable to parse NetFlow 9 records without template. Discarding packet.");
+                }
+                final int length = bb.readUnsignedShort();
+                if (length < 4) {
+                    throw new CorruptFlowPacketException("Invalid length of NetFlow 9 flowset " + flowSetId + ": " + length);
+                }
+                final int start = bb.readerIndex();
+                final int end = start - 4 + length;
+
+                final NetFlowV9RecordLayout layout = optionTemplateIds.contains(flowSetId) ? null : layouts.get(flowSetId);
+                if (layout != null && layout.recordLength() > 0) {
+                    final int recordLength = layout.recordLength();
+                    final int limit = Math.min(end, bb.writerIndex());
+                    // anything shorter than a record at the end of the flowset is padding
+                    for (int index = start; index + recordLength <= limit; index += recordLength) {
+                        consumer.accept(header, view.wrap(layout, bb, index));
+                    }
+                }
+                bb.readerIndex(end);
+            }
+        }
+    }
+
     /**
      * Flow Header Format
      *
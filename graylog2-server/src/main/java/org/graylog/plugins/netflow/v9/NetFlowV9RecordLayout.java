@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.v9;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The decoding instructions for the data records of a single {@link NetFlowV9Template}: field offsets, lengths and
+ * names are computed once per template instead of once per record.
+ * <p>
+ * Layouts are immutable and can be shared between threads and exporters which announce identical templates.
+ */
+public final class NetFlowV9RecordLayout {
+    private final int templateId;
+    private final NetFlowV9FieldDef[] definitions;
+    private final String[] names;
+    private final int[] offsets;
+    private final int recordLength;
+    private final Map<String, Integer> indexByName;
+
+    private NetFlowV9RecordLayout(int templateId, List<NetFlowV9FieldDef> definitions) {
+        this.templateId = templateId;
+        this.definitions = definitions.toArray(new NetFlowV9FieldDef[0]);
+        this.names = new String[this.definitions.length];
+        this.offsets = new int[this.definitions.length];
+        this.indexByName = new HashMap<>(this.definitions.length * 2);
+
+        int offset = 0;
+        for (int i = 0; i < this.definitions.length; i++) {
+            final NetFlowV9FieldDef definition = this.definitions[i];
+            names[i] = definition.type().name().toLowerCase(Locale.ROOT);
+            offsets[i] = offset;
+            offset += definition.effectiveLength();
+            // Like the record parser, the last occurrence of a field wins
+            indexByName.put(names[i], i);
+        }
+        this.recordLength = offset;
+    }
+
+    public static NetFlowV9RecordLayout of(NetFlowV9Template template) {
+        return new NetFlowV9RecordLayout(template.templateId(), template.definitions());
+    }
+
+    public int templateId() {
+        return templateId;
+    }
+
+    /**
+     * @return the number of fields in a record
+     */
+    public int size() {
+        return definitions.length;
+    }
+
+    /**
+     * @return the number of bytes of a single data record
+     */
+    public int recordLength() {
+        return recordLength;
+    }
+
+    /**
+     * @return the lower case field name used as message field name (without prefix)
+     */
+    public String name(int field) {
+        return names[field];
+    }
+
+    NetFlowV9FieldDef definition(int field) {
+        return definitions[field];
+    }
+
+    int offset(int field) {
+        return offsets[field];
+    }
+
+    /**
+     * @return the index of the field with the given name or {@code -1} if the template doesn't contain it
+     */
+    public int indexOf(String name) {
+        final Integer index = indexByName.get(name);
+        return index == null ? -1 : index;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.v9;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * A reusable, read-only view of a single NetFlow v9 data record inside a packet buffer.
+ * <p>
+ * Field values are only decoded when they are accessed and are cached until the view is moved to the next record.
+ * Instances are not thread-safe and must not be retained beyond the callback they were handed to.
+ */
+public final class NetFlowV9RecordView {
+    private static final Object ABSENT = new Object();
+
+    private Object[] values = new Object[0];
+    private NetFlowV9RecordLayout layout;
+    private ByteBuf buffer;
+    private int recordIndex;
+
+    NetFlowV9RecordView wrap(NetFlowV9RecordLayout layout, ByteBuf buffer, int recordIndex) {
+        if (layout.size() > values.length) {
+            values = new Object[layout.size()];
+        }
+        this.layout = layout;
+        this.buffer = buffer;
+        this.recordIndex = recordIndex;
+        Arrays.fill(values, 0, layout.size(), null);
+        return this;
+    }
+
+    public NetFlowV9RecordLayout layout() {
+        return layout;
+    }
+
+    public int size() {
+        return layout.size();
+    }
+
+    public String name(int field) {
+        return layout.name(field);
+    }
+
+    /**
+     * @return the decoded value of the field or {@code null} if the field type is skipped or the value is empty
+     */
+    @Nullable
+    public Object value(int field) {
+        Object value = values[field];
+        if (value == null) {
+            final Object decoded = layout.definition(field).read(buffer, recordIndex + layout.offset(field));
+            value = decoded == null ? ABSENT : decoded;
+            values[field] = value;
+        }
+        return value == ABSENT ? null : value;
+    }
+
+    /**
+     * @return the decoded value of the named field or {@code null} if the template doesn't contain the field
+     */
+    @Nullable
+    public Object get(String name) {
+        final int field = layout.indexOf(name);
+        return field < 0 ? null : value(field);
+    }
+}
@@ -20,9 +20,12 @@ import com.codahale.metrics.Meter;
 import com.google.auto.value.AutoValue;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
 import org.antlr.v4.runtime.CommonToken;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
 import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanExpression;
 import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
 import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.compiler.CompiledCondition;
+import org.graylog.plugins.pipelineprocessor.compiler.RuleConditionCompiler;
 import org.graylog.plugins.pipelineprocessor.processors.PipelineMetricRegistry;
 
 import javax.annotation.Nullable;
@@ -43,6 +46,7 @@ public abstract class Rule {
     private transient Meter localMatched;
     private transient Meter globalNotMatched;
     private transient Meter localNotMatched;
+    private transient CompiledCondition compiledCondition;
 
     @Nullable
     public abstract String id();
@@ -92,6 +96,29 @@ public abstract class Rule {
         localNotMatched = metricRegistry.registerLocalRuleMeter(pipelineId, stageId, id(), "not-matched");
     }
 
+    /**
+     * Compiles the condition of this rule, subsequent calls to {@link #evaluateCondition(EvaluationContext)} use the
+     * compiled condition instead of interpreting {@link #when()}.
+     */
+    public void compileCondition() {
+        compiledCondition = RuleConditionCompiler.compile(when());
+    }
+
+    /**
+     * Evaluates the condition of this rule. This method is allowed to throw exceptions, just like
+     * {@link LogicalExpression#evaluateBool(EvaluationContext)}.
+     *
+     * @param context the evaluation context
+     * @return {@code true} if the rule matches
+     */
+    public boolean evaluateCondition(EvaluationContext context) {
+        final CompiledCondition condition = compiledCondition;
+        if (condition != null) {
+            return condition.evaluate(context);
+        }
+        return when().evaluateBool(context);
+    }
+
     public void markExecution() {
         if (id() != null) {
             globalExecuted.mark();
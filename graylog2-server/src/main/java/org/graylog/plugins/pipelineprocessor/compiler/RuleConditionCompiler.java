@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.exceptions.FunctionEvaluationException;
+import org.graylog.plugins.pipelineprocessor.ast.exceptions.LocationAwareEvalException;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BinaryExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanValuedFunctionWrapper;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.ComparisonExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.EqualityExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FunctionExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.NotExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.VarRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter.getRateLimitedLog;
+
+/**
+ * Compiles the condition of a rule into a tree of {@link CompiledCondition closures}.
+ * <p>
+ * The interpreted AST re-dispatches on every node and re-evaluates constant operands for every message. The compiled
+ * tree instead:
+ * <ul>
+ *     <li>flattens chains of {@code &&} and {@code ||} into a single node which loops over its operands,</li>
+ *     <li>folds constant subexpressions (and the logical operators they make redundant) at compile time,</li>
+ *     <li>resolves the comparison operator once and specializes comparisons against constant numbers and</li>
+ *     <li>calls functions through a handle resolved at compile time.</li>
+ * </ul>
+ * Node types which are not specialized are evaluated by the original expression, so every condition can be compiled.
+ * Evaluation order, short-circuiting and the exceptions thrown are the same as for the interpreted expression.
+ */
+public final class RuleConditionCompiler {
+    private static final RateLimitedLog LOG = getRateLimitedLog(RuleConditionCompiler.class);
+
+    private static final Object NOT_CONSTANT = new Object();
+    private static final CompiledCondition TRUE = context -> true;
+    private static final CompiledCondition FALSE = context -> false;
+
+    private RuleConditionCompiler() {
+    }
+
+    public static CompiledCondition compile(LogicalExpression condition) {
+        return condition(condition);
+    }
+
+    private static CompiledCondition condition(Expression expression) {
+        final Object folded = fold(expression);
+        if (folded instanceof Boolean value) {
+            return constant(value);
+        }
+
+        final Expression.Type type = expression.nodeType();
+        if (type == null) {
+            return interpreted(expression);
+        }
+        return switch (type) {
+            case AND -> and(operands(expression, Expression.Type.AND));
+            case OR -> or(operands(expression, Expression.Type.OR));
+            case NOT -> not(condition(((NotExpression) expression).right()));
+            case EQUALITY -> equality((EqualityExpression) expression);
+            case COMPARISON -> comparison((ComparisonExpression) expression);
+            case BOOLEAN_FUNC_WRAPPER -> booleanValue(value(((BooleanValuedFunctionWrapper) expression).expression()));
+            default -> interpreted(expression);
+        };
+    }
+
+    private static CompiledCondition interpreted(Expression expression) {
+        return context -> ((LogicalExpression) expression).evaluateBool(context);
+    }
+
+    private static CompiledCondition constant(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    // collects the operands of nested binary expressions of the same type in evaluation order
+    private static List<Expression> operands(Expression expression, Expression.Type type) {
+        final List<Expression> operands = new ArrayList<>();
+        collectOperands(expression, type, operands);
+        return operands;
+    }
+
+    private static void collectOperands(Expression expression, Expression.Type type, List<Expression> operands) {
+        if (expression.nodeType() == type) {
+            final BinaryExpression binary = (BinaryExpression) expression;
+            collectOperands(binary.left(), type, operands);
+            collectOperands(binary.right(), type, operands);
+        } else {
+            operands.add(expression);
+        }
+    }
+
+    private static CompiledCondition and(List<Expression> operands) {
+        final List<CompiledCondition> conditions = new ArrayList<>(operands.size());
+        for (Expression operand : operands) {
+            final CompiledCondition condition = condition(operand);
+            if (condition == TRUE) {
+                continue;
+            }
+            conditions.add(condition);
+            if (condition == FALSE) {
+                // the interpreter never evaluates the operands after a false one
+                break;
+            }
+        }
+        if (conditions.isEmpty()) {
+            return TRUE;
+        }
+        if (conditions.size() == 1) {
+            return conditions.get(0);
+        }
+        return new All(conditions.toArray(new CompiledCondition[0]));
+    }
+
+    private static CompiledCondition or(List<Expression> operands) {
+        final List<CompiledCondition> conditions = new ArrayList<>(operands.size());
+        for (Expression operand : operands) {
+            final CompiledCondition condition = condition(operand);
+            if (condition == FALSE) {
+                continue;
+            }
+            conditions.add(condition);
+            if (condition == TRUE) {
+                // the interpreter never evaluates the operands after a true one
+                break;
+            }
+        }
+        if (conditions.isEmpty()) {
+            return FALSE;
+        }
+        if (conditions.size() == 1) {
+            return conditions.get(0);
+        }
+        return new Any(conditions.toArray(new CompiledCondition[0]));
+    }
+
+    private static CompiledCondition not(CompiledCondition condition) {
+        if (condition == TRUE) {
+            return FALSE;
+        }
+        if (condition == FALSE) {
+            return TRUE;
+        }
+        return context -> !condition.evaluate(context);
+    }
+
+    private static CompiledCondition booleanValue(CompiledValue value) {
+        return context -> {
+            final Object result = value.evaluate(context);
+            return result != null && (Boolean) result;
+        };
+    }
+
+    private static CompiledCondition equality(EqualityExpression expression) {
+        final Expression leftExpression = expression.left();
+        final CompiledValue left = value(leftExpression);
+        final CompiledValue right = value(expression.right());
+        final boolean checkEquality = expression.isCheckEquality();
+
+        if (right instanceof ConstantValue constantValue && constantValue.value() != null && !(constantValue.value() instanceof DateTime)) {
+            final Object constant = constantValue.value();
+            return context -> {
+                final Object leftValue = left.evaluate(context);
+                if (leftValue == null) {
+                    return leftIsNull(context, leftExpression);
+                }
+                return leftValue.equals(constant) == checkEquality;
+            };
+        }
+        return context -> {
+            final Object leftValue = left.evaluate(context);
+            final Object rightValue = right.evaluate(context);
+            if (leftValue == null) {
+                return leftIsNull(context, leftExpression);
+            }
+            final boolean equals;
+            // DateTime::equals takes the chronology into account, so identical instants expressed in different timezones are not equal
+            if (leftValue instanceof DateTime leftDate && rightValue instanceof DateTime rightDate) {
+                equals = leftDate.isEqual(rightDate);
+            } else {
+                equals = leftValue.equals(rightValue);
+            }
+            return equals == checkEquality;
+        };
+    }
+
+    private static boolean leftIsNull(EvaluationContext context, Expression leftExpression) {
+        LOG.warn(context.pipelineErrorMessage("left expression evaluated to null, returning false: " + leftExpression));
+        return false;
+    }
+
+    private static CompiledCondition comparison(ComparisonExpression expression) {
+        final Operator operator = Operator.of(expression.getOperator());
+        final CompiledValue left = value(expression.left());
+        final CompiledValue right = value(expression.right());
+
+        if (right instanceof ConstantValue constantValue && constantValue.value() instanceof Long constant) {
+            final long rightValue = constant;
+            return context -> {
+                final Object leftValue = left.evaluate(context);
+                if (leftValue instanceof Long longValue) {
+                    return operator.test(longValue.longValue(), rightValue);
+                }
+                return operator.compare(leftValue, constant);
+            };
+        }
+        if (right instanceof ConstantValue constantValue && constantValue.value() instanceof Double constant) {
+            final double rightValue = constant;
+            return context -> {
+                final Object leftValue = left.evaluate(context);
+                if (leftValue instanceof Double doubleValue) {
+                    return operator.test(doubleValue.doubleValue(), rightValue);
+                }
+                return operator.compare(leftValue, constant);
+            };
+        }
+        return context -> {
+            final Object leftValue = left.evaluate(context);
+            return operator.compare(leftValue, right.evaluate(context));
+        };
+    }
+
+    private static CompiledValue value(Expression expression) {
+        final Object folded = fold(expression);
+        if (folded != NOT_CONSTANT) {
+            return new ConstantValue(folded);
+        }
+        if (expression instanceof FunctionExpression function && !Boolean.TRUE.equals(function.getFunction().descriptor().deprecated())) {
+            // deprecated functions keep going through the expression, which logs a warning on every call
+            return functionCall(function);
+        }
+        return expression::evaluateUnsafe;
+    }
+
+    private static CompiledValue functionCall(FunctionExpression expression) {
+        final Function<?> function = expression.getFunction();
+        final FunctionArgs args = expression.getArgs();
+        final Class<?> returnType = function.descriptor().returnType();
+        return context -> {
+            try {
+                return returnType.cast(function.evaluate(args, context));
+            } catch (LocationAwareEvalException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new FunctionEvaluationException(expression, e);
+            }
+        };
+    }
+
+    /**
+     * Evaluates the given expression if its value does not depend on the message being processed.
+     *
+     * @return the value of the expression or {@link #NOT_CONSTANT}
+     */
+    private static Object fold(Expression expression) {
+        if (!expression.isConstant() || referencesVariable(expression)) {
+            return NOT_CONSTANT;
+        }
+        try {
+            return expression.evaluateUnsafe();
+        } catch (Exception e) {
+            // leave it to the interpreter to report the error when the rule is run
+            LOG.debug("Unable to fold constant expression <{}>: {}", expression, e.getMessage());
+            return NOT_CONSTANT;
+        }
+    }
+
+    // variables are only bound while a rule is executed, so they can never be folded
+    private static boolean referencesVariable(Expression expression) {
+        if (expression instanceof VarRefExpression) {
+            return true;
+        }
+        for (Expression child : expression.children()) {
+            if (referencesVariable(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    private interface CompiledValue {
+        Object evaluate(EvaluationContext context);
+    }
+
+    private record ConstantValue(Object value) implements CompiledValue {
+        @Override
+        public Object evaluate(EvaluationContext context) {
+            return value;
+        }
+    }
+
+    private static final class All implements CompiledCondition {
+        private final CompiledCondition[] conditions;
+
+        private All(CompiledCondition[] conditions) {
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean evaluate(EvaluationContext context) {
+            for (CompiledCondition condition : conditions) {
+                if (!condition.evaluate(context)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Any implements CompiledCondition {
+        private final CompiledCondition[] conditions;
+
+        private Any(CompiledCondition[] conditions) {
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean evaluate(EvaluationContext context) {
+            for (CompiledCondition condition : conditions) {
+                if (condition.evaluate(context)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private enum Operator {
+        GT, GTE, LT, LTE, UNKNOWN;
+
+        static Operator of(String operator) {
+            return switch (operator) {
+                case ">" -> GT;
+                case ">=" -> GTE;
+                case "<" -> LT;
+                case "<=" -> LTE;
+                default -> UNKNOWN;
+            };
+        }
+
+        boolean test(long left, long right) {
+            return switch (this) {
+                case GT -> left > right;
+                case GTE -> left >= right;
+                case LT -> left < right;
+                case LTE -> left <= right;
+                case UNKNOWN -> false;
+            };
+        }
+
+        boolean test(double left, double right) {
+            return switch (this) {
+                case GT -> left > right;
+                case GTE -> left >= right;
+                case LT -> left < right;
+                case LTE -> left <= right;
+                case UNKNOWN -> false;
+            };
+        }
+
+        boolean test(DateTime left, DateTime right) {
+            return switch (this) {
+                case GT -> left.isAfter(right);
+                case GTE -> !left.isBefore(right);
+                case LT -> left.isBefore(right);
+                case LTE -> !left.isAfter(right);
+                case UNKNOWN -> false;
+            };
+        }
+
+        // same conversions (and failures) as ComparisonExpression#evaluateBool
+        boolean compare(Object left, Object right) {
+            if (left instanceof DateTime leftDate && right instanceof DateTime rightDate) {
+                return test(leftDate, rightDate);
+            }
+            if (left instanceof Double || right instanceof Double) {
+                return test((double) left, (double) right);
+            }
+            return test((long) left, (long) right);
+        }
+    }
+}
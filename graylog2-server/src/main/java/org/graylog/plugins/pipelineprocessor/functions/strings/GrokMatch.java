@@ -17,7 +17,6 @@
 package org.graylog.plugins.pipelineprocessor.functions.strings;
 
 import com.google.common.collect.ForwardingMap;
-import io.krakens.grok.api.Grok;
 import io.krakens.grok.api.Match;
 import jakarta.inject.Inject;
 import org.graylog.plugins.pipelineprocessor.EvaluationContext;
@@ -25,6 +24,7 @@ import org.graylog.plugins.pipelineprocessor.ast.functions.AbstractFunction;
 import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
 import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
 import org.graylog.plugins.pipelineprocessor.ast.functions.ParameterDescriptor;
+import org.graylog2.grok.GrokMatcher;
 import org.graylog2.grok.GrokPatternRegistry;
 
 import java.util.Map;
@@ -60,7 +60,7 @@ public class GrokMatch extends AbstractFunction<GrokMatch.GrokResult> {
             return null;
         }
 
-        final Grok grok = grokPatternRegistry.cachedGrokForPattern(pattern, onlyNamedCaptures);
+        final GrokMatcher grok = grokPatternRegistry.cachedGrokMatcherForPattern(pattern, onlyNamedCaptures);
 
         try {
             final Match match = grok.match(value);
@@ -17,7 +17,6 @@
 package org.graylog.plugins.pipelineprocessor.functions.strings;
 
 import com.google.common.base.CharMatcher;
-import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.inject.TypeLiteral;
 import org.graylog.plugins.pipelineprocessor.EvaluationContext;
@@ -26,9 +25,9 @@ import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
 import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
 import org.graylog.plugins.pipelineprocessor.ast.functions.ParameterDescriptor;
 import org.graylog.plugins.pipelineprocessor.rulebuilder.RuleBuilderFunctionGroup;
+import org.graylog2.utilities.KeyValueTokenizer;
 
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -88,25 +87,21 @@ public class KeyValue extends AbstractFunction<Map<String, String>> {
         final CharMatcher kvPairsMatcher = splitParam.optional(args, context).orElse(CharMatcher.whitespace());
         final CharMatcher kvDelimMatcher = valueSplitParam.optional(args, context).orElse(CharMatcher.anyOf("="));
 
-        final boolean allowEscaping = useEscapeCharacterParam.optional(args, context).orElse(false);
-        Splitter outerSplitter = Splitter.on(
-                        allowEscaping ? DelimiterCharMatcher.withQuoteAndEscapeHandling(kvPairsMatcher) : DelimiterCharMatcher.withQuoteHandling(kvPairsMatcher)
-                )
-                .omitEmptyStrings()
-                .trimResults();
-
-        final Splitter entrySplitter = Splitter.on(kvDelimMatcher)
-                .omitEmptyStrings()
-                .limit(2)
-                .trimResults();
-        return new MapSplitter(outerSplitter,
-                entrySplitter,
+        final KeyValueTokenizer tokenizer = KeyValueTokenizer.builder()
+                .pairDelimiters(kvPairsMatcher)
+                .keyValueDelimiters(kvDelimMatcher)
+                .quoteCharacters("\"'")
+                .useEscapeCharacter(useEscapeCharacterParam.optional(args, context).orElse(false))
+                .skipEmptyTokens(true)
+                .build();
+        final MapCollector collector = new MapCollector(
                 ignoreEmptyValuesParam.optional(args, context).orElse(true),
                 trimCharactersParam.optional(args, context).orElse(CharMatcher.none()),
                 trimValueCharactersParam.optional(args, context).orElse(CharMatcher.none()),
                 allowDupeKeysParam.optional(args, context).orElse(true),
-                duplicateHandlingParam.optional(args, context).orElse(TAKE_FIRST))
-                .split(value);
+                duplicateHandlingParam.optional(args, context).orElse(TAKE_FIRST));
+        tokenizer.tokenize(value, collector);
+        return collector.map;
     }
 
     @Override
@@ -133,89 +128,20 @@ public class KeyValue extends AbstractFunction<Map<String, String>> {
                 .build();
     }
 
-    private static class DelimiterCharMatcher extends CharMatcher {
-        private final char wrapperChar;
-
-        private boolean inWrapper = false;
-
-        /**
-         * An implementation that doesn't split when the given delimiter char matcher appears in double or single quotes.
-         *
-         * @param charMatcher the char matcher
-         * @return a char matcher that can handle double and single quotes
-         */
-        static CharMatcher withQuoteHandling(CharMatcher charMatcher) {
-            return new DelimiterCharMatcher('"')
-                    .and(new DelimiterCharMatcher('\''))
-                    .and(charMatcher);
-        }
-
-        /**
-         * An implementation that doesn't split when the given delimiter char matcher appears in double or single quotes
-         * or after the escape char '\'.
-         *
-         * @param charMatcher the char matcher
-         * @return a char matcher that can handle double, single quotes, and escape characters
-         */
-        static CharMatcher withQuoteAndEscapeHandling(CharMatcher charMatcher) {
-            return new DelimiterCharMatcher('"')
-                    .and(new DelimiterCharMatcher('\''))
-                    .and(new NotEscapedCharMatcher())
-                    .and(charMatcher);
-        }
-
-        private DelimiterCharMatcher(char wrapperChar) {
-            this.wrapperChar = wrapperChar;
-        }
-
-        @Override
-        public boolean matches(char c) {
-            if (wrapperChar == c) {
-                inWrapper = !inWrapper;
-            }
-            return !inWrapper;
-        }
-    }
+    private static class MapCollector implements KeyValueTokenizer.Handler {
 
-    private static class NotEscapedCharMatcher extends CharMatcher {
-        private char lastChar = '\u0000';
-
-        @Override
-        public boolean matches(char c) {
-            if (lastChar == '\u0000') {
-                lastChar = c;
-                return true;
-            } else {
-                if (lastChar == '\\') {
-                    lastChar = c;
-                    return false;
-                } else {
-                    lastChar = c;
-                    return true;
-                }
-            }
-        }
-    }
-
-    private static class MapSplitter {
-
-        private final Splitter outerSplitter;
-        private final Splitter entrySplitter;
+        private final Map<String, String> map = new LinkedHashMap<>();
         private final boolean ignoreEmptyValues;
         private final CharMatcher keyTrimMatcher;
         private final CharMatcher valueTrimMatcher;
         private final Boolean allowDupeKeys;
         private final String duplicateHandling;
 
-        MapSplitter(Splitter outerSplitter,
-                    Splitter entrySplitter,
-                    boolean ignoreEmptyValues,
-                    CharMatcher keyTrimMatcher,
-                    CharMatcher valueTrimMatcher,
-                    Boolean allowDupeKeys,
-                    String duplicateHandling) {
-            this.outerSplitter = outerSplitter;
-            this.entrySplitter = entrySplitter;
+        MapCollector(boolean ignoreEmptyValues,
+                     CharMatcher keyTrimMatcher,
+                     CharMatcher valueTrimMatcher,
+                     Boolean allowDupeKeys,
+                     String duplicateHandling) {
             this.ignoreEmptyValues = ignoreEmptyValues;
             this.keyTrimMatcher = keyTrimMatcher;
             this.valueTrimMatcher = valueTrimMatcher;
@@ -223,28 +149,22 @@ public class KeyValue extends AbstractFunction<Map<String, String>> {
             this.duplicateHandling = duplicateHandling;
         }
 
-        public Map<String, String> split(CharSequence sequence) {
-            final Map<String, String> map = new LinkedHashMap<>();
-
-            for (String entry : outerSplitter.split(sequence)) {
-                Iterator<String> entryFields = entrySplitter.split(entry).iterator();
-                if (!entryFields.hasNext()) {
-                    continue;
-                }
+        @Override
+        public void pair(String rawKey, String rawValue) {
+            final String key = processKey(rawKey);
+            final String value = processValue(rawValue);
+            if (map.containsKey(key)) {
+                handleDuplicateKey(map, key, value);
+            } else {
+                handleKeyUpdate(map, key, value);
+            }
+        }
 
-                String key = processKey(entryFields.next());
-                if (entryFields.hasNext()) {
-                    String value = processValue(entryFields.next());
-                    if (map.containsKey(key)) {
-                        handleDuplicateKey(map, key, value);
-                    } else {
-                        handleKeyUpdate(map, key, value);
-                    }
-                } else if (!ignoreEmptyValues) {
-                    throw new IllegalArgumentException("Missing value for key " + key);
-                }
+        @Override
+        public void keyWithoutValue(String key) {
+            if (!ignoreEmptyValues) {
+                throw new IllegalArgumentException("Missing value for key " + processKey(key));
             }
-            return map;
         }
 
         private void handleDuplicateKey(Map<String, String> map, String key, String value) {
@@ -27,6 +27,7 @@ import jakarta.inject.Named;
 import jakarta.inject.Singleton;
 import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
 import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
 import org.graylog.plugins.pipelineprocessor.db.PipelineService;
 import org.graylog.plugins.pipelineprocessor.db.PipelineStreamConnectionsService;
 import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigDto;
@@ -58,6 +59,21 @@ public class ConfigurationStateUpdater {
     private final AtomicReference<PipelineInterpreter.State> latestState = new AtomicReference<>();
     private final PipelineResolver pipelineResolver;
     private final PipelineMetricRegistry pipelineMetricRegistry;
+    private final boolean compileRuleConditions;
+
+    public ConfigurationStateUpdater(RuleService ruleService,
+                                     PipelineService pipelineService,
+                                     PipelineStreamConnectionsService pipelineStreamConnectionsService,
+                                     PipelineRuleParser pipelineRuleParser,
+                                     PipelineResolver.Factory pipelineResolverFactory,
+                                     RuleMetricsConfigService ruleMetricsConfigService,
+                                     MetricRegistry metricRegistry,
+                                     ScheduledExecutorService scheduler,
+                                     EventBus serverEventBus,
+                                     PipelineInterpreter.State.Factory stateFactory) {
+        this(ruleService, pipelineService, pipelineStreamConnectionsService, pipelineRuleParser, pipelineResolverFactory,
+                ruleMetricsConfigService, metricRegistry, scheduler, serverEventBus, stateFactory, false);
+    }
 
     @Inject
     public ConfigurationStateUpdater(RuleService ruleService,
@@ -69,8 +85,10 @@ public class ConfigurationStateUpdater {
                                      MetricRegistry metricRegistry,
                                      @Named("daemonScheduler") ScheduledExecutorService scheduler,
                                      EventBus serverEventBus,
-                                     PipelineInterpreter.State.Factory stateFactory) {
+                                     PipelineInterpreter.State.Factory stateFactory,
+                                     @Named("compiled_rule_conditions") boolean compileRuleConditions) {
         this.ruleMetricsConfigService = ruleMetricsConfigService;
+        this.compileRuleConditions = compileRuleConditions;
         this.scheduler = scheduler;
         this.serverEventBus = serverEventBus;
         this.stateFactory = stateFactory;
@@ -96,6 +114,9 @@ public class ConfigurationStateUpdater {
     // currently allow direct global state updates from external sources (if you need to, send an event on the bus instead)
     private synchronized PipelineInterpreter.State reloadAndSave() {
         final ImmutableMap<String, Pipeline> currentPipelines = pipelineResolver.resolvePipelines(pipelineMetricRegistry);
+        if (compileRuleConditions) {
+            compileRuleConditions(currentPipelines);
+        }
         final ImmutableSetMultimap<String, Pipeline> streamPipelineConnections = pipelineResolver.resolveStreamConnections(currentPipelines);
 
         final RuleMetricsConfigDto ruleMetricsConfig = ruleMetricsConfigService.get();
@@ -105,6 +126,15 @@ public class ConfigurationStateUpdater {
     }
 
 
+    // every stage holds its own copies of the rules, so the compiled conditions are never shared with older states
+    private void compileRuleConditions(ImmutableMap<String, Pipeline> pipelines) {
+        for (Pipeline pipeline : pipelines.values()) {
+            for (Stage stage : pipeline.stages()) {
+                stage.getRules().forEach(Rule::compileCondition);
+            }
+        }
+    }
+
     /**
      * Can be used to inspect or use the current state of the pipeline system.
      * For example, the interpreter
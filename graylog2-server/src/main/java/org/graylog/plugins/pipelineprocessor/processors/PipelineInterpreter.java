@@ -429,7 +429,7 @@ public class PipelineInterpreter implements MessageProcessor {
         final boolean matched;
         final LogicalExpression logicalExpression = rule.when();
         try {
-            matched = logicalExpression.evaluateBool(context);
+            matched = rule.evaluateCondition(context);
         } catch (Exception e) {
 
             context.onEvaluationException(e, logicalExpression);
@@ -55,6 +55,7 @@ import org.graylog.plugins.views.search.export.ExportBackend;
 import org.graylog.plugins.views.search.export.LegacyChunkDecorator;
 import org.graylog.plugins.views.search.export.MessagesExporter;
 import org.graylog.plugins.views.search.export.SimpleMessageChunkCsvWriter;
+import org.graylog.plugins.views.search.export.SimpleMessageChunkNdjsonWriter;
 import org.graylog.plugins.views.search.filter.AndFilter;
 import org.graylog.plugins.views.search.filter.OrFilter;
 import org.graylog.plugins.views.search.filter.QueryStringFilter;
@@ -279,10 +280,13 @@ public class ViewsBindings extends ViewsModule {
         registerExceptionMappers();
 
         addExportFormat(() -> MoreMediaTypes.TEXT_CSV_TYPE);
+        addExportFormat(() -> MoreMediaTypes.APPLICATION_NDJSON_TYPE);
+        addExportFormat(() -> MoreMediaTypes.APPLICATION_NDJSON_GZIP_TYPE);
 
 
         jerseyAdditionalComponentsBinder().addBinding().toInstance(AggregationWidgetExportResponseWriter.class);
         jerseyAdditionalComponentsBinder().addBinding().toInstance(SimpleMessageChunkCsvWriter.class);
+        jerseyAdditionalComponentsBinder().addBinding().toInstance(SimpleMessageChunkNdjsonWriter.class);
         jerseyAdditionalComponentsBinder().addBinding().toInstance(MessageExportFormatFilter.class);
         jerseyAdditionalComponentsBinder().addBinding().toInstance(SearchUserBinder.class);
 
@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.searchtypes.pivot.BucketSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Time;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.TimeUnitInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Max;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Min;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Percentage;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Sum;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.indexer.searches.timeranges.RelativeRange;
+import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the buckets of date histogram pivots which lie completely in the past, so that refreshing a widget with a
+ * relative time range only queries the parts of the range which have changed since the last execution.
+ * <p>
+ * An eligible pivot is replaced by up to two pivots before the query is run:
+ * <ul>
+ *     <li>the <em>head</em>, covering the partial bucket at the start of the time range, and</li>
+ *     <li>the <em>rest</em>, covering everything after the cached buckets up to the end of the time range.</li>
+ * </ul>
+ * Buckets of the rest which ended at least the settle time ago are added to the cache. Afterwards the results of both
+ * pivots and the cached buckets are merged into the result of the original pivot.
+ * <p>
+ * Only pivots whose rows are a single date histogram with a fixed-length interval, without columns and custom sorting,
+ * are split. If a rollup row was requested, all series have to be counts, sums, minimums or maximums, because the rollup
+ * is recomputed from the rows.
+ */
+@Singleton
+public class PivotResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger(PivotResultCache.class);
+
+    static final String HEAD_SUFFIX = "#cached-head";
+    static final String REST_SUFFIX = "#cached-rest";
+    static final String BUCKET_COUNT_SERIES_ID = "__cached_bucket_count";
+    private static final Set<String> ROLLUP_SERIES_TYPES = Set.of(Count.NAME, Sum.NAME, Min.NAME, Max.NAME);
+    private static final DateTimeFormatter BUCKET_KEY_PARSER = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+    private final ObjectMapper objectMapper;
+    private final long settleTimeMillis;
+    @Nullable
+    private final Cache<String, CachedBuckets> cache;
+
+    @Inject
+    public PivotResultCache(ObjectMapper objectMapper,
+                            @Named("search_query_engine_pivot_cache_size") int cacheSize,
+                            @Named("search_query_engine_pivot_cache_ttl") Duration ttl,
+                            @Named("search_query_engine_pivot_cache_settle_time") Duration settleTime) {
+        this.objectMapper = objectMapper;
+        this.settleTimeMillis = settleTime.toMilliseconds();
+        this.cache = cacheSize > 0
+                ? CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(ttl.getQuantity(), ttl.getUnit())
+                .build()
+                : null;
+    }
+
+    /**
+     * Replaces the eligible pivots of the query with their head and rest pivots.
+     */
+    public PreparedQuery prepare(SearchJob searchJob, Query query) {
+        if (cache == null || !ElasticsearchQueryString.NAME.equals(query.query().type())) {
+            return new PreparedQuery(query, List.of());
+        }
+        final List<Split> splits = new ArrayList<>();
+        final List<SearchType> searchTypes = new ArrayList<>(query.searchTypes().size());
+        for (SearchType searchType : query.searchTypes()) {
+            final Optional<Split> split = searchType instanceof Pivot pivot ? split(searchJob, query, pivot) : Optional.empty();
+            if (split.isPresent()) {
+                splits.add(split.get());
+                split.get().head().ifPresent(searchTypes::add);
+                searchTypes.add(split.get().rest());
+            } else {
+                searchTypes.add(searchType);
+            }
+        }
+        if (splits.isEmpty()) {
+            return new PreparedQuery(query, List.of());
+        }
+        return new PreparedQuery(query.toBuilder().searchTypes(ImmutableSet.copyOf(searchTypes)).build(), splits);
+    }
+
+    /**
+     * Merges the results of the split pivots into results for the original pivots and caches the settled buckets.
+     */
+    public QueryResult complete(PreparedQuery prepared, Query originalQuery, QueryResult result) {
+        if (prepared.splits().isEmpty()) {
+            return result;
+        }
+        final Map<String, SearchType.Result> searchTypeResults = new LinkedHashMap<>(result.searchTypes());
+        for (Split split : prepared.splits()) {
+            final SearchType.Result head = split.head().map(pivot -> searchTypeResults.remove(pivot.id())).orElse(null);
+            final SearchType.Result rest = searchTypeResults.remove(split.rest().id());
+            if ((split.head().isPresent() && !(head instanceof PivotResult)) || !(rest instanceof PivotResult)) {
+                // one of the parts failed, the error has already been recorded for it
+                continue;
+            }
+            merge(split, (PivotResult) head, (PivotResult) rest).ifPresent(merged -> searchTypeResults.put(split.original().id(), merged));
+        }
+        return result.toBuilder()
+                .query(originalQuery)
+                .searchTypes(searchTypeResults)
+                .build();
+    }
+
+    private Optional<Split> split(SearchJob searchJob, Query query, Pivot pivot) {
+        if (!isEligible(query, pivot)) {
+            return Optional.empty();
+        }
+        final Time time = (Time) pivot.rowGroups().get(0);
+        final TimeRange timeRange = query.effectiveTimeRange(pivot);
+        final long from = timeRange.getFrom().getMillis();
+        final long to = timeRange.getTo().getMillis();
+        final long interval = intervalMillis(time.interval().toDateInterval(timeRange));
+        if (interval <= 0) {
+            return Optional.empty();
+        }
+
+        final long firstBucket = ceil(from, interval);
+        final long settledEnd = Math.floorDiv(Math.min(to, Tools.nowUTC().getMillis() - settleTimeMillis), interval) * interval;
+        // nothing would be cached, so splitting the pivot would just add work
+        if (settledEnd - firstBucket < interval) {
+            return Optional.empty();
+        }
+
+        final String cacheKey = cacheKey(searchJob, query, pivot, interval);
+        if (cacheKey == null) {
+            return Optional.empty();
+        }
+        final CachedBuckets cached = cache.getIfPresent(cacheKey);
+        final long reusedEnd;
+        final NavigableMap<Long, CachedBucket> reused;
+        if (cached != null && cached.start() <= firstBucket && cached.end() > firstBucket) {
+            reusedEnd = Math.min(cached.end(), settledEnd);
+            reused = cached.buckets().subMap(firstBucket, true, reusedEnd, false);
+        } else {
+            reusedEnd = firstBucket;
+            reused = new TreeMap<>();
+        }
+        LOG.debug("Reusing {} cached buckets of pivot {} between {} and {}", reused.size(), pivot.id(), firstBucket, reusedEnd);
+
+        // the interval is fixed, so the buckets of the parts are the same as the ones of the original range
+        final Time fixedTime = Time.builder()
+                .fields(time.fields())
+                .interval(TimeUnitInterval.Builder.builder().timeunit(interval / 1000 + "s").build())
+                .build();
+        final Optional<Pivot> head = from < firstBucket
+                ? Optional.of(pivot.toBuilder()
+                .id(pivot.id() + HEAD_SUFFIX)
+                .rowGroups(List.of(fixedTime))
+                .rollup(false)
+                .timerange(absolute(from, firstBucket))
+                .build())
+                : Optional.empty();
+        final List<SeriesSpec> restSeries = new ArrayList<>(pivot.series());
+        restSeries.add(Count.builder().id(BUCKET_COUNT_SERIES_ID).build());
+        final Pivot rest = pivot.toBuilder()
+                .id(pivot.id() + REST_SUFFIX)
+                .rowGroups(List.of(fixedTime))
+                .series(restSeries)
+                .rollup(false)
+                .timerange(absolute(reusedEnd, to))
+                .build();
+
+        return Optional.of(new Split(pivot, cacheKey, from, to, firstBucket, reusedEnd, settledEnd, reused, head, rest));
+    }
+
+    private static boolean isEligible(Query query, Pivot pivot) {
+        if (pivot.timerange().isPresent() || !pivot.columnGroups().isEmpty() || !pivot.sort().isEmpty()
+                || pivot.rowGroups().size() != 1) {
+            return false;
+        }
+        final BucketSpec rowGroup = pivot.rowGroups().get(0);
+        if (!(rowGroup instanceof Time time) || time.fields().size() != 1) {
+            return false;
+        }
+        // all messages are bucketed with an auto date histogram, which has no fixed bucket boundaries
+        if (query.timerange() instanceof RelativeRange relativeRange && relativeRange.isAllMessages()) {
+            return false;
+        }
+        for (SeriesSpec series : pivot.series()) {
+            if (series instanceof SeriesSpec.Fallback || Percentage.NAME.equals(series.type())
+                    || (pivot.rollup() && !ROLLUP_SERIES_TYPES.contains(series.type()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Only units with a fixed length are supported, their buckets are aligned to multiples of the interval
+    private static long intervalMillis(@Nullable DateInterval interval) {
+        if (interval == null) {
+            return -1;
+        }
+        final long quantity = interval.getQuantity().longValue();
+        final long unit = switch (interval.getUnit()) {
+            case "s" -> TimeUnit.SECONDS.toMillis(1);
+            case "m" -> TimeUnit.MINUTES.toMillis(1);
+            case "h" -> TimeUnit.HOURS.toMillis(1);
+            case "d" -> TimeUnit.DAYS.toMillis(1);
+            default -> -1;
+        };
+        return quantity > 0 && unit > 0 ? quantity * unit : -1;
+    }
+
+    @Nullable
+    private String cacheKey(SearchJob searchJob, Query query, Pivot pivot, long interval) {
+        final Map<String, Object> key = new HashMap<>();
+        key.put("query", query.query());
+        key.put("filter", query.filter());
+        key.put("filters", query.filters());
+        key.put("parameters", searchJob.getSearch().parameters());
+        key.put("pivot", pivot.toBuilder().id("").name(null).build());
+        key.put("interval", interval);
+        try {
+            return Hashing.sha256().hashString(objectMapper.writeValueAsString(key), StandardCharsets.UTF_8).toString();
+        } catch (JsonProcessingException e) {
+            LOG.debug("Couldn't create cache key for pivot {}, not caching it", pivot.id(), e);
+            return null;
+        }
+    }
+
+    private Optional<PivotResult> merge(Split split, @Nullable PivotResult head, PivotResult rest) {
+        final List<PivotResult.Row> rows = new ArrayList<>();
+        long total = rest.total();
+        if (head != null) {
+            rows.addAll(head.rows());
+            total += head.total();
+        }
+        for (CachedBucket bucket : split.reused().values()) {
+            rows.add(bucket.row());
+            total += bucket.count();
+        }
+
+        final TreeMap<Long, CachedBucket> settled = new TreeMap<>(split.reused());
+        boolean cacheable = true;
+        for (PivotResult.Row row : rest.rows()) {
+            long count = 0;
+            final ImmutableList.Builder<PivotResult.Value> values = ImmutableList.builder();
+            for (PivotResult.Value value : row.values()) {
+                if (value.key().size() == 1 && BUCKET_COUNT_SERIES_ID.equals(value.key().get(0))) {
+                    count = value.value() instanceof Number number ? number.longValue() : 0;
+                } else {
+                    values.add(value);
+                }
+            }
+            final PivotResult.Row strippedRow = PivotResult.Row.builder()
+                    .key(row.key())
+                    .values(values.build())
+                    .source(row.source())
+                    .build();
+            rows.add(strippedRow);
+
+            final Long bucketStart = bucketStart(row);
+            if (bucketStart == null) {
+                cacheable = false;
+            } else if (bucketStart < split.settledEnd()) {
+                settled.put(bucketStart, new CachedBucket(strippedRow, count));
+            }
+        }
+        if (cacheable) {
+            cache.put(split.cacheKey(), new CachedBuckets(split.firstBucket(), split.settledEnd(), settled));
+        }
+
+        final Pivot pivot = split.original();
+        if (pivot.rollup()) {
+            rows.add(rollupRow(pivot, rows));
+        }
+
+        final PivotResult.Builder result = PivotResult.builder()
+                .id(pivot.id())
+                .rows(ImmutableList.copyOf(rows))
+                .total(total)
+                .effectiveTimerange(absolute(split.from(), split.to()));
+        pivot.name().ifPresent(result::name);
+        return Optional.of(result.build());
+    }
+
+    @Nullable
+    private static Long bucketStart(PivotResult.Row row) {
+        if (row.key().size() != 1) {
+            return null;
+        }
+        try {
+            return BUCKET_KEY_PARSER.parseMillis(row.key().get(0));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Combines the values of the rows into the rollup row, like the rollup the search backend computes over the whole range
+    private static PivotResult.Row rollupRow(Pivot pivot, List<PivotResult.Row> rows) {
+        final PivotResult.Row.Builder rollup = PivotResult.Row.builder().key(ImmutableList.of()).source("non-leaf");
+        for (SeriesSpec series : pivot.series()) {
+            Number combined = null;
+            for (PivotResult.Row row : rows) {
+                for (PivotResult.Value value : row.values()) {
+                    if (value.rollup() && value.key().size() == 1 && value.key().get(0).equals(series.id())
+                            && value.value() instanceof Number number) {
+                        combined = combine(series.type(), combined, number);
+                    }
+                }
+            }
+            if (combined == null && Count.NAME.equals(series.type())) {
+                combined = 0L;
+            }
+            rollup.addValue(PivotResult.Value.create(List.of(series.id()), combined, true, "row-inner"));
+        }
+        return rollup.build();
+    }
+
+    private static Number combine(String seriesType, @Nullable Number combined, Number value) {
+        if (!Count.NAME.equals(seriesType) && Double.isNaN(value.doubleValue())) {
+            return combined;
+        }
+        if (combined == null) {
+            return value;
+        }
+        return switch (seriesType) {
+            case Count.NAME -> combined.longValue() + value.longValue();
+            case Sum.NAME -> combined.doubleValue() + value.doubleValue();
+            case Min.NAME -> Math.min(combined.doubleValue(), value.doubleValue());
+            case Max.NAME -> Math.max(combined.doubleValue(), value.doubleValue());
+            default -> throw new IllegalArgumentException("Series " + seriesType + " can't be combined");
+        };
+    }
+
+    private static long ceil(long value, long interval) {
+        return -Math.floorDiv(-value, interval) * interval;
+    }
+
+    private static AbsoluteRange absolute(long from, long to) {
+        return AbsoluteRange.create(new DateTime(from, DateTimeZone.UTC), new DateTime(to, DateTimeZone.UTC));
+    }
+
+    public record PreparedQuery(Query query, List<Split> splits) {}
+
+    record Split(Pivot original, String cacheKey, long from, long to, long firstBucket, long reusedEnd,
+                 long settledEnd, NavigableMap<Long, CachedBucket> reused, Optional<Pivot> head, Pivot rest) {}
+
+    record CachedBucket(PivotResult.Row row, long count) {}
+
+    // The buckets between start (inclusive) and end (exclusive), buckets without messages have no entry
+    record CachedBuckets(long start, long end, NavigableMap<Long, CachedBucket> buckets) {}
+}
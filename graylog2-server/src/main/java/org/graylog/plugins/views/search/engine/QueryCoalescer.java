@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.errors.QueryError;
+import org.graylog.plugins.views.search.errors.SearchError;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Lets concurrent executions of identical queries share a single backend request.
+ * <p>
+ * Two executions are identical if their normalized queries, including the ids, time range, stream filters and search
+ * types, the search parameters, the time zone and the cancellation timeout are the same. Search normalization resolves
+ * the streams a user is allowed to see into the query filter before the query reaches the engine and the search
+ * execution guard has rejected queries referencing inaccessible streams, so users only share results of queries
+ * they could have run themselves.
+ * <p>
+ * The backend request runs as part of the search job which started it, so cancelling that job also cancels the request
+ * for the joined executions.
+ */
+@Singleton
+public class QueryCoalescer {
+    private static final Logger LOG = LoggerFactory.getLogger(QueryCoalescer.class);
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final ConcurrentMap<String, CompletableFuture<Execution>> inFlight = new ConcurrentHashMap<>();
+    private final Meter executedQueries;
+    private final Meter coalescedQueries;
+
+    @Inject
+    public QueryCoalescer(ObjectMapper objectMapper,
+                          MetricRegistry metricRegistry,
+                          @Named("search_query_engine_coalesce_queries") boolean enabled) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.executedQueries = metricRegistry.meter(name(QueryCoalescer.class, "executed-queries"));
+        this.coalescedQueries = metricRegistry.meter(name(QueryCoalescer.class, "coalesced-queries"));
+    }
+
+    /**
+     * Runs the execution, unless an identical query is already running. In that case the calling thread waits for the
+     * running execution and returns its result.
+     *
+     * @throws java.util.concurrent.CompletionException wrapping the exception of the running execution, if it failed
+     */
+    public Execution execute(SearchJob searchJob,
+                             Query query,
+                             Collection<SearchError> validationErrors,
+                             DateTimeZone timezone,
+                             Supplier<Execution> execution) {
+        final String key = enabled ? key(searchJob, query, validationErrors, timezone) : null;
+        if (key == null) {
+            executedQueries.mark();
+            return execution.get();
+        }
+
+        final CompletableFuture<Execution> flight = new CompletableFuture<>();
+        final CompletableFuture<Execution> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            LOG.debug("[{}] Identical query is already running, waiting for its result", query.id());
+            coalescedQueries.mark();
+            return running.join();
+        }
+
+        executedQueries.mark();
+        try {
+            final Execution result = execution.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    @Nullable
+    private String key(SearchJob searchJob, Query query, Collection<SearchError> validationErrors, DateTimeZone timezone) {
+        // validation errors change which search types are generated, so those queries are always run on their own
+        final boolean hasValidationErrors = validationErrors.stream()
+                .anyMatch(error -> error instanceof QueryError queryError && query.id().equals(queryError.queryId()));
+        if (hasValidationErrors) {
+            return null;
+        }
+
+        final Map<String, Object> key = new HashMap<>();
+        key.put("query", query);
+        key.put("parameters", searchJob.getSearch().parameters());
+        key.put("timezone", timezone.getID());
+        key.put("cancel_after_seconds", searchJob.getCancelAfterSeconds());
+        try {
+            return Hashing.sha256().hashString(objectMapper.writeValueAsString(key), StandardCharsets.UTF_8).toString();
+        } catch (JsonProcessingException e) {
+            LOG.debug("Couldn't create coalescing key for query {}, running it on its own", query.id(), e);
+            return null;
+        }
+    }
+
+    /**
+     * The result of a query and the errors which occurred while generating and running it. The errors have to be added
+     * to every search job which receives the result.
+     */
+    public record Execution(QueryResult result, Collection<SearchError> errors) {}
+}
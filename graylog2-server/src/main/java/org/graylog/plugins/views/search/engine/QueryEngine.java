@@ -62,17 +62,23 @@ public class QueryEngine {
     private final Executor dataLakeJobsQueryPool;
     private final ElasticsearchBackendProvider elasticsearchBackendProvider;
     private final Map<String, QueryBackend<? extends GeneratedQueryContext>> unversionedBackends;
+    private final PivotResultCache pivotResultCache;
+    private final QueryCoalescer queryCoalescer;
 
     @Inject
     public QueryEngine(Configuration configuration,
                        ElasticsearchBackendProvider elasticsearchBackendProvider,
                        Map<String, QueryBackend<? extends GeneratedQueryContext>> unversionedBackends,
                        Set<QueryMetadataDecorator> queryMetadataDecorators,
-                       QueryParser queryParser) {
+                       QueryParser queryParser,
+                       PivotResultCache pivotResultCache,
+                       QueryCoalescer queryCoalescer) {
         this.elasticsearchBackendProvider = elasticsearchBackendProvider;
         this.unversionedBackends = unversionedBackends;
         this.queryMetadataDecorators = queryMetadataDecorators;
         this.queryParser = queryParser;
+        this.pivotResultCache = pivotResultCache;
+        this.queryCoalescer = queryCoalescer;
 
         this.indexerJobsQueryPool = createThreadPool(
                 configuration.searchQueryEngineIndexerJobsPoolSize(),
@@ -152,19 +158,31 @@ public class QueryEngine {
     }
 
     private QueryResult prepareAndRun(SearchJob searchJob, Query query, Set<SearchError> validationErrors, DateTimeZone timezone) {
+        // identical queries of concurrent search jobs (e.g. many users opening the same dashboard) share one execution
+        final QueryCoalescer.Execution execution = queryCoalescer.execute(searchJob, query, validationErrors, timezone,
+                () -> generateAndRun(searchJob, query, validationErrors, timezone));
+        execution.errors().forEach(searchJob::addError);
+        return execution.result();
+    }
+
+    private QueryCoalescer.Execution generateAndRun(SearchJob searchJob, Query query, Set<SearchError> validationErrors, DateTimeZone timezone) {
         final var backend = getBackendForQuery(query);
         LOG.debug("[{}] Using {} to generate query", query.id(), backend);
         // with all the results done, we can execute the current query and eventually complete our own result
         // if any of this throws an exception, the handle in #execute will convert it to an error and return a "failed" result instead
         // if the backend already returns a "failed result" then nothing special happens here
-        final GeneratedQueryContext generatedQueryContext = backend.generate(query, validationErrors, timezone);
+        // pivots over past time buckets which have been computed before are split so only the changed buckets are queried
+        final PivotResultCache.PreparedQuery preparedQuery = pivotResultCache.prepare(searchJob, query);
+        final GeneratedQueryContext generatedQueryContext = backend.generate(preparedQuery.query(), validationErrors, timezone);
         LOG.trace("[{}] Generated query {}, running it on backend {}", query.id(), generatedQueryContext, backend);
-        final QueryResult result = backend.run(searchJob, query, generatedQueryContext);
+        final QueryResult result = pivotResultCache.complete(preparedQuery, query,
+                backend.run(searchJob, preparedQuery.query(), generatedQueryContext));
         LOG.debug("[{}] Query returned {}", query.id(), result);
-        if (!generatedQueryContext.errors().isEmpty()) {
-            generatedQueryContext.errors().forEach(searchJob::addError);
-        }
-        return result;
+        // the validation errors are added to the search job by the caller, only the errors of this execution are passed on
+        final Set<SearchError> errors = generatedQueryContext.errors().stream()
+                .filter(error -> !validationErrors.contains(error))
+                .collect(Collectors.toSet());
+        return new QueryCoalescer.Execution(result, errors);
     }
 
     private boolean isQueryWithError(Collection<SearchError> validationErrors, Query query) {
@@ -34,7 +34,13 @@ public class ChunkedRunner {
 
     private static final Logger LOG = LoggerFactory.getLogger(ChunkedRunner.class);
 
-    private final ChunkedOutput<SimpleMessageChunk> output = new ChunkedOutput<>(SimpleMessageChunk.class);
+    // writing blocks while this many chunks are waiting to be sent, so slow clients throttle the export instead of
+    // piling up chunks on the heap
+    static final int QUEUE_CAPACITY = 4;
+
+    private final ChunkedOutput<SimpleMessageChunk> output = ChunkedOutput.<SimpleMessageChunk>builder(SimpleMessageChunk.class)
+            .queueCapacity(QUEUE_CAPACITY)
+            .build();
 
     public static ChunkedOutput<SimpleMessageChunk> runAsync(Consumer<Consumer<SimpleMessageChunk>> call) {
 
@@ -57,6 +63,8 @@ public class ChunkedRunner {
                close();
             }
         });
+        // the thread terminates once the export is done
+        e.shutdown();
     }
 
     private void writeExceptionAsChunk(Exception ex) {
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.export;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.Provider;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.graylog2.rest.MoreMediaTypes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes every message of a chunk as a JSON object on its own line. For gzip compressed NDJSON every chunk is written
+ * as a separate gzip member, concatenated members form a valid gzip stream.
+ */
+@Provider
+@Produces({MoreMediaTypes.APPLICATION_NDJSON, MoreMediaTypes.APPLICATION_NDJSON_GZIP})
+public class SimpleMessageChunkNdjsonWriter extends SimpleMessageChunkWriter {
+    private final ObjectMapper objectMapper;
+
+    @Inject
+    public SimpleMessageChunkNdjsonWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return typesMatch(type, genericType)
+                && (MoreMediaTypes.APPLICATION_NDJSON_TYPE.isCompatible(mediaType) || MoreMediaTypes.APPLICATION_NDJSON_GZIP_TYPE.isCompatible(mediaType));
+    }
+
+    @Override
+    public void writeTo(SimpleMessageChunk chunk,
+                        Class<?> type,
+                        Type genericType,
+                        Annotation[] annotations,
+                        MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders,
+                        OutputStream entityStream) throws IOException, WebApplicationException {
+        if (MoreMediaTypes.APPLICATION_NDJSON_GZIP_TYPE.isCompatible(mediaType)) {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(CloseShieldOutputStream.wrap(entityStream))) {
+                writeMessages(chunk, gzip);
+            }
+        } else {
+            writeMessages(chunk, entityStream);
+        }
+    }
+
+    private void writeMessages(SimpleMessageChunk chunk, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(CloseShieldOutputStream.wrap(outputStream))) {
+            generator.setRootValueSeparator(null);
+            for (SimpleMessage message : chunk.messages()) {
+                writeMessage(chunk, message, generator);
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    private void writeMessage(SimpleMessageChunk chunk, SimpleMessage message, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        if (chunk.fieldsInOrder().isEmpty()) {
+            for (Map.Entry<String, Object> field : message.fields().entrySet()) {
+                generator.writeFieldName(field.getKey());
+                objectMapper.writeValue(generator, field.getValue());
+            }
+        } else {
+            for (String field : chunk.fieldsInOrder()) {
+                final Object value = message.valueFor(field);
+                if (value != null) {
+                    generator.writeFieldName(field);
+                    objectMapper.writeValue(generator, value);
+                }
+            }
+        }
+        generator.writeEndObject();
+    }
+}
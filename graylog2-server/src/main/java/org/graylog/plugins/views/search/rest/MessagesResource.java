@@ -71,7 +71,7 @@ import java.util.stream.Stream;
 
 import static org.graylog2.shared.rest.documentation.generator.Generator.CLOUD_VISIBLE;
 
-@Api(value = "Search/Messages", description = "Simple search returning (matching) messages only, as CSV.", tags = {CLOUD_VISIBLE})
+@Api(value = "Search/Messages", description = "Simple search returning (matching) messages only, as CSV or NDJSON.", tags = {CLOUD_VISIBLE})
 @Path("/views/search/messages")
 @RequiresAuthentication
 public class MessagesResource extends RestResource implements PluginRestResource {
@@ -118,11 +118,11 @@ public class MessagesResource extends RestResource implements PluginRestResource
     }
 
     @ApiOperation(
-            value = "Export messages as CSV",
+            value = "Export messages as CSV or NDJSON",
             notes = "Use this endpoint, if you want to configure export parameters freely instead of relying on an existing Search"
     )
     @POST
-    @Produces(MoreMediaTypes.TEXT_CSV)
+    @Produces({MoreMediaTypes.TEXT_CSV, MoreMediaTypes.APPLICATION_NDJSON, MoreMediaTypes.APPLICATION_NDJSON_GZIP})
     @NoAuditEvent("Has custom audit events")
     public ChunkedOutput<SimpleMessageChunk> retrieve(@ApiParam @Valid MessagesRequest rawrequest,
                                                       @Context SearchUser searchUser) {
@@ -167,10 +167,10 @@ public class MessagesResource extends RestResource implements PluginRestResource
                 : resultFormat.withTimeZone(searchUser.timeZone().orElse(FALLBACK_TIME_ZONE));
     }
 
-    @ApiOperation(value = "Export a search result as CSV")
+    @ApiOperation(value = "Export a search result as CSV or NDJSON")
     @POST
     @Path("{searchId}")
-    @Produces(MoreMediaTypes.TEXT_CSV)
+    @Produces({MoreMediaTypes.TEXT_CSV, MoreMediaTypes.APPLICATION_NDJSON, MoreMediaTypes.APPLICATION_NDJSON_GZIP})
     @NoAuditEvent("Has custom audit events")
     public ChunkedOutput<SimpleMessageChunk> retrieveForSearch(
             @ApiParam(value = "ID of an existing Search", name = "searchId") @PathParam("searchId") String searchId,
@@ -185,7 +185,7 @@ public class MessagesResource extends RestResource implements PluginRestResource
         return asyncRunner.apply(chunkConsumer -> exporter(searchId).export(command, chunkConsumer));
     }
 
-    @ApiOperation(value = "Export a message table as CSV")
+    @ApiOperation(value = "Export a message table as CSV or NDJSON")
     @POST
     @Path("{searchId}/{searchTypeId}")
     @NoAuditEvent("Has custom audit events")
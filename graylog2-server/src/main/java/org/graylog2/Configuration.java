@@ -44,6 +44,7 @@ import org.graylog2.outputs.BatchSizeConfig;
 import org.graylog2.plugin.Tools;
 import org.graylog2.security.hashing.PBKDF2PasswordAlgorithm;
 import org.graylog2.security.realm.RootAccountRealm;
+import org.graylog2.streams.StreamRouterEngineType;
 import org.graylog2.utilities.IPSubnetConverter;
 import org.graylog2.utilities.IpSubnet;
 import org.joda.time.DateTimeZone;
@@ -92,12 +93,30 @@ public class Configuration extends CaConfiguration implements CommonNodeConfigur
     @Parameter(value = "output_flush_interval", required = true, validators = PositiveIntegerValidator.class)
     private int outputFlushInterval = 1;
 
+    @Parameter(value = "output_batch_adaptive_sizing")
+    private boolean outputBatchAdaptiveSizing = false;
+
+    @Parameter(value = "output_batch_latency_target", validators = PositiveDurationValidator.class)
+    private Duration outputBatchLatencyTarget = Duration.seconds(1L);
+
+    @Parameter(value = "output_batch_adaptive_max_concurrency", validators = PositiveIntegerValidator.class)
+    private int outputBatchAdaptiveMaxConcurrency = 16;
+
     @Parameter(value = "outputbuffer_processors", required = true, validators = PositiveIntegerValidator.class)
     private int outputBufferProcessors = defaultNumberOfOutputBufferProcessors();
 
     @Parameter(value = "outputbuffer_processor_threads_core_pool_size", required = true, validators = PositiveIntegerValidator.class)
     private int outputBufferProcessorThreadsCorePoolSize = 3;
 
+    @Parameter(value = "output_indexer_pipelining")
+    private boolean outputIndexerPipelining = false;
+
+    @Parameter(value = "output_indexer_max_in_flight_requests", validators = PositiveIntegerValidator.class)
+    private int outputIndexerMaxInFlightRequests = 16;
+
+    @Parameter(value = "output_indexer_max_in_flight_requests_per_index_set", validators = PositiveIntegerValidator.class)
+    private int outputIndexerMaxInFlightRequestsPerIndexSet = 2;
+
     @Parameter(value = "node_id_file", validators = NodeIdFileValidator.class)
     private String nodeIdFile = "/etc/graylog/server/node-id";
 
@@ -132,6 +151,9 @@ public class Configuration extends CaConfiguration implements CommonNodeConfigur
     @Parameter(value = "stream_processing_max_faults", validators = PositiveIntegerValidator.class)
     private int streamProcessingMaxFaults = 3;
 
+    @Parameter(value = "stream_router_engine", converter = StreamRouterEngineType.Converter.class)
+    private StreamRouterEngineType streamRouterEngine = StreamRouterEngineType.LINEAR;
+
     @Parameter(value = "output_module_timeout", validators = PositiveLongValidator.class)
     private long outputModuleTimeout = 10000;
 
@@ -266,6 +288,27 @@ public class Configuration extends CaConfiguration implements CommonNodeConfigur
     @Parameter("search_query_engine_data_lake_jobs_queue_size")
     private int searchQueryEngineDataLakeJobsQueueSize = 0;
 
+    @Parameter("search_query_engine_pivot_cache_size")
+    private int searchQueryEnginePivotCacheSize = 1000;
+
+    @Parameter(value = "search_query_engine_pivot_cache_ttl", validators = PositiveDurationValidator.class)
+    private Duration searchQueryEnginePivotCacheTtl = Duration.minutes(5);
+
+    @Parameter(value = "search_query_engine_pivot_cache_settle_time", validators = PositiveDurationValidator.class)
+    private Duration searchQueryEnginePivotCacheSettleTime = Duration.minutes(1);
+
+    @Parameter("search_query_engine_coalesce_queries")
+    private boolean searchQueryEngineCoalesceQueries = true;
+
+    @Parameter(value = "search_export_parallel_slices", validators = PositiveIntegerValidator.class)
+    private int searchExportParallelSlices = 1;
+
+    @Parameter(value = "search_export_max_sliced_exports", validators = PositiveIntegerValidator.class)
+    private int searchExportMaxSlicedExports = 4;
+
+    @Parameter(value = "search_export_point_in_time_keep_alive", validators = PositiveDurationValidator.class)
+    private Duration searchExportPointInTimeKeepAlive = Duration.minutes(5L);
+
     @Documentation("""
             Enabling this parameter will activate automatic security configuration. Graylog server will
             set a default 30-day automatic certificate renewal policy and create a self-signed CA. This CA
@@ -357,6 +400,18 @@ public class Configuration extends CaConfiguration implements CommonNodeConfigur
         return outputFlushInterval;
     }
 
+    public boolean isOutputBatchAdaptiveSizing() {
+        return outputBatchAdaptiveSizing;
+    }
+
+    public Duration getOutputBatchLatencyTarget() {
+        return outputBatchLatencyTarget;
+    }
+
+    public int getOutputBatchAdaptiveMaxConcurrency() {
+        return outputBatchAdaptiveMaxConcurrency;
+    }
+
     public int getOutputBufferProcessors() {
         return outputBufferProcessors;
     }
@@ -365,6 +420,18 @@ public class Configuration extends CaConfiguration implements CommonNodeConfigur
         return outputBufferProcessorThreadsCorePoolSize;
     }
 
+    public boolean isOutputIndexerPipelining() {
+        return outputIndexerPipelining;
+    }
+
+    public int getOutputIndexerMaxInFlightRequests() {
+        return outputIndexerMaxInFlightRequests;
+    }
+
+    public int getOutputIndexerMaxInFlightRequestsPerIndexSet() {
+        return outputIndexerMaxInFlightRequestsPerIndexSet;
+    }
+
     public boolean isCloud() {
         return isCloud;
     }
@@ -425,6 +492,10 @@ public class Configuration extends CaConfiguration implements CommonNodeConfigur
         return streamProcessingMaxFaults;
     }
 
+    public StreamRouterEngineType getStreamRouterEngine() {
+        return streamRouterEngine;
+    }
+
     public long getOutputModuleTimeout() {
         return outputModuleTimeout;
     }
@@ -549,6 +620,19 @@ public class Configuration extends CaConfiguration implements CommonNodeConfigur
         }
     }
 
+    @ValidatorMethod
+    @SuppressWarnings("unused")
+    public void validateOutputConcurrency() throws ValidationException {
+        // With pipelining, every bulk request holds an in-flight permit while it waits for the adaptive concurrency
+        // limit, so a higher adaptive limit could never be reached.
+        if (outputBatchAdaptiveSizing && outputIndexerPipelining
+                && outputBatchAdaptiveMaxConcurrency > outputIndexerMaxInFlightRequests) {
+            throw new ValidationException("\"output_batch_adaptive_max_concurrency\" (" + outputBatchAdaptiveMaxConcurrency
+                    + ") must not be greater than \"output_indexer_max_in_flight_requests\" ("
+                    + outputIndexerMaxInFlightRequests + ") if \"output_indexer_pipelining\" is enabled");
+        }
+    }
+
     @ValidatorMethod
     public void validateLeaderElectionTimeouts() throws ValidationException {
         if (leaderElectionMode != LeaderElectionMode.AUTOMATIC) {
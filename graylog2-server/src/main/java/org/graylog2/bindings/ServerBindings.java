@@ -90,7 +90,9 @@ import org.graylog2.shared.system.activities.ActivityWriter;
 import org.graylog2.storage.SupportedSearchVersionDynamicFeature;
 import org.graylog2.streams.DefaultStreamChangeHandler;
 import org.graylog2.streams.StreamRouter;
+import org.graylog2.streams.CompiledStreamRouterEngine;
 import org.graylog2.streams.StreamRouterEngine;
+import org.graylog2.streams.StreamRouterEngineType;
 import org.graylog2.system.activities.SystemMessageActivityWriter;
 import org.graylog2.system.debug.ClusterDebugEventListener;
 import org.graylog2.system.debug.LocalDebugEventListener;
@@ -198,7 +200,9 @@ public class ServerBindings extends Graylog2Module {
     private void bindInterfaces() {
         bind(AlertSender.class).to(FormattedEmailAlertSender.class);
         bind(StreamRouter.class);
-        install(new FactoryModuleBuilder().implement(StreamRouterEngine.class, StreamRouterEngine.class).build(
+        final Class<? extends StreamRouterEngine> streamRouterEngineClass =
+                configuration.getStreamRouterEngine() == StreamRouterEngineType.COMPILED ? CompiledStreamRouterEngine.class : StreamRouterEngine.class;
+        install(new FactoryModuleBuilder().implement(StreamRouterEngine.class, streamRouterEngineClass).build(
                 StreamRouterEngine.Factory.class));
         bind(ActivityWriter.class).to(SystemMessageActivityWriter.class);
         bind(PersistedInputs.class).to(PersistedInputsImpl.class);
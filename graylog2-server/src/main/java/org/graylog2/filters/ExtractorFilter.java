@@ -16,7 +16,6 @@
  */
 package org.graylog2.filters;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import org.graylog.failure.ProcessingFailureCause;
@@ -40,7 +39,6 @@ import org.slf4j.LoggerFactory;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
@@ -52,7 +50,7 @@ public class ExtractorFilter implements MessageFilter {
     private static final Logger LOG = LoggerFactory.getLogger(ExtractorFilter.class);
     private static final String NAME = "Extractor";
 
-    private final ConcurrentMap<String, List<Extractor>> extractors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ExtractorPlan> extractors = new ConcurrentHashMap<>();
 
     private final InputService inputService;
     private final ScheduledExecutorService scheduler;
@@ -74,9 +72,11 @@ public class ExtractorFilter implements MessageFilter {
             return false;
         }
 
-        for (final Extractor extractor : extractors.getOrDefault(msg.getSourceInputId(), Collections.emptyList())) {
+        final ExtractorPlan plan = extractors.getOrDefault(msg.getSourceInputId(), ExtractorPlan.EMPTY);
+        final ExtractorPlan.Evaluation evaluation = plan.newEvaluation();
+        for (final Extractor extractor : plan.extractors()) {
             try {
-                extractor.runExtractor(msg);
+                evaluation.run(extractor, msg);
             } catch (Exception e) {
                 extractor.incrementExceptions();
                 final String error = "Could not apply extractor <" + extractor.getTitle() + "(" + extractor.getId() + ")>";
@@ -160,7 +160,7 @@ public class ExtractorFilter implements MessageFilter {
                     .sorted(Comparator.comparingLong(Extractor::getOrder))
                     .collect(Collectors.toList());
 
-            extractors.put(inputId, ImmutableList.copyOf(sortedExtractors));
+            extractors.put(inputId, new ExtractorPlan(sortedExtractors));
         } catch (NotFoundException e) {
             LOG.warn("Unable to load input <{}>: {}", inputId, e.getMessage());
         }
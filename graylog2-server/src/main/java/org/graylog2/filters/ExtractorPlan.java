@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.filters;
+
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.inputs.Extractor;
+import org.graylog2.utilities.MultiLiteralMatcher;
+import org.graylog2.utilities.RequiredLiterals;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The extractors of an input in execution order, together with their conditions compiled for evaluation per message.
+ * <p>
+ * Extractors with the same condition on the same source field share its result as long as the field value doesn't
+ * change. All literals the conditions on a source field depend on (the value of a string condition and the literals
+ * required by a regex condition) are looked up with a single pass over the field value, and condition regexes only
+ * run if their required literals were found.
+ */
+final class ExtractorPlan {
+    static final ExtractorPlan EMPTY = new ExtractorPlan(List.of());
+
+    // Below this a few String#contains calls are faster than building and running the automaton.
+    private static final int MIN_LITERALS_FOR_MATCHER = 4;
+
+    private final List<Extractor> extractors;
+    private final Map<Extractor, Condition> conditions = new IdentityHashMap<>();
+    private final List<MultiLiteralMatcher> literalMatchers = new ArrayList<>();
+    private final int slots;
+
+    /**
+     * @param extractors the extractors in the order they should run in
+     */
+    ExtractorPlan(List<Extractor> extractors) {
+        this.extractors = List.copyOf(extractors);
+
+        final Map<String, Integer> sourceFields = new HashMap<>();
+        final List<Map<String, Integer>> literalsBySourceField = new ArrayList<>();
+        final Map<List<Object>, Condition> distinctConditions = new HashMap<>();
+        for (Extractor extractor : this.extractors) {
+            final Extractor.ConditionType type = extractor.getConditionType();
+            if ((type != Extractor.ConditionType.STRING && type != Extractor.ConditionType.REGEX)
+                    || extractor.getSourceField() == null || extractor.getConditionValue() == null) {
+                continue;
+            }
+
+            final List<Object> key = List.of(extractor.getSourceField(), type, extractor.getConditionValue());
+            final Condition condition = distinctConditions.computeIfAbsent(key, k -> {
+                final int sourceField = sourceFields.computeIfAbsent(extractor.getSourceField(), field -> {
+                    literalsBySourceField.add(new LinkedHashMap<>());
+                    return literalsBySourceField.size() - 1;
+                });
+                final Map<String, Integer> fieldLiterals = literalsBySourceField.get(sourceField);
+                final Pattern pattern = type == Extractor.ConditionType.REGEX ? Pattern.compile(extractor.getConditionValue(), Pattern.DOTALL) : null;
+                final List<String> literals = pattern == null ? List.of(extractor.getConditionValue()) : RequiredLiterals.of(pattern.pattern());
+                final int[] literalIndices = literals.stream()
+                        .mapToInt(literal -> fieldLiterals.computeIfAbsent(literal, l -> fieldLiterals.size()))
+                        .toArray();
+                return new Condition(distinctConditions.size(), sourceField, literals.toArray(new String[0]), literalIndices, pattern);
+            });
+            conditions.put(extractor, condition);
+        }
+        this.slots = distinctConditions.size();
+
+        for (Map<String, Integer> fieldLiterals : literalsBySourceField) {
+            literalMatchers.add(fieldLiterals.size() < MIN_LITERALS_FOR_MATCHER ? null : new MultiLiteralMatcher(List.copyOf(fieldLiterals.keySet())));
+        }
+    }
+
+    List<Extractor> extractors() {
+        return extractors;
+    }
+
+    /**
+     * @return the state for running the extractors on a single message
+     */
+    Evaluation newEvaluation() {
+        return new Evaluation();
+    }
+
+    private static final class Condition {
+        private final int slot;
+        private final int sourceField;
+        private final String[] literals;
+        private final int[] literalIndices;
+        @Nullable
+        private final Pattern pattern;
+
+        private Condition(int slot, int sourceField, String[] literals, int[] literalIndices, @Nullable Pattern pattern) {
+            this.slot = slot;
+            this.sourceField = sourceField;
+            this.literals = literals;
+            this.literalIndices = literalIndices;
+            this.pattern = pattern;
+        }
+    }
+
+    final class Evaluation implements Extractor.ConditionEvaluator {
+        // Field values are compared by identity, a changed field always is a different instance.
+        private final String[] conditionValues = new String[slots];
+        private final boolean[] conditionResults = new boolean[slots];
+        private final String[] scannedValues = new String[literalMatchers.size()];
+        private final BitSet[] foundLiterals = new BitSet[literalMatchers.size()];
+
+        private Evaluation() {
+        }
+
+        void run(Extractor extractor, Message msg) {
+            if (conditions.containsKey(extractor)) {
+                extractor.runExtractor(msg, this);
+            } else {
+                extractor.runExtractor(msg);
+            }
+        }
+
+        @Override
+        public boolean matches(Extractor extractor, String field) {
+            final Condition condition = conditions.get(extractor);
+            if (condition == null) {
+                return extractor.conditionMatches(field);
+            }
+            if (conditionValues[condition.slot] == field) {
+                return conditionResults[condition.slot];
+            }
+
+            final boolean result = containsLiterals(condition, field)
+                    && (condition.pattern == null || condition.pattern.matcher(field).find());
+            conditionValues[condition.slot] = field;
+            conditionResults[condition.slot] = result;
+            return result;
+        }
+
+        private boolean containsLiterals(Condition condition, String field) {
+            final MultiLiteralMatcher matcher = literalMatchers.get(condition.sourceField);
+            if (matcher == null) {
+                for (String literal : condition.literals) {
+                    if (!field.contains(literal)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            if (scannedValues[condition.sourceField] != field) {
+                foundLiterals[condition.sourceField] = matcher.find(field);
+                scannedValues[condition.sourceField] = field;
+            }
+            final BitSet found = foundLiterals[condition.sourceField];
+            for (int literal : condition.literalIndices) {
+                if (!found.get(literal)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
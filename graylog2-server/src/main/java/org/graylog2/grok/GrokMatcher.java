@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.grok;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import io.krakens.grok.api.Grok;
+import io.krakens.grok.api.Match;
+import org.graylog2.utilities.RequiredLiterals;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A compiled {@link Grok} pattern which skips the regex match for values that don't contain the literals every
+ * match of the pattern contains, e.g. the {@code "sshd["} in {@code sshd\[%{POSINT:pid}\]}. When several patterns are
+ * tried in order, most of them usually fail, and failing on a missing literal is a lot cheaper than backtracking.
+ * <p>
+ * The time spent on matches and misses is tracked per pattern.
+ */
+public class GrokMatcher {
+    private final Grok grok;
+    private final List<String> requiredLiterals;
+    private final Timer matches;
+    private final Timer misses;
+    private final Counter skipped;
+
+    public GrokMatcher(Grok grok, Timer matches, Timer misses, Counter skipped) {
+        this.grok = grok;
+        this.requiredLiterals = RequiredLiterals.of(grok.getNamedRegex());
+        this.matches = matches;
+        this.misses = misses;
+        this.skipped = skipped;
+    }
+
+    public Grok grok() {
+        return grok;
+    }
+
+    List<String> requiredLiterals() {
+        return requiredLiterals;
+    }
+
+    Timer matches() {
+        return matches;
+    }
+
+    Timer misses() {
+        return misses;
+    }
+
+    Counter skipped() {
+        return skipped;
+    }
+
+    /**
+     * Behaves exactly like {@link Grok#match(CharSequence)}.
+     */
+    public Match match(String value) {
+        for (String literal : requiredLiterals) {
+            if (!value.contains(literal)) {
+                skipped.inc();
+                return Match.EMPTY;
+            }
+        }
+
+        final long start = System.nanoTime();
+        final Match match = grok.match(value);
+        (match.isNull() ? misses : matches).update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return match;
+    }
+}
@@ -16,12 +16,19 @@
  */
 package org.graylog2.grok;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.krakens.grok.api.Grok;
 import io.krakens.grok.api.GrokCompiler;
@@ -32,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -39,6 +47,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static com.google.common.cache.CacheLoader.asyncReloading;
 
 @Singleton
@@ -46,23 +55,30 @@ public class GrokPatternRegistry {
     private static final Logger log = LoggerFactory.getLogger(GrokPatternRegistry.class);
 
     private final GrokPatternService grokPatternService;
+    private final MetricRegistry metricRegistry;
+    // guards registering the metrics of a loaded matcher against removing the metrics of an evicted one
+    private final Object metricsLock = new Object();
 
     private final AtomicReference<Set<GrokPattern>> patterns = new AtomicReference<>(Collections.emptySet());
-    private final LoadingCache<String, Grok> grokCache;
-    private final LoadingCache<String, Grok> grokCacheNamedOnly;
+    private final LoadingCache<String, GrokMatcher> grokCache;
+    private final LoadingCache<String, GrokMatcher> grokCacheNamedOnly;
 
     @Inject
     public GrokPatternRegistry(EventBus serverEventBus,
                                GrokPatternService grokPatternService,
-                               @Named("daemonScheduler") ScheduledExecutorService daemonExecutor) {
+                               @Named("daemonScheduler") ScheduledExecutorService daemonExecutor,
+                               MetricRegistry metricRegistry) {
         this.grokPatternService = grokPatternService;
+        this.metricRegistry = metricRegistry;
 
         grokCache = CacheBuilder.newBuilder()
                 .expireAfterAccess(1, TimeUnit.MINUTES) // prevent from hanging on to memory forever
+                .removalListener(metricsRemover(false))
                 .build(asyncReloading(new GrokReloader(false), daemonExecutor));
 
         grokCacheNamedOnly = CacheBuilder.newBuilder()
                 .expireAfterAccess(1, TimeUnit.MINUTES) // prevent from hanging on to memory forever
+                .removalListener(metricsRemover(true))
                 .build(asyncReloading(new GrokReloader(true), daemonExecutor));
 
         // trigger initial loading
@@ -92,6 +108,14 @@ public class GrokPatternRegistry {
     }
 
     public Grok cachedGrokForPattern(String pattern, boolean namedCapturesOnly) {
+        return cachedGrokMatcherForPattern(pattern, namedCapturesOnly).grok();
+    }
+
+    /**
+     * Like {@link #cachedGrokForPattern(String, boolean)}, but the returned matcher skips values which can't match
+     * and records per-pattern timings. Use this for matching values in the processing chain.
+     */
+    public GrokMatcher cachedGrokMatcherForPattern(String pattern, boolean namedCapturesOnly) {
         try {
             if (namedCapturesOnly) {
                 return grokCacheNamedOnly.get(pattern);
@@ -116,7 +140,51 @@ public class GrokPatternRegistry {
         return patterns.get();
     }
 
-    private class GrokReloader extends CacheLoader<String, Grok> {
+    /**
+     * Grok expressions can be arbitrarily long and contain dots, so the metrics are keyed by a hash of the expression
+     * instead of the expression itself.
+     */
+    static String patternId(String pattern) {
+        return Hashing.murmur3_128().hashString(pattern, StandardCharsets.UTF_8).toString().substring(0, 16);
+    }
+
+    private static String metricName(String pattern, boolean namedCapturesOnly, String metric) {
+        return name(GrokPatternRegistry.class, namedCapturesOnly ? "namedCapturesOnly" : "allCaptures", patternId(pattern), metric);
+    }
+
+    private RemovalListener<String, GrokMatcher> metricsRemover(boolean namedCapturesOnly) {
+        return notification -> {
+            if (notification.getKey() != null && notification.getValue() != null) {
+                removeMetrics(notification.getKey(), namedCapturesOnly, notification.getValue());
+            }
+        };
+    }
+
+    /**
+     * Removes the metrics of an evicted matcher. The pattern might have been loaded again with new metrics before the
+     * removal notification arrives, so metrics are only removed if they still belong to the evicted matcher.
+     */
+    @VisibleForTesting
+    void removeMetrics(String pattern, boolean namedCapturesOnly, GrokMatcher matcher) {
+        synchronized (metricsLock) {
+            removeIfRegistered(metricName(pattern, namedCapturesOnly, "matches"), matcher.matches());
+            removeIfRegistered(metricName(pattern, namedCapturesOnly, "misses"), matcher.misses());
+            removeIfRegistered(metricName(pattern, namedCapturesOnly, "skipped"), matcher.skipped());
+        }
+    }
+
+    private void removeIfRegistered(String name, Metric metric) {
+        if (metricRegistry.getMetrics().get(name) == metric) {
+            metricRegistry.remove(name);
+        }
+    }
+
+    private <T extends Metric> T registerNew(String name, T metric) {
+        metricRegistry.remove(name);
+        return metricRegistry.register(name, metric);
+    }
+
+    private class GrokReloader extends CacheLoader<String, GrokMatcher> {
         private final boolean namedCapturesOnly;
 
         GrokReloader(boolean namedCapturesOnly) {
@@ -124,12 +192,20 @@ public class GrokPatternRegistry {
         }
 
         @Override
-        public Grok load(@Nonnull String pattern) throws Exception {
+        public GrokMatcher load(@Nonnull String pattern) throws Exception {
+            log.debug("Loading grok pattern <{}> with metrics id <{}>", pattern, patternId(pattern));
             final GrokCompiler grokCompiler = GrokCompiler.newInstance();
             for (GrokPattern grokPattern : patterns()) {
                 grokCompiler.register(grokPattern.name(), grokPattern.pattern());
             }
-            return grokCompiler.compile(pattern, namedCapturesOnly);
+            final Grok grok = grokCompiler.compile(pattern, namedCapturesOnly);
+            // Every matcher gets its own metrics, so removing the metrics of an evicted matcher never affects this one.
+            synchronized (metricsLock) {
+                return new GrokMatcher(grok,
+                        registerNew(metricName(pattern, namedCapturesOnly, "matches"), new Timer()),
+                        registerNew(metricName(pattern, namedCapturesOnly, "misses"), new Timer()),
+                        registerNew(metricName(pattern, namedCapturesOnly, "skipped"), new Counter()));
+            }
         }
     }
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.graylog2.outputs.BatchSizeConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Tunes the size of bulk requests and the number of concurrent bulk requests from the observed behavior of the
+ * indexer cluster, similar to the congestion control of TCP (additive increase, multiplicative decrease).
+ * <p>
+ * The limits start at their maximum. A bulk request which took longer than the latency target shrinks the size
+ * limits by a quarter, a rejection ({@code 429 Too Many Requests} or a tripped circuit breaker) halves the size
+ * limits and the concurrency limit. Each successful request below the latency target raises the size limits by a
+ * sixteenth of their maximum, and the concurrency limit grows by one after a full window of successful requests.
+ * <p>
+ * The size in bytes is estimated from the accounted message sizes, see {@link Indexable#getSize()}.
+ */
+@Singleton
+public class AdaptiveBulkSizeController {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBulkSizeController.class);
+
+    // Used if "output_batch_size" is configured in bytes.
+    static final int DEFAULT_MAX_DOCUMENTS = 10_000;
+    // Used if "output_batch_size" is configured as a number of messages. This is the default maximum size of an HTTP
+    // request in OpenSearch and Elasticsearch (http.max_content_length).
+    static final long DEFAULT_MAX_BYTES = Size.megabytes(100).toBytes();
+    static final long MIN_BYTES = Size.kilobytes(64).toBytes();
+    private static final int INCREASE_DIVISOR = 16;
+    private static final double LATENCY_DECREASE_FACTOR = 0.75;
+    private static final double REJECTION_DECREASE_FACTOR = 0.5;
+
+    private final boolean enabled;
+    private final long latencyTargetNanos;
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final int maxConcurrency;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    // Guarded by "lock"
+    private int documentLimit;
+    private long byteLimit;
+    private int concurrencyLimit;
+    private int inFlightRequests = 0;
+    private int successesInWindow = 0;
+    private long lastLatencyNanos = 0L;
+
+    private final Timer bulkLatency;
+    private final Meter latencyTargetExceeded;
+    private final Meter tooManyRequests;
+    private final Meter circuitBreakerTrips;
+    private final Meter entityTooLarge;
+
+    @Inject
+    public AdaptiveBulkSizeController(MetricRegistry metricRegistry,
+                                      @Named("output_batch_adaptive_sizing") boolean enabled,
+                                      @Named("output_batch_size") BatchSizeConfig batchSize,
+                                      @Named("output_batch_latency_target") Duration latencyTarget,
+                                      @Named("output_batch_adaptive_max_concurrency") int maxConcurrency) {
+        this.enabled = enabled;
+        this.latencyTargetNanos = latencyTarget.toNanoseconds();
+        this.maxDocuments = batchSize.getAsCount().orElse(DEFAULT_MAX_DOCUMENTS);
+        this.maxBytes = batchSize.getAsBytes().map(Size::toBytes).orElse(DEFAULT_MAX_BYTES);
+        this.maxConcurrency = maxConcurrency;
+
+        this.documentLimit = maxDocuments;
+        this.byteLimit = maxBytes;
+        this.concurrencyLimit = maxConcurrency;
+
+        this.bulkLatency = metricRegistry.timer(name(AdaptiveBulkSizeController.class, "bulkLatency"));
+        this.latencyTargetExceeded = metricRegistry.meter(name(AdaptiveBulkSizeController.class, "latencyTargetExceeded"));
+        this.tooManyRequests = metricRegistry.meter(name(AdaptiveBulkSizeController.class, "tooManyRequests"));
+        this.circuitBreakerTrips = metricRegistry.meter(name(AdaptiveBulkSizeController.class, "circuitBreakerTrips"));
+        this.entityTooLarge = metricRegistry.meter(name(AdaptiveBulkSizeController.class, "entityTooLarge"));
+        metricRegistry.gauge(name(AdaptiveBulkSizeController.class, "documentLimit"), () -> (Gauge<Integer>) () -> state().documentLimit());
+        metricRegistry.gauge(name(AdaptiveBulkSizeController.class, "byteLimit"), () -> (Gauge<Long>) () -> state().byteLimit());
+        metricRegistry.gauge(name(AdaptiveBulkSizeController.class, "concurrencyLimit"), () -> (Gauge<Integer>) () -> state().concurrencyLimit());
+        metricRegistry.gauge(name(AdaptiveBulkSizeController.class, "inFlightRequests"), () -> (Gauge<Integer>) () -> state().inFlightRequests());
+    }
+
+    /**
+     * Creates a disabled controller which never limits the bulk requests.
+     */
+    public static AdaptiveBulkSizeController disabled() {
+        return new AdaptiveBulkSizeController(new MetricRegistry(), false, BatchSizeConfig.forCount(DEFAULT_MAX_DOCUMENTS),
+                Duration.seconds(1), 1);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the number of requests from the beginning of the given list which should be sent in the next bulk
+     * request, which is at least one and at most {@code maxChunkSize}.
+     */
+    public int nextChunkSize(List<IndexingRequest> remainingRequests, int maxChunkSize) {
+        if (!enabled) {
+            return maxChunkSize;
+        }
+
+        final int documents;
+        final long bytes;
+        lock.lock();
+        try {
+            documents = Math.min(maxChunkSize, documentLimit);
+            bytes = byteLimit;
+        } finally {
+            lock.unlock();
+        }
+
+        long chunkBytes = 0L;
+        final int count = Math.min(documents, remainingRequests.size());
+        for (int i = 0; i < count; i++) {
+            chunkBytes += remainingRequests.get(i).message().getSize();
+            if (chunkBytes > bytes) {
+                return Math.max(i, 1);
+            }
+        }
+        return Math.max(count, 1);
+    }
+
+    /**
+     * Waits until another bulk request may be sent. Every call has to be followed by a call to {@link #release()}.
+     */
+    public void acquire() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (inFlightRequests >= concurrencyLimit) {
+                permitReleased.await();
+            }
+            inFlightRequests++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            inFlightRequests--;
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a successful bulk request of the given number of documents.
+     */
+    public void onSuccess(long latencyNanos, int documents) {
+        if (!enabled) {
+            return;
+        }
+        bulkLatency.update(latencyNanos, TimeUnit.NANOSECONDS);
+        lock.lock();
+        try {
+            lastLatencyNanos = latencyNanos;
+            if (latencyNanos > latencyTargetNanos) {
+                latencyTargetExceeded.mark();
+                decreaseSizes(documents, LATENCY_DECREASE_FACTOR);
+                successesInWindow = 0;
+                return;
+            }
+
+            documentLimit = (int) Math.min(maxDocuments, (long) documentLimit + Math.max(1, maxDocuments / INCREASE_DIVISOR));
+            byteLimit = Math.min(maxBytes, byteLimit + Math.max(MIN_BYTES, maxBytes / INCREASE_DIVISOR));
+            if (++successesInWindow >= concurrencyLimit) {
+                concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1);
+                successesInWindow = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a bulk request of the given number of documents which has been rejected by the indexer cluster.
+     */
+    public void onRejected(ChunkedBulkIndexer.EntityTooLargeException e, int documents) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            successesInWindow = 0;
+            decreaseSizes(documents, REJECTION_DECREASE_FACTOR);
+            if (e instanceof ChunkedBulkIndexer.CircuitBreakerException) {
+                circuitBreakerTrips.mark();
+            } else if (e instanceof ChunkedBulkIndexer.TooManyRequestsException) {
+                tooManyRequests.mark();
+            } else {
+                // Only the request was too large, the cluster isn't overloaded.
+                entityTooLarge.mark();
+                return;
+            }
+            // Like TCP, use the number of requests which are actually in flight if it's below the limit.
+            concurrencyLimit = Math.max(1, (int) (Math.min(concurrencyLimit, inFlightRequests) * REJECTION_DECREASE_FACTOR));
+            LOG.debug("Bulk request has been rejected, new limits: {}", stateLocked());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called while holding the lock.
+    private void decreaseSizes(int documents, double factor) {
+        documentLimit = Math.max(1, (int) (Math.min(documentLimit, documents) * factor));
+        byteLimit = Math.max(MIN_BYTES, (long) (byteLimit * factor));
+    }
+
+    public State state() {
+        lock.lock();
+        try {
+            return stateLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private State stateLocked() {
+        return new State(enabled, documentLimit, maxDocuments, byteLimit, maxBytes, concurrencyLimit, maxConcurrency,
+                inFlightRequests, TimeUnit.NANOSECONDS.toMillis(latencyTargetNanos), TimeUnit.NANOSECONDS.toMillis(lastLatencyNanos));
+    }
+
+    public record State(@JsonProperty("enabled") boolean enabled,
+                        @JsonProperty("document_limit") int documentLimit,
+                        @JsonProperty("max_documents") int maxDocuments,
+                        @JsonProperty("byte_limit") long byteLimit,
+                        @JsonProperty("max_bytes") long maxBytes,
+                        @JsonProperty("concurrency_limit") int concurrencyLimit,
+                        @JsonProperty("max_concurrency") int maxConcurrency,
+                        @JsonProperty("in_flight_requests") int inFlightRequests,
+                        @JsonProperty("latency_target_ms") long latencyTargetMs,
+                        @JsonProperty("last_latency_ms") long lastLatencyMs) {
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The NDJSON body of a bulk index request, written directly from the serialized messages.
+ * <p>
+ * Every request results in an action line ({@code {"index":{"_index":"...","_id":"..."}}}) followed by the document.
+ * The bytes are written into a pooled buffer, which is returned to the pool when the body is closed. The body must
+ * therefore be closed once the request has been sent and must not be used afterwards.
+ */
+public final class BulkRequestBody implements Closeable {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    // Larger buffers are released to the garbage collector instead of being kept around, so the pool holds at most
+    // 16 MB. Bodies of the default batch size of 500 messages stay well below the limit.
+    private static final int MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+    private static final BlockingQueue<Buffer> POOL = new ArrayBlockingQueue<>(4);
+
+    private static final byte[] ACTION_PREFIX = "{\"index\":{\"_index\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ACTION_ID = "\",\"_id\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ACTION_SUFFIX = "\"}}\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private Buffer buffer;
+    private final boolean gzipped;
+
+    private BulkRequestBody(Buffer buffer, boolean gzipped) {
+        this.buffer = buffer;
+        this.gzipped = gzipped;
+    }
+
+    /**
+     * Writes the bulk body for the given requests.
+     *
+     * @param requests the requests in the order they should be indexed
+     * @param context  the context used to serialize the messages
+     * @param gzip     whether the body should be gzip compressed
+     */
+    public static BulkRequestBody write(List<IndexingRequest> requests, SerializationContext context, boolean gzip) throws IOException {
+        Buffer buffer = POOL.poll();
+        if (buffer == null) {
+            buffer = new Buffer();
+        }
+        buffer.reset();
+
+        final BulkRequestBody body = new BulkRequestBody(buffer, gzip);
+        try {
+            final OutputStream out = gzip ? new GZIPOutputStream(buffer, 8192) : buffer;
+            String previousIndex = null;
+            byte[] previousIndexBytes = null;
+            for (IndexingRequest request : requests) {
+                // all requests of a chunk usually go to the same write index alias
+                final String index = request.indexSet().getWriteIndexAlias();
+                if (!index.equals(previousIndex)) {
+                    previousIndex = index;
+                    previousIndexBytes = jsonStringContent(index);
+                }
+                out.write(ACTION_PREFIX);
+                out.write(previousIndexBytes);
+                out.write(ACTION_ID);
+                out.write(jsonStringContent(request.message().getId()));
+                out.write(ACTION_SUFFIX);
+                request.message().serialize(context, out);
+                out.write('\n');
+            }
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            body.close();
+            throw e;
+        }
+        return body;
+    }
+
+    /**
+     * @return the array holding the body, only the first {@link #length()} bytes are valid
+     */
+    public byte[] array() {
+        return buffer().array();
+    }
+
+    public int length() {
+        return buffer().size();
+    }
+
+    /**
+     * @return {@code true} if the body is gzip compressed and has to be sent with {@code Content-Encoding: gzip}
+     */
+    public boolean gzipped() {
+        return gzipped;
+    }
+
+    private Buffer buffer() {
+        if (buffer == null) {
+            throw new IllegalStateException("Bulk request body has already been released");
+        }
+        return buffer;
+    }
+
+    @Override
+    public void close() {
+        if (buffer != null) {
+            if (buffer.capacity() <= MAX_RETAINED_CAPACITY) {
+                POOL.offer(buffer);
+            }
+            buffer = null;
+        }
+    }
+
+    // Returns the UTF-8 bytes of the string escaped for use inside a JSON string
+    private static byte[] jsonStringContent(String value) {
+        if (!needsEscaping(value)) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(value.length() + 16);
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            if (b == '"' || b == '\\') {
+                out.write('\\');
+                out.write(b);
+            } else if (b >= 0 && b < 0x20) {
+                out.write('\\');
+                out.write('u');
+                out.write('0');
+                out.write('0');
+                out.write(HEX_DIGITS[b >> 4]);
+                out.write(HEX_DIGITS[b & 0x0f]);
+            } else {
+                out.write(b);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean needsEscaping(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(INITIAL_CAPACITY);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the response of a bulk request as a token stream. Only the index of every item and the type and reason of
+ * failed items are extracted, everything else (shard information, versions, sequence numbers) is skipped.
+ */
+public final class BulkResponseParser {
+    private BulkResponseParser() {
+    }
+
+    /**
+     * Creates the indexing error for a failed item from the error type and reason reported by the indexer.
+     */
+    @FunctionalInterface
+    public interface FailureMapper {
+        IndexingError map(Indexable message, String index, String type, String reason);
+    }
+
+    public record Result(IndexingResults indexingResults, int items) {
+        /**
+         * @return a description of all failed items for logging
+         */
+        public String failureMessage() {
+            final StringBuilder sb = new StringBuilder("failure in bulk execution:");
+            for (IndexingError error : indexingResults.errors()) {
+                sb.append("\n[").append(error.message() == null ? null : error.message().getId()).append("]: index [")
+                        .append(error.index()).append("], message [").append(error.error().errorMessage()).append(']');
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Parses the response of a bulk request for the given requests. The items of a bulk response are in the same
+     * order as the requests, so they are matched by position.
+     */
+    public static Result parse(JsonFactory jsonFactory, InputStream in, List<IndexingRequest> requests, FailureMapper failureMapper) throws IOException {
+        final List<IndexingSuccess> successes = new ArrayList<>(requests.size());
+        final List<IndexingError> errors = new ArrayList<>();
+        final int items = parse(jsonFactory, in, new ItemHandler() {
+            @Override
+            public void success(int item, String index) {
+                successes.add(IndexingSuccess.create(messageAt(requests, item), index));
+            }
+
+            @Override
+            public void failure(int item, String index, String type, String reason) {
+                errors.add(failureMapper.map(messageAt(requests, item), index, type, reason));
+            }
+        });
+        return new Result(IndexingResults.create(successes, errors), items);
+    }
+
+    @Nullable
+    private static Indexable messageAt(List<IndexingRequest> requests, int item) {
+        return item < requests.size() ? requests.get(item).message() : null;
+    }
+
+    interface ItemHandler {
+        void success(int item, String index);
+
+        void failure(int item, String index, String type, String reason);
+    }
+
+    // Reports every item to the handler in the order of the response and returns the number of items
+    static int parse(JsonFactory jsonFactory, InputStream in, ItemHandler handler) throws IOException {
+        int items = 0;
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.currentName();
+                final JsonToken value = parser.nextToken();
+                if ("items".equals(name) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        parseItem(parser, items++, handler);
+                    }
+                    expect(parser, parser.currentToken(), JsonToken.END_ARRAY);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return items;
+    }
+
+    // {"index": {"_index": "...", "_id": "...", "status": 400, "error": {"type": "...", "reason": "..."}}}
+    private static void parseItem(JsonParser parser, int item, ItemHandler handler) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.FIELD_NAME);
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+        String index = null;
+        String errorType = null;
+        String errorReason = null;
+        boolean failed = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.currentName();
+            final JsonToken value = parser.nextToken();
+            if ("_index".equals(name)) {
+                index = parser.getValueAsString();
+            } else if ("error".equals(name)) {
+                failed = true;
+                if (value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String errorField = parser.currentName();
+                        parser.nextToken();
+                        if ("type".equals(errorField)) {
+                            errorType = parser.getValueAsString();
+                        } else if ("reason".equals(errorField)) {
+                            errorReason = parser.getValueAsString();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    errorReason = parser.getValueAsString();
+                    parser.skipChildren();
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        // end of the operation object, followed by the end of the item
+        expect(parser, parser.nextToken(), JsonToken.END_OBJECT);
+
+        if (failed) {
+            handler.failure(item, nullToEmpty(index), nullToEmpty(errorType), nullToEmpty(errorReason));
+        } else {
+            handler.success(item, nullToEmpty(index));
+        }
+    }
+
+    private static String nullToEmpty(@Nullable String value) {
+        return value == null ? "" : value;
+    }
+
+    private static void expect(JsonParser parser, @Nullable JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Unexpected token in bulk response: " + actual + ", expected " + expected);
+        }
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.graylog2.indexer.messages;
 
+import jakarta.inject.Inject;
 import org.graylog2.indexer.ElasticsearchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +30,8 @@ public class ChunkedBulkIndexer {
     private static final Logger LOG = LoggerFactory.getLogger(ChunkedBulkIndexer.class);
     private static final RetryWait retryWait = new RetryWait(100);
 
+    private final AdaptiveBulkSizeController sizeController;
+
     public record BulkIndexResult(IndexingResults indexingResults, Supplier<String> failureMessage,
                                   int indexedMessages) {
     }
@@ -36,6 +39,15 @@ public class ChunkedBulkIndexer {
         BulkIndexResult apply(int indexedSuccessfully, IndexingResults previousResults, List<IndexingRequest> chunk) throws ChunkedBulkIndexer.EntityTooLargeException, IOException;
     }
 
+    public ChunkedBulkIndexer() {
+        this(AdaptiveBulkSizeController.disabled());
+    }
+
+    @Inject
+    public ChunkedBulkIndexer(AdaptiveBulkSizeController sizeController) {
+        this.sizeController = sizeController;
+    }
+
     public IndexingResults index(List<IndexingRequest> messageList, BulkIndex bulkIndex) throws IOException {
         if (messageList.isEmpty()) {
             return IndexingResults.empty();
@@ -89,8 +101,9 @@ public class ChunkedBulkIndexer {
         int chunkCount = 1;
         int indexedSuccessfully = 0;
         while (partitioner.hasNext()) {
-            final var chunk = partitioner.nextPartition(chunkSize);
-            final var response = bulkIndex.apply(indexedSuccessfully, accumulatedResults.build(), chunk);
+            final var remaining = remainingMessages.subList(indexedSuccessfully, remainingMessages.size());
+            final var chunk = partitioner.nextPartition(sizeController.nextChunkSize(remaining, chunkSize));
+            final var response = applyControlled(bulkIndex, indexedSuccessfully, accumulatedResults.build(), chunk);
             indexedSuccessfully += chunk.size();
             final IndexingResults results = response.indexingResults();
             accumulatedResults.addResults(results);
@@ -109,6 +122,26 @@ public class ChunkedBulkIndexer {
         return accumulatedResults.build();
     }
 
+    private BulkIndexResult applyControlled(BulkIndex bulkIndex, int indexedSuccessfully, IndexingResults previousResults, List<IndexingRequest> chunk) throws EntityTooLargeException, IOException {
+        try {
+            sizeController.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("Interrupted while waiting to send bulk request", e);
+        }
+        try {
+            final long start = System.nanoTime();
+            final BulkIndexResult result = bulkIndex.apply(indexedSuccessfully, previousResults, chunk);
+            sizeController.onSuccess(System.nanoTime() - start, chunk.size());
+            return result;
+        } catch (EntityTooLargeException e) {
+            sizeController.onRejected(e, chunk.size());
+            throw e;
+        } finally {
+            sizeController.release();
+        }
+    }
+
     private void logFailures(Supplier<String> failureMessage, int failureCount) {
         if (failureCount > 0) {
             LOG.error("Failed to index [{}] messages. Please check the index error log in your web interface for the reason. Error: {}",
@@ -129,6 +162,21 @@ public class ChunkedBulkIndexer {
 
     public record Chunk(List<IndexingRequest> requests, int offset, int size) {}
 
+    /**
+     * Creates the exception for a bulk request which has been rejected with the given HTTP status. Only server errors
+     * keep the I/O exception of the response as their cause, which makes {@link Messages} retry the request. Client
+     * errors fail the same way on every attempt, so they must not be retried.
+     *
+     * @param status the HTTP status of the response
+     * @param cause  the exception of the low-level client which holds the response
+     */
+    public static ElasticsearchException bulkRequestFailed(int status, IOException cause) {
+        if (status >= 500) {
+            return new ElasticsearchException("Unable to index messages", cause);
+        }
+        return new ElasticsearchException("Unable to index messages: " + cause.getMessage());
+    }
+
     public static class EntityTooLargeException extends Exception {
         public final int indexedSuccessfully;
         public final IndexingResults previousResults;
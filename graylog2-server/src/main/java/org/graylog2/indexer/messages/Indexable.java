@@ -22,6 +22,7 @@ import org.joda.time.DateTime;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 
 public interface Indexable {
@@ -63,6 +64,20 @@ public interface Indexable {
         );
     }
 
+    /**
+     * Writes the same bytes as {@link #serialize(SerializationContext)} to the given stream, e.g. directly into the
+     * body of a bulk request. The stream is not closed.
+     * <p>
+     * The default implementation copies the result of {@link #serialize(SerializationContext)}.
+     *
+     * @param context Context required to perform the serialization
+     * @param out     the stream to write to
+     * @throws IOException if serializing the object fails
+     */
+    default void serialize(SerializationContext context, OutputStream out) throws IOException {
+        out.write(serialize(context));
+    }
+
     /**
      * Guides the failure handling framework when deciding whether this particular
      * message should be accepted for the further failure processing. By default
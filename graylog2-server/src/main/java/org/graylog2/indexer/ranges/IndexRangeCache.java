@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Holds the lazily loaded {@link IndexRangeIntervalTree} of all index ranges.
+ * <p>
+ * Every invalidation starts a new generation. A load only publishes its result if no invalidation happened while it
+ * was running, so a tree which misses a concurrent change is never cached.
+ */
+class IndexRangeCache {
+    private record Entry(long generation, IndexRangeIntervalTree ranges) {
+    }
+
+    private final AtomicReference<Entry> entry = new AtomicReference<>(new Entry(0L, null));
+
+    /**
+     * Returns the cached tree, or loads it. Concurrent loads are serialized, so the database is only queried once.
+     */
+    IndexRangeIntervalTree get(Supplier<IndexRangeIntervalTree> loader) {
+        final IndexRangeIntervalTree ranges = entry.get().ranges();
+        return ranges != null ? ranges : load(loader);
+    }
+
+    private synchronized IndexRangeIntervalTree load(Supplier<IndexRangeIntervalTree> loader) {
+        final Entry current = entry.get();
+        if (current.ranges() != null) {
+            return current.ranges();
+        }
+        final IndexRangeIntervalTree ranges = loader.get();
+        // Fails if the cache has been invalidated in the meantime, the next call loads the ranges again.
+        entry.compareAndSet(current, new Entry(current.generation(), ranges));
+        return ranges;
+    }
+
+    void invalidate() {
+        entry.updateAndGet(current -> new Entry(current.generation() + 1, null));
+    }
+}
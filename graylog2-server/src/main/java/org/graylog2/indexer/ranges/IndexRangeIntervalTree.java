@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An immutable interval tree of index ranges, used to answer time range lookups without querying MongoDB.
+ * <p>
+ * The ranges are sorted by their begin and stored in arrays. Every element is the root of the implicit subtree spanning
+ * the elements around it and knows the maximum end within that subtree, so lookups only descend into subtrees which can
+ * contain an overlapping range.
+ */
+final class IndexRangeIntervalTree {
+    private final IndexRange[] ranges;
+    private final long[] begins;
+    private final long[] ends;
+    private final long[] maxEnds;
+    private final Map<String, IndexRange> rangesByIndexName;
+    private final ImmutableSortedSet<IndexRange> allRanges;
+
+    IndexRangeIntervalTree(Collection<? extends IndexRange> indexRanges) {
+        this.ranges = indexRanges.stream()
+                .sorted(Comparator.comparingLong((IndexRange range) -> range.begin().getMillis()))
+                .toArray(IndexRange[]::new);
+        this.begins = new long[ranges.length];
+        this.ends = new long[ranges.length];
+        this.maxEnds = new long[ranges.length];
+        this.rangesByIndexName = new HashMap<>(ranges.length);
+        for (int i = 0; i < ranges.length; i++) {
+            begins[i] = ranges[i].begin().getMillis();
+            ends[i] = ranges[i].end().getMillis();
+            rangesByIndexName.putIfAbsent(ranges[i].indexName(), ranges[i]);
+        }
+        computeMaxEnds(0, ranges.length);
+        this.allRanges = ImmutableSortedSet.copyOf(IndexRange.COMPARATOR, indexRanges);
+    }
+
+    private long computeMaxEnds(int from, int to) {
+        if (from >= to) {
+            return Long.MIN_VALUE;
+        }
+        final int mid = (from + to) >>> 1;
+        maxEnds[mid] = Math.max(ends[mid], Math.max(computeMaxEnds(from, mid), computeMaxEnds(mid + 1, to)));
+        return maxEnds[mid];
+    }
+
+    /**
+     * Returns all ranges with {@code begin <= to} and {@code end >= from}, like the range query on the collection.
+     */
+    ImmutableSortedSet<IndexRange> find(long from, long to) {
+        final List<IndexRange> result = new ArrayList<>();
+        collect(0, ranges.length, from, to, result);
+        return ImmutableSortedSet.copyOf(IndexRange.COMPARATOR, result);
+    }
+
+    /**
+     * Returns all ranges overlapping either of the two time ranges.
+     */
+    ImmutableSortedSet<IndexRange> find(long from, long to, long otherFrom, long otherTo) {
+        final List<IndexRange> result = new ArrayList<>();
+        collect(0, ranges.length, from, to, result);
+        collect(0, ranges.length, otherFrom, otherTo, result);
+        return ImmutableSortedSet.copyOf(IndexRange.COMPARATOR, result);
+    }
+
+    private void collect(int lo, int hi, long from, long to, List<IndexRange> result) {
+        if (lo >= hi) {
+            return;
+        }
+        final int mid = (lo + hi) >>> 1;
+        // no range in this subtree ends after the start of the time range
+        if (maxEnds[mid] < from) {
+            return;
+        }
+        collect(lo, mid, from, to, result);
+        // all ranges to the right begin after this one, so none of them can overlap if this one begins too late
+        if (begins[mid] <= to) {
+            if (ends[mid] >= from) {
+                result.add(ranges[mid]);
+            }
+            collect(mid + 1, hi, from, to, result);
+        }
+    }
+
+    Optional<IndexRange> get(String indexName) {
+        return Optional.ofNullable(rangesByIndexName.get(indexName));
+    }
+
+    ImmutableSortedSet<IndexRange> all() {
+        return allRanges;
+    }
+
+    int size() {
+        return ranges.length;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+
+import java.util.Set;
+
+/**
+ * Posted on the cluster event bus whenever index ranges have been created, updated or removed, so every node can
+ * refresh its in-memory copy of the index ranges.
+ */
+@JsonAutoDetect
+@AutoValue
+public abstract class IndexRangesUpdatedEvent {
+    @JsonProperty("indices")
+    public abstract Set<String> indices();
+
+    @JsonCreator
+    public static IndexRangesUpdatedEvent create(@JsonProperty("indices") Set<String> indices) {
+        return new AutoValue_IndexRangesUpdatedEvent(indices);
+    }
+}
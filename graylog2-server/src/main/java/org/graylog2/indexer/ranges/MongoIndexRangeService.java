@@ -33,6 +33,7 @@ import org.graylog2.audit.AuditActor;
 import org.graylog2.audit.AuditEventSender;
 import org.graylog2.database.MongoCollections;
 import org.graylog2.database.NotFoundException;
+import org.graylog2.events.ClusterEventBus;
 import org.graylog2.indexer.IndexSetRegistry;
 import org.graylog2.indexer.indices.Indices;
 import org.graylog2.indexer.indices.events.IndicesClosedEvent;
@@ -45,16 +46,14 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.concurrent.TimeUnit;
 
-import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Filters.exists;
-import static com.mongodb.client.model.Filters.gte;
 import static com.mongodb.client.model.Filters.in;
-import static com.mongodb.client.model.Filters.lte;
-import static com.mongodb.client.model.Filters.or;
 import static org.graylog2.audit.AuditEventTypes.ES_INDEX_RANGE_CREATE;
 import static org.graylog2.audit.AuditEventTypes.ES_INDEX_RANGE_DELETE;
 import static org.graylog2.indexer.indices.Indices.checkIfHealthy;
@@ -69,6 +68,10 @@ public class MongoIndexRangeService implements IndexRangeService {
     private final AuditEventSender auditEventSender;
     private final NodeId nodeId;
     private final MongoCollection<MongoIndexRange> collection;
+    private final ClusterEventBus clusterEventBus;
+
+    // In-memory copy of all index ranges, which is loaded lazily and dropped whenever any node changes a range.
+    private final IndexRangeCache cachedRanges = new IndexRangeCache();
 
     @Inject
     public MongoIndexRangeService(MongoCollections mongoCollections,
@@ -76,12 +79,14 @@ public class MongoIndexRangeService implements IndexRangeService {
                                   IndexSetRegistry indexSetRegistry,
                                   AuditEventSender auditEventSender,
                                   NodeId nodeId,
-                                  EventBus eventBus) {
+                                  EventBus eventBus,
+                                  ClusterEventBus clusterEventBus) {
         this.indices = indices;
         this.indexSetRegistry = indexSetRegistry;
         this.auditEventSender = auditEventSender;
         this.nodeId = nodeId;
         this.collection = mongoCollections.nonEntityCollection(COLLECTION_NAME, MongoIndexRange.class);
+        this.clusterEventBus = clusterEventBus;
 
         eventBus.register(this);
 
@@ -91,38 +96,39 @@ public class MongoIndexRangeService implements IndexRangeService {
 
     @Override
     public IndexRange get(String index) throws NotFoundException {
-        final var query = and(
-                exists("start", false),
-                eq(IndexRange.FIELD_INDEX_NAME, index));
-        final MongoIndexRange indexRange = collection.find(query).first();
-        if (indexRange == null) {
-            throw new NotFoundException("Index range for index <" + index + "> not found.");
-        }
-
-        return indexRange;
+        return ranges().get(index)
+                .orElseThrow(() -> new NotFoundException("Index range for index <" + index + "> not found."));
     }
 
     @Override
     public SortedSet<IndexRange> find(DateTime begin, DateTime end) {
-        final var query = or(
-                and(
-                        exists("start", false),  // "start" has been used by the old index ranges in MongoDB
-                        lte(IndexRange.FIELD_BEGIN, end.getMillis()),
-                        gte(IndexRange.FIELD_END, begin.getMillis())
-                ),
-                and(
-                        exists("start", false),  // "start" has been used by the old index ranges in MongoDB
-                        lte(IndexRange.FIELD_BEGIN, 0L),
-                        gte(IndexRange.FIELD_END, 0L)
-                )
-        );
-
-        return ImmutableSortedSet.copyOf(IndexRange.COMPARATOR, collection.find(query));
+        // Ranges of indices which haven't been calculated yet start and end at 0 and are always included
+        return ranges().find(begin.getMillis(), end.getMillis(), 0L, 0L);
     }
 
     @Override
     public SortedSet<IndexRange> findAll() {
-        return ImmutableSortedSet.copyOf(IndexRange.COMPARATOR, collection.find(exists("start", false)));
+        return ranges().all();
+    }
+
+    private IndexRangeIntervalTree ranges() {
+        return cachedRanges.get(this::loadRanges);
+    }
+
+    private IndexRangeIntervalTree loadRanges() {
+        // "start" has been used by the old index ranges in MongoDB
+        final IndexRangeIntervalTree ranges = new IndexRangeIntervalTree(collection.find(exists("start", false)).into(new ArrayList<>()));
+        LOG.debug("Loaded {} index ranges.", ranges.size());
+        return ranges;
+    }
+
+    private void invalidate() {
+        cachedRanges.invalidate();
+    }
+
+    private void rangesChanged(Set<String> indexNames) {
+        invalidate();
+        clusterEventBus.post(IndexRangesUpdatedEvent.create(indexNames));
     }
 
     @Override
@@ -153,21 +159,37 @@ public class MongoIndexRangeService implements IndexRangeService {
 
     @Override
     public void save(IndexRange indexRange) {
-        remove(indexRange.indexName());
+        collection.deleteMany(eq(IndexRange.FIELD_INDEX_NAME, indexRange.indexName()));
         collection.insertOne(MongoIndexRange.create(indexRange));
+        rangesChanged(Set.of(indexRange.indexName()));
     }
 
     @Override
     public boolean renameIndex(String from, String to) {
-        return collection.updateMany(
+        final boolean renamed = collection.updateMany(
                         eq(IndexRange.FIELD_INDEX_NAME, from),
                         Updates.set(IndexRange.FIELD_INDEX_NAME, to))
                 .getMatchedCount() > 0;
+        if (renamed) {
+            rangesChanged(Set.of(from, to));
+        }
+        return renamed;
     }
 
     @Override
     public boolean remove(String index) {
-        return collection.deleteMany(in(IndexRange.FIELD_INDEX_NAME, index)).getDeletedCount() > 0;
+        final boolean removed = collection.deleteMany(in(IndexRange.FIELD_INDEX_NAME, index)).getDeletedCount() > 0;
+        if (removed) {
+            rangesChanged(Set.of(index));
+        }
+        return removed;
+    }
+
+    @Subscribe
+    @AllowConcurrentEvents
+    public void handleIndexRangesUpdated(IndexRangesUpdatedEvent event) {
+        LOG.debug("Index ranges of {} have been updated. Reloading index ranges.", event.indices());
+        invalidate();
     }
 
     @Subscribe
@@ -17,10 +17,11 @@
 package org.graylog2.inputs.codecs;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
-import com.google.common.collect.Maps;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.graylog2.inputs.codecs.gelf.GELFMessage;
@@ -36,18 +37,32 @@ import javax.annotation.Nullable;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static java.util.Objects.requireNonNull;
 
+/**
+ * Reassembles chunked GELF messages.
+ * <p>
+ * Incomplete messages are kept in a table which is sharded by message ID. Every shard has a timing wheel with one slot
+ * per {@link #CHECK_PERIOD}, which the eviction task uses to find outdated messages without keeping them sorted. Adding
+ * a chunk never takes a lock; completing, expiring or evicting a message is decided by a single atomic operation on
+ * its entry.
+ * <p>
+ * The payload bytes of all incomplete messages are limited by {@code gelf_chunk_aggregator_max_size}. Once the limit
+ * has been exceeded, the oldest incomplete messages are dropped.
+ */
 public class GelfChunkAggregator implements CodecAggregator {
     private static final Logger log = LoggerFactory.getLogger(GelfChunkAggregator.class);
 
@@ -56,6 +71,11 @@ public class GelfChunkAggregator implements CodecAggregator {
     public static final Result INVALID_RESULT = new Result(null, false);
     public static final int VALIDITY_PERIOD = 5000; // millis
     private static final long CHECK_PERIOD = 1000;
+    public static final Size DEFAULT_MAX_SIZE = Size.megabytes(128L);
+
+    // both must be powers of two, the wheel has to cover the validity period plus the slot currently being filled
+    private static final int SHARDS = 16;
+    private static final int WHEEL_SLOTS = 8;
 
     public static final String CHUNK_COUNTER = name(GelfChunkAggregator.class, "total-chunks");
     public static final String WAITING_MESSAGES = name(GelfChunkAggregator.class, "waiting-messages");
@@ -63,26 +83,48 @@ public class GelfChunkAggregator implements CodecAggregator {
     public static final String EXPIRED_MESSAGES = name(GelfChunkAggregator.class, "expired-messages");
     public static final String EXPIRED_CHUNKS = name(GelfChunkAggregator.class, "expired-chunks");
     public static final String DUPLICATE_CHUNKS = name(GelfChunkAggregator.class, "duplicate-chunks");
-
-    private final ConcurrentMap<String, ChunkEntry> chunks = Maps.newConcurrentMap();
-    private final ConcurrentSkipListSet<ChunkEntry> sortedEvictionSet = new ConcurrentSkipListSet<>();
+    public static final String EVICTED_MESSAGES = name(GelfChunkAggregator.class, "evicted-messages");
+    public static final String EVICTED_CHUNKS = name(GelfChunkAggregator.class, "evicted-chunks");
+    public static final String BYTES_HELD = name(GelfChunkAggregator.class, "bytes-held");
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final AtomicLong bytesHeld = new AtomicLong();
+    private final long maxBytes;
+    // the oldest tick which might still contain outdated entries, all older ones have been swept
+    private volatile long sweptTick;
     private final Counter chunkCounter;
     private final Counter waitingMessages;
     private final Counter expiredMessages;
     private final Counter expiredChunks;
     private final Counter duplicateChunks;
     private final Counter completeMessages;
+    private final Counter evictedMessages;
+    private final Counter evictedChunks;
+
+    public GelfChunkAggregator(ScheduledExecutorService scheduler, MetricRegistry metricRegistry) {
+        this(scheduler, metricRegistry, DEFAULT_MAX_SIZE);
+    }
 
     @Inject
-    public GelfChunkAggregator(@Named("daemonScheduler") ScheduledExecutorService scheduler, MetricRegistry metricRegistry) {
+    public GelfChunkAggregator(@Named("daemonScheduler") ScheduledExecutorService scheduler,
+                               MetricRegistry metricRegistry,
+                               @Named("gelf_chunk_aggregator_max_size") Size maxSize) {
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+        this.maxBytes = maxSize.toBytes();
+        this.sweptTick = tick(now());
         scheduler.scheduleAtFixedRate(new ChunkEvictionTask(), VALIDITY_PERIOD, CHECK_PERIOD, TimeUnit.MILLISECONDS);
         chunkCounter = metricRegistry.counter(CHUNK_COUNTER);
-        // this is a counter instead of a Gauge, because calling sortedEvictionSet.size() is expensive
+        // this is a counter instead of a Gauge, because counting the entries of all shards is expensive
         waitingMessages = metricRegistry.counter(WAITING_MESSAGES);
         completeMessages = metricRegistry.counter(COMPLETE_MESSAGES);
         expiredMessages = metricRegistry.counter(EXPIRED_MESSAGES);
         expiredChunks = metricRegistry.counter(EXPIRED_CHUNKS);
         duplicateChunks = metricRegistry.counter(DUPLICATE_CHUNKS);
+        evictedMessages = metricRegistry.counter(EVICTED_MESSAGES);
+        evictedChunks = metricRegistry.counter(EVICTED_CHUNKS);
+        metricRegistry.gauge(BYTES_HELD, () -> (Gauge<Long>) bytesHeld::get);
     }
 
     @Nonnull
@@ -130,107 +172,201 @@ public class GelfChunkAggregator implements CodecAggregator {
      */
     @Nullable
     private ByteBuf checkForCompletion(GELFMessage gelfMessage) {
-        if (!chunks.isEmpty() && log.isDebugEnabled()) {
-            log.debug("Dumping GELF chunk map [chunks for {} messages]:\n{}", chunks.size(), humanReadableChunkMap());
+        if (log.isDebugEnabled() && waitingMessages.getCount() > 0) {
+            log.debug("Dumping GELF chunk map [chunks for {} messages]:\n{}", waitingMessages.getCount(), humanReadableChunkMap());
         }
         final GELFMessageChunk chunk = new GELFMessageChunk(gelfMessage, null); // TODO second parameter
         final int sequenceCount = chunk.getSequenceCount();
 
         final String messageId = chunk.getId();
-
-        ChunkEntry entry = new ChunkEntry(sequenceCount, chunk.getArrival(), messageId);
-
-        final ChunkEntry existing = chunks.putIfAbsent(messageId, entry);
-        if (existing == null) {
-            // add this chunk entry to the eviction set
-            waitingMessages.inc();
-            sortedEvictionSet.add(entry);
-        } else {
-            // the entry is already in the eviction set and chunk map
-            entry = existing;
+        final Shard shard = shard(messageId);
+
+        ChunkEntry entry = shard.entries.get(messageId);
+        if (entry == null) {
+            final ChunkEntry created = new ChunkEntry(sequenceCount, chunk.getArrival(), messageId);
+            entry = shard.entries.putIfAbsent(messageId, created);
+            if (entry == null) {
+                entry = created;
+                waitingMessages.inc();
+                shard.slot(tick(created.firstTimestamp)).add(created);
+            }
         }
 
         final int sequenceNumber = chunk.getSequenceNumber();
-        if (!entry.payloadArray.compareAndSet(sequenceNumber, null, chunk)) {
+        final byte[] data = chunk.getData();
+        if (!entry.payloadArray.compareAndSet(sequenceNumber, null, data)) {
             log.error("Received duplicate chunk {} for message {} from {}", sequenceNumber, messageId, gelfMessage.getSourceAddress());
             duplicateChunks.inc();
             return null;
         }
+        if (!entry.hold(data.length)) {
+            // the message has been completed, expired or evicted in the meantime
+            entry.payloadArray.compareAndSet(sequenceNumber, data, null);
+            return null;
+        }
+        final boolean exceedsMaxBytes = bytesHeld.addAndGet(data.length) > maxBytes;
 
         final int chunkWatermark = entry.chunkSlotsWritten.incrementAndGet();
 
         if (chunkWatermark > MAX_CHUNKS) {
-            getAndCleanupEntry(messageId);
+            release(shard, entry);
             throw new IllegalStateException("Maximum number of chunks reached, discarding message");
         }
 
         if (chunkWatermark == sequenceCount) {
             // message is complete by chunk count, assemble and return it.
             // it might still be corrupt etc, but we've seen enough chunks
-            // remove before operating on it, to avoid racing too much with the clean up job, some race is inevitable, though.
-            entry = getAndCleanupEntry(messageId);
+            if (!release(shard, entry)) {
+                // lost the race against the eviction of the message
+                return null;
+            }
 
-            final byte[] allChunks[] = new byte[sequenceCount][];
-            for (int i = 0; i < entry.payloadArray.length(); i++) {
-                final GELFMessageChunk messageChunk = entry.payloadArray.get(i);
-                if (messageChunk == null) {
+            final byte[][] allChunks = entry.drain();
+            for (int i = 0; i < allChunks.length; i++) {
+                if (allChunks[i] == null) {
                     log.debug("Couldn't read chunk {} of message {}, skipping this chunk.", i, messageId);
-                } else {
-                    allChunks[i] = messageChunk.getData();
                 }
             }
             completeMessages.inc();
             return Unpooled.wrappedBuffer(allChunks);
         }
 
+        // completing a message releases its bytes, so only incomplete messages make room for this chunk
+        if (exceedsMaxBytes) {
+            evictOldest(shard, entry);
+        }
+
         // message isn't complete yet, check if we should remove the other parts as well
-        if (isOutdated(entry)) {
+        if (isOutdated(entry, now())) {
             // chunks are outdated, the oldest came in over 5 seconds ago, clean them all up
             log.debug("Not all chunks of <{}> arrived within {}ms. Dropping chunks.", messageId, VALIDITY_PERIOD);
-            expireEntry(messageId);
+            expireEntry(shard, entry);
         }
 
         return null;
     }
 
-    private void expireEntry(String messageId) {
-        final ChunkEntry cleanupEntry = getAndCleanupEntry(messageId);
-        expiredMessages.inc();
-        expiredChunks.inc(cleanupEntry.chunkSlotsWritten.get());
+    private void expireEntry(Shard shard, ChunkEntry entry) {
+        if (release(shard, entry)) {
+            entry.drain();
+            expiredMessages.inc();
+            expiredChunks.inc(entry.chunkSlotsWritten.get());
+        }
     }
 
-    private boolean isOutdated(ChunkEntry entry) {
-        return (Tools.nowUTC().getMillis() - entry.firstTimestamp) > VALIDITY_PERIOD;
+    /**
+     * Drops the oldest incomplete messages until the payload bytes held are back within the limit. The message which
+     * received the current chunk is only dropped if dropping all other messages wasn't enough.
+     */
+    private void evictOldest(Shard currentShard, ChunkEntry current) {
+        final long currentTick = tick(now());
+        for (long tick = Math.max(sweptTick, currentTick - WHEEL_SLOTS + 1); tick <= currentTick; tick++) {
+            for (Shard shard : shards) {
+                final Iterator<ChunkEntry> iterator = shard.slot(tick).iterator();
+                while (iterator.hasNext()) {
+                    final ChunkEntry entry = iterator.next();
+                    if (entry == current) {
+                        continue;
+                    }
+                    iterator.remove();
+                    evict(shard, entry);
+                    if (bytesHeld.get() <= maxBytes) {
+                        return;
+                    }
+                }
+            }
+        }
+        evict(currentShard, current);
     }
 
-    private ChunkEntry getAndCleanupEntry(String id) {
-        final ChunkEntry entry = chunks.remove(id);
-        sortedEvictionSet.remove(entry);
+    private void evict(Shard shard, ChunkEntry entry) {
+        if (release(shard, entry)) {
+            entry.drain();
+            log.debug("Holding more than {} bytes of GELF chunks, dropping chunks of <{}>.", maxBytes, entry.id);
+            evictedMessages.inc();
+            evictedChunks.inc(entry.chunkSlotsWritten.get());
+        }
+    }
+
+    /**
+     * Claims the entry and removes it from its shard.
+     *
+     * @return {@code false} if the entry had already been completed, expired or evicted
+     */
+    private boolean release(Shard shard, ChunkEntry entry) {
+        final long bytes = entry.release();
+        if (bytes == ChunkEntry.RELEASED) {
+            return false;
+        }
+        shard.entries.remove(entry.id, entry);
+        bytesHeld.addAndGet(-bytes);
         waitingMessages.dec();
-        return entry;
+        return true;
+    }
+
+    private boolean isOutdated(ChunkEntry entry, long now) {
+        return (now - entry.firstTimestamp) > VALIDITY_PERIOD;
+    }
+
+    private Shard shard(String messageId) {
+        final int hash = messageId.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (SHARDS - 1)];
+    }
+
+    private static long now() {
+        return Tools.nowUTC().getMillis();
+    }
+
+    private static long tick(long millis) {
+        return Math.floorDiv(millis, CHECK_PERIOD);
     }
 
     private String humanReadableChunkMap() {
         final StringBuilder sb = new StringBuilder();
 
-        for (final Map.Entry<String, ChunkEntry> entry : chunks.entrySet()) {
-            sb.append("Message <").append(entry.getKey()).append("> ");
-            sb.append("\tChunks:\n");
-            for (int i = 0; i < entry.getValue().payloadArray.length(); i++) {
-                final GELFMessageChunk chunk = entry.getValue().payloadArray.get(i);
-                sb.append("\t\t").append(chunk == null ? "<not arrived yet>" : chunk).append("\n");
+        for (final Shard shard : shards) {
+            for (final Map.Entry<String, ChunkEntry> entry : shard.entries.entrySet()) {
+                sb.append("Message <").append(entry.getKey()).append("> ");
+                sb.append("\tChunks:\n");
+                for (int i = 0; i < entry.getValue().payloadArray.length(); i++) {
+                    final byte[] chunk = entry.getValue().payloadArray.get(i);
+                    sb.append("\t\t").append(i + 1).append('/').append(entry.getValue().payloadArray.length())
+                            .append(chunk == null ? " <not arrived yet>" : " Data size: " + chunk.length).append("\n");
+                }
             }
         }
 
         return sb.toString();
     }
 
+    private static class Shard {
+        private final ConcurrentMap<String, ChunkEntry> entries = new ConcurrentHashMap<>();
+        // entries are only removed from the wheel when it is swept, completed ones are skipped then
+        private final Queue<ChunkEntry>[] wheel;
+
+        @SuppressWarnings("unchecked")
+        Shard() {
+            wheel = new Queue[WHEEL_SLOTS];
+            for (int i = 0; i < WHEEL_SLOTS; i++) {
+                wheel[i] = new ConcurrentLinkedQueue<>();
+            }
+        }
+
+        Queue<ChunkEntry> slot(long tick) {
+            return wheel[(int) (tick & (WHEEL_SLOTS - 1))];
+        }
+    }
+
     @VisibleForTesting
-    static class ChunkEntry implements Comparable<ChunkEntry> {
+    static class ChunkEntry {
+        private static final long RELEASED = -1L;
+
         protected final AtomicInteger chunkSlotsWritten = new AtomicInteger(0);
         protected final long firstTimestamp;
-        protected final AtomicReferenceArray<GELFMessageChunk> payloadArray;
+        protected final AtomicReferenceArray<byte[]> payloadArray;
         protected final String id;
+        // the number of payload bytes held, or RELEASED once the message has been completed, expired or evicted
+        private final AtomicLong bytes = new AtomicLong(0L);
 
         public ChunkEntry(int chunkCount, long firstTimestamp, String id) {
             this.payloadArray = new AtomicReferenceArray<>(chunkCount);
@@ -238,37 +374,32 @@ public class GelfChunkAggregator implements CodecAggregator {
             this.id = requireNonNull(id);
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            final ChunkEntry that = (ChunkEntry) o;
-
-            if (!id.equals(that.id)) return false;
-            if (firstTimestamp != that.firstTimestamp) return false;
+        boolean hold(int length) {
+            while (true) {
+                final long current = bytes.get();
+                if (current == RELEASED) {
+                    return false;
+                }
+                if (bytes.compareAndSet(current, current + length)) {
+                    return true;
+                }
+            }
+        }
 
-            //noinspection RedundantIfStatement
-            return true;
+        long release() {
+            return bytes.getAndSet(RELEASED);
         }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(id, firstTimestamp);
+        boolean isReleased() {
+            return bytes.get() == RELEASED;
         }
 
-        @Override
-        public int compareTo(@Nonnull ChunkEntry o) {
-            if (equals(o)) {
-                return 0;
-            }
-            // If two chunk entries have the same timestamp, we have to compare the IDs. Otherwise the removal from
-            // the eviction set might not work and leak memory.
-            // See: https://github.com/Graylog2/graylog2-server/issues/1462
-            if (firstTimestamp == o.firstTimestamp) {
-                return id.compareTo(o.id);
+        byte[][] drain() {
+            final byte[][] chunks = new byte[payloadArray.length()][];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = payloadArray.getAndSet(i, null);
             }
-            return firstTimestamp < o.firstTimestamp ? -1 : 1;
+            return chunks;
         }
 
         @Override
@@ -286,21 +417,26 @@ public class GelfChunkAggregator implements CodecAggregator {
         @Override
         public void run() {
             try {
-                // loop until we've either evicted all outdated chunk entries, or the set is completely empty.
-                // this task will run every second by default (see constant in constructor)
-                while (true) {
-                    // Check if eviction set is empty to avoid a NoElementException when calling first().
-                    if (sortedEvictionSet.isEmpty()) {
-                        break;
-                    }
-                    final ChunkEntry oldestChunkEntry = sortedEvictionSet.first();
-                    if (isOutdated(oldestChunkEntry)) {
-                        expireEntry(oldestChunkEntry.id);
-                    } else {
-                        log.debug("No more outdated chunk entries found to evict, leaving cleanup loop.");
-                        break;
+                // sweep the slots of all ticks which contain outdated entries, the last one is only partially outdated
+                // and will be swept again in the next run. this task will run every second by default (see constant
+                // in constructor)
+                final long now = now();
+                final long lastTick = tick(now - VALIDITY_PERIOD);
+                for (long tick = Math.max(sweptTick, lastTick - WHEEL_SLOTS + 1); tick <= lastTick; tick++) {
+                    for (Shard shard : shards) {
+                        shard.slot(tick).removeIf(entry -> {
+                            if (entry.isReleased()) {
+                                return true;
+                            }
+                            if (!isOutdated(entry, now)) {
+                                return false;
+                            }
+                            expireEntry(shard, entry);
+                            return true;
+                        });
                     }
                 }
+                sweptTick = Math.max(sweptTick, lastTick);
             } catch (Exception e) {
                 // Make sure to never throw an exception out of this runnable, it's being run in an executor.
                 log.warn("Error while expiring GELF chunk entries", e);
@@ -19,6 +19,7 @@ package org.graylog2.inputs.codecs;
 import com.google.inject.assistedinject.Assisted;
 import jakarta.inject.Inject;
 import org.graylog2.inputs.codecs.gelf.GELFBulkDroppedMsgService;
+import org.graylog2.inputs.codecs.gelf.GELFDecompressor;
 import org.graylog2.inputs.transports.TcpTransport;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.MessageFactory;
@@ -53,13 +54,15 @@ public class GelfCodec extends AbstractCodec {
     public GelfCodec(@Assisted Configuration configuration,
                      GelfChunkAggregator aggregator,
                      MessageFactory messageFactory,
-                     GELFBulkDroppedMsgService gelfBulkDroppedMsgService) {
+                     GELFBulkDroppedMsgService gelfBulkDroppedMsgService,
+                     GELFDecompressor decompressor) {
         super(configuration);
         this.aggregator = aggregator;
         this.gelfDecoder = new GelfDecoder(messageFactory,
                 configuration.getInt(CK_DECOMPRESS_SIZE_LIMIT, DEFAULT_DECOMPRESS_SIZE_LIMIT),
                 getCharsetOrDefault(configuration),
-                gelfBulkDroppedMsgService);
+                gelfBulkDroppedMsgService,
+                decompressor);
     }
 
     @Override
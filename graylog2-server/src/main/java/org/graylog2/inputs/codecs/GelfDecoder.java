@@ -19,11 +19,21 @@ package org.graylog2.inputs.codecs;
 import com.eaio.uuid.UUID;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.BigIntegerNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 import jakarta.inject.Inject;
 import org.apache.commons.lang3.StringUtils;
 import org.graylog2.inputs.codecs.gelf.GELFBulkDroppedMsgService;
+import org.graylog2.inputs.codecs.gelf.GELFDecompressor;
 import org.graylog2.inputs.codecs.gelf.GELFMessage;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.MessageFactory;
@@ -35,28 +45,35 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.charset.Charset;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 
 public class GelfDecoder {
     private static final Logger log = LoggerFactory.getLogger(GelfDecoder.class);
+    // markers for additional field values which are skipped
+    private static final Object NULL_VALUE = new Object();
+    private static final Object UNKNOWN_VALUE = new Object();
 
     private final MessageFactory messageFactory;
     private final Charset charset;
     private final ObjectMapper objectMapper;
     private final JsonFactory jsonFactory;
     private final GELFBulkDroppedMsgService gelfBulkDroppedMsgService;
+    private final GELFDecompressor decompressor;
     private final long decompressSizeLimit;
 
     @Inject
     public GelfDecoder(MessageFactory messageFactory,
                        long decompressSizeLimit,
                        Charset charset,
-                       GELFBulkDroppedMsgService gelfBulkDroppedMsgService) {
+                       GELFBulkDroppedMsgService gelfBulkDroppedMsgService,
+                       GELFDecompressor decompressor) {
         this.messageFactory = messageFactory;
+        this.decompressor = decompressor;
         this.charset = charset;
         this.gelfBulkDroppedMsgService = gelfBulkDroppedMsgService;
         this.objectMapper = new ObjectMapper().enable(
@@ -68,35 +85,35 @@ public class GelfDecoder {
 
     public Optional<Message> decode(final RawMessage rawMessage) {
         final GELFMessage gelfMessage = new GELFMessage(rawMessage.getPayload(), rawMessage.getRemoteAddress());
-        final String json = gelfMessage.getJSON(decompressSizeLimit, charset);
+        final GELFMessage.Type type = gelfMessage.getGELFType();
+        if (type == GELFMessage.Type.CHUNKED || type == GELFMessage.Type.UNSUPPORTED) {
+            throw new IllegalStateException("Unknown GELF type. Not supported.");
+        }
 
-        final JsonNode node;
+        final GelfFields fields;
 
-        try {
-            final JsonParser parser = jsonFactory.createParser(json);
-            node = objectMapper.readTree(parser);
-
-            if (node == null || node.isNull()) {
-                throw new IOException("null result");
-            }
+        try (final JsonParser parser = createParser(type, rawMessage)) {
+            fields = readFields(parser);
 
             if (parser.nextToken() != null) {
                 gelfBulkDroppedMsgService.handleDroppedMsgOccurrence(rawMessage);
             }
 
+        } catch (final GELFDecompressor.DecompressionException e) {
+            throw new IllegalStateException("Failed to decompress the GELF message payload", e);
         } catch (final Exception e) {
             throw InputProcessingException.create("JSON is null/could not be parsed (invalid JSON)",
-                    e, rawMessage, json);
+                    e, rawMessage, gelfMessage.getJSON(decompressSizeLimit, charset));
         }
 
         try {
-            validateGELFMessage(node, rawMessage.getId(), rawMessage.getRemoteAddress());
+            validateGELFMessage(fields, rawMessage.getId(), rawMessage.getRemoteAddress());
         } catch (IllegalArgumentException e) {
-            throw InputProcessingException.create(e.getMessage(), e, rawMessage, json);
+            throw InputProcessingException.create(e.getMessage(), e, rawMessage, gelfMessage.getJSON(decompressSizeLimit, charset));
         }
 
         // Timestamp.
-        final double messageTimestamp = timestampValue(node);
+        final double messageTimestamp = timestampValue(fields.timestamp);
         final DateTime timestamp;
         if (messageTimestamp <= 0) {
             timestamp = rawMessage.getTimestamp();
@@ -106,43 +123,39 @@ public class GelfDecoder {
         }
 
         final Message message = messageFactory.createMessage(
-                stringValue(node, "short_message"),
-                stringValue(node, "host"),
+                stringValue(fields.shortMessage),
+                stringValue(fields.host),
                 timestamp
         );
 
-        message.addField(Message.FIELD_FULL_MESSAGE, stringValue(node, "full_message"));
+        message.addField(Message.FIELD_FULL_MESSAGE, stringValue(fields.fullMessage));
 
-        final String file = stringValue(node, "file");
+        final String file = stringValue(fields.file);
 
         if (file != null && !file.isEmpty()) {
             message.addField("file", file);
         }
 
-        final long line = longValue(node, "line");
+        final long line = longValue(fields.line);
         if (line > -1) {
             message.addField("line", line);
         }
 
         // Level is set by server if not specified by client.
-        final int level = intValue(node, "level");
+        final int level = intValue(fields.level);
         if (level > -1) {
             message.addField("level", level);
         }
 
         // Facility is set by server if not specified by client.
-        final String facility = stringValue(node, "facility");
+        final String facility = stringValue(fields.facility);
         if (facility != null && !facility.isEmpty()) {
             message.addField("facility", facility);
         }
 
         // Add additional data if there is some.
-        final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
-
-        while (fields.hasNext()) {
-            final Map.Entry<String, JsonNode> entry = fields.next();
-
-            String key = entry.getKey();
+        for (final Map.Entry<String, Object> field : fields.values.entrySet()) {
+            String key = field.getKey();
             // Do not index useless GELF "version" field.
             if ("version".equals(key)) {
                 continue;
@@ -163,22 +176,11 @@ public class GelfDecoder {
                 continue;
             }
 
-            // Convert JSON containers to Strings, and pick a suitable number representation.
-            final JsonNode value = entry.getValue();
-
-            final Object fieldValue;
-            if (value.isContainerNode()) {
-                fieldValue = value.toString();
-            } else if (value.isFloatingPointNumber()) {
-                fieldValue = value.asDouble();
-            } else if (value.isIntegralNumber()) {
-                fieldValue = value.asLong();
-            } else if (value.isNull()) {
+            final Object fieldValue = field.getValue();
+            if (fieldValue == NULL_VALUE) {
                 log.debug("Field [{}] is NULL. Skipping.", key);
                 continue;
-            } else if (value.isTextual()) {
-                fieldValue = value.asText();
-            } else {
+            } else if (fieldValue == UNKNOWN_VALUE) {
                 log.debug("Field [{}] has unknown value type. Skipping.", key);
                 continue;
             }
@@ -189,10 +191,108 @@ public class GelfDecoder {
         return Optional.of(message);
     }
 
-    private void validateGELFMessage(JsonNode jsonNode, UUID id, ResolvableInetSocketAddress remoteAddress) {
+    /**
+     * Compressed payloads are decompressed while they are parsed. The JSON is only materialized as a string if the
+     * message turns out to be invalid and has to be reported.
+     */
+    private JsonParser createParser(GELFMessage.Type type, RawMessage rawMessage) throws IOException {
+        if (type == GELFMessage.Type.UNCOMPRESSED) {
+            return jsonFactory.createParser(new String(rawMessage.getPayload(), charset));
+        }
+        // compressed payloads are always UTF-8, the reader replaces malformed input like String does
+        return jsonFactory.createParser(decompressor.decompressUtf8(type, rawMessage.getPayload(), decompressSizeLimit,
+                rawMessage.getInputIdOnCurrentNode().orElse(null)));
+    }
+
+    /**
+     * Reads the fields of a GELF message from the parser without building a tree for the whole document.
+     * <p>
+     * Only the values of the standard GELF fields, which need the lenient conversions of {@link JsonNode}, and nested
+     * objects or arrays, which are indexed as their JSON representation, are read into nodes. Duplicate keys behave
+     * like in {@link ObjectMapper#readTree(JsonParser)}: the last value wins and the field keeps its first position.
+     */
+    private GelfFields readFields(JsonParser parser) throws IOException {
+        final JsonToken token = parser.nextToken();
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            throw new IOException("null result");
+        }
+
+        final GelfFields fields = new GelfFields();
+        if (token != JsonToken.START_OBJECT) {
+            // Any other JSON value is valid but doesn't have fields, the validation will reject it.
+            parser.skipChildren();
+            return fields;
+        }
+
+        String key;
+        while ((key = parser.nextFieldName()) != null) {
+            final JsonToken valueToken = parser.nextToken();
+            final JsonNode standardValue = switch (key) {
+                case "host", "short_message", "message", "full_message", "file", "line", "level", "facility",
+                     Message.FIELD_TIMESTAMP -> readNode(parser, valueToken);
+                default -> null;
+            };
+
+            final Object fieldValue = standardValue == null ? fieldValue(parser, valueToken) : fieldValue(standardValue);
+            fields.add(key, fieldValue);
+
+            if (standardValue != null) {
+                fields.setStandardField(key, standardValue);
+            }
+        }
+        return fields;
+    }
+
+    private JsonNode readNode(JsonParser parser, JsonToken token) throws IOException {
+        return switch (token) {
+            case VALUE_STRING -> TextNode.valueOf(parser.getText());
+            case VALUE_NUMBER_INT -> switch (parser.getNumberType()) {
+                case INT -> IntNode.valueOf(parser.getIntValue());
+                case LONG -> LongNode.valueOf(parser.getLongValue());
+                default -> BigIntegerNode.valueOf(parser.getBigIntegerValue());
+            };
+            case VALUE_NUMBER_FLOAT -> DoubleNode.valueOf(parser.getDoubleValue());
+            case VALUE_TRUE -> BooleanNode.TRUE;
+            case VALUE_FALSE -> BooleanNode.FALSE;
+            case VALUE_NULL -> NullNode.getInstance();
+            default -> objectMapper.readTree(parser);
+        };
+    }
+
+    // Convert JSON containers to Strings, and pick a suitable number representation.
+    private Object fieldValue(JsonParser parser, JsonToken token) throws IOException {
+        return switch (token) {
+            case START_OBJECT, START_ARRAY -> objectMapper.readTree(parser).toString();
+            case VALUE_NUMBER_FLOAT -> parser.getDoubleValue();
+            case VALUE_NUMBER_INT -> parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER
+                    ? parser.getBigIntegerValue().longValue()
+                    : parser.getLongValue();
+            case VALUE_NULL -> NULL_VALUE;
+            case VALUE_STRING -> parser.getText();
+            default -> UNKNOWN_VALUE;
+        };
+    }
+
+    private static Object fieldValue(JsonNode value) {
+        if (value.isContainerNode()) {
+            return value.toString();
+        } else if (value.isFloatingPointNumber()) {
+            return value.asDouble();
+        } else if (value.isIntegralNumber()) {
+            return value.asLong();
+        } else if (value.isNull()) {
+            return NULL_VALUE;
+        } else if (value.isTextual()) {
+            return value.asText();
+        } else {
+            return UNKNOWN_VALUE;
+        }
+    }
+
+    private void validateGELFMessage(GelfFields fields, UUID id, ResolvableInetSocketAddress remoteAddress) {
         final String prefix = "GELF message <" + id + "> " + (remoteAddress == null ? "" : "(received from <" + remoteAddress + ">) ");
 
-        final JsonNode hostNode = jsonNode.path("host");
+        final JsonNode hostNode = path(fields.host);
         if (hostNode.isMissingNode()) {
             log.warn(prefix + "is missing mandatory \"host\" field.");
         } else {
@@ -204,8 +304,8 @@ public class GelfDecoder {
             }
         }
 
-        final JsonNode shortMessageNode = jsonNode.path("short_message");
-        final JsonNode messageNode = jsonNode.path("message");
+        final JsonNode shortMessageNode = path(fields.shortMessage);
+        final JsonNode messageNode = path(fields.message);
         if (!shortMessageNode.isMissingNode()) {
             if (!shortMessageNode.isTextual()) {
                 throw new IllegalArgumentException(prefix + "has invalid \"short_message\": " + shortMessageNode.asText());
@@ -224,47 +324,39 @@ public class GelfDecoder {
             throw new IllegalArgumentException(prefix + "is missing mandatory \"short_message\" or \"message\" field.");
         }
 
-        final JsonNode timestampNode = jsonNode.path("timestamp");
+        final JsonNode timestampNode = path(fields.timestamp);
         if (timestampNode.isValueNode() && !timestampNode.isNumber()) {
             log.warn(prefix + "has invalid \"timestamp\": {}  (type: {})", timestampNode.asText(), timestampNode.getNodeType().name());
         }
     }
 
-    private static String stringValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
+    private static JsonNode path(@Nullable JsonNode value) {
+        return value == null ? MissingNode.getInstance() : value;
+    }
 
-            if (value != null) {
-                return value.asText();
-            }
+    private static String stringValue(@Nullable JsonNode value) {
+        if (value != null) {
+            return value.asText();
         }
         return null;
     }
 
-    private static long longValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
-
-            if (value != null) {
-                return value.asLong(-1L);
-            }
+    private static long longValue(@Nullable JsonNode value) {
+        if (value != null) {
+            return value.asLong(-1L);
         }
         return -1L;
     }
 
-    private static int intValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
-
-            if (value != null) {
-                return value.asInt(-1);
-            }
+    private static int intValue(@Nullable JsonNode value) {
+        if (value != null) {
+            return value.asInt(-1);
         }
         return -1;
     }
 
-    private static double timestampValue(final JsonNode json) {
-        final JsonNode value = json.path(Message.FIELD_TIMESTAMP);
+    private static double timestampValue(@Nullable JsonNode timestamp) {
+        final JsonNode value = path(timestamp);
         if (value.isNumber()) {
             return value.asDouble(-1.0);
         } else if (value.isTextual()) {
@@ -278,4 +370,41 @@ public class GelfDecoder {
             return -1.0;
         }
     }
+
+    /**
+     * The fields of a GELF message in document order, plus the values of the standard GELF fields.
+     */
+    private static final class GelfFields {
+        private final Map<String, Object> values = new LinkedHashMap<>();
+
+        private JsonNode host;
+        private JsonNode shortMessage;
+        private JsonNode message;
+        private JsonNode fullMessage;
+        private JsonNode file;
+        private JsonNode line;
+        private JsonNode level;
+        private JsonNode facility;
+        private JsonNode timestamp;
+
+        void add(String key, Object value) {
+            // a duplicate key keeps the position of its first occurrence and the value of its last one
+            values.put(key, value);
+        }
+
+        void setStandardField(String key, JsonNode value) {
+            switch (key) {
+                case "host" -> host = value;
+                case "short_message" -> shortMessage = value;
+                case "message" -> message = value;
+                case "full_message" -> fullMessage = value;
+                case "file" -> file = value;
+                case "line" -> line = value;
+                case "level" -> level = value;
+                case "facility" -> facility = value;
+                case Message.FIELD_TIMESTAMP -> timestamp = value;
+                default -> throw new IllegalArgumentException("Not a standard GELF field: " + key);
+            }
+        }
+    }
 }
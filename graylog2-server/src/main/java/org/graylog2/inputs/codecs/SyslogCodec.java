@@ -24,6 +24,9 @@ import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import jakarta.inject.Inject;
 import org.apache.commons.lang3.StringUtils;
+import org.graylog2.inputs.codecs.syslog.Syslog4jParser;
+import org.graylog2.inputs.codecs.syslog.SyslogEvent;
+import org.graylog2.inputs.codecs.syslog.SyslogParser;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.MessageFactory;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
@@ -41,10 +44,6 @@ import org.graylog2.plugin.inputs.codecs.CodecAggregator;
 import org.graylog2.plugin.inputs.failure.InputProcessingException;
 import org.graylog2.plugin.inputs.transports.NettyTransport;
 import org.graylog2.plugin.journal.RawMessage;
-import org.graylog2.syslog4j.server.SyslogServerEventIF;
-import org.graylog2.syslog4j.server.impl.event.CiscoSyslogServerEvent;
-import org.graylog2.syslog4j.server.impl.event.FortiGateSyslogEvent;
-import org.graylog2.syslog4j.server.impl.event.SyslogServerEvent;
 import org.graylog2.syslog4j.server.impl.event.structured.StructuredSyslogServerEvent;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -56,6 +55,7 @@ import javax.annotation.Nullable;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -69,9 +69,11 @@ import static com.google.common.base.Strings.isNullOrEmpty;
 @Codec(name = "syslog", displayName = "Syslog")
 public class SyslogCodec extends AbstractCodec {
     private static final Logger LOG = LoggerFactory.getLogger(SyslogCodec.class);
+    /**
+     * @deprecated Use {@link org.graylog2.inputs.codecs.syslog.SyslogFormat#detect(CharSequence)} instead.
+     */
+    @Deprecated
     public static final Pattern STRUCTURED_SYSLOG_PATTERN = Pattern.compile("<\\d{1,3}>[0-9]\\d{0,2}\\s.*", Pattern.DOTALL);
-    private static final Pattern CISCO_WITH_SEQUENCE_NUMBERS_PATTERN = Pattern.compile("<\\d{1,3}>\\d*:\\s.*", Pattern.DOTALL);
-    private static final Pattern FORTIGATE_PATTERN = Pattern.compile("<\\d{1,3}>date=.*", Pattern.DOTALL);
 
     static final String CK_FORCE_RDNS = "force_rdns";
     static final String CK_ALLOW_OVERRIDE_DATE = "allow_override_date";
@@ -82,6 +84,8 @@ public class SyslogCodec extends AbstractCodec {
     private final Timer resolveTime;
     private final Timer decodeTime;
     private final MessageFactory messageFactory;
+    private final SyslogParser parser;
+    private final Syslog4jParser syslog4jParser = new Syslog4jParser();
 
     @AssistedInject
     public SyslogCodec(@Assisted Configuration configuration, MetricRegistry metricRegistry, MessageFactory messageFactory) {
@@ -89,11 +93,12 @@ public class SyslogCodec extends AbstractCodec {
         this.resolveTime = metricRegistry.timer(name(SyslogCodec.class, "resolveTime"));
         this.decodeTime = metricRegistry.timer(name(SyslogCodec.class, "decodeTime"));
         this.messageFactory = messageFactory;
+        this.parser = SyslogParser.supports(charset) ? new SyslogParser(charset) : null;
     }
 
     @Override
     public Optional<Message> decodeSafe(@Nonnull RawMessage rawMessage) {
-        final String msg = new String(rawMessage.getPayload(), charset);
+        final byte[] payload = rawMessage.getPayload();
         try (Timer.Context ignored = this.decodeTime.time()) {
             final ResolvableInetSocketAddress address = rawMessage.getRemoteAddress();
             final InetSocketAddress remoteAddress;
@@ -102,71 +107,34 @@ public class SyslogCodec extends AbstractCodec {
             } else {
                 remoteAddress = address.getInetSocketAddress();
             }
-            return Optional.of(parse(msg, remoteAddress == null ? null : remoteAddress.getAddress(), rawMessage.getTimestamp()));
+            return Optional.of(parse(payload, remoteAddress == null ? null : remoteAddress.getAddress(), rawMessage.getTimestamp()));
         } catch (Exception e) {
-            throw InputProcessingException.create("Could not deserialize Syslog message.", e, rawMessage, msg);
+            throw InputProcessingException.create("Could not deserialize Syslog message.", e, rawMessage, new String(payload, charset));
         }
     }
 
     @Nonnull
-    private Message parse(String msg, InetAddress remoteAddress, DateTime receivedTimestamp) {
-        /*
-         * ZOMG funny 80s neckbeard protocols. We are now deciding if to parse
-         * structured (RFC5424) or unstructured (classic BSD, RFC3164) syslog
-         * by checking if there is a VERSION after the PRI. Sorry.
-         *
-         *                            ._.                                  _
-         *    R-O-F-L-R-O-F-L-R-O-F-L-IOI-R-O-F-L-R-O-F-L-R-O-F-L         / l
-         *                ___________/LOL\____                           /: ]
-         *            .__/°         °\___/°   \                         / ::\
-         *           /^^ \            °  °     \_______.__________.____/: OO:\
-         *      .__./     j      ________             _________________ ::OO::|
-         *    ./ ^^ j____/°     [\______/]      .____/                 \__:__/
-         *  ._|____/°    °       <{(OMG{<       /                         ::
-         * /  °    °              (OMFG{       /
-         * |°  loooooooooooooooooooooooooooooooool
-         *         °L|                   L|
-         *          ()                   ()
-         *
-         *
-         *  http://open.spotify.com/track/2ZtQKBB8wDTtPPqDZhy7xZ
-         *
-         */
+    private Message parse(byte[] payload, InetAddress remoteAddress, DateTime receivedTimestamp) {
         String timeZoneConfig = configuration.getString(CK_TIMEZONE);
-        final SyslogServerEventIF e;
         boolean isDefaultTimeZoneSet = StringUtils.isNotBlank(timeZoneConfig) && !DropdownField.NOT_CONFIGURED.equals(timeZoneConfig);
         DateTimeZone defaultTimeZone = isDefaultTimeZoneSet ? DateTimeZone.forID(timeZoneConfig) : null;
-        if (STRUCTURED_SYSLOG_PATTERN.matcher(msg).matches()) {
-            e = new StructuredSyslogServerEvent(msg, remoteAddress, defaultTimeZone);
-        } else if (CISCO_WITH_SEQUENCE_NUMBERS_PATTERN.matcher(msg).matches()) {
-            e = new CiscoSyslogServerEvent(msg, remoteAddress, defaultTimeZone);
-        } else if (FORTIGATE_PATTERN.matcher(msg).matches()) {
-            e = new FortiGateSyslogEvent(msg.trim(), defaultTimeZone);
-        } else {
-            e = new SyslogServerEvent(msg, remoteAddress, defaultTimeZone);
-        }
 
-        // If the message is a structured one, we do not want the message ID and the structured data in the
-        // message string. See: https://github.com/Graylog2/graylog2-server/issues/845#issuecomment-69499719
-        final String syslogMessage;
-        if (e instanceof StructuredSyslogServerEvent) {
-            final String structMessage = ((StructuredSyslogServerEvent) e).getStructuredMessage().getMessage();
-            syslogMessage = isNullOrEmpty(structMessage) ? e.getMessage() : structMessage;
-        } else {
-            syslogMessage = e.getMessage();
+        // The fast path only handles well-formed messages, everything else is left to syslog4j.
+        SyslogEvent e = parser == null ? null : parser.parse(payload, defaultTimeZone);
+        if (e == null) {
+            e = syslog4jParser.parse(new String(payload, charset), remoteAddress, defaultTimeZone);
         }
 
-        final Message m = messageFactory.createMessage(syslogMessage, parseHost(e, remoteAddress), parseDate(e, receivedTimestamp));
-        m.addField("facility", Tools.syslogFacilityToReadable(e.getFacility()));
-        m.addField("level", e.getLevel());
-        m.addField("facility_num", e.getFacility());
+        final Message m = messageFactory.createMessage(e.message(), parseHost(e, remoteAddress), parseDate(e, payload, receivedTimestamp));
+        m.addField("facility", Tools.syslogFacilityToReadable(e.facility()));
+        m.addField("level", e.level());
+        m.addField("facility_num", e.facility());
 
-        // I can haz pattern matching?
-        if (e instanceof CiscoSyslogServerEvent) {
-            m.addField("sequence_number", ((CiscoSyslogServerEvent) e).getSequenceNumber());
+        if (e.sequenceNumber() != null) {
+            m.addField("sequence_number", e.sequenceNumber());
         }
-        if (e instanceof FortiGateSyslogEvent) {
-            final HashMap<String, Object> fields = new HashMap<>(((FortiGateSyslogEvent) e).getFields());
+        if (e.fortiGateFields() != null) {
+            final HashMap<String, Object> fields = new HashMap<>(e.fortiGateFields());
             // The FortiGate "level" field is a string, Graylog requires a numeric value.
             fields.remove("level");
             m.addFields(fields);
@@ -174,7 +142,7 @@ public class SyslogCodec extends AbstractCodec {
 
         // Store full message if configured.
         if (configuration.getBoolean(CK_STORE_FULL_MESSAGE)) {
-            m.addField("full_message", new String(e.getRaw(), charset));
+            m.addField("full_message", rawMessage(e, payload));
         }
 
 
@@ -184,28 +152,26 @@ public class SyslogCodec extends AbstractCodec {
         return m;
     }
 
-    private Map<String, Object> parseAdditionalData(SyslogServerEventIF msg, boolean expand) {
-
+    private Map<String, Object> parseAdditionalData(SyslogEvent msg, boolean expand) {
         // Structured syslog has more data we can parse.
-        if (msg instanceof StructuredSyslogServerEvent) {
-            final StructuredSyslogServerEvent sMsg = (StructuredSyslogServerEvent) msg;
-            final Map<String, Object> structuredData = new HashMap<>(extractFields(sMsg, expand));
+        if (msg.structuredData() == null && msg.applicationName() == null && msg.processId() == null) {
+            return Collections.emptyMap();
+        }
 
-            if (!isNullOrEmpty(sMsg.getApplicationName())) {
-                structuredData.put("application_name", sMsg.getApplicationName());
-            }
+        final Map<String, Object> structuredData = new HashMap<>(extractFields(msg.structuredData(), expand));
 
-            if (!isNullOrEmpty(sMsg.getProcessId())) {
-                structuredData.put("process_id", sMsg.getProcessId());
-            }
+        if (!isNullOrEmpty(msg.applicationName())) {
+            structuredData.put("application_name", msg.applicationName());
+        }
 
-            return structuredData;
-        } else {
-            return Collections.emptyMap();
+        if (!isNullOrEmpty(msg.processId())) {
+            structuredData.put("process_id", msg.processId());
         }
+
+        return structuredData;
     }
 
-    private String parseHost(SyslogServerEventIF msg, InetAddress remoteAddress) {
+    private String parseHost(SyslogEvent msg, InetAddress remoteAddress) {
         if (remoteAddress != null && configuration.getBoolean(CK_FORCE_RDNS)) {
             try (Timer.Context ignored = this.resolveTime.time()) {
                 return Tools.rdnsLookup(remoteAddress);
@@ -214,13 +180,13 @@ public class SyslogCodec extends AbstractCodec {
             }
         }
 
-        final String host = msg.getHost();
+        final String host = msg.host();
         return isNullOrEmpty(host) && remoteAddress != null ? InetAddresses.toAddrString(remoteAddress) : host;
     }
 
-    private DateTime parseDate(SyslogServerEventIF msg, DateTime receivedTimestamp) throws IllegalStateException {
+    private DateTime parseDate(SyslogEvent msg, byte[] payload, DateTime receivedTimestamp) throws IllegalStateException {
         // Check if date could be parsed.
-        Date sysLogDate = msg.getDate();
+        Date sysLogDate = msg.date();
         if (sysLogDate == null) {
             if (configuration.getBoolean(CK_ALLOW_OVERRIDE_DATE)) {
                 LOG.debug("Date could not be parsed. Was set to NOW because {} is true.", CK_ALLOW_OVERRIDE_DATE);
@@ -228,7 +194,7 @@ public class SyslogCodec extends AbstractCodec {
             } else {
                 LOG.warn("Syslog message is missing date or date could not be parsed. (Possibly set {} to true) "
                                 + "Not further handling. Message was: {}",
-                        CK_ALLOW_OVERRIDE_DATE, new String(msg.getRaw(), charset));
+                        CK_ALLOW_OVERRIDE_DATE, rawMessage(msg, payload));
                 throw new IllegalStateException("Syslog message is missing date or date could not be parsed.");
             }
         }
@@ -236,6 +202,12 @@ public class SyslogCodec extends AbstractCodec {
         return new DateTime(sysLogDate);
     }
 
+    private String rawMessage(SyslogEvent msg, byte[] payload) {
+        // syslog4j always encodes the raw message as UTF-8, regardless of the configured charset.
+        final String raw = msg.rawMessage() == null ? new String(payload, charset) : msg.rawMessage();
+        return new String(raw.getBytes(StandardCharsets.UTF_8), charset);
+    }
+
     @Nullable
     @Override
     public CodecAggregator getAggregator() {
@@ -322,29 +294,31 @@ public class SyslogCodec extends AbstractCodec {
         }
     }
 
-    @SuppressWarnings("unchecked")
     @VisibleForTesting
     Map<String, Object> extractFields(final StructuredSyslogServerEvent msg, final boolean expand) {
         try {
-            final Map<String, Map<String, String>> raw = msg.getStructuredMessage().getStructuredData();
-
-            if (raw != null && !raw.isEmpty()) {
-                final Map<String, Object> fields = new HashMap<>();
-                for (Map.Entry<String, Map<String, String>> entry : raw.entrySet()) {
-                    if (expand) {
-                        fields.putAll(prefixElements(entry.getKey(), entry.getValue()));
-                    } else {
-                        fields.putAll(entry.getValue());
-                    }
-                }
-                return fields;
-            }
+            return extractFields(msg.getStructuredMessage().getStructuredData(), expand);
         } catch (Exception e) {
             LOG.debug("Could not extract structured syslog", e);
         }
         return Collections.emptyMap();
     }
 
+    private Map<String, Object> extractFields(@Nullable final Map<String, Map<String, String>> raw, final boolean expand) {
+        if (raw != null && !raw.isEmpty()) {
+            final Map<String, Object> fields = new HashMap<>();
+            for (Map.Entry<String, Map<String, String>> entry : raw.entrySet()) {
+                if (expand) {
+                    fields.putAll(prefixElements(entry.getKey(), entry.getValue()));
+                } else {
+                    fields.putAll(entry.getValue());
+                }
+            }
+            return fields;
+        }
+        return Collections.emptyMap();
+    }
+
     private Map<String, String> prefixElements(final String prefix, final Map<String, String> elements) {
         if (elements == null || elements.isEmpty()) {
             return Collections.emptyMap();
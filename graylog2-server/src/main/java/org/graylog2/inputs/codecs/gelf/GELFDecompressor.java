@@ -0,0 +1,539 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.gelf;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.graylog2.plugin.IOState;
+import org.graylog2.plugin.events.inputs.IOStateChangedEvent;
+import org.graylog2.plugin.inputs.MessageInput;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Decompresses ZLIB and GZIP compressed GELF payloads.
+ * <p>
+ * The payload is inflated on demand while the returned stream is read, so the decompressed message never has to be
+ * held in memory as a whole. {@link Inflater} instances and buffers are pooled per thread and returned to the pool
+ * when the stream is closed. The decompressed size limit is enforced while inflating: the stream ends once the limit has been reached,
+ * just like a stream wrapped with {@link com.google.common.io.ByteStreams#limit(InputStream, long)}.
+ * <p>
+ * The time spent inflating, the compression ratio and the number of payloads which exceeded the size limit are
+ * reported per input. The metrics of an input are removed when the input is stopped.
+ */
+@Singleton
+public class GELFDecompressor {
+    protected static final String METRIC_PREFIX = "org.graylog2.inputs";
+    private static final int BUFFER_SIZE = 8192;
+
+    // GZIP header flags, see RFC 1952
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private final ThreadLocal<Resources> resources = ThreadLocal.withInitial(Resources::new);
+    private final ConcurrentMap<String, DecompressionMetrics> inputMetrics = new ConcurrentHashMap<>();
+    private final MetricRegistry metricRegistry;
+    private final DecompressionMetrics defaultMetrics;
+
+    @Inject
+    public GELFDecompressor(MetricRegistry metricRegistry, EventBus eventBus) {
+        this.metricRegistry = metricRegistry;
+        this.defaultMetrics = new DecompressionMetrics(metricRegistry, name(GELFDecompressor.class));
+        eventBus.register(this);
+    }
+
+    @Subscribe
+    @SuppressWarnings("unused")
+    public void inputStateChanged(IOStateChangedEvent<MessageInput> event) {
+        // deleted inputs are stopped before they are terminated
+        if (event.newState() == IOState.Type.STOPPED || event.newState() == IOState.Type.TERMINATED) {
+            removeInputMetrics(event.changedState().getStoppable().getId());
+        }
+    }
+
+    @VisibleForTesting
+    void removeInputMetrics(String inputId) {
+        if (inputMetrics.remove(inputId) != null) {
+            DecompressionMetrics.remove(metricRegistry, name(METRIC_PREFIX, inputId));
+        }
+    }
+
+    /**
+     * Returns a stream of the decompressed payload.
+     *
+     * @param type     the type of the payload, either {@link GELFMessage.Type#ZLIB} or {@link GELFMessage.Type#GZIP}
+     * @param payload  the compressed payload
+     * @param maxBytes the maximum number of decompressed bytes to read, a negative value means unlimited
+     * @param inputId  the ID of the input the payload has been received by, used to report metrics
+     * @return the decompressed payload, the stream must be closed to return the pooled resources
+     * @throws IllegalArgumentException if the payload type is not compressed
+     */
+    public InputStream decompress(GELFMessage.Type type, byte[] payload, long maxBytes, @Nullable String inputId) {
+        final boolean gzip = switch (type) {
+            case ZLIB -> false;
+            case GZIP -> true;
+            default -> throw new IllegalArgumentException("GELF payload of type " + type + " is not compressed");
+        };
+        final DecompressionMetrics metrics = inputId == null ? defaultMetrics
+                : inputMetrics.computeIfAbsent(inputId, id -> new DecompressionMetrics(metricRegistry, name(METRIC_PREFIX, id)));
+        return new InflatingInputStream(acquire(), gzip, payload, maxBytes < 0 ? Long.MAX_VALUE : maxBytes, metrics);
+    }
+
+    /**
+     * Returns a reader of the decompressed payload, decoded as UTF-8. Malformed input is replaced like in
+     * {@link String#String(byte[], java.nio.charset.Charset)}.
+     *
+     * @see #decompress(GELFMessage.Type, byte[], long, String)
+     */
+    public Reader decompressUtf8(GELFMessage.Type type, byte[] payload, long maxBytes, @Nullable String inputId) {
+        final InflatingInputStream in = (InflatingInputStream) decompress(type, payload, maxBytes, inputId);
+        return new Utf8Reader(in);
+    }
+
+    private Resources acquire() {
+        final Resources pooled = resources.get();
+        if (!pooled.inUse) {
+            pooled.inUse = true;
+            return pooled;
+        }
+        // only happens if a stream on this thread hasn't been closed yet
+        final Resources unpooled = new Resources();
+        unpooled.inUse = true;
+        return unpooled;
+    }
+
+    /**
+     * Inflaters and buffers which are reused by the streams created on the same thread.
+     */
+    private static class Resources {
+        private Inflater zlibInflater;
+        private Inflater gzipInflater;
+        private byte[] buffer;
+        private CharsetDecoder decoder;
+        private boolean inUse;
+
+        Inflater inflater(boolean gzip) {
+            if (gzip) {
+                if (gzipInflater == null) {
+                    // GZIP members contain raw deflate data, their header and trailer are handled by the stream
+                    gzipInflater = new Inflater(true);
+                }
+                return gzipInflater;
+            }
+            if (zlibInflater == null) {
+                zlibInflater = new Inflater();
+            }
+            return zlibInflater;
+        }
+
+        byte[] buffer() {
+            if (buffer == null) {
+                buffer = new byte[BUFFER_SIZE];
+            }
+            return buffer;
+        }
+
+        CharsetDecoder decoder() {
+            if (decoder == null) {
+                decoder = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            return decoder.reset();
+        }
+
+        void release(Inflater inflater) {
+            inflater.reset();
+            inUse = false;
+        }
+    }
+
+    /**
+     * Thrown by the decompressing stream if the payload is not valid ZLIB or GZIP data.
+     */
+    public static class DecompressionException extends IOException {
+        public DecompressionException(String message) {
+            super(message);
+        }
+
+        public DecompressionException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static class DecompressionMetrics {
+        private final Timer time;
+        private final Histogram ratio;
+        private final Counter limitExceeded;
+
+        DecompressionMetrics(MetricRegistry metricRegistry, String prefix) {
+            this.time = metricRegistry.timer(name(prefix, "gelf.decompression.time"));
+            // decompressed size in percent of the compressed size
+            this.ratio = metricRegistry.histogram(name(prefix, "gelf.decompression.ratio"));
+            this.limitExceeded = metricRegistry.counter(name(prefix, "gelf.decompression.limit_exceeded"));
+        }
+
+        static void remove(MetricRegistry metricRegistry, String prefix) {
+            metricRegistry.remove(name(prefix, "gelf.decompression.time"));
+            metricRegistry.remove(name(prefix, "gelf.decompression.ratio"));
+            metricRegistry.remove(name(prefix, "gelf.decompression.limit_exceeded"));
+        }
+    }
+
+    private static class InflatingInputStream extends InputStream {
+        private final Resources resources;
+        private final boolean gzip;
+        private final byte[] payload;
+        private final DecompressionMetrics metrics;
+        private final CRC32 crc;
+        private Inflater inflater;
+        private boolean started;
+        private boolean eof;
+        private long remaining;
+        private long decompressedBytes;
+        private long memberBytes;
+        private long inflateNanos;
+        private byte[] singleByte;
+
+        InflatingInputStream(Resources resources, boolean gzip, byte[] payload, long maxBytes, DecompressionMetrics metrics) {
+            this.resources = resources;
+            this.gzip = gzip;
+            this.payload = payload;
+            this.remaining = maxBytes;
+            this.metrics = metrics;
+            this.crc = gzip ? new CRC32() : null;
+            this.inflater = resources.inflater(gzip);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (singleByte == null) {
+                singleByte = new byte[1];
+            }
+            final int read = read(singleByte, 0, 1);
+            return read == -1 ? -1 : singleByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (inflater == null) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (eof) {
+                return -1;
+            }
+            if (!started) {
+                started = true;
+                if (gzip) {
+                    startMember(readGzipHeader(0));
+                } else {
+                    inflater.setInput(payload);
+                }
+            }
+            if (remaining <= 0) {
+                // don't inflate anything beyond the limit, the remaining data is silently dropped
+                if (exceedsLimit()) {
+                    metrics.limitExceeded.inc();
+                }
+                eof = true;
+                return -1;
+            }
+
+            final int maxLength = (int) Math.min(len, remaining);
+            while (true) {
+                final int inflated = inflate(b, off, maxLength);
+                if (inflated > 0) {
+                    if (gzip) {
+                        crc.update(b, off, inflated);
+                    }
+                    remaining -= inflated;
+                    decompressedBytes += inflated;
+                    memberBytes += inflated;
+                    return inflated;
+                }
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    if (gzip && nextMember()) {
+                        continue;
+                    }
+                    eof = true;
+                    return -1;
+                }
+                if (inflater.needsInput()) {
+                    throw new DecompressionException("Unexpected end of compressed GELF payload",
+                            new EOFException("Unexpected end of ZLIB input stream"));
+                }
+            }
+        }
+
+        /**
+         * Checks if the payload has more data after the limit has been reached. The inflater might not have seen the
+         * end of the compressed data yet although the payload is exactly as large as the limit.
+         */
+        private boolean exceedsLimit() {
+            if (inflater.finished()) {
+                return false;
+            }
+            if (singleByte == null) {
+                singleByte = new byte[1];
+            }
+            try {
+                return inflate(singleByte, 0, 1) > 0;
+            } catch (DecompressionException e) {
+                return false;
+            }
+        }
+
+        private int inflate(byte[] b, int off, int len) throws DecompressionException {
+            final long start = System.nanoTime();
+            try {
+                return inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new DecompressionException("Invalid compressed GELF payload", e);
+            } finally {
+                inflateNanos += System.nanoTime() - start;
+            }
+        }
+
+        private void startMember(int offset) {
+            inflater.reset();
+            inflater.setInput(payload, offset, payload.length - offset);
+            crc.reset();
+            memberBytes = 0;
+        }
+
+        /**
+         * Verifies the trailer of the current GZIP member and starts the next member if there is one. Like
+         * {@link java.util.zip.GZIPInputStream}, trailing data which is not a valid GZIP member is ignored.
+         */
+        private boolean nextMember() throws DecompressionException {
+            final int trailer = payload.length - inflater.getRemaining();
+            if (trailer + GZIP_TRAILER_SIZE > payload.length) {
+                throw new DecompressionException("Unexpected end of compressed GELF payload",
+                        new EOFException("Missing GZIP trailer"));
+            }
+            if (readUInt(trailer) != crc.getValue() || readUInt(trailer + 4) != (memberBytes & 0xffffffffL)) {
+                throw new DecompressionException("Corrupt GZIP trailer");
+            }
+
+            final int next = trailer + GZIP_TRAILER_SIZE;
+            if (next >= payload.length) {
+                return false;
+            }
+            try {
+                startMember(readGzipHeader(next));
+                return true;
+            } catch (DecompressionException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @return the offset of the deflate data after the GZIP member header at the given offset
+         */
+        private int readGzipHeader(int offset) throws DecompressionException {
+            if (offset + GZIP_HEADER_SIZE > payload.length) {
+                throw new DecompressionException("Unexpected end of compressed GELF payload",
+                        new EOFException("Incomplete GZIP header"));
+            }
+            if ((payload[offset] & 0xff) != 0x1f || (payload[offset + 1] & 0xff) != 0x8b) {
+                throw new DecompressionException("Not in GZIP format");
+            }
+            if (payload[offset + 2] != 8) {
+                throw new DecompressionException("Unsupported compression method");
+            }
+            final int flags = payload[offset + 3] & 0xff;
+            int position = offset + GZIP_HEADER_SIZE;
+            if ((flags & FEXTRA) == FEXTRA) {
+                checkHeaderLength(position + 2);
+                position += 2 + readUShort(position);
+            }
+            if ((flags & FNAME) == FNAME) {
+                position = skipZeroTerminated(position);
+            }
+            if ((flags & FCOMMENT) == FCOMMENT) {
+                position = skipZeroTerminated(position);
+            }
+            if ((flags & FHCRC) == FHCRC) {
+                checkHeaderLength(position + 2);
+                final CRC32 headerCrc = new CRC32();
+                headerCrc.update(payload, offset, position - offset);
+                if (readUShort(position) != (headerCrc.getValue() & 0xffff)) {
+                    throw new DecompressionException("Corrupt GZIP header");
+                }
+                position += 2;
+            }
+            checkHeaderLength(position);
+            return position;
+        }
+
+        private int skipZeroTerminated(int position) throws DecompressionException {
+            int current = position;
+            while (current < payload.length && payload[current] != 0) {
+                current++;
+            }
+            checkHeaderLength(current + 1);
+            return current + 1;
+        }
+
+        private void checkHeaderLength(int end) throws DecompressionException {
+            if (end > payload.length) {
+                throw new DecompressionException("Unexpected end of compressed GELF payload",
+                        new EOFException("Incomplete GZIP header"));
+            }
+        }
+
+        private int readUShort(int offset) {
+            return (payload[offset] & 0xff) | (payload[offset + 1] & 0xff) << 8;
+        }
+
+        private long readUInt(int offset) {
+            return ((long) readUShort(offset + 2) << 16) | readUShort(offset);
+        }
+
+        @Override
+        public void close() {
+            if (inflater == null) {
+                return;
+            }
+            if (decompressedBytes > 0) {
+                metrics.time.update(inflateNanos, TimeUnit.NANOSECONDS);
+                metrics.ratio.update(decompressedBytes * 100 / payload.length);
+            }
+            resources.release(inflater);
+            inflater = null;
+        }
+    }
+
+    /**
+     * Decodes the inflated bytes into characters using the pooled buffer and decoder, {@link java.io.InputStreamReader}
+     * would allocate a new buffer for every message.
+     */
+    private static class Utf8Reader extends Reader {
+        private final InflatingInputStream in;
+        private final CharsetDecoder decoder;
+        private final ByteBuffer bytes;
+        private boolean endOfInput;
+        private boolean flushed;
+        private boolean closed;
+        private int pendingChar = -1;
+
+        Utf8Reader(InflatingInputStream in) {
+            this.in = in;
+            this.decoder = in.resources.decoder();
+            this.bytes = ByteBuffer.wrap(in.resources.buffer());
+            this.bytes.flip();
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (pendingChar >= 0) {
+                // the low surrogate of a character which didn't fit into the previous single char read
+                cbuf[off] = (char) pendingChar;
+                pendingChar = -1;
+                return 1;
+            }
+            if (len == 1) {
+                final char[] pair = new char[2];
+                final int read = read(pair, 0, 2);
+                if (read > 0) {
+                    cbuf[off] = pair[0];
+                }
+                if (read == 2) {
+                    pendingChar = pair[1];
+                }
+                return Math.min(read, 1);
+            }
+
+            final CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            while (true) {
+                if (flushed) {
+                    return out.position() > off ? out.position() - off : -1;
+                }
+                final CoderResult result = decoder.decode(bytes, out, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (endOfInput && result.isUnderflow()) {
+                    if (decoder.flush(out).isUnderflow()) {
+                        flushed = true;
+                    }
+                } else if (out.position() > off) {
+                    return out.position() - off;
+                } else if (result.isUnderflow()) {
+                    fill();
+                }
+            }
+        }
+
+        private void fill() throws IOException {
+            bytes.compact();
+            final int read = in.read(bytes.array(), bytes.position(), bytes.remaining());
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                bytes.position(bytes.position() + read);
+            }
+            bytes.flip();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.syslog;
+
+import com.google.common.base.CharMatcher;
+import org.graylog2.utilities.KeyValueTokenizer;
+
+import javax.annotation.Nullable;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses FortiGate syslog messages ({@code <189>date=2017-03-06 time=12:53:10 devname=... msg="..."}) with a
+ * {@link KeyValueTokenizer}.
+ * <p>
+ * The results are identical to the ones of syslog4j's {@code FortiGateSyslogEvent}, which extracts the fields by
+ * running two regular expressions over the whole message. Those also pick up things which look like fields within
+ * quoted values or within other tokens, so messages which aren't a plain sequence of {@code key=value} and
+ * {@code key="value"} pairs, or which contain duplicate keys, are rejected and {@code null} is returned. Callers
+ * must fall back to syslog4j in that case.
+ */
+class FortiGateParser {
+    // The characters matched by \s in the syslog4j regular expressions.
+    private static final CharMatcher WHITESPACE = CharMatcher.anyOf(" \t\n\u000B\f\r").precomputed();
+    // The characters which aren't matched by . in the syslog4j regular expressions.
+    private static final CharMatcher LINE_TERMINATORS = CharMatcher.anyOf("\n\r\u0085\u2028\u2029").precomputed();
+    private static final CharMatcher WORD_CHARACTERS = CharMatcher.inRange('a', 'z')
+            .or(CharMatcher.inRange('A', 'Z'))
+            .or(CharMatcher.inRange('0', '9'))
+            .or(CharMatcher.is('_'))
+            .precomputed();
+    private static final KeyValueTokenizer TOKENIZER = KeyValueTokenizer.builder()
+            .pairDelimiters(WHITESPACE)
+            .trimCharacters(WHITESPACE)
+            .quoteCharacters("\"")
+            .build();
+
+    /**
+     * @param message         the decoded syslog message, including the priority
+     * @param defaultTimeZone the time zone for timestamps without a {@code tz} field
+     * @return the parsed message or {@code null} if the message has to be parsed by syslog4j
+     */
+    @Nullable
+    SyslogEvent parse(String message, ZoneId defaultTimeZone) {
+        final String trimmed = message.trim();
+        final int priorityEnd = trimmed.indexOf('>');
+        if (!trimmed.startsWith("<") || priorityEnd < 2 || priorityEnd > 4) {
+            return null;
+        }
+        int priority = 0;
+        for (int i = 1; i < priorityEnd; i++) {
+            final char c = trimmed.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            priority = priority * 10 + (c - '0');
+        }
+        final String body = trimmed.substring(priorityEnd + 1);
+        if (LINE_TERMINATORS.matchesAnyOf(body)) {
+            return null;
+        }
+
+        final FieldCollector collector = new FieldCollector();
+        TOKENIZER.tokenize(body, collector);
+        if (!collector.valid) {
+            return null;
+        }
+        final Map<String, String> fields = collector.fields;
+
+        final Date date;
+        final String dateField = fields.get("date");
+        final String timeField = fields.get("time");
+        if (dateField != null && timeField != null) {
+            try {
+                final String tz = fields.get("tz");
+                final ZoneId zone = tz == null ? defaultTimeZone : ZoneOffset.of(tz);
+                final LocalDate localDate = LocalDate.parse(dateField, DateTimeFormatter.ISO_LOCAL_DATE.withZone(zone));
+                final LocalTime localTime = LocalTime.parse(timeField, DateTimeFormatter.ISO_LOCAL_TIME.withZone(zone));
+                date = Date.from(ZonedDateTime.of(localDate, localTime, zone).toInstant());
+            } catch (DateTimeException e) {
+                // Let syslog4j fail the same way it always did.
+                return null;
+            }
+        } else {
+            date = new Date();
+        }
+
+        return SyslogEvent.builder(priority / 8, priority % 8, body)
+                .host(fields.get("devname"))
+                .date(date)
+                .rawMessage(trimmed)
+                .fortiGateFields(fields)
+                .build();
+    }
+
+    private static class FieldCollector implements KeyValueTokenizer.Handler {
+        private final Map<String, String> fields = new HashMap<>();
+        private boolean valid = true;
+
+        @Override
+        public void pair(String key, String value) {
+            if (!WORD_CHARACTERS.matchesAllOf(key) || key.isEmpty()) {
+                valid = false;
+                return;
+            }
+            final String unquoted;
+            if (value.startsWith("\"")) {
+                unquoted = value.length() >= 2 && value.endsWith("\"") ? value.substring(1, value.length() - 1) : null;
+                // An equals sign within the quotes could be taken as the start of another field.
+                if (unquoted == null || unquoted.indexOf('"') >= 0 || unquoted.indexOf('=') >= 0) {
+                    valid = false;
+                    return;
+                }
+            } else if (value.indexOf('"') >= 0) {
+                valid = false;
+                return;
+            } else {
+                unquoted = value;
+            }
+            if (fields.put(key, unquoted) != null) {
+                valid = false;
+            }
+        }
+
+        @Override
+        public void keyWithoutValue(String token) {
+            // Tokens without "=" don't contain any fields, but quotes in them would change the tokenization.
+            if (token.indexOf('"') >= 0) {
+                valid = false;
+            }
+        }
+    }
+}
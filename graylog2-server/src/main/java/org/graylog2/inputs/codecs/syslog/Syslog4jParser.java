@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.syslog;
+
+import org.graylog2.syslog4j.impl.message.structured.StructuredSyslogMessage;
+import org.graylog2.syslog4j.server.SyslogServerEventIF;
+import org.graylog2.syslog4j.server.impl.event.CiscoSyslogServerEvent;
+import org.graylog2.syslog4j.server.impl.event.FortiGateSyslogEvent;
+import org.graylog2.syslog4j.server.impl.event.SyslogServerEvent;
+import org.graylog2.syslog4j.server.impl.event.structured.StructuredSyslogServerEvent;
+import org.joda.time.DateTimeZone;
+
+import javax.annotation.Nullable;
+import java.net.InetAddress;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Parses syslog messages of all supported formats with the syslog4j event classes.
+ * <p>
+ * This handles every message {@link SyslogParser} rejects and defines the results the fast path has to reproduce.
+ */
+public class Syslog4jParser {
+    public SyslogEvent parse(String msg, @Nullable InetAddress remoteAddress, @Nullable DateTimeZone defaultTimeZone) {
+        /*
+         * ZOMG funny 80s neckbeard protocols. We are now deciding if to parse
+         * structured (RFC5424) or unstructured (classic BSD, RFC3164) syslog
+         * by checking if there is a VERSION after the PRI. Sorry.
+         *
+         *                            ._.                                  _
+         *    R-O-F-L-R-O-F-L-R-O-F-L-IOI-R-O-F-L-R-O-F-L-R-O-F-L         / l
+         *                ___________/LOL\____                           /: ]
+         *            .__/°         °\___/°   \                         / ::\
+         *           /^^ \            °  °     \_______.__________.____/: OO:\
+         *      .__./     j      ________             _________________ ::OO::|
+         *    ./ ^^ j____/°     [\______/]      .____/                 \__:__/
+         *  ._|____/°    °       <{(OMG{<       /                         ::
+         * /  °    °              (OMFG{       /
+         * |°  loooooooooooooooooooooooooooooooool
+         *         °L|                   L|
+         *          ()                   ()
+         *
+         *
+         *  http://open.spotify.com/track/2ZtQKBB8wDTtPPqDZhy7xZ
+         *
+         */
+        switch (SyslogFormat.detect(msg)) {
+            case STRUCTURED -> {
+                final StructuredSyslogServerEvent e = new StructuredSyslogServerEvent(msg, remoteAddress, defaultTimeZone);
+                // If the message is a structured one, we do not want the message ID and the structured data in the
+                // message string. See: https://github.com/Graylog2/graylog2-server/issues/845#issuecomment-69499719
+                final StructuredSyslogMessage structuredMessage = e.getStructuredMessage();
+                final String structMessage = structuredMessage.getMessage();
+                return syslog4jEvent(e, isNullOrEmpty(structMessage) ? e.getMessage() : structMessage, msg)
+                        .applicationName(e.getApplicationName())
+                        .processId(e.getProcessId())
+                        .structuredData(structuredMessage.getStructuredData())
+                        .build();
+            }
+            case CISCO -> {
+                final CiscoSyslogServerEvent e = new CiscoSyslogServerEvent(msg, remoteAddress, defaultTimeZone);
+                return syslog4jEvent(e, e.getMessage(), msg)
+                        .sequenceNumber(e.getSequenceNumber())
+                        .build();
+            }
+            case FORTIGATE -> {
+                final String trimmed = msg.trim();
+                final FortiGateSyslogEvent e = new FortiGateSyslogEvent(trimmed, defaultTimeZone);
+                return syslog4jEvent(e, e.getMessage(), trimmed)
+                        .fortiGateFields(e.getFields())
+                        .build();
+            }
+            default -> {
+                final SyslogServerEvent e = new SyslogServerEvent(msg, remoteAddress, defaultTimeZone);
+                return syslog4jEvent(e, e.getMessage(), msg).build();
+            }
+        }
+    }
+
+    private static SyslogEvent.Builder syslog4jEvent(SyslogServerEventIF e, String message, String rawMessage) {
+        return SyslogEvent.builder(e.getFacility(), e.getLevel(), message)
+                .host(e.getHost())
+                .date(e.getDate())
+                .rawMessage(rawMessage);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.syslog;
+
+import javax.annotation.Nullable;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * A parsed syslog message, independent of the parser which produced it.
+ */
+public final class SyslogEvent {
+    private final int facility;
+    private final int level;
+    private final String message;
+    private final String host;
+    private final Date date;
+    private final String rawMessage;
+    private final String applicationName;
+    private final String processId;
+    private final Map<String, Map<String, String>> structuredData;
+    private final Integer sequenceNumber;
+    private final Map<String, String> fortiGateFields;
+
+    private SyslogEvent(Builder builder) {
+        this.facility = builder.facility;
+        this.level = builder.level;
+        this.message = builder.message;
+        this.host = builder.host;
+        this.date = builder.date;
+        this.rawMessage = builder.rawMessage;
+        this.applicationName = builder.applicationName;
+        this.processId = builder.processId;
+        this.structuredData = builder.structuredData;
+        this.sequenceNumber = builder.sequenceNumber;
+        this.fortiGateFields = builder.fortiGateFields;
+    }
+
+    public static Builder builder(int facility, int level, String message) {
+        return new Builder(facility, level, message);
+    }
+
+    public int facility() {
+        return facility;
+    }
+
+    public int level() {
+        return level;
+    }
+
+    /**
+     * The message text, without PRI, timestamp and (for RFC 5424) the header fields and structured data.
+     */
+    public String message() {
+        return message;
+    }
+
+    /**
+     * The host name from the message header, or {@code null} if there was none.
+     */
+    @Nullable
+    public String host() {
+        return host;
+    }
+
+    /**
+     * The timestamp from the message header, or {@code null} if it could not be parsed.
+     */
+    @Nullable
+    public Date date() {
+        return date;
+    }
+
+    /**
+     * The string the message was parsed from, or {@code null} if it was parsed from the unmodified payload.
+     */
+    @Nullable
+    public String rawMessage() {
+        return rawMessage;
+    }
+
+    @Nullable
+    public String applicationName() {
+        return applicationName;
+    }
+
+    @Nullable
+    public String processId() {
+        return processId;
+    }
+
+    /**
+     * The structured data elements of an RFC 5424 message, keyed by SD-ID.
+     */
+    @Nullable
+    public Map<String, Map<String, String>> structuredData() {
+        return structuredData;
+    }
+
+    @Nullable
+    public Integer sequenceNumber() {
+        return sequenceNumber;
+    }
+
+    @Nullable
+    public Map<String, String> fortiGateFields() {
+        return fortiGateFields;
+    }
+
+    public static final class Builder {
+        private final int facility;
+        private final int level;
+        private final String message;
+        private String host;
+        private Date date;
+        private String rawMessage;
+        private String applicationName;
+        private String processId;
+        private Map<String, Map<String, String>> structuredData;
+        private Integer sequenceNumber;
+        private Map<String, String> fortiGateFields;
+
+        private Builder(int facility, int level, String message) {
+            this.facility = facility;
+            this.level = level;
+            this.message = message;
+        }
+
+        public Builder host(@Nullable String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder date(@Nullable Date date) {
+            this.date = date;
+            return this;
+        }
+
+        public Builder rawMessage(@Nullable String rawMessage) {
+            this.rawMessage = rawMessage;
+            return this;
+        }
+
+        public Builder applicationName(@Nullable String applicationName) {
+            this.applicationName = applicationName;
+            return this;
+        }
+
+        public Builder processId(@Nullable String processId) {
+            this.processId = processId;
+            return this;
+        }
+
+        public Builder structuredData(@Nullable Map<String, Map<String, String>> structuredData) {
+            this.structuredData = structuredData;
+            return this;
+        }
+
+        public Builder sequenceNumber(@Nullable Integer sequenceNumber) {
+            this.sequenceNumber = sequenceNumber;
+            return this;
+        }
+
+        public Builder fortiGateFields(@Nullable Map<String, String> fortiGateFields) {
+            this.fortiGateFields = fortiGateFields;
+            return this;
+        }
+
+        public SyslogEvent build() {
+            return new SyslogEvent(this);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.syslog;
+
+/**
+ * The syslog dialects understood by the syslog codec.
+ * <p>
+ * Detection only looks at the few ASCII characters following the PRI part and implements the same rules as the
+ * regular expressions previously used by the codec:
+ * <ul>
+ *     <li>{@link #STRUCTURED}: {@code <\d{1,3}>[0-9]\d{0,2}\s.*}</li>
+ *     <li>{@link #CISCO}: {@code <\d{1,3}>\d*:\s.*}</li>
+ *     <li>{@link #FORTIGATE}: {@code <\d{1,3}>date=.*}</li>
+ * </ul>
+ * Everything else is treated as {@link #PLAIN} BSD syslog.
+ */
+public enum SyslogFormat {
+    STRUCTURED,
+    CISCO,
+    FORTIGATE,
+    PLAIN;
+
+    private static final byte[] FORTIGATE_PREFIX = {'d', 'a', 't', 'e', '='};
+
+    /**
+     * Detects the format of a raw syslog payload. Only valid for ASCII-compatible charsets.
+     */
+    public static SyslogFormat detect(byte[] payload) {
+        final int end = priorityEnd(payload);
+        if (end < 0) {
+            return PLAIN;
+        }
+        final int start = end + 1;
+        final int length = payload.length;
+
+        int i = start;
+        while (i < length && isDigit(payload[i])) {
+            i++;
+        }
+        final int digits = i - start;
+        if (digits >= 1 && digits <= 3 && i < length && isWhitespace(payload[i])) {
+            return STRUCTURED;
+        }
+        if (i + 1 < length && payload[i] == ':' && isWhitespace(payload[i + 1])) {
+            return CISCO;
+        }
+        if (length - start >= FORTIGATE_PREFIX.length) {
+            for (int j = 0; j < FORTIGATE_PREFIX.length; j++) {
+                if (payload[start + j] != FORTIGATE_PREFIX[j]) {
+                    return PLAIN;
+                }
+            }
+            return FORTIGATE;
+        }
+        return PLAIN;
+    }
+
+    /**
+     * Detects the format of an already decoded syslog message.
+     */
+    public static SyslogFormat detect(CharSequence message) {
+        final int length = message.length();
+        if (length < 3 || message.charAt(0) != '<') {
+            return PLAIN;
+        }
+        int end = 1;
+        while (end < length && end <= 3 && isDigit(message.charAt(end))) {
+            end++;
+        }
+        if (end == 1 || end >= length || message.charAt(end) != '>') {
+            return PLAIN;
+        }
+        final int start = end + 1;
+
+        int i = start;
+        while (i < length && isDigit(message.charAt(i))) {
+            i++;
+        }
+        final int digits = i - start;
+        if (digits >= 1 && digits <= 3 && i < length && isWhitespace(message.charAt(i))) {
+            return STRUCTURED;
+        }
+        if (i + 1 < length && message.charAt(i) == ':' && isWhitespace(message.charAt(i + 1))) {
+            return CISCO;
+        }
+        if (length - start >= FORTIGATE_PREFIX.length) {
+            for (int j = 0; j < FORTIGATE_PREFIX.length; j++) {
+                if (message.charAt(start + j) != FORTIGATE_PREFIX[j]) {
+                    return PLAIN;
+                }
+            }
+            return FORTIGATE;
+        }
+        return PLAIN;
+    }
+
+    /**
+     * Returns the index of the {@code >} closing a PRI part of one to three digits, or {@code -1} if the payload
+     * doesn't start with one.
+     */
+    static int priorityEnd(byte[] payload) {
+        final int length = payload.length;
+        if (length < 3 || payload[0] != '<') {
+            return -1;
+        }
+        int end = 1;
+        while (end < length && end <= 3 && isDigit(payload[end])) {
+            end++;
+        }
+        if (end == 1 || end >= length || payload[end] != '>') {
+            return -1;
+        }
+        return end;
+    }
+
+    static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Same set of characters as \s in java.util.regex without UNICODE_CHARACTER_CLASS.
+    static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.syslog;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import javax.annotation.Nullable;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Year;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import static org.graylog2.inputs.codecs.syslog.SyslogFormat.isDigit;
+
+/**
+ * Single-pass parser for the common shapes of RFC 3164 and RFC 5424 syslog messages which works directly on the
+ * raw payload.
+ * <p>
+ * The results are identical to the ones of the syslog4j based parsing in
+ * {@link org.graylog2.inputs.codecs.SyslogCodec}, including its quirks. To keep it that way, the parser only accepts
+ * strictly well-formed messages and returns {@code null} for everything else, e.g. for unknown month names,
+ * timestamps in a DST gap, nil timestamps, or malformed structured data. FortiGate messages are handled by the
+ * {@link FortiGateParser}, Cisco messages are always left to the syslog4j parsers. Callers must fall back to the
+ * syslog4j parsers whenever {@code null} is returned.
+ */
+public class SyslogParser {
+    private static final Set<Charset> SUPPORTED_CHARSETS = Set.of(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.US_ASCII);
+    private static final DateTimeFormatter ISO_DATE_TIME_PARSER = ISODateTimeFormat.dateTimeParser();
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    private static final byte[] EMPTY_STRUCTURED_DATA_PREFIX = {'-', ' ', '-', ' '};
+    private static final byte[] EMPTY_STRUCTURED_DATA_MARKER = {'[', '0', '@', '0', ']'};
+    // syslog4j only looks for a BSD timestamp if more than this number of characters follow the PRI.
+    private static final int MIN_TIMESTAMP_MESSAGE_LENGTH = 17;
+
+    private final Charset charset;
+    private final FortiGateParser fortiGateParser = new FortiGateParser();
+    private volatile ZoneCache zoneCache;
+
+    /**
+     * @param charset the charset of the payloads, must be {@link #supports(Charset) supported}
+     */
+    public SyslogParser(Charset charset) {
+        if (!supports(charset)) {
+            throw new IllegalArgumentException("Unsupported charset " + charset);
+        }
+        this.charset = charset;
+    }
+
+    /**
+     * The parser works on bytes and therefore only supports charsets which encode ASCII as single bytes and never
+     * use bytes in the ASCII range as part of multibyte sequences.
+     */
+    public static boolean supports(Charset charset) {
+        return SUPPORTED_CHARSETS.contains(charset);
+    }
+
+    /**
+     * Parses the given payload.
+     *
+     * @param payload  the raw syslog message
+     * @param timeZone the time zone for timestamps without zone information, {@code null} for the system default
+     * @return the parsed message or {@code null} if the payload has to be parsed by the syslog4j based parsers
+     */
+    @Nullable
+    public SyslogEvent parse(byte[] payload, @Nullable DateTimeZone timeZone) {
+        final int priorityEnd = SyslogFormat.priorityEnd(payload);
+        if (priorityEnd < 0) {
+            return null;
+        }
+        int priority = 0;
+        for (int i = 1; i < priorityEnd; i++) {
+            priority = priority * 10 + (payload[i] - '0');
+        }
+        final int facility = priority >> 3;
+        final int level = priority - (facility << 3);
+
+        return switch (SyslogFormat.detect(payload)) {
+            case STRUCTURED -> parseStructured(payload, priorityEnd + 1, facility, level, timeZone);
+            case PLAIN -> parsePlain(payload, priorityEnd + 1, facility, level, timeZone);
+            case FORTIGATE -> fortiGateParser.parse(new String(payload, charset), timeZone == null ? ZoneOffset.UTC : zoneId(timeZone));
+            default -> null;
+        };
+    }
+
+    @Nullable
+    private SyslogEvent parsePlain(byte[] payload, int start, int facility, int level, @Nullable DateTimeZone timeZone) {
+        final int length = payload.length;
+        if (length - start < MIN_TIMESTAMP_MESSAGE_LENGTH) {
+            // Too short to contain a timestamp, even in characters.
+            return plainEvent(payload, start, facility, level, null);
+        }
+        // Only if the first bytes are ASCII the message is guaranteed to be long enough in characters as well.
+        for (int i = start; i < start + MIN_TIMESTAMP_MESSAGE_LENGTH - 1; i++) {
+            if (payload[i] < 0) {
+                return null;
+            }
+        }
+
+        if (isDigit(payload[start])) {
+            final int space = indexOf(payload, (byte) ' ', start, length);
+            if (space < 0) {
+                return null;
+            }
+            final Date date = parseIsoTimestamp(payload, start, space, timeZone);
+            return date == null ? null : plainEvent(payload, space + 1, facility, level, date);
+        }
+
+        // "MMM dd HH:mm:ss", "MMM  d HH:mm:ss" or "MMM d HH:mm:ss", followed by a space
+        final int month = month(payload, start);
+        if (month == 0 || payload[start + 3] != ' ') {
+            return null;
+        }
+        final int day;
+        final int time;
+        if (payload[start + 5] == ' ') {
+            if (!isDigit(payload[start + 4])) {
+                return null;
+            }
+            day = payload[start + 4] - '0';
+            time = start + 6;
+        } else {
+            final byte tens = payload[start + 4];
+            if ((tens != ' ' && !isDigit(tens)) || !isDigit(payload[start + 5]) || payload[start + 6] != ' ') {
+                return null;
+            }
+            day = (tens == ' ' ? 0 : tens - '0') * 10 + payload[start + 5] - '0';
+            time = start + 7;
+        }
+        final int hour = twoDigits(payload, time);
+        final int minute = twoDigits(payload, time + 3);
+        final int second = twoDigits(payload, time + 6);
+        if (payload[time + 2] != ':' || payload[time + 5] != ':' || payload[time + 8] != ' '
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return null;
+        }
+
+        // The year is taken from the current date in the system time zone, just like java.util.Calendar does.
+        final int year = Year.now(ZoneId.systemDefault()).getValue();
+        if (day < 1 || day > LocalDate.of(year, month, 1).lengthOfMonth()) {
+            return null;
+        }
+        final LocalDateTime localDateTime = LocalDateTime.of(year, month, day, hour, minute, second);
+        final List<ZoneOffset> offsets = zoneId(timeZone).getRules().getValidOffsets(localDateTime);
+        if (offsets.size() != 1) {
+            // Gaps and overlaps are resolved by the lenient calendar of SimpleDateFormat.
+            return null;
+        }
+        final Date date = new Date(localDateTime.toEpochSecond(offsets.get(0)) * 1000L);
+
+        return plainEvent(payload, time + 9, facility, level, date);
+    }
+
+    private SyslogEvent plainEvent(byte[] payload, int start, int facility, int level, @Nullable Date date) {
+        final int length = payload.length;
+        final int space = indexOf(payload, (byte) ' ', start, length);
+        // The host name stays part of the message.
+        final String host = space < 0 ? null : decode(payload, start, space).trim();
+        return SyslogEvent.builder(facility, level, decode(payload, start, length))
+                .host(host)
+                .date(date)
+                .build();
+    }
+
+    @Nullable
+    private SyslogEvent parseStructured(byte[] payload, int start, int facility, int level, @Nullable DateTimeZone timeZone) {
+        final int length = payload.length;
+
+        // VERSION
+        int pos = start;
+        while (isDigit(payload[pos])) {
+            pos++;
+        }
+        if (payload[pos] != ' ') {
+            return null;
+        }
+
+        // TIMESTAMP
+        final int timestampStart = pos + 1;
+        final int timestampEnd = indexOf(payload, (byte) ' ', timestampStart, length);
+        if (timestampEnd < 0) {
+            return null;
+        }
+        final Date date = parseIsoTimestamp(payload, timestampStart, timestampEnd, timeZone);
+        if (date == null) {
+            return null;
+        }
+
+        // HOSTNAME APP-NAME PROCID
+        final int hostEnd = indexOf(payload, (byte) ' ', timestampEnd + 1, length);
+        if (hostEnd < 0) {
+            return null;
+        }
+        final int applicationNameEnd = indexOf(payload, (byte) ' ', hostEnd + 1, length);
+        if (applicationNameEnd < 0) {
+            return null;
+        }
+        final int processIdEnd = indexOf(payload, (byte) ' ', applicationNameEnd + 1, length);
+        if (processIdEnd < 0) {
+            return null;
+        }
+        final String host = decode(payload, timestampEnd + 1, hostEnd).trim();
+        final String applicationName = nilToNull(decode(payload, hostEnd + 1, applicationNameEnd).trim());
+        final String processId = nilToNull(decode(payload, applicationNameEnd + 1, processIdEnd).trim());
+
+        // MSGID STRUCTURED-DATA MSG
+        final int rest = processIdEnd + 1;
+        final String message;
+        Map<String, Map<String, String>> structuredData = null;
+        final int bracket = indexOf(payload, (byte) '[', rest, length);
+        if (startsWith(payload, rest, EMPTY_STRUCTURED_DATA_PREFIX)) {
+            message = decode(payload, rest + EMPTY_STRUCTURED_DATA_PREFIX.length, length);
+        } else if (bracket <= rest || !isSingleToken(payload, rest, bracket)) {
+            // Not valid structured data, the whole remainder is used as message.
+            message = "";
+        } else {
+            if (indexOf(payload, EMPTY_STRUCTURED_DATA_MARKER, rest, length) >= 0) {
+                return null;
+            }
+            structuredData = new HashMap<>();
+            final int end = parseStructuredData(payload, bracket, structuredData);
+            if (end < 0) {
+                return null;
+            }
+            if (end + 1 >= length) {
+                message = "";
+            } else if (payload[end + 1] < 0) {
+                return null;
+            } else {
+                message = decode(payload, end + 2, length);
+            }
+        }
+
+        return SyslogEvent.builder(facility, level, message.isEmpty() ? decode(payload, rest, length) : message)
+                .host(host)
+                .date(date)
+                .applicationName(applicationName)
+                .processId(processId)
+                .structuredData(structuredData)
+                .build();
+    }
+
+    /**
+     * Parses consecutive SD-ELEMENTs starting at {@code start} into {@code structuredData}.
+     *
+     * @return the index of the closing bracket of the last element or {@code -1} if the structured data is not
+     * strictly well-formed
+     */
+    private int parseStructuredData(byte[] payload, int start, Map<String, Map<String, String>> structuredData) {
+        final int length = payload.length;
+        int pos = start;
+        int end = -1;
+        while (pos < length && payload[pos] == '[') {
+            final int idEnd = nameEnd(payload, pos + 1);
+            if (idEnd == pos + 1 || idEnd >= length) {
+                return -1;
+            }
+            final String id = decode(payload, pos + 1, idEnd);
+            final Map<String, String> parameters = new HashMap<>();
+
+            int p = idEnd;
+            while (payload[p] == ' ') {
+                final int nameStart = p + 1;
+                final int nameEnd = nameEnd(payload, nameStart);
+                if (nameEnd == nameStart || nameEnd + 1 >= length || payload[nameEnd] != '=' || payload[nameEnd + 1] != '"') {
+                    return -1;
+                }
+                final int valueStart = nameEnd + 2;
+                int valueEnd = valueStart;
+                boolean escaped = false;
+                while (valueEnd < length && payload[valueEnd] != '"') {
+                    if (payload[valueEnd] == '\\') {
+                        escaped = true;
+                        valueEnd += 2;
+                    } else if (payload[valueEnd] == ']') {
+                        // syslog4j would treat this as the end of the element.
+                        return -1;
+                    } else {
+                        valueEnd++;
+                    }
+                }
+                if (valueEnd + 1 >= length) {
+                    return -1;
+                }
+                final String value = decode(payload, valueStart, valueEnd);
+                parameters.put(decode(payload, nameStart, nameEnd), escaped ? value.replace("\\", "") : value);
+                p = valueEnd + 1;
+            }
+            if (payload[p] != ']') {
+                return -1;
+            }
+            structuredData.put(id, parameters);
+            end = p;
+            pos = p + 1;
+        }
+        return end;
+    }
+
+    private static int nameEnd(byte[] payload, int start) {
+        int pos = start;
+        while (pos < payload.length) {
+            final byte b = payload[pos];
+            if (b <= ' ' || b >= 0x7f || b == '=' || b == ']' || b == '[' || b == '"' || b == '\\') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Returns whether the MSGID in front of the structured data consists of a single word, ignoring trailing spaces.
+     */
+    private static boolean isSingleToken(byte[] payload, int start, int end) {
+        int last = end;
+        while (last > start && payload[last - 1] == ' ') {
+            last--;
+        }
+        return last > start && indexOf(payload, (byte) ' ', start, last) < 0;
+    }
+
+    /**
+     * Parses an ISO 8601 timestamp like syslog4j does. The common RFC 5424 form with an explicit offset is parsed
+     * by hand, everything else with Joda-Time.
+     */
+    @Nullable
+    private Date parseIsoTimestamp(byte[] payload, int start, int end, @Nullable DateTimeZone timeZone) {
+        final Date date = parseRfc5424Timestamp(payload, start, end);
+        if (date != null) {
+            return date;
+        }
+        if (end - start < 6) {
+            return null;
+        }
+        boolean hasTimeZone = false;
+        for (int i = start; i < end; i++) {
+            final byte b = payload[i];
+            if (b <= ' ' || b >= 0x7f) {
+                return null;
+            }
+            if (i >= end - 6 && (b == 'Z' || b == '+' || b == '-')) {
+                hasTimeZone = true;
+            }
+        }
+        final String timestamp = new String(payload, start, end - start, StandardCharsets.US_ASCII);
+        final DateTimeFormatter parser = hasTimeZone || timeZone == null ? ISO_DATE_TIME_PARSER : ISO_DATE_TIME_PARSER.withZone(timeZone);
+        try {
+            return new Date(parser.parseMillis(timestamp));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses {@code yyyy-MM-ddTHH:mm:ss[.fraction](Z|+HH:mm|-HH:mm)} with up to nine fraction digits.
+     */
+    @Nullable
+    private static Date parseRfc5424Timestamp(byte[] payload, int start, int end) {
+        if (end - start < 20) {
+            return null;
+        }
+        final int century = twoDigits(payload, start);
+        final int yearOfCentury = twoDigits(payload, start + 2);
+        final int month = twoDigits(payload, start + 5);
+        final int day = twoDigits(payload, start + 8);
+        final int hour = twoDigits(payload, start + 11);
+        final int minute = twoDigits(payload, start + 14);
+        final int second = twoDigits(payload, start + 17);
+        if (century < 0 || yearOfCentury < 0 || payload[start + 4] != '-' || payload[start + 7] != '-' || payload[start + 10] != 'T'
+                || payload[start + 13] != ':' || payload[start + 16] != ':'
+                || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 59) {
+            return null;
+        }
+
+        int pos = start + 19;
+        int millis = 0;
+        if (payload[pos] == '.') {
+            final int fractionStart = ++pos;
+            while (pos < end && isDigit(payload[pos])) {
+                if (pos - fractionStart < 3) {
+                    millis = millis * 10 + payload[pos] - '0';
+                }
+                pos++;
+            }
+            final int digits = pos - fractionStart;
+            if (digits == 0 || digits > 9) {
+                return null;
+            }
+            for (int i = digits; i < 3; i++) {
+                millis *= 10;
+            }
+        }
+
+        final int offsetSeconds;
+        if (pos == end - 1 && payload[pos] == 'Z') {
+            offsetSeconds = 0;
+        } else if (pos == end - 6 && (payload[pos] == '+' || payload[pos] == '-') && payload[pos + 3] == ':') {
+            final int offsetHours = twoDigits(payload, pos + 1);
+            final int offsetMinutes = twoDigits(payload, pos + 4);
+            if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+                return null;
+            }
+            final int seconds = offsetHours * 3600 + offsetMinutes * 60;
+            offsetSeconds = payload[pos] == '-' ? -seconds : seconds;
+        } else {
+            return null;
+        }
+
+        final LocalDate date = LocalDate.of(century * 100 + yearOfCentury, month, 1);
+        if (day > date.lengthOfMonth()) {
+            return null;
+        }
+        final long epochSecond = (date.toEpochDay() + day - 1) * 86400L + hour * 3600L + minute * 60L + second - offsetSeconds;
+        return new Date(epochSecond * 1000L + millis);
+    }
+
+    private ZoneId zoneId(@Nullable DateTimeZone timeZone) {
+        if (timeZone == null) {
+            return ZoneId.systemDefault();
+        }
+        final ZoneCache cache = zoneCache;
+        if (cache != null && cache.timeZone().equals(timeZone)) {
+            return cache.zoneId();
+        }
+        // Same conversion syslog4j applies before handing the time zone to SimpleDateFormat.
+        final TimeZone converted = timeZone.toTimeZone();
+        final ZoneId zoneId = converted.toZoneId();
+        zoneCache = new ZoneCache(timeZone, zoneId);
+        return zoneId;
+    }
+
+    private static int month(byte[] payload, int start) {
+        for (int i = 0; i < MONTHS.length; i++) {
+            final String month = MONTHS[i];
+            if (payload[start] == month.charAt(0) && payload[start + 1] == month.charAt(1) && payload[start + 2] == month.charAt(2)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int twoDigits(byte[] payload, int pos) {
+        final byte tens = payload[pos];
+        final byte ones = payload[pos + 1];
+        if (!isDigit(tens) || !isDigit(ones)) {
+            return -1;
+        }
+        return (tens - '0') * 10 + ones - '0';
+    }
+
+    @Nullable
+    private static String nilToNull(String value) {
+        return "-".equals(value) ? null : value;
+    }
+
+    private String decode(byte[] payload, int start, int end) {
+        return new String(payload, start, end - start, charset);
+    }
+
+    private static boolean startsWith(byte[] payload, int start, byte[] prefix) {
+        if (payload.length - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (payload[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] payload, byte b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (payload[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] payload, byte[] needle, int start, int end) {
+        for (int i = start; i <= end - needle.length; i++) {
+            if (startsWith(payload, i, needle)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private record ZoneCache(DateTimeZone timeZone, ZoneId zoneId) {
+    }
+}
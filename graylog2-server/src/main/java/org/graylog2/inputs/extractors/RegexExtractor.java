@@ -20,6 +20,7 @@ import com.codahale.metrics.MetricRegistry;
 import org.graylog2.ConfigurationException;
 import org.graylog2.plugin.inputs.Converter;
 import org.graylog2.plugin.inputs.Extractor;
+import org.graylog2.utilities.RequiredLiterals;
 
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,7 @@ public class RegexExtractor extends Extractor {
     private static final String CONFIG_REGEX_VALUE = "regex_value".intern();
 
     private final Pattern pattern;
+    private final List<String> requiredLiterals;
 
     public RegexExtractor(final MetricRegistry metricRegistry,
                           final String id,
@@ -50,10 +52,18 @@ public class RegexExtractor extends Extractor {
         }
 
         pattern = Pattern.compile((String) extractorConfig.get(CONFIG_REGEX_VALUE), Pattern.DOTALL);
+        requiredLiterals = RequiredLiterals.of(pattern.pattern());
     }
 
     @Override
     protected Result[] run(String value) {
+        // Most values don't match, and checking for the literals a match needs is a lot cheaper than backtracking.
+        for (String literal : requiredLiterals) {
+            if (!value.contains(literal)) {
+                return null;
+            }
+        }
+
         final Matcher matcher = pattern.matcher(value);
 
         if (!matcher.find() || matcher.groupCount() == 0 || matcher.start(1) == -1 || matcher.end(1) == -1) {
@@ -43,6 +43,9 @@ public class NettyTransportConfiguration {
     @Parameter(value = PREFIX + "num_threads", required = true, validators = PositiveIntegerValidator.class)
     private int numThreads = Runtime.getRuntime().availableProcessors() * 2;
 
+    @Parameter(value = PREFIX + "udp_batch_size", required = true, validators = PositiveIntegerValidator.class)
+    private int udpBatchSize = 1;
+
     public NettyTransportConfiguration() {
     }
 
@@ -53,6 +56,12 @@ public class NettyTransportConfiguration {
         this.numThreads = numThreads;
     }
 
+    @VisibleForTesting
+    public NettyTransportConfiguration(String type, String tlsProvider, int numThreads, int udpBatchSize) {
+        this(type, tlsProvider, numThreads);
+        this.udpBatchSize = udpBatchSize;
+    }
+
     public NettyTransportType getType() {
         switch (type.toLowerCase(Locale.ROOT)) {
             case "epoll":
@@ -105,4 +114,13 @@ public class NettyTransportConfiguration {
     public int getNumThreads() {
         return numThreads;
     }
+
+    /**
+     * The maximum number of datagrams a UDP channel receives with a single system call. Only the epoll transport
+     * supports receiving more than one datagram at once. Receiving batches is disabled by default, because every
+     * channel then holds a buffer for the maximum size of all datagrams of a batch.
+     */
+    public int getUdpBatchSize() {
+        return udpBatchSize;
+    }
 }
@@ -16,8 +16,12 @@
  */
 package org.graylog2.inputs.transports;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.github.joschi.jadconfig.util.Size;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.primitives.Ints;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
@@ -29,6 +33,7 @@ import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.DatagramChannelConfig;
@@ -40,6 +45,7 @@ import org.graylog2.inputs.transports.netty.EnvelopeMessageAggregationHandler;
 import org.graylog2.inputs.transports.netty.EnvelopeMessageHandler;
 import org.graylog2.inputs.transports.netty.EventLoopGroupFactory;
 import org.graylog2.inputs.transports.netty.NettyTransportType;
+import org.graylog2.inputs.transports.netty.UdpSocketStatistics;
 import org.graylog2.plugin.LocalMetricRegistry;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
@@ -57,13 +63,22 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import java.net.SocketAddress;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 
 public class UdpTransport extends NettyTransport {
     private static final Logger LOG = LoggerFactory.getLogger(UdpTransport.class);
+    private static final int MAX_DATAGRAM_SIZE = 65535; // Maximum possible UDP packet size
+    private static final String SOCKET_METRICS_PREFIX = "udp_socket";
 
     private final NettyTransportConfiguration nettyTransportConfiguration;
     private final ChannelGroup channels;
+    // shared by the gauges of all channels, reading the statistics of all UDP sockets of the host is expensive
+    private final Supplier<Map<Long, UdpSocketStatistics.Stats>> socketStatistics =
+            Suppliers.memoizeWithExpiration(UdpSocketStatistics::read, 1, TimeUnit.SECONDS);
     private EventLoopGroup eventLoopGroup;
     private Bootstrap bootstrap;
 
@@ -85,14 +100,33 @@ public class UdpTransport extends NettyTransport {
 
         eventLoopGroup = eventLoopGroupFactory.create(workerThreads, localRegistry, "workers");
 
-        return new Bootstrap()
+        final Bootstrap bootstrap = new Bootstrap()
                 .group(eventLoopGroup)
                 .channelFactory(new DatagramChannelFactory(transportType))
-                .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(65535)) // Maximum possible UDP packet size
                 .option(ChannelOption.SO_RCVBUF, getRecvBufferSize())
                 .option(UnixChannelOption.SO_REUSEPORT, true)
-                .handler(getChannelInitializer(getChannelHandlers(input)))
-                .validate();
+                .handler(getChannelInitializer(getChannelHandlers(input)));
+
+        final int batchSize = udpBatchSize(nettyTransportConfiguration.getUdpBatchSize(), getRecvBufferSize());
+        if (transportType == NettyTransportType.EPOLL && batchSize > 1) {
+            // Reads as many datagrams as fit into the buffer with a single recvmmsg() call
+            LOG.debug("Receiving up to {} datagrams at once", batchSize);
+            bootstrap.option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, MAX_DATAGRAM_SIZE)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(MAX_DATAGRAM_SIZE * batchSize));
+        } else {
+            bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(MAX_DATAGRAM_SIZE));
+        }
+
+        return bootstrap.validate();
+    }
+
+    /**
+     * Limits the number of datagrams received at once to the datagrams of maximum size which fit into the receive
+     * buffer of the socket. A larger batch would only enlarge the buffer of the channel, the kernel can't queue more.
+     */
+    @VisibleForTesting
+    static int udpBatchSize(int configuredBatchSize, int recvBufferSize) {
+        return Math.max(1, Math.min(configuredBatchSize, recvBufferSize / MAX_DATAGRAM_SIZE));
     }
 
     @Override
@@ -124,12 +158,15 @@ public class UdpTransport extends NettyTransport {
         try {
             bootstrap = getBootstrap(input);
 
+            // With SO_REUSEPORT the kernel spreads the datagrams across one socket per worker thread. Every channel is
+            // registered with the next event loop of the group, so each socket is served by its own thread.
             final NettyTransportType transportType = nettyTransportConfiguration.getType();
             int numChannels = (transportType == NettyTransportType.EPOLL || transportType == NettyTransportType.KQUEUE) ? workerThreads : 1;
             for (int i = 0; i < numChannels; i++) {
                 LOG.debug("Starting channel on {}", socketAddress);
                 bootstrap.bind(socketAddress)
                         .addListener(new InputLaunchListener(channels, input, getRecvBufferSize()))
+                        .addListener(new SocketMetricsListener(i))
                         .syncUninterruptibly();
             }
         } catch (Exception e) {
@@ -146,6 +183,7 @@ public class UdpTransport extends NettyTransport {
         if (eventLoopGroup != null) {
             eventLoopGroup.shutdownGracefully();
         }
+        localRegistry.removeMatching((name, metric) -> name.startsWith(SOCKET_METRICS_PREFIX + "."));
         bootstrap = null;
     }
 
@@ -182,6 +220,40 @@ public class UdpTransport extends NettyTransport {
         }
     }
 
+    /**
+     * Registers the receive buffer size of the socket and, if the kernel provides them, its queued bytes and drops.
+     */
+    private class SocketMetricsListener implements ChannelFutureListener {
+        private final int index;
+
+        SocketMetricsListener(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            if (!future.isSuccess()) {
+                return;
+            }
+            final Channel channel = future.channel();
+            final DatagramChannelConfig channelConfig = (DatagramChannelConfig) channel.config();
+            final String prefix = MetricRegistry.name(SOCKET_METRICS_PREFIX, String.valueOf(index));
+            localRegistry.register(MetricRegistry.name(prefix, "receive_buffer_size"), (Gauge<Integer>) channelConfig::getReceiveBufferSize);
+
+            final OptionalLong inode = UdpSocketStatistics.inode(channel);
+            if (inode.isPresent()) {
+                final long socketInode = inode.getAsLong();
+                localRegistry.register(MetricRegistry.name(prefix, "receive_queue"), (Gauge<Long>) () -> statistic(socketInode, UdpSocketStatistics.Stats::receiveQueue));
+                localRegistry.register(MetricRegistry.name(prefix, "drops"), (Gauge<Long>) () -> statistic(socketInode, UdpSocketStatistics.Stats::drops));
+            }
+        }
+
+        private long statistic(long inode, ToLongFunction<UdpSocketStatistics.Stats> statistic) {
+            final UdpSocketStatistics.Stats stats = socketStatistics.get().get(inode);
+            return stats == null ? 0L : statistic.applyAsLong(stats);
+        }
+    }
+
     private static class InputLaunchListener implements ChannelFutureListener {
         private final ChannelGroup channels;
         private final MessageInput input;
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports.netty;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.channel.Channel;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the kernel statistics of UDP sockets from {@code /proc/net/udp} and {@code /proc/net/udp6}.
+ * <p>
+ * The sockets are identified by their inode, which can only be resolved for channels of the epoll transport on Linux.
+ */
+public final class UdpSocketStatistics {
+    private static final Logger LOG = LoggerFactory.getLogger(UdpSocketStatistics.class);
+
+    private static final Path PROC_SELF_FD = Path.of("/proc/self/fd");
+    private static final List<Path> PROC_NET_UDP = List.of(Path.of("/proc/net/udp"), Path.of("/proc/net/udp6"));
+    private static final Pattern SOCKET_LINK = Pattern.compile("socket:\\[(\\d+)]");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // column indices of the /proc/net/udp table
+    private static final int QUEUES_COLUMN = 4;
+    private static final int INODE_COLUMN = 9;
+    private static final int DROPS_COLUMN = 12;
+
+    private UdpSocketStatistics() {
+    }
+
+    /**
+     * @param receiveQueue the number of bytes waiting in the receive queue of the socket
+     * @param drops        the number of datagrams the kernel dropped, e.g. because the receive queue was full
+     */
+    public record Stats(long receiveQueue, long drops) {
+    }
+
+    /**
+     * Returns the inode of the socket of the given channel, if it can be resolved.
+     */
+    public static OptionalLong inode(Channel channel) {
+        if (!(channel instanceof EpollDatagramChannel epollChannel)) {
+            return OptionalLong.empty();
+        }
+        try {
+            final Path link = Files.readSymbolicLink(PROC_SELF_FD.resolve(String.valueOf(epollChannel.fd().intValue())));
+            final Matcher matcher = SOCKET_LINK.matcher(link.toString());
+            return matcher.matches() ? OptionalLong.of(Long.parseLong(matcher.group(1))) : OptionalLong.empty();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.debug("Couldn't resolve the socket inode of channel {}", channel, e);
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Reads the statistics of all UDP sockets of the host, indexed by their inode.
+     */
+    public static Map<Long, Stats> read() {
+        final Map<Long, Stats> stats = new HashMap<>();
+        for (Path path : PROC_NET_UDP) {
+            if (!Files.isReadable(path)) {
+                continue;
+            }
+            try {
+                parse(Files.readAllLines(path, StandardCharsets.US_ASCII), stats);
+            } catch (IOException e) {
+                LOG.debug("Couldn't read UDP socket statistics from {}", path, e);
+            }
+        }
+        return stats;
+    }
+
+    @VisibleForTesting
+    static void parse(List<String> lines, Map<Long, Stats> stats) {
+        // the first line is the header
+        for (int i = 1; i < lines.size(); i++) {
+            final String[] columns = WHITESPACE.split(lines.get(i).trim());
+            if (columns.length <= DROPS_COLUMN) {
+                continue;
+            }
+            try {
+                final String queues = columns[QUEUES_COLUMN];
+                final long receiveQueue = Long.parseLong(queues.substring(queues.indexOf(':') + 1), 16);
+                stats.put(Long.parseLong(columns[INODE_COLUMN]), new Stats(receiveQueue, Long.parseLong(columns[DROPS_COLUMN])));
+            } catch (NumberFormatException e) {
+                LOG.debug("Skipping malformed UDP socket statistics line: {}", lines.get(i));
+            }
+        }
+    }
+}
@@ -94,9 +94,9 @@ public class MessageFilterChainProcessor implements MessageProcessor {
     public Messages process(Messages messages) {
 
         for (final MessageFilter filter : filterRegistry) {
+            final String timerName = name(filter.getClass(), "executionTime");
+            final Timer timer = metricRegistry.timer(timerName);
             for (Message msg : messages) {
-                final String timerName = name(filter.getClass(), "executionTime");
-                final Timer timer = metricRegistry.timer(timerName);
                 final Timer.Context timerContext = timer.time();
 
                 try {
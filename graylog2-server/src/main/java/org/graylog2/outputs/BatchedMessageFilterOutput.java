@@ -16,6 +16,7 @@
  */
 package org.graylog2.outputs;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
@@ -38,8 +39,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -76,6 +79,8 @@ public class BatchedMessageFilterOutput implements MessageOutput, GracefulShutdo
     private final Timer processTime;
     private final GracefulShutdownService gracefulShutdownService;
     private final IndexSetAwareMessageOutputBuffer buffer;
+    private final boolean pipelining;
+    private final OrderedBatchAcknowledger orderedAcknowledger;
     private ScheduledFuture<?> flushTask;
 
     @Inject
@@ -88,7 +93,8 @@ public class BatchedMessageFilterOutput implements MessageOutput, GracefulShutdo
                                       GracefulShutdownService gracefulShutdownService,
                                       @Named("output_flush_interval") int outputFlushInterval,
                                       @Named("shutdown_timeout") int shutdownTimeoutMs,
-                                      @Named("daemonScheduler") ScheduledExecutorService daemonScheduler) {
+                                      @Named("daemonScheduler") ScheduledExecutorService daemonScheduler,
+                                      @Named("output_indexer_pipelining") boolean pipelining) {
         if (outputs.isEmpty()) {
             // We want to fail hard if we don't have any outputs!
             throw new IllegalStateException("No registered outputs found!");
@@ -102,6 +108,8 @@ public class BatchedMessageFilterOutput implements MessageOutput, GracefulShutdo
         this.shutdownTimeout = Duration.ofMillis(shutdownTimeoutMs);
         this.daemonScheduler = daemonScheduler;
         this.buffer = indexSetAwareMessageOutputBuffer;
+        this.pipelining = pipelining;
+        this.orderedAcknowledger = new OrderedBatchAcknowledger(acknowledger);
 
         this.batchSize = metricRegistry.histogram(name(this.getClass(), "batchSize"));
         this.bufferFlushes = metricRegistry.meter(name(this.getClass(), "bufferFlushes"));
@@ -110,6 +118,7 @@ public class BatchedMessageFilterOutput implements MessageOutput, GracefulShutdo
         this.processTime = metricRegistry.timer(name(this.getClass(), "processTime"));
         this.outputWriteFailures = metricRegistry.meter(name(this.getClass(), "outputWriteFailures"));
         this.gracefulShutdownService = gracefulShutdownService;
+        metricRegistry.gauge(name(this.getClass(), "pendingBatches"), () -> (Gauge<Long>) orderedAcknowledger::pendingBatches);
     }
 
     @Override
@@ -144,6 +153,11 @@ public class BatchedMessageFilterOutput implements MessageOutput, GracefulShutdo
 
         batchSize.update(filteredMessages.size());
 
+        if (pipelining) {
+            flushPipelined(filteredMessages);
+            return;
+        }
+
         activeFlushThreads.incrementAndGet();
         if (LOG.isTraceEnabled()) {
             LOG.trace("Starting flushing {} messages, flush threads active {}",
@@ -178,6 +192,44 @@ public class BatchedMessageFilterOutput implements MessageOutput, GracefulShutdo
         }
     }
 
+    /**
+     * Hands the messages to all outputs without waiting for the writes to finish. The messages are acknowledged once
+     * all outputs are done and all earlier batches have been acknowledged.
+     */
+    private void flushPipelined(List<FilteredMessage> filteredMessages) {
+        final long sequence = orderedAcknowledger.register();
+        final List<CompletableFuture<Void>> writes = new ArrayList<>(outputs.size());
+
+        try (var ignored = processTime.time()) {
+            for (final var output : outputs.values()) {
+                if (LOG.isTraceEnabled()) {
+                    LOG.trace("Submitting {} message(s) to output <{}>", filteredMessages.size(), output);
+                }
+                writes.add(writeAsync(output, filteredMessages));
+            }
+            bufferFlushes.mark();
+        } finally {
+            // The batch has to be completed in any case, otherwise no later batch would be acknowledged anymore.
+            CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new))
+                    .whenComplete((result, throwable) -> orderedAcknowledger.complete(sequence,
+                            filteredMessages.stream().map(FilteredMessage::message).toList()));
+        }
+    }
+
+    private CompletableFuture<Void> writeAsync(FilteredMessageOutput output, List<FilteredMessage> filteredMessages) {
+        CompletableFuture<Void> write;
+        try {
+            write = output.writeFilteredAsync(filteredMessages);
+        } catch (Exception e) {
+            write = CompletableFuture.failedFuture(e);
+        }
+        return write.exceptionally(e -> {
+            LOG.error("Couldn't write {} message(s) to output <{}>", filteredMessages.size(), output.getClass(), e);
+            outputWriteFailures.mark();
+            return null;
+        });
+    }
+
     @Override
     public boolean isRunning() {
         return true;
@@ -235,7 +287,11 @@ public class BatchedMessageFilterOutput implements MessageOutput, GracefulShutdo
                     new ThreadFactoryBuilder().setNameFormat("batched-message-filter-output-shutdown-flush").build());
             try {
                 LOG.debug("Flushing the current buffer for shutdown");
-                executorService.submit(this::forceFlush).get(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                executorService.submit(() -> {
+                    forceFlush();
+                    // With pipelining, the last batches might still be in flight after the flush.
+                    return orderedAcknowledger.awaitAcknowledged(shutdownTimeout);
+                }).get(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
                 // OK, we are shutting down anyway
             } catch (ExecutionException e) {
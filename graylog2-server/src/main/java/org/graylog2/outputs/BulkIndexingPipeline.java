@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.outputs;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.messages.IndexingResults;
+import org.graylog2.indexer.messages.MessageWithIndex;
+import org.graylog2.indexer.messages.Messages;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Sends bulk requests to the indexer asynchronously, with one lane of in-flight requests per index set.
+ * <p>
+ * A batch is split into one bulk request per target index set. Every index set may have a limited number of requests
+ * in flight, and all index sets together are limited by a node-wide maximum. Submitting a request blocks while one
+ * of the limits is reached, which pushes back on the output buffer. A slow index set therefore only delays the
+ * messages that are written to it, instead of every batch.
+ */
+@Singleton
+public class BulkIndexingPipeline {
+    private final Messages messages;
+    private final int maxInFlightRequestsPerIndexSet;
+    private final Semaphore nodePermits;
+    private final ConcurrentMap<IndexSet, Semaphore> indexSetPermits = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+    private final Timer permitWaitTime;
+
+    @Inject
+    public BulkIndexingPipeline(Messages messages,
+                                MetricRegistry metricRegistry,
+                                @Named("output_indexer_max_in_flight_requests") int maxInFlightRequests,
+                                @Named("output_indexer_max_in_flight_requests_per_index_set") int maxInFlightRequestsPerIndexSet) {
+        this.messages = messages;
+        this.maxInFlightRequestsPerIndexSet = maxInFlightRequestsPerIndexSet;
+        this.nodePermits = new Semaphore(maxInFlightRequests);
+        // Threads are only started on demand, so the pool doesn't cost anything if pipelining is disabled.
+        this.executor = Executors.newFixedThreadPool(maxInFlightRequests, new ThreadFactoryBuilder()
+                .setNameFormat("output-bulk-indexer-%d")
+                .setDaemon(true)
+                .build());
+
+        metricRegistry.gauge(name(BulkIndexingPipeline.class, "inFlightRequests"), () -> (Gauge<Integer>) inFlightRequests::get);
+        this.permitWaitTime = metricRegistry.timer(name(BulkIndexingPipeline.class, "permitWaitTime"));
+    }
+
+    /**
+     * Submits one bulk request per index set for the given messages. This method blocks until every request has
+     * been submitted.
+     *
+     * @param messageList the messages and their target index sets
+     * @return a future with the merged results of all bulk requests, which completes exceptionally if any of the
+     * requests failed
+     */
+    public CompletableFuture<IndexingResults> bulkIndex(List<MessageWithIndex> messageList) {
+        if (messageList.isEmpty()) {
+            return CompletableFuture.completedFuture(IndexingResults.empty());
+        }
+
+        final Map<IndexSet, List<MessageWithIndex>> partitions = new LinkedHashMap<>();
+        for (final MessageWithIndex entry : messageList) {
+            partitions.computeIfAbsent(entry.indexSet(), indexSet -> new ArrayList<>()).add(entry);
+        }
+
+        final List<CompletableFuture<IndexingResults>> requests = new ArrayList<>(partitions.size());
+        for (final Map.Entry<IndexSet, List<MessageWithIndex>> partition : partitions.entrySet()) {
+            requests.add(submit(partition.getKey(), partition.getValue()));
+        }
+
+        return CompletableFuture.allOf(requests.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> {
+                    final IndexingResults.Builder results = IndexingResults.Builder.create();
+                    requests.forEach(request -> results.addResults(request.join()));
+                    return results.build();
+                });
+    }
+
+    private CompletableFuture<IndexingResults> submit(IndexSet indexSet, List<MessageWithIndex> partition) {
+        final Semaphore indexSetPermit = indexSetPermits.computeIfAbsent(indexSet, key -> new Semaphore(maxInFlightRequestsPerIndexSet));
+        try (var ignored = permitWaitTime.time()) {
+            indexSetPermit.acquire();
+            try {
+                nodePermits.acquire();
+            } catch (InterruptedException e) {
+                indexSetPermit.release();
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        inFlightRequests.incrementAndGet();
+        final Runnable releasePermits = () -> {
+            inFlightRequests.decrementAndGet();
+            nodePermits.release();
+            indexSetPermit.release();
+        };
+        try {
+            return CompletableFuture.supplyAsync(() -> messages.bulkIndex(partition), executor)
+                    .whenComplete((results, throwable) -> releasePermits.run());
+        } catch (RejectedExecutionException e) {
+            releasePermits.run();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+}
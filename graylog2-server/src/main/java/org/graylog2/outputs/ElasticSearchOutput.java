@@ -39,6 +39,7 @@ import org.slf4j.LoggerFactory;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
@@ -59,11 +60,13 @@ public class ElasticSearchOutput implements MessageOutput, FilteredMessageOutput
     private final Meter failures;
     private final Timer processTime;
     private final Messages messages;
+    private final BulkIndexingPipeline bulkIndexingPipeline;
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
 
     @Inject
-    public ElasticSearchOutput(MetricRegistry metricRegistry, Messages messages) {
+    public ElasticSearchOutput(MetricRegistry metricRegistry, Messages messages, BulkIndexingPipeline bulkIndexingPipeline) {
         this.messages = messages;
+        this.bulkIndexingPipeline = bulkIndexingPipeline;
         // Only constructing metrics here. write() get's another Core reference. (because this technically is a plugin)
         this.writes = metricRegistry.meter(WRITES_METRICNAME);
         this.failures = metricRegistry.meter(FAILURES_METRICNAME);
@@ -76,13 +79,32 @@ public class ElasticSearchOutput implements MessageOutput, FilteredMessageOutput
 
     @Override
     public void writeFiltered(List<FilteredMessage> filteredMessages) throws Exception {
+        writeMessageEntries(indexerMessages(filteredMessages));
+    }
+
+    /**
+     * Writes the messages through the {@link BulkIndexingPipeline}, which sends one bulk request per index set
+     * and doesn't wait for the requests to finish.
+     */
+    @Override
+    public CompletableFuture<Void> writeFilteredAsync(List<FilteredMessage> filteredMessages) {
+        final var messageList = indexerMessages(filteredMessages);
+        final var messagesWithIndex = messagesWithIndex(messageList);
+
+        writes.mark(messageList.size());
+        final Timer.Context processTimeContext = processTime.time();
+        return bulkIndexingPipeline.bulkIndex(messagesWithIndex)
+                .whenComplete((indexingResults, throwable) -> processTimeContext.stop())
+                .thenAccept(indexingResults -> failures.mark(indexingResults.errors().size()));
+    }
+
+    private List<FilteredMessage> indexerMessages(List<FilteredMessage> filteredMessages) {
         final var messages = filteredMessages.stream()
                 .filter(message -> !message.destinations().get(FILTER_KEY).isEmpty())
                 .toList();
 
         ignores.mark(filteredMessages.size() - messages.size());
-
-        writeMessageEntries(messages);
+        return messages;
     }
 
     @Override
@@ -104,6 +126,17 @@ public class ElasticSearchOutput implements MessageOutput, FilteredMessageOutput
     }
 
     private void writeMessageEntries(List<FilteredMessage> messageList) {
+        final var messagesWithIndex = messagesWithIndex(messageList);
+
+        writes.mark(messageList.size());
+        final IndexingResults indexingResults;
+        try (final Timer.Context ignored = processTime.time()) {
+            indexingResults = messages.bulkIndex(messagesWithIndex);
+        }
+        failures.mark(indexingResults.errors().size());
+    }
+
+    private List<MessageWithIndex> messagesWithIndex(List<FilteredMessage> messageList) {
         // We need to create one message per index set. Use the streams from the filtered targets.
         final var messagesWithIndex = messageList.stream()
                 .flatMap(message -> message.destinations()
@@ -121,13 +154,7 @@ public class ElasticSearchOutput implements MessageOutput, FilteredMessageOutput
                     .collect(Collectors.joining(", "));
             LOG.trace("Writing message ids to [{}]: <{}>", NAME, sortedIds);
         }
-
-        writes.mark(messageList.size());
-        final IndexingResults indexingResults;
-        try (final Timer.Context ignored = processTime.time()) {
-            indexingResults = messages.bulkIndex(messagesWithIndex);
-        }
-        failures.mark(indexingResults.errors().size());
+        return messagesWithIndex;
     }
 
     @Override
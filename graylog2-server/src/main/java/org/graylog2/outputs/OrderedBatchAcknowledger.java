@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.outputs;
+
+import org.graylog2.shared.messageq.Acknowledgeable;
+import org.graylog2.shared.messageq.MessageQueueAcknowledger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Acknowledges batches of messages in the order in which they have been registered, no matter in which order the
+ * batches are completed.
+ * <p>
+ * The journal commits the highest acknowledged offset, so acknowledging a batch while an earlier one is still being
+ * written would lose the earlier batch on a crash. Completed batches are therefore held back until all batches which
+ * have been registered before them are completed as well. Only the message queue ids of held back batches are kept,
+ * not the messages.
+ */
+class OrderedBatchAcknowledger {
+    private final MessageQueueAcknowledger acknowledger;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition allAcknowledged = lock.newCondition();
+
+    // Guarded by "lock"
+    private final TreeMap<Long, List<Acknowledgeable>> completedBatches = new TreeMap<>();
+    private long nextSequence = 0L;
+    private long nextSequenceToAcknowledge = 0L;
+
+    OrderedBatchAcknowledger(MessageQueueAcknowledger acknowledger) {
+        this.acknowledger = acknowledger;
+    }
+
+    /**
+     * Registers a new batch.
+     *
+     * @return the sequence number which has to be passed to {@link #complete(long, List)} once the batch is done
+     */
+    long register() {
+        lock.lock();
+        try {
+            return nextSequence++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the batch with the given sequence number as completed and acknowledges it together with all following
+     * batches which are already completed, if all earlier batches have been acknowledged.
+     */
+    void complete(long sequence, List<? extends Acknowledgeable> messages) {
+        final List<Acknowledgeable> messageQueueIds = new ArrayList<>(messages.size());
+        for (final Acknowledgeable message : messages) {
+            final Object messageQueueId = message.getMessageQueueId();
+            messageQueueIds.add(() -> messageQueueId);
+        }
+
+        final List<Acknowledgeable> acknowledgeable = new ArrayList<>();
+        lock.lock();
+        try {
+            completedBatches.put(sequence, messageQueueIds);
+            while (!completedBatches.isEmpty() && completedBatches.firstKey() == nextSequenceToAcknowledge) {
+                acknowledgeable.addAll(completedBatches.pollFirstEntry().getValue());
+                nextSequenceToAcknowledge++;
+            }
+            if (nextSequenceToAcknowledge == nextSequence) {
+                allAcknowledged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // All batches up to this point are done, so the order of concurrent acknowledge calls doesn't matter.
+        if (!acknowledgeable.isEmpty()) {
+            acknowledger.acknowledge(acknowledgeable);
+        }
+    }
+
+    /**
+     * Returns the number of batches which have been registered but not acknowledged yet.
+     */
+    long pendingBatches() {
+        lock.lock();
+        try {
+            return nextSequence - nextSequenceToAcknowledge;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all registered batches have been acknowledged.
+     *
+     * @return {@code true} if all batches have been acknowledged, {@code false} if the timeout elapsed before
+     */
+    boolean awaitAcknowledged(Duration timeout) throws InterruptedException {
+        long remainingNanos = timeout.toNanos();
+        lock.lock();
+        try {
+            while (nextSequenceToAcknowledge != nextSequence) {
+                if (remainingNanos <= 0L) {
+                    return false;
+                }
+                remainingNanos = allAcknowledged.awaitNanos(remainingNanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
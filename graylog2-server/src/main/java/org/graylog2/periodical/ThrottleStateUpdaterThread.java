@@ -31,6 +31,7 @@ import org.graylog2.plugin.ThrottleState;
 import org.graylog2.plugin.periodical.Periodical;
 import org.graylog2.shared.buffers.ProcessBuffer;
 import org.graylog2.shared.journal.Journal;
+import org.graylog2.shared.journal.LocalJournal;
 import org.graylog2.shared.journal.LocalKafkaJournal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,7 +53,7 @@ import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
  */
 public class ThrottleStateUpdaterThread extends Periodical {
     private static final Logger log = LoggerFactory.getLogger(ThrottleStateUpdaterThread.class);
-    private final LocalKafkaJournal journal;
+    private final LocalJournal journal;
     private final ProcessBuffer processBuffer;
     private final EventBus eventBus;
     private final Size retentionSize;
@@ -79,8 +80,8 @@ public class ThrottleStateUpdaterThread extends Periodical {
         this.notificationService = notificationService;
         this.serverStatus = serverStatus;
         // leave this.journal null, we'll say "don't start" in that case, see startOnThisNode() below.
-        if (journal instanceof LocalKafkaJournal) {
-            this.journal = (LocalKafkaJournal) journal;
+        if (journal instanceof LocalJournal localJournal) {
+            this.journal = localJournal;
         } else {
             this.journal = null;
         }
@@ -20,8 +20,10 @@ import com.github.joschi.jadconfig.Parameter;
 import com.github.joschi.jadconfig.ValidationException;
 import com.github.joschi.jadconfig.ValidatorMethod;
 import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
 import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
 import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
+import com.github.joschi.jadconfig.validators.PositiveSizeValidator;
 import com.github.joschi.jadconfig.validators.StringNotBlankValidator;
 import com.lmax.disruptor.BlockingWaitStrategy;
 import com.lmax.disruptor.BusySpinWaitStrategy;
@@ -40,6 +42,8 @@ import org.slf4j.LoggerFactory;
 import java.net.URI;
 
 import static org.graylog2.shared.messageq.MessageQueueModule.DISK_JOURNAL_MODE;
+import static org.graylog2.shared.messageq.MessageQueueModule.KAFKA_JOURNAL_IMPLEMENTATION;
+import static org.graylog2.shared.messageq.MessageQueueModule.MAPPED_JOURNAL_IMPLEMENTATION;
 import static org.graylog2.shared.messageq.MessageQueueModule.NOOP_JOURNAL_MODE;
 
 @SuppressWarnings("FieldMayBeFinal")
@@ -52,6 +56,9 @@ public abstract class BaseConfiguration extends PathConfiguration implements Com
     @Parameter(value = "processbuffer_processors", required = true, validator = PositiveIntegerValidator.class)
     private int processBufferProcessors = defaultNumberOfProcessBufferProcessors();
 
+    @Parameter(value = "processbuffer_batch_size", validator = PositiveIntegerValidator.class)
+    private int processBufferBatchSize = 1;
+
     @Parameter(value = "processor_wait_strategy", required = true)
     private String processorWaitStrategy = "blocking";
 
@@ -70,12 +77,21 @@ public abstract class BaseConfiguration extends PathConfiguration implements Com
     @Parameter(value = "udp_recvbuffer_sizes", required = true, validator = PositiveIntegerValidator.class)
     private int udpRecvBufferSizes = 1048576;
 
+    @Parameter(value = "gelf_chunk_aggregator_max_size", required = true, validator = PositiveSizeValidator.class)
+    private Size gelfChunkAggregatorMaxSize = Size.megabytes(128L);
+
     @Parameter("message_journal_enabled")
     private boolean messageJournalEnabled = true;
 
     @Parameter(value = "message_journal_mode")
     private String messageJournalMode = MessageQueueModule.DISK_JOURNAL_MODE;
 
+    @Parameter(value = "message_journal_implementation")
+    private String messageJournalImplementation = MessageQueueModule.KAFKA_JOURNAL_IMPLEMENTATION;
+
+    @Parameter(value = "message_journal_pooled_encoding")
+    private boolean messageJournalPooledEncoding = false;
+
     @Parameter("inputbuffer_processors")
     private int inputbufferProcessors = 2;
 
@@ -116,6 +132,10 @@ public abstract class BaseConfiguration extends PathConfiguration implements Com
         return processBufferProcessors;
     }
 
+    public int getProcessBufferBatchSize() {
+        return processBufferBatchSize;
+    }
+
     private WaitStrategy getWaitStrategy(String waitStrategyName, String configOptionName) {
         switch (waitStrategyName) {
             case "sleeping":
@@ -173,6 +193,10 @@ public abstract class BaseConfiguration extends PathConfiguration implements Com
         return udpRecvBufferSizes;
     }
 
+    public Size getGelfChunkAggregatorMaxSize() {
+        return gelfChunkAggregatorMaxSize;
+    }
+
     @Override
     public boolean isMessageRecordingsEnabled() {
         return messageRecordingsEnable;
@@ -217,6 +241,14 @@ public abstract class BaseConfiguration extends PathConfiguration implements Com
         return messageJournalEnabled ? messageJournalMode : NOOP_JOURNAL_MODE;
     }
 
+    public String getMessageJournalImplementation() {
+        return messageJournalImplementation;
+    }
+
+    public boolean isMessageJournalPooledEncoding() {
+        return messageJournalPooledEncoding;
+    }
+
     @ValidatorMethod
     public void validateJournalMode() throws ValidationException {
         if (!messageJournalEnabled) {
@@ -234,6 +266,12 @@ public abstract class BaseConfiguration extends PathConfiguration implements Com
             throw new ValidationException("Journal mode (e.g. <" + DISK_JOURNAL_MODE + ">) needs to be " +
                     "provided when the journal is enabled.");
         }
+
+        if (!KAFKA_JOURNAL_IMPLEMENTATION.equals(messageJournalImplementation)
+                && !MAPPED_JOURNAL_IMPLEMENTATION.equals(messageJournalImplementation)) {
+            throw new ValidationException("Unknown journal implementation <" + messageJournalImplementation +
+                    ">, must be either <" + KAFKA_JOURNAL_IMPLEMENTATION + "> or <" + MAPPED_JOURNAL_IMPLEMENTATION + ">.");
+        }
     }
 
     /**
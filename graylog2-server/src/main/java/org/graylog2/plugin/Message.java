@@ -18,7 +18,11 @@ package org.graylog2.plugin;
 
 import com.codahale.metrics.Meter;
 import com.eaio.uuid.UUID;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Function;
@@ -40,6 +44,7 @@ import org.graylog.failure.FailureCause;
 import org.graylog.failure.ProcessingFailureCause;
 import org.graylog2.indexer.IndexSet;
 import org.graylog2.indexer.messages.Indexable;
+import org.graylog2.indexer.messages.SerializationContext;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugin.utilities.date.DateTimeConverter;
 import org.graylog2.plugin.utilities.ratelimitedlog.RateLimitedLogFactory;
@@ -52,6 +57,8 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.time.Duration;
 import java.time.ZonedDateTime;
@@ -313,7 +320,7 @@ public class Message implements Messages, Indexable, Acknowledgeable {
     @Deprecated
     public static final Function<Message, String> ID_FUNCTION = new MessageIdFunction();
 
-    private final Map<String, Object> fields = Maps.newHashMap();
+    private final Map<String, Object> fields = new MessageFields();
     private Set<Stream> streams = Sets.newHashSet();
     private Set<IndexSet> indexSets = Sets.newHashSet();
     private String sourceInputId;
@@ -339,7 +346,8 @@ public class Message implements Messages, Indexable, Acknowledgeable {
      */
     private Map<String, Object> metadata;
 
-    private com.codahale.metrics.Counter sizeCounter = new com.codahale.metrics.Counter();
+    // accounted size of the fields and streams, see getSize()
+    private long estimatedSize = 0;
 
     private List<ProcessingError> processingErrors;
 
@@ -486,6 +494,128 @@ public class Message implements Messages, Indexable, Acknowledgeable {
         return obj;
     }
 
+    /**
+     * Serializes the message into the same document as {@link #toElasticSearchObject(ObjectMapper, Meter)}, but
+     * writes the fields straight to a {@link JsonGenerator} instead of building an intermediate map first.
+     */
+    @Override
+    public byte[] serialize(SerializationContext context) throws IOException {
+        return context.objectMapper().writeValueAsBytes(new ElasticSearchDocument(context.invalidTimestampMeter()));
+    }
+
+    @Override
+    public void serialize(SerializationContext context, OutputStream out) throws IOException {
+        context.objectMapper().writer()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .writeValue(out, new ElasticSearchDocument(context.invalidTimestampMeter()));
+    }
+
+    private void writeElasticSearchObject(JsonGenerator generator, SerializerProvider provider, Meter invalidTimestampMeter) throws IOException {
+        // The timestamp has to be converted before the fields are written, because an invalid value adds a
+        // processing error which decides whether a "gl2_processing_error" field of the message gets replaced.
+        final Object timestampValue = getField(FIELD_TIMESTAMP);
+        final DateTime dateTime = timestampValue == null ? fallbackForNullTimestamp() : convertToDateTime(timestampValue);
+        final boolean hasProcessingErrors = processingErrors != null && !processingErrors.isEmpty();
+
+        generator.writeStartObject();
+
+        Set<String> replacedKeys = null;
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            final String key = entry.getKey();
+            if (key.equals(FIELD_ID)) {
+                continue;
+            }
+
+            final Object value = entry.getValue();
+            String fieldName = key;
+            // Elasticsearch does not allow "." characters in keys, see toElasticSearchObject(). A field which
+            // already uses the replaced name takes precedence, regardless of the iteration order.
+            if (key.indexOf('.') >= 0) {
+                fieldName = key.replace('.', KEY_REPLACEMENT_CHAR);
+                if ((!fieldName.equals(FIELD_ID) && fields.containsKey(fieldName)) || (replacedKeys != null && replacedKeys.contains(fieldName))) {
+                    if (!isElasticSearchObjectField(fieldName, hasProcessingErrors)) {
+                        LOG.warn("Keys must not contain a \".\" character! Ignoring field \"{}\"=\"{}\" in message [{}] - Unable to replace \".\" with a \"{}\" because of key conflict: \"{}\"",
+                                key, value, getId(), KEY_REPLACEMENT_CHAR, fieldName);
+                        LOG.debug("Full message with \".\" in message key: {}", this);
+                    }
+                    continue;
+                }
+                if (replacedKeys == null) {
+                    replacedKeys = new HashSet<>();
+                }
+                replacedKeys.add(fieldName);
+            }
+
+            if (isElasticSearchObjectField(fieldName, hasProcessingErrors)) {
+                continue;
+            }
+            if (value instanceof String string) {
+                generator.writeStringField(fieldName, string);
+            } else {
+                provider.defaultSerializeField(fieldName, value, generator);
+            }
+        }
+
+        final String message = getMessage();
+        if (message == null) {
+            generator.writeNullField(FIELD_MESSAGE);
+        } else {
+            generator.writeStringField(FIELD_MESSAGE, message);
+        }
+        final String source = getSource();
+        if (source == null) {
+            generator.writeNullField(FIELD_SOURCE);
+        } else {
+            generator.writeStringField(FIELD_SOURCE, source);
+        }
+        generator.writeArrayFieldStart(FIELD_STREAMS);
+        for (String streamId : getStreamIds()) {
+            generator.writeString(streamId);
+        }
+        generator.writeEndArray();
+        generator.writeNumberField(FIELD_GL2_ACCOUNTED_MESSAGE_SIZE, getSize());
+        generator.writeStringField(FIELD_TIMESTAMP, buildElasticSearchTimeFormat(dateTime.withZone(UTC)));
+
+        if (hasProcessingErrors) {
+            if (processingErrors.stream().anyMatch(processingError -> processingError.getCause().equals(ProcessingFailureCause.InvalidTimestampException))) {
+                invalidTimestampMeter.mark();
+            }
+            generator.writeStringField(FIELD_GL2_PROCESSING_ERROR,
+                    processingErrors.stream()
+                            .map(pe -> pe.getMessage() + " - " + pe.getDetails())
+                            .collect(Collectors.joining(", ")));
+        }
+
+        generator.writeEndObject();
+    }
+
+    // Fields which are always written by writeElasticSearchObject() after the message fields.
+    private static boolean isElasticSearchObjectField(String name, boolean hasProcessingErrors) {
+        return switch (name) {
+            case FIELD_MESSAGE, FIELD_SOURCE, FIELD_STREAMS, FIELD_GL2_ACCOUNTED_MESSAGE_SIZE, FIELD_TIMESTAMP -> true;
+            case FIELD_GL2_PROCESSING_ERROR -> hasProcessingErrors;
+            default -> false;
+        };
+    }
+
+    private final class ElasticSearchDocument extends JsonSerializable.Base {
+        private final Meter invalidTimestampMeter;
+
+        private ElasticSearchDocument(Meter invalidTimestampMeter) {
+            this.invalidTimestampMeter = invalidTimestampMeter;
+        }
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            writeElasticSearchObject(generator, provider, invalidTimestampMeter);
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
+            serialize(generator, provider);
+        }
+    }
+
     public void ensureValidTimestamp() {
         final Object timestampValue = getField(FIELD_TIMESTAMP);
         if (timestampValue instanceof DateTime) {
@@ -653,24 +783,24 @@ public class Message implements Messages, Indexable, Acknowledgeable {
         }
         long newValueSize = 0;
         long oldValueSize = 0;
-        final long oldSize = sizeCounter.getCount();
+        final long oldSize = estimatedSize;
         final int keyLength = fieldName.length();
         // if the field is being removed, also subtract the name's length
         if (newValue == null) {
-            sizeCounter.dec(keyLength);
+            estimatedSize -= keyLength;
         } else {
             newValueSize = sizeForValue(newValue);
-            sizeCounter.inc(newValueSize);
+            estimatedSize += newValueSize;
         }
         // if the field is new, also count its name's length
         if (previousValue == null) {
-            sizeCounter.inc(keyLength);
+            estimatedSize += keyLength;
         } else {
             oldValueSize = sizeForValue(previousValue);
-            sizeCounter.dec(oldValueSize);
+            estimatedSize -= oldValueSize;
         }
         if (LOG.isTraceEnabled()) {
-            final long newSize = sizeCounter.getCount();
+            final long newSize = estimatedSize;
             LOG.trace("[Message size update][{}] key {}/{}, new/old/change: {}/{}/{} total: {}",
                     getId(), fieldName, keyLength, newValueSize, oldValueSize, newSize - oldSize, newSize);
         }
@@ -689,7 +819,7 @@ public class Message implements Messages, Indexable, Acknowledgeable {
 
     @Override
     public long getSize() {
-        return sizeCounter.getCount();
+        return estimatedSize;
     }
 
     public static boolean validKey(final String key) {
@@ -767,9 +897,9 @@ public class Message implements Messages, Indexable, Acknowledgeable {
     public void addStream(Stream stream) {
         indexSets.add(stream.getIndexSet());
         if (streams.add(stream)) {
-            sizeCounter.inc(8);
+            estimatedSize += 8;
             if (LOG.isTraceEnabled()) {
-                LOG.trace("[Message size update][{}] stream added: {}", getId(), sizeCounter.getCount());
+                LOG.trace("[Message size update][{}] stream added: {}", getId(), estimatedSize);
             }
         }
     }
@@ -799,9 +929,9 @@ public class Message implements Messages, Indexable, Acknowledgeable {
             for (Stream s : streams) {
                 indexSets.add(s.getIndexSet());
             }
-            sizeCounter.dec(8);
+            estimatedSize -= 8;
             if (LOG.isTraceEnabled()) {
-                LOG.trace("[Message size update][{}] stream removed: {}", getId(), sizeCounter.getCount());
+                LOG.trace("[Message size update][{}] stream removed: {}", getId(), estimatedSize);
             }
         }
 
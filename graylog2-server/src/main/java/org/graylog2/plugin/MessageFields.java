@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The field storage of a {@link Message}.
+ * <p>
+ * Field names are interned in a global table which assigns a small integer id to every name. Each message only
+ * stores the ids and values of its fields in two arrays, in insertion order, plus an open-addressed hash table of
+ * the ids. Compared to a {@link HashMap} this avoids a node object per field and keeps only a single instance of
+ * every field name, instead of a copy per message.
+ * <p>
+ * The number of interned names is limited, so that messages with random field names can't exhaust the heap. Names
+ * which don't fit into the table anymore are kept in a regular map per message.
+ * <p>
+ * Like the {@link HashMap} it replaces, this class is not thread-safe. {@code null} keys are not supported.
+ */
+final class MessageFields extends AbstractMap<String, Object> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int NO_ENTRY = -1;
+
+    private int[] ids;
+    private Object[] values;
+    private int size;
+    // index of the entry + 1 for each slot, 0 marks an empty slot
+    private int[] table;
+    private Map<String, Object> overflow;
+    private EntrySet entrySet;
+
+    MessageFields() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    MessageFields(int expectedSize) {
+        final int capacity = Math.max(4, expectedSize);
+        this.ids = new int[capacity];
+        this.values = new Object[capacity];
+        this.table = new int[tableSizeFor(capacity)];
+    }
+
+    private static int tableSizeFor(int capacity) {
+        // keep the load factor at or below 0.5
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    private static int slot(int id, int mask) {
+        // Fibonacci hashing spreads the consecutive ids over the table
+        return (id * 0x9E3779B9 >>> 16) & mask;
+    }
+
+    private int indexOf(int id) {
+        final int[] table = this.table;
+        final int mask = table.length - 1;
+        for (int slot = slot(id, mask); ; slot = (slot + 1) & mask) {
+            final int entry = table[slot];
+            if (entry == 0) {
+                return NO_ENTRY;
+            }
+            if (ids[entry - 1] == id) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private void insertIntoTable(int[] table, int id, int index) {
+        final int mask = table.length - 1;
+        int slot = slot(id, mask);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    private void rebuildTable(int tableSize) {
+        final int[] newTable = new int[tableSize];
+        for (int i = 0; i < size; i++) {
+            insertIntoTable(newTable, ids[i], i);
+        }
+        table = newTable;
+    }
+
+    @Override
+    public int size() {
+        return overflow == null ? size : size + overflow.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof String name)) {
+            return false;
+        }
+        final int id = FieldNames.idOf(name);
+        if (id == FieldNames.NO_ID) {
+            return overflow != null && overflow.containsKey(name);
+        }
+        return indexOf(id) != NO_ENTRY;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (!(key instanceof String name)) {
+            return null;
+        }
+        final int id = FieldNames.idOf(name);
+        if (id == FieldNames.NO_ID) {
+            return overflow == null ? null : overflow.get(name);
+        }
+        final int index = indexOf(id);
+        return index == NO_ENTRY ? null : values[index];
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        final int id = FieldNames.intern(key);
+        if (id == FieldNames.NO_ID) {
+            if (overflow == null) {
+                overflow = new HashMap<>();
+            }
+            return overflow.put(key, value);
+        }
+
+        final int index = indexOf(id);
+        if (index != NO_ENTRY) {
+            final Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        if (size == ids.length) {
+            final int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            values = Arrays.copyOf(values, capacity);
+            rebuildTable(tableSizeFor(capacity));
+        }
+        ids[size] = id;
+        values[size] = value;
+        insertIntoTable(table, id, size);
+        size++;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (!(key instanceof String name)) {
+            return null;
+        }
+        final int id = FieldNames.idOf(name);
+        if (id == FieldNames.NO_ID) {
+            return overflow == null ? null : overflow.remove(name);
+        }
+        final int index = indexOf(id);
+        return index == NO_ENTRY ? null : removeAt(index);
+    }
+
+    private Object removeAt(int index) {
+        final Object previous = values[index];
+        final int moved = size - index - 1;
+        System.arraycopy(ids, index + 1, ids, index, moved);
+        System.arraycopy(values, index + 1, values, index, moved);
+        size--;
+        values[size] = null;
+        // Removing fields is rare, rebuilding the table is simpler than fixing up the probe sequences.
+        rebuildTable(table.length);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(table, 0);
+        size = 0;
+        overflow = null;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+        @Override
+        public int size() {
+            return MessageFields.this.size();
+        }
+
+        @Override
+        public void clear() {
+            MessageFields.this.clear();
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String, Object>> {
+        private int next = 0;
+        private boolean canRemove = false;
+        private boolean lastFromOverflow = false;
+        private Iterator<Entry<String, Object>> overflowIterator;
+
+        @Override
+        public boolean hasNext() {
+            if (next < size) {
+                return true;
+            }
+            if (overflowIterator == null && overflow != null) {
+                overflowIterator = overflow.entrySet().iterator();
+            }
+            return overflowIterator != null && overflowIterator.hasNext();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (next < size) {
+                final int index = next++;
+                canRemove = true;
+                lastFromOverflow = false;
+                return new SimpleImmutableEntry<>(FieldNames.name(ids[index]), values[index]);
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            // the entries of the overflow map are returned and removed by its own iterator
+            canRemove = true;
+            lastFromOverflow = true;
+            return overflowIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            canRemove = false;
+            if (lastFromOverflow) {
+                overflowIterator.remove();
+            } else {
+                removeAt(--next);
+            }
+        }
+    }
+
+    /**
+     * The global table of interned field names.
+     */
+    static final class FieldNames {
+        static final int NO_ID = -1;
+        static final int MAX_NAMES = 1 << 16;
+
+        private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+        // written while holding the lock on FieldNames.class, an id is only handed out after its name has been stored
+        private static volatile String[] names = new String[1024];
+        private static int nextId = 0;
+
+        private FieldNames() {
+        }
+
+        static int idOf(String name) {
+            final Integer id = IDS.get(name);
+            return id == null ? NO_ID : id;
+        }
+
+        /**
+         * Returns the id of the given field name, assigning a new one if the name hasn't been seen yet. Returns
+         * {@link #NO_ID} if the table is full.
+         */
+        static int intern(String name) {
+            final Integer id = IDS.get(name);
+            if (id != null) {
+                return id;
+            }
+            synchronized (FieldNames.class) {
+                final Integer existingId = IDS.get(name);
+                if (existingId != null) {
+                    return existingId;
+                }
+                if (nextId >= MAX_NAMES) {
+                    return NO_ID;
+                }
+                String[] currentNames = names;
+                if (nextId == currentNames.length) {
+                    currentNames = Arrays.copyOf(currentNames, currentNames.length * 2);
+                }
+                currentNames[nextId] = name;
+                names = currentNames;
+                IDS.put(name, nextId);
+                return nextId++;
+            }
+        }
+
+        static String name(int id) {
+            return names[id];
+        }
+
+        static int size() {
+            return IDS.size();
+        }
+    }
+}
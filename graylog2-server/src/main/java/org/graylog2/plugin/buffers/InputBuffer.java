@@ -18,6 +18,40 @@ package org.graylog2.plugin.buffers;
 
 import org.graylog2.plugin.journal.RawMessage;
 
+import java.util.List;
+
 public interface InputBuffer extends EventBuffer {
     void insert(RawMessage message);
+
+    /**
+     * Inserts the messages in order and notifies the callback once for each of them, either after it has been written
+     * to the message journal, or handed on to the process buffer if the journal is disabled, or after it failed. The
+     * callback may be notified on any thread.
+     */
+    default void insert(List<RawMessage> messages, InsertCallback callback) {
+        for (RawMessage message : messages) {
+            try {
+                insert(message);
+            } catch (RuntimeException e) {
+                callback.failed(e);
+                throw e;
+            }
+            callback.journaled();
+        }
+    }
+
+    /**
+     * Notified about the outcome of every message of {@link #insert(List, InsertCallback)}.
+     */
+    interface InsertCallback {
+        /**
+         * The message has been journaled, or handed on to the process buffer if the journal is disabled.
+         */
+        void journaled();
+
+        /**
+         * The message couldn't be written and is lost unless the sender retransmits it.
+         */
+        void failed(Throwable cause);
+    }
 }
@@ -58,6 +58,10 @@ public class Configuration implements Serializable {
     private final Map<String, List<String>> lists = Maps.newHashMap();
     @JsonIgnore
     private final Map<String, EncryptedValue> encryptedValues = Maps.newHashMap();
+    // Every raw message written to the journal carries the codec configuration of its input, don't serialize it again
+    // for each of them. Only the source map is serialized and it isn't modified after construction.
+    @JsonIgnore
+    private transient volatile String json;
 
     @JsonCreator
     public Configuration(@JsonProperty("source") @Nullable Map<String, Object> m) {
@@ -175,8 +179,17 @@ public class Configuration implements Serializable {
 
     @Nullable
     public String serializeToJson() {
+        if (source.isEmpty()) {
+            return null;
+        }
+        String serialized = json;
+        if (serialized != null) {
+            return serialized;
+        }
         try {
-            return source.isEmpty() ? null : objectMapper.writeValueAsString(this);
+            serialized = objectMapper.writeValueAsString(this);
+            json = serialized;
+            return serialized;
         } catch (JsonProcessingException e) {
             LOG.error("Serializing configuration failed.", e);
             return null;
@@ -138,6 +138,17 @@ public abstract class Extractor implements EmbeddedPersistable {
      */
     protected abstract Result[] run(String field);
 
+    /**
+     * Decides whether an extractor should run on the value of its source field. Callers running many extractors on
+     * the same message can use this to evaluate conditions which are shared by several extractors only once.
+     */
+    @FunctionalInterface
+    public interface ConditionEvaluator {
+        boolean matches(Extractor extractor, String field);
+    }
+
+    private static final ConditionEvaluator OWN_CONDITION = Extractor::conditionMatches;
+
     public Extractor(MetricRegistry metricRegistry,
                      String id,
                      String title,
@@ -191,6 +202,14 @@ public abstract class Extractor implements EmbeddedPersistable {
     }
 
     public void runExtractor(Message msg) {
+        runExtractor(msg, OWN_CONDITION);
+    }
+
+    /**
+     * Like {@link #runExtractor(Message)}, but the condition is checked by the given evaluator. It's only consulted
+     * if the extractor has a condition and the source field holds a string.
+     */
+    public void runExtractor(Message msg, ConditionEvaluator conditionEvaluator) {
         try(final Timer.Context ignored = completeTimer.time()) {
             final String field;
             try (final Timer.Context ignored2 = conditionTimer.time()) {
@@ -203,15 +222,8 @@ public abstract class Extractor implements EmbeddedPersistable {
                 field = (String) msg.getField(sourceField);
 
                 // Decide if to extract at all.
-                if (conditionType.equals(ConditionType.STRING)) {
-                    if (field.contains(conditionValue)) {
-                        conditionHitsCounter.inc();
-                    } else {
-                        conditionMissesCounter.inc();
-                        return;
-                    }
-                } else if (conditionType.equals(ConditionType.REGEX)) {
-                    if (regexConditionPattern.matcher(field).find()) {
+                if (!conditionType.equals(ConditionType.NONE)) {
+                    if (conditionEvaluator.matches(this, field)) {
                         conditionHitsCounter.inc();
                     } else {
                         conditionMissesCounter.inc();
@@ -268,6 +280,17 @@ public abstract class Extractor implements EmbeddedPersistable {
         }
     }
 
+    /**
+     * @return whether the condition of this extractor is met by the given value of the source field
+     */
+    public boolean conditionMatches(String field) {
+        return switch (conditionType) {
+            case NONE -> true;
+            case STRING -> field.contains(conditionValue);
+            case REGEX -> regexConditionPattern.matcher(field).find();
+        };
+    }
+
     private void runConverters(Message msg) {
         try(final Timer.Context ignored = converterTimer.time()) {
             for (Converter converter : converters) {
@@ -42,7 +42,9 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -380,6 +382,34 @@ public abstract class MessageInput implements Stoppable {
     }
 
     public void processRawMessage(RawMessage rawMessage) {
+        if (prepareRawMessage(rawMessage)) {
+            inputBuffer.insert(rawMessage);
+            countRawMessage(rawMessage);
+        }
+    }
+
+    /**
+     * Inserts the messages into the input buffer in one go. For transports which acknowledge messages to the sender,
+     * the callback is notified once for every message after it has been journaled or failed. Empty messages are
+     * discarded right away and count as journaled.
+     *
+     * @see InputBuffer#insert(List, InputBuffer.InsertCallback)
+     */
+    public void processRawMessages(List<RawMessage> rawMessages, InputBuffer.InsertCallback callback) {
+        final List<RawMessage> accepted = new ArrayList<>(rawMessages.size());
+        for (RawMessage rawMessage : rawMessages) {
+            if (prepareRawMessage(rawMessage)) {
+                accepted.add(rawMessage);
+            } else {
+                callback.journaled();
+            }
+        }
+
+        inputBuffer.insert(accepted, callback);
+        accepted.forEach(this::countRawMessage);
+    }
+
+    private boolean prepareRawMessage(RawMessage rawMessage) {
         final int payloadLength = rawMessage.getPayload().length;
         if (payloadLength == 0) {
             LOG.debug("Discarding empty message {} from input {} (remote address {}). Turn logger org.graylog2.plugin.journal.RawMessage to TRACE to see originating stack trace.",
@@ -387,7 +417,7 @@ public abstract class MessageInput implements Stoppable {
                     toIdentifier(),
                     rawMessage.getRemoteAddress() == null ? "unknown" : rawMessage.getRemoteAddress());
             emptyMessages.inc();
-            return;
+            return false;
         }
 
         // add the common message metadata for this input/codec
@@ -396,9 +426,11 @@ public abstract class MessageInput implements Stoppable {
         rawMessage.addSourceNode(getId(), serverStatus.getNodeId());
         // Wrap at unsigned int maximum
         rawMessage.setSequenceNr((int) sequenceNr.getAndUpdate(i -> i == 0xFFFF_FFFFL ? 0 : i + 1));
+        return true;
+    }
 
-        inputBuffer.insert(rawMessage);
-
+    private void countRawMessage(RawMessage rawMessage) {
+        final int payloadLength = rawMessage.getPayload().length;
         incomingMessages.mark();
         globalIncomingMessages.inc();
         rawSize.mark(payloadLength);
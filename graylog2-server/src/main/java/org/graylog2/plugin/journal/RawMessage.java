@@ -21,7 +21,12 @@ import com.google.common.base.MoreObjects;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.UninitializedMessageException;
+import com.google.protobuf.UnsafeByteOperations;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.configuration.Configuration;
@@ -85,6 +90,9 @@ public class RawMessage implements Serializable {
         this(Long.MIN_VALUE, new UUID(), Tools.nowUTC(), remoteAddress, payload);
     }
 
+    /**
+     * Creates a new raw message. The payload array is not copied, it must not be modified afterwards.
+     */
     public RawMessage(long journalOffset,
                       @Nonnull UUID id,
                       DateTime timestamp,
@@ -114,7 +122,8 @@ public class RawMessage implements Serializable {
             setRemoteAddress(remoteAddress);
         }
 
-        msgBuilder.setPayload(ByteString.copyFrom(payload));
+        // Transports hand over a freshly allocated array, so there is no need to copy it again.
+        msgBuilder.setPayload(UnsafeByteOperations.unsafeWrap(payload));
     }
 
     public void addSourceNode(String sourceInputId, NodeId nodeId) {
@@ -139,7 +148,7 @@ public class RawMessage implements Serializable {
             return null;
         }
         try {
-            final JournalMessage journalMessage = JournalMessage.parseFrom(buffer);
+            final JournalMessage journalMessage = parse(CodedInputStream.newInstance(buffer));
 
             // TODO validate message based on field contents and version number
 
@@ -153,7 +162,7 @@ public class RawMessage implements Serializable {
     @Nullable
     public static RawMessage decode(final byte[] buffer, final long journalOffset) {
         try {
-            final JournalMessage journalMessage = JournalMessage.parseFrom(buffer);
+            final JournalMessage journalMessage = parse(CodedInputStream.newInstance(buffer));
 
             // TODO validate message based on field contents and version number
 
@@ -164,7 +173,66 @@ public class RawMessage implements Serializable {
         }
     }
 
+    /**
+     * Decodes a raw message without copying the buffer to a byte array first. The payload of the returned message
+     * refers to the buffer, so its content must not be modified afterwards.
+     *
+     * @param buffer        the encoded message, from its position to its limit
+     * @param journalOffset the journal offset of the message
+     * @return the decoded raw message or {@code null} if it couldn't be decoded
+     */
+    @Nullable
+    public static RawMessage decode(final ByteBuffer buffer, final long journalOffset) {
+        try {
+            final JournalMessage journalMessage = parse(CodedInputStream.newInstance(buffer));
+
+            return new RawMessage(journalMessage, journalOffset);
+        } catch (IOException e) {
+            log.error("Cannot read raw message from journal, ignoring this message.", e);
+            return null;
+        }
+    }
+
+    private static JournalMessage parse(CodedInputStream input) throws IOException {
+        // The payload is by far the largest field, let it refer to the journal entry instead of copying it.
+        input.enableAliasing(true);
+        return JournalMessage.parseFrom(input);
+    }
+
     public byte[] encode() {
+        final JournalMessage journalMessage = buildJournalMessage();
+        return journalMessage == null ? null : journalMessage.toByteArray();
+    }
+
+    /**
+     * Encodes the message into a buffer from the given allocator instead of a new byte array. The caller has to
+     * release the returned buffer.
+     *
+     * @return the encoded message or {@code null} if required fields are missing
+     */
+    @Nullable
+    public ByteBuf encode(ByteBufAllocator allocator) {
+        final JournalMessage journalMessage = buildJournalMessage();
+        if (journalMessage == null) {
+            return null;
+        }
+        final int size = journalMessage.getSerializedSize();
+        final ByteBuf buffer = allocator.buffer(size, size);
+        try {
+            final CodedOutputStream output = CodedOutputStream.newInstance(buffer.nioBuffer(0, size));
+            journalMessage.writeTo(output);
+            output.checkNoSpaceLeft();
+            buffer.writerIndex(size);
+            return buffer;
+        } catch (IOException | RuntimeException e) {
+            buffer.release();
+            log.error("Unable to write RawMessage to journal buffer, this message will be discarded.", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private JournalMessage buildJournalMessage() {
         try {
             final JournalMessages.CodecInfo codec = msgBuilder.getCodec();
             final JournalMessages.CodecInfo.Builder builder = JournalMessages.CodecInfo.newBuilder(codec);
@@ -175,8 +243,7 @@ public class RawMessage implements Serializable {
             }
             msgBuilder.setCodec(builder.build());
 
-            final JournalMessage journalMessage = msgBuilder.build();
-            return journalMessage.toByteArray();
+            return msgBuilder.build();
         } catch (UninitializedMessageException e) {
             log.error(
                     "Unable to write RawMessage to journal because required fields are missing, " +
@@ -19,6 +19,7 @@ package org.graylog2.plugin.outputs;
 import org.graylog2.outputs.filter.FilteredMessage;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Classes that implement this interface accept batches of {@link FilteredMessage}s.
@@ -32,4 +33,22 @@ public interface FilteredMessageOutput {
      * @throws Exception if writing the messages fails
      */
     void writeFiltered(List<FilteredMessage> filteredMessages) throws Exception;
+
+    /**
+     * Write the given filtered messages without waiting for the write to finish. The messages must not be
+     * acknowledged by the output, this happens once the returned future has been completed.
+     * <p>
+     * The default implementation calls {@link #writeFiltered(List)} and returns a completed future.
+     *
+     * @param filteredMessages the filtered messages
+     * @return a future which completes once the messages have been written, or exceptionally if writing failed
+     */
+    default CompletableFuture<Void> writeFilteredAsync(List<FilteredMessage> filteredMessages) {
+        try {
+            writeFiltered(filteredMessages);
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
@@ -91,6 +91,14 @@ public abstract class MoreMediaTypes {
      * A {@link MediaType} constant representing {@value #APPLICATION_NDJSON} media type.
      */
     public final static MediaType APPLICATION_NDJSON_TYPE = new MediaType("application", "x-ndjson");
+    /**
+     * A {@code String} constant representing {@value #APPLICATION_NDJSON_GZIP} media type.
+     */
+    public final static String APPLICATION_NDJSON_GZIP = "application/x-ndjson+gzip";
+    /**
+     * A {@link MediaType} constant representing {@value #APPLICATION_NDJSON_GZIP} media type.
+     */
+    public final static MediaType APPLICATION_NDJSON_GZIP_TYPE = new MediaType("application", "x-ndjson+gzip");
     /**
      * A {@code String} constant representing {@value #APPLICATION_JSON} media type.
      */
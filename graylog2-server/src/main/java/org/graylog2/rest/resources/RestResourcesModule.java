@@ -83,6 +83,7 @@ import org.graylog2.rest.resources.system.debug.DebugEventsResource;
 import org.graylog2.rest.resources.system.debug.DebugStreamsResource;
 import org.graylog2.rest.resources.system.debug.bundle.SupportBundleClusterResource;
 import org.graylog2.rest.resources.system.debug.bundle.SupportBundleResource;
+import org.graylog2.rest.resources.system.indexer.BulkSizingResource;
 import org.graylog2.rest.resources.system.indexer.FailuresResource;
 import org.graylog2.rest.resources.system.indexer.IndexFieldTypeProfileResource;
 import org.graylog2.rest.resources.system.indexer.IndexSetDefaultsResource;
@@ -215,6 +216,7 @@ public class RestResourcesModule extends Graylog2Module {
     private void addIndexingResources() {
         addSystemRestResource(DeflectorResource.class);
         addSystemRestResource(FailuresResource.class);
+        addSystemRestResource(BulkSizingResource.class);
         addSystemRestResource(IndexerClusterResource.class);
         addSystemRestResource(IndexerOverviewResource.class);
         addSystemRestResource(IndexFieldTypeProfileResource.class);
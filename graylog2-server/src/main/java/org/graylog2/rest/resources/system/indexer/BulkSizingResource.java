@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.rest.resources.system.indexer;
+
+import com.codahale.metrics.annotation.Timed;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.graylog2.indexer.messages.AdaptiveBulkSizeController;
+import org.graylog2.shared.rest.resources.RestResource;
+import org.graylog2.shared.security.RestPermissions;
+
+@RequiresAuthentication
+@Api(value = "Indexer/BulkSizing", description = "Adaptive bulk request sizing of this node")
+@Path("/system/indexer/bulk_sizing")
+public class BulkSizingResource extends RestResource {
+    private final AdaptiveBulkSizeController sizeController;
+
+    @Inject
+    public BulkSizingResource(AdaptiveBulkSizeController sizeController) {
+        this.sizeController = sizeController;
+    }
+
+    @GET
+    @Timed
+    @RequiresPermissions(RestPermissions.INDEXERCLUSTER_READ)
+    @ApiOperation(value = "Get the current bulk request size and concurrency limits of this node")
+    @Produces(MediaType.APPLICATION_JSON)
+    public AdaptiveBulkSizeController.State state() {
+        return sizeController.state();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.lmax.disruptor.EventHandler;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.shared.buffers.processors.ProcessBufferProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An event handler which processes a partition of the process buffer events like {@link PartitioningWorkHandler}, but
+ * makes use of the batching semantics of the disruptor. Decoded messages are collected until the end of the
+ * available sequences is reached (or the maximum batch size is exceeded) and then handed to the
+ * {@link ProcessBufferProcessor} as a single batch.
+ */
+public class BatchingProcessBufferHandler implements EventHandler<MessageEvent> {
+    private final ProcessBufferProcessor delegate;
+    private final long ordinal;
+    private final long numberOfConsumers;
+    private final int maxBatchSize;
+    private final List<Message> batch;
+
+    /**
+     * @param delegate          the processor which handles the batches
+     * @param ordinal           The ordinal number of this consumer in the range [0, numberOfConsumers). Each event
+     *                          handlers need to have a distinct ordinal number.
+     * @param numberOfConsumers The total number of consumers.
+     * @param maxBatchSize      the number of messages after which a batch is processed, even if more events are
+     *                          available
+     */
+    public BatchingProcessBufferHandler(ProcessBufferProcessor delegate, long ordinal, long numberOfConsumers, int maxBatchSize) {
+        this.delegate = delegate;
+        this.ordinal = ordinal;
+        this.numberOfConsumers = numberOfConsumers;
+        this.maxBatchSize = maxBatchSize;
+        this.batch = new ArrayList<>(maxBatchSize);
+    }
+
+    @Override
+    public void onEvent(MessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+        if ((sequence % numberOfConsumers) == ordinal) {
+            delegate.decodeInto(event, batch);
+        }
+        // The end of the batch has to be handled even if the last event belongs to another partition.
+        if (!batch.isEmpty() && (endOfBatch || batch.size() >= maxBatchSize)) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        try {
+            delegate.dispatchMessages(batch);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    @Override
+    public void onStart() {
+        delegate.onStart();
+    }
+
+    @Override
+    public void onShutdown() {
+        if (!batch.isEmpty()) {
+            flush();
+        }
+        delegate.onShutdown();
+    }
+
+    public ProcessBufferProcessor getDelegate() {
+        return delegate;
+    }
+}
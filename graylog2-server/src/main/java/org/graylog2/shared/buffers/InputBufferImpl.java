@@ -36,6 +36,8 @@ import jakarta.inject.Inject;
 import jakarta.inject.Provider;
 import jakarta.inject.Singleton;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ThreadFactory;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -45,6 +47,7 @@ import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
 @Singleton
 public class InputBufferImpl implements InputBuffer {
     private static final Logger LOG = LoggerFactory.getLogger(InputBufferImpl.class);
+    private static final int MAX_PUBLISH_CHUNK_SIZE = 128;
 
     private final RingBuffer<RawMessageEvent> ringBuffer;
     private final Meter incomingMessages;
@@ -108,6 +111,32 @@ public class InputBufferImpl implements InputBuffer {
         incomingMessages.mark();
     }
 
+    @Override
+    public void insert(List<RawMessage> messages, InsertCallback callback) {
+        final RawMessage[] rawMessages = messages.toArray(new RawMessage[0]);
+        final InsertCallback[] callbacks = new InsertCallback[rawMessages.length];
+        Arrays.fill(callbacks, callback);
+
+        // Publishing claims all slots of a chunk at once, so large chunks would stall the other producers until the
+        // whole chunk is free.
+        final int chunkSize = Math.max(1, Math.min(MAX_PUBLISH_CHUNK_SIZE, ringBuffer.getBufferSize() / 8));
+        int published = 0;
+        try {
+            while (published < rawMessages.length) {
+                final int size = Math.min(rawMessages.length - published, chunkSize);
+                ringBuffer.publishEvents(RawMessageEvent.TRANSLATOR_WITH_CALLBACK, published, size, rawMessages, callbacks);
+                published += size;
+            }
+        } catch (RuntimeException e) {
+            for (int i = published; i < rawMessages.length; i++) {
+                callback.failed(e);
+            }
+            throw e;
+        } finally {
+            incomingMessages.mark(published);
+        }
+    }
+
     @Override
     public long getUsage() {
         return ringBuffer.getBufferSize() - ringBuffer.remainingCapacity();
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.netty.util.internal.PlatformDependent;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+import java.util.List;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
+
+/**
+ * Pool of the buffers raw messages are encoded into before they are written to the message journal. It is separate
+ * from the allocator used by the network transports so that its utilization can be monitored on its own.
+ */
+@Singleton
+public class JournalEncodingBufferPool {
+    private final PooledByteBufAllocator allocator;
+
+    @Inject
+    public JournalEncodingBufferPool(MetricRegistry metricRegistry) {
+        this.allocator = new PooledByteBufAllocator(PlatformDependent.directBufferPreferred());
+
+        final PooledByteBufAllocatorMetric metric = allocator.metric();
+        safelyRegister(metricRegistry, name(JournalEncodingBufferPool.class, "usedDirectMemory"),
+                (Gauge<Long>) metric::usedDirectMemory);
+        safelyRegister(metricRegistry, name(JournalEncodingBufferPool.class, "usedHeapMemory"),
+                (Gauge<Long>) metric::usedHeapMemory);
+        safelyRegister(metricRegistry, name(JournalEncodingBufferPool.class, "activeAllocations"),
+                (Gauge<Long>) () -> activeAllocations(metric.directArenas()) + activeAllocations(metric.heapArenas()));
+        safelyRegister(metricRegistry, name(JournalEncodingBufferPool.class, "threadLocalCaches"),
+                (Gauge<Integer>) metric::numThreadLocalCaches);
+    }
+
+    private static long activeAllocations(List<PoolArenaMetric> arenas) {
+        long activeAllocations = 0;
+        for (PoolArenaMetric arena : arenas) {
+            activeAllocations += arena.numActiveAllocations();
+        }
+        return activeAllocations;
+    }
+
+    public ByteBufAllocator allocator() {
+        return allocator;
+    }
+}
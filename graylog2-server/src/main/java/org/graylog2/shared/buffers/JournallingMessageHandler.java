@@ -69,14 +69,20 @@ public class JournallingMessageHandler implements EventHandler<RawMessageEvent>
             // call the update on the recorder service for every message. (less contention)
             processingStatusRecorder.updateIngestReceiveTime(metricsFilter.getLatestReceiveTime());
 
-            messageQueueWriter.write(entries);
-
-            // Release objects for GC
-            batch.stream()
-                    .filter(Objects::nonNull)
-                    .forEach(RawMessageEvent::clear);
-
-            batch.clear();
+            try {
+                messageQueueWriter.write(entries);
+                entries.forEach(RawMessageEvent::journaled);
+            } catch (Exception e) {
+                entries.forEach(entry -> entry.failed(e));
+                throw e;
+            } finally {
+                // Release objects for GC and return pooled buffers
+                batch.stream()
+                        .filter(Objects::nonNull)
+                        .forEach(RawMessageEvent::clear);
+
+                batch.clear();
+            }
         }
     }
 
@@ -99,12 +105,13 @@ public class JournallingMessageHandler implements EventHandler<RawMessageEvent>
                 log.trace("Journalling message {}", input.getMessageId());
             }
 
-            if (input.getEncodedRawMessage() == null) {
+            if (!input.hasEncodedRawMessage()) {
                 log.error("Skipping RawMessageEvent with null encodedRawMessage");
+                input.failed(new IllegalStateException("Message couldn't be encoded for the journal"));
                 return null;
             }
             // stats
-            final int size = input.getEncodedRawMessage().length;
+            final int size = input.getEncodedRawMessageSize();
             bytesWritten += size;
             byteCounter.inc(size);
 
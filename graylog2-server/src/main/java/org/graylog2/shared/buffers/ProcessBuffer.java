@@ -23,6 +23,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
@@ -51,13 +52,14 @@ public class ProcessBuffer extends Buffer {
     private static final Logger LOG = LoggerFactory.getLogger(ProcessBuffer.class);
 
     private final Meter incomingMessages;
-    private final PartitioningWorkHandler<ProcessBufferProcessor, MessageEvent>[] processors;
+    private final ProcessBufferProcessor[] processors;
 
     @Inject
     public ProcessBuffer(MetricRegistry metricRegistry,
                          DecodingProcessor.Factory decodingProcessorFactory,
                          ProcessBufferProcessor.Factory bufferProcessorFactory,
                          @Named("processbuffer_processors") int processorCount,
+                         @Named("processbuffer_batch_size") int batchSize,
                          @Named("ring_size") int ringSize,
                          @Named("processor_wait_strategy") String waitStrategyName) {
         this.ringBufferSize = ringSize;
@@ -83,20 +85,24 @@ public class ProcessBuffer extends Buffer {
         );
         disruptor.setDefaultExceptionHandler(new LoggingExceptionHandler(LOG));
 
+        processors = new ProcessBufferProcessor[processorCount];
         //noinspection unchecked
-        processors = new PartitioningWorkHandler[processorCount];
+        final EventHandler<MessageEvent>[] handlers = new EventHandler[processorCount];
         for (int i = 0; i < processorCount; i++) {
-            processors[i] = new PartitioningWorkHandler<>(
-                    bufferProcessorFactory.create(decodingProcessorFactory.create(decodeTime, parseTime)), i,
-                    processorCount);
+            processors[i] = bufferProcessorFactory.create(decodingProcessorFactory.create(decodeTime, parseTime));
+            if (batchSize > 1) {
+                handlers[i] = new BatchingProcessBufferHandler(processors[i], i, processorCount, batchSize);
+            } else {
+                handlers[i] = new PartitioningWorkHandler<>(processors[i], i, processorCount);
+            }
         }
-        disruptor.handleEventsWith(processors);
+        disruptor.handleEventsWith(handlers);
 
         ringBuffer = disruptor.start();
 
         LOG.info("Initialized ProcessBuffer with ring size <{}> and wait strategy <{}>, " +
-                        "running {} parallel buffer processors.",
-                ringBufferSize, waitStrategy.getClass().getSimpleName(), processorCount);
+                        "running {} parallel buffer processors with batch size {}.",
+                ringBufferSize, waitStrategy.getClass().getSimpleName(), processorCount, batchSize);
 
     }
 
@@ -124,7 +130,7 @@ public class ProcessBuffer extends Buffer {
     public ImmutableMap<String, String> getDump() {
         final ImmutableMap.Builder<String, String> processBufferDump = ImmutableMap.builder();
         for (int i = 0, processorsLength = processors.length; i < processorsLength; i++) {
-            final ProcessBufferProcessor proc = processors[i].getDelegate();
+            final ProcessBufferProcessor proc = processors[i];
             processBufferDump.put("ProcessBufferProcessor #" + i, proc.getCurrentMessage().map(Message::toDumpString).orElse("idle"));
         }
         return processBufferDump.build();
@@ -18,6 +18,8 @@ package org.graylog2.shared.buffers;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import jakarta.inject.Named;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,21 +30,35 @@ import static com.codahale.metrics.MetricRegistry.name;
 public class RawMessageEncoderHandler implements WorkHandler<RawMessageEvent> {
     private static final Logger log = LoggerFactory.getLogger(RawMessageEncoderHandler.class);
     private final Meter incomingMessages;
+    private final ByteBufAllocator allocator;
 
     @Inject
-    public RawMessageEncoderHandler(MetricRegistry metricRegistry) {
+    public RawMessageEncoderHandler(MetricRegistry metricRegistry,
+                                    JournalEncodingBufferPool bufferPool,
+                                    @Named("message_journal_pooled_encoding") boolean pooledEncoding) {
         incomingMessages = metricRegistry.meter(name(RawMessageEncoderHandler.class, "incomingMessages"));
+        allocator = pooledEncoding ? bufferPool.allocator() : null;
     }
 
     @Override
     public void onEvent(RawMessageEvent event) throws Exception {
         incomingMessages.mark();
-        event.setEncodedRawMessage(event.getRawMessage().encode());
+        try {
+            if (allocator == null) {
+                event.setEncodedRawMessage(event.getRawMessage().encode());
+            } else {
+                event.setEncodedRawMessageBuffer(event.getRawMessage().encode(allocator));
+            }
+        } catch (RuntimeException e) {
+            // the journalling handler skips events without an encoded message
+            event.failed(e);
+            throw e;
+        }
         event.setMessageIdBytes(event.getRawMessage().getIdBytes());
 
         if (log.isTraceEnabled()) {
             log.trace("Serialized message {} for journal, size {} bytes",
-                    event.getRawMessage().getId(), event.getEncodedRawMessage().length);
+                    event.getRawMessage().getId(), event.getEncodedRawMessageSize());
         }
 
         // Set timestamp in event to retain access to it after we clear the raw message object below
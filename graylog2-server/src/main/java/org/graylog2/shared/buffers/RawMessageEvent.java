@@ -20,9 +20,14 @@ import com.eaio.uuid.UUID;
 import com.google.common.base.MoreObjects;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventTranslatorOneArg;
+import com.lmax.disruptor.EventTranslatorTwoArg;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.graylog2.plugin.buffers.InputBuffer;
 import org.graylog2.plugin.journal.RawMessage;
 import org.joda.time.DateTime;
 
+import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 
 public class RawMessageEvent {
@@ -33,10 +38,15 @@ public class RawMessageEvent {
     // once these fields are set, do NOT rely on rawMessage still being non-null!
     private byte[] messageIdBytes;
     private byte[] encodedRawMessage;
+    // set instead of encodedRawMessage if the message has been encoded into a pooled buffer
+    private ByteBuf encodedRawMessageBuffer;
 
     // We need access to the raw message timestamp after the raw message has been cleared
     private DateTime messageTimestamp;
 
+    // notified once the message has been journaled or failed, if set
+    private InputBuffer.InsertCallback insertCallback;
+
     public static final EventFactory<RawMessageEvent> FACTORY = new EventFactory<RawMessageEvent>() {
         @Override
         public RawMessageEvent newInstance() {
@@ -49,13 +59,17 @@ public class RawMessageEvent {
             event.setRawMessage(arg0);
         }
     };
+    public static final EventTranslatorTwoArg<RawMessageEvent, RawMessage, InputBuffer.InsertCallback> TRANSLATOR_WITH_CALLBACK = (event, sequence, rawMessage, callback) -> {
+        event.setRawMessage(rawMessage);
+        event.setInsertCallback(callback);
+    };
 
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
                 .add("raw", getRawMessage())
                 .add("uuid", getMessageId())
-                .add("encodedLength", getEncodedRawMessage().length)
+                .add("encodedLength", getEncodedRawMessageSize())
                 .toString();
     }
 
@@ -67,7 +81,14 @@ public class RawMessageEvent {
         this.rawMessage = rawMessage;
     }
 
+    /**
+     * Returns the encoded raw message. If it has been encoded into a pooled buffer, the buffer is copied on the first
+     * call, use {@link #getEncodedRawMessageBuffer()} to avoid that.
+     */
     public byte[] getEncodedRawMessage() {
+        if (encodedRawMessage == null && encodedRawMessageBuffer != null) {
+            encodedRawMessage = ByteBufUtil.getBytes(encodedRawMessageBuffer);
+        }
         return encodedRawMessage;
     }
 
@@ -75,6 +96,36 @@ public class RawMessageEvent {
         this.encodedRawMessage = encodedRawMessage;
     }
 
+    /**
+     * Sets the pooled buffer the raw message has been encoded into. The event takes ownership of the buffer and
+     * releases it in {@link #clear()}.
+     */
+    public void setEncodedRawMessageBuffer(ByteBuf encodedRawMessageBuffer) {
+        this.encodedRawMessageBuffer = encodedRawMessageBuffer;
+    }
+
+    /**
+     * Returns a view of the encoded raw message, which is only valid until the event is cleared.
+     */
+    @Nullable
+    public ByteBuffer getEncodedRawMessageBuffer() {
+        if (encodedRawMessageBuffer != null) {
+            return encodedRawMessageBuffer.nioBuffer();
+        }
+        return encodedRawMessage == null ? null : ByteBuffer.wrap(encodedRawMessage);
+    }
+
+    public boolean hasEncodedRawMessage() {
+        return encodedRawMessage != null || encodedRawMessageBuffer != null;
+    }
+
+    public int getEncodedRawMessageSize() {
+        if (encodedRawMessageBuffer != null) {
+            return encodedRawMessageBuffer.readableBytes();
+        }
+        return encodedRawMessage == null ? 0 : encodedRawMessage.length;
+    }
+
     public void setMessageIdBytes(byte[] messageIdBytes) {
         this.messageIdBytes = messageIdBytes;
     }
@@ -91,6 +142,36 @@ public class RawMessageEvent {
         this.messageTimestamp = messageTimestamp;
     }
 
+    @Nullable
+    public InputBuffer.InsertCallback getInsertCallback() {
+        return insertCallback;
+    }
+
+    public void setInsertCallback(@Nullable InputBuffer.InsertCallback insertCallback) {
+        this.insertCallback = insertCallback;
+    }
+
+    /**
+     * Notifies the insert callback, if any, that the message has been journaled.
+     */
+    public void journaled() {
+        if (insertCallback != null) {
+            insertCallback.journaled();
+            insertCallback = null;
+        }
+    }
+
+    /**
+     * Notifies the insert callback, if any, that the message couldn't be written. The callback is notified at most
+     * once, so later stages won't report the same message again.
+     */
+    public void failed(Throwable cause) {
+        if (insertCallback != null) {
+            insertCallback.failed(cause);
+            insertCallback = null;
+        }
+    }
+
     // performance doesn't matter, it's only being called during tracing
     public UUID getMessageId() {
         final ByteBuffer wrap = ByteBuffer.wrap(messageIdBytes);
@@ -100,7 +181,12 @@ public class RawMessageEvent {
     public void clear() {
         this.rawMessage = null;
         this.encodedRawMessage = null;
+        if (encodedRawMessageBuffer != null) {
+            encodedRawMessageBuffer.release();
+            encodedRawMessageBuffer = null;
+        }
         this.messageIdBytes = null;
         this.messageTimestamp = null;
+        this.insertCallback = null;
     }
 }
@@ -16,6 +16,7 @@
  */
 package org.graylog2.shared.buffers.processors;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
@@ -29,6 +30,7 @@ import org.graylog2.buffers.OutputBuffer;
 import org.graylog2.cluster.ClusterConfigChangedEvent;
 import org.graylog2.messageprocessors.OrderedMessageProcessors;
 import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageCollection;
 import org.graylog2.plugin.Messages;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.buffers.MessageEvent;
@@ -44,7 +46,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 
@@ -56,6 +60,8 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
 
     private final Meter incomingMessages;
     private final Timer processTime;
+    private final Histogram batchSize;
+    private final Timer batchProcessTime;
     private final StreamMetrics streamMetrics;
     private final Meter outgoingMessages;
     private final OrderedMessageProcessors orderedMessageProcessors;
@@ -97,6 +103,8 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         incomingMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "incomingMessages"));
         outgoingMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "outgoingMessages"));
         processTime = metricRegistry.timer(name(ProcessBufferProcessor.class, "processTime"));
+        batchSize = metricRegistry.histogram(name(ProcessBufferProcessor.class, "batchSize"));
+        batchProcessTime = metricRegistry.timer(name(ProcessBufferProcessor.class, "batchProcessTime"));
         this.streamMetrics = streamMetrics;
         currentMessage = null;
 
@@ -129,6 +137,119 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         }
     }
 
+    /**
+     * Decodes the given event and adds the resulting messages to the batch. The event is cleared afterwards, so the
+     * ring buffer slot can be reused while the batch is still being collected.
+     *
+     * @param event the message event
+     * @param batch the batch to add the decoded messages to
+     */
+    public void decodeInto(MessageEvent event, List<Message> batch) throws Exception {
+        try {
+            decodingProcessor.onEvent(event, 0L, false);
+
+            if (event.isSingleMessage()) {
+                final Message message = event.getMessage();
+                if (message != null) {
+                    batch.add(message);
+                }
+            } else {
+                final Collection<Message> messageList = event.getMessages();
+                // skip message events which could not be decoded properly
+                if (messageList != null) {
+                    batch.addAll(messageList);
+                }
+            }
+        } finally {
+            event.clearMessages();
+        }
+    }
+
+    /**
+     * Runs the given messages through the message processors as a single {@link MessageCollection}, so that per-call
+     * work like timer contexts and processor state lookups is shared by all messages of the batch.
+     * <p>
+     * If a message processor fails for the batch, only that processor is run again for each message of the batch on
+     * its own, so the failure is only attributed to the offending message. The other messages continue with the next
+     * processor. Earlier processors are not run again, but the failed processor might already have changed some of the
+     * messages before it failed.
+     *
+     * @param batch the decoded messages
+     */
+    public void dispatchMessages(List<Message> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1) {
+            dispatchMessage(batch.get(0));
+            return;
+        }
+
+        incomingMessages.mark(batch.size());
+        batchSize.update(batch.size());
+
+        int processed = 0;
+        try (final Timer.Context ignored = batchProcessTime.time()) {
+            final Messages messages;
+            try {
+                messages = processMessages(batch);
+            } catch (Exception e) {
+                for (Message message : batch) {
+                    handleProcessingException(message, e);
+                }
+                processed = batch.size();
+                return;
+            }
+            for (Message message : messages) {
+                currentMessage = message;
+                processed++;
+                try {
+                    finishMessage(message);
+                } catch (Exception e) {
+                    handleProcessingException(message, e);
+                }
+            }
+        } finally {
+            currentMessage = null;
+            outgoingMessages.mark(processed);
+        }
+    }
+
+    private Messages processMessages(List<Message> batch) {
+        currentMessage = batch.get(0);
+
+        final Stream defaultStream = defaultStreamProvider.get();
+        for (Message message : batch) {
+            message.addStream(defaultStream);
+        }
+        Messages messages = new MessageCollection(batch);
+
+        for (MessageProcessor messageProcessor : orderedMessageProcessors) {
+            try {
+                messages = messageProcessor.process(messages);
+            } catch (Exception e) {
+                LOG.debug("Message processor <{}> failed for a batch of messages, running it for each message: {}",
+                        messageProcessor.getClass().getCanonicalName(), e.toString());
+                messages = processIndividually(messageProcessor, messages);
+            }
+        }
+        return messages;
+    }
+
+    private Messages processIndividually(MessageProcessor messageProcessor, Messages messages) {
+        final List<Message> results = new ArrayList<>();
+        for (Message message : messages) {
+            currentMessage = message;
+            try {
+                messageProcessor.process(message).forEach(results::add);
+            } catch (Exception e) {
+                handleProcessingException(message, e);
+                outgoingMessages.mark();
+            }
+        }
+        return new MessageCollection(results);
+    }
+
     public Optional<Message> getCurrentMessage() {
         return Optional.ofNullable(currentMessage);
     }
@@ -147,26 +268,29 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
                 LOG.trace("Finished processing message <{}>. Writing to output buffer.", msg.getId());
             }
         } catch (Exception e) {
-            if (LOG.isDebugEnabled()) {
-                // Log warning including the stacktrace
-                LOG.warn("Unable to process message <{}>:", msg.getId(), e);
-                // Log full message content to aid debugging
-                LOG.debug("Failed message <{}>: {}", msg.getId(), msg.toDumpString());
-            } else {
-                // Only logs a single line warning without stacktrace
-                LOG.warn("Unable to process message <{}>: {}", msg.getId(), e);
-            }
-
-            failureSubmissionService.submitUnknownProcessingError(msg, String.format(Locale.ENGLISH,
-                    "Unable to process message <%s>: %s",
-                    msg.getId(), e));
-
+            handleProcessingException(msg, e);
         } finally {
             currentMessage = null;
             outgoingMessages.mark();
         }
     }
 
+    private void handleProcessingException(Message msg, Exception e) {
+        if (LOG.isDebugEnabled()) {
+            // Log warning including the stacktrace
+            LOG.warn("Unable to process message <{}>:", msg.getId(), e);
+            // Log full message content to aid debugging
+            LOG.debug("Failed message <{}>: {}", msg.getId(), msg.toDumpString());
+        } else {
+            // Only logs a single line warning without stacktrace
+            LOG.warn("Unable to process message <{}>: {}", msg.getId(), e);
+        }
+
+        failureSubmissionService.submitUnknownProcessingError(msg, String.format(Locale.ENGLISH,
+                "Unable to process message <%s>: %s",
+                msg.getId(), e));
+    }
+
     private void handleMessage(@Nonnull Message msg) {
         msg.addStream(defaultStreamProvider.get());
         Messages messages = msg;
@@ -176,25 +300,28 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         }
 
         for (Message message : messages) {
+            finishMessage(message);
+        }
+    }
 
-            message.getStreams().forEach(s -> streamMetrics.markIncomingMeter(s.getId()));
-            message.ensureValidTimestamp();
-            message.normalizeTimestamp(getTimeStampGracePeriod());
+    private void finishMessage(Message message) {
+        message.getStreams().forEach(s -> streamMetrics.markIncomingMeter(s.getId()));
+        message.ensureValidTimestamp();
+        message.normalizeTimestamp(getTimeStampGracePeriod());
 
-            // If a message is received via the Cluster-to-Cluster Forwarder, it already has this field set
-            if (!message.hasField(Message.FIELD_GL2_MESSAGE_ID) || isNullOrEmpty(message.getFieldAs(String.class, Message.FIELD_GL2_MESSAGE_ID))) {
-                // Set the message ID once all message processors have finished
-                // See documentation of Message.FIELD_GL2_MESSAGE_ID for details
-                message.addField(Message.FIELD_GL2_MESSAGE_ID, messageULIDGenerator.createULID(message));
-            }
+        // If a message is received via the Cluster-to-Cluster Forwarder, it already has this field set
+        if (!message.hasField(Message.FIELD_GL2_MESSAGE_ID) || isNullOrEmpty(message.getFieldAs(String.class, Message.FIELD_GL2_MESSAGE_ID))) {
+            // Set the message ID once all message processors have finished
+            // See documentation of Message.FIELD_GL2_MESSAGE_ID for details
+            message.addField(Message.FIELD_GL2_MESSAGE_ID, messageULIDGenerator.createULID(message));
+        }
 
-            // The processing time should only be set once all message processors have finished
-            message.setProcessingTime(Tools.nowUTC());
-            processingStatusRecorder.updatePostProcessingReceiveTime(message.getReceiveTime());
+        // The processing time should only be set once all message processors have finished
+        message.setProcessingTime(Tools.nowUTC());
+        processingStatusRecorder.updatePostProcessingReceiveTime(message.getReceiveTime());
 
-            if (failureSubmissionService.submitProcessingErrors(message)) {
-                outputBuffer.insertBlocking(message);
-            }
+        if (failureSubmissionService.submitProcessingErrors(message)) {
+            outputBuffer.insertBlocking(message);
         }
     }
 
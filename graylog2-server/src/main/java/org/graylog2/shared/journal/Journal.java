@@ -16,6 +16,7 @@
  */
 package org.graylog2.shared.journal;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Optional;
 
@@ -54,29 +55,81 @@ public interface Journal {
 
     class Entry {
         private final byte[] idBytes;
-        private final byte[] messageBytes;
+        private final ByteBuffer messageBuffer;
+        private byte[] messageBytes;
 
         public Entry(byte[] idBytes, byte[] messageBytes) {
             this.idBytes = idBytes;
             this.messageBytes = messageBytes;
+            this.messageBuffer = null;
+        }
+
+        /**
+         * Creates an entry which refers to the message without copying it, e.g. a pooled encoding buffer. The buffer
+         * must stay valid until the entry has been written.
+         *
+         * @param idBytes       the message id
+         * @param messageBuffer the encoded message, from its position to its limit
+         */
+        public Entry(byte[] idBytes, ByteBuffer messageBuffer) {
+            this.idBytes = idBytes;
+            this.messageBytes = null;
+            this.messageBuffer = messageBuffer;
         }
 
         public byte[] getIdBytes() {
             return idBytes;
         }
 
+        /**
+         * Returns the message as byte array. Entries which have been created from a {@link ByteBuffer} copy the
+         * message on the first call, use {@link #getMessageBuffer()} to avoid that.
+         */
         public byte[] getMessageBytes() {
+            if (messageBytes == null) {
+                final ByteBuffer buffer = messageBuffer.duplicate();
+                messageBytes = new byte[buffer.remaining()];
+                buffer.get(messageBytes);
+            }
             return messageBytes;
         }
+
+        /**
+         * Returns a read-only view of the message.
+         */
+        public ByteBuffer getMessageBuffer() {
+            if (messageBuffer == null) {
+                return ByteBuffer.wrap(messageBytes).asReadOnlyBuffer();
+            }
+            return messageBuffer.asReadOnlyBuffer();
+        }
+
+        public int getMessageSize() {
+            return messageBuffer == null ? messageBytes.length : messageBuffer.remaining();
+        }
     }
 
     class JournalReadEntry {
 
-        private final byte[] payload;
+        private final ByteBuffer payloadBuffer;
+        private byte[] payload;
         private final long offset;
 
         public JournalReadEntry(byte[] payload, long offset) {
             this.payload = payload;
+            this.payloadBuffer = null;
+            this.offset = offset;
+        }
+
+        /**
+         * Creates an entry which refers to the payload without copying it, e.g. a slice of a memory-mapped segment.
+         *
+         * @param payloadBuffer the payload, from its position to its limit
+         * @param offset        the journal offset of the entry
+         */
+        public JournalReadEntry(ByteBuffer payloadBuffer, long offset) {
+            this.payload = null;
+            this.payloadBuffer = payloadBuffer;
             this.offset = offset;
         }
 
@@ -84,8 +137,31 @@ public interface Journal {
             return offset;
         }
 
+        /**
+         * Returns the payload as byte array. Entries which have been created from a {@link ByteBuffer} copy the
+         * payload on the first call, use {@link #getPayloadBuffer()} to avoid that.
+         */
         public byte[] getPayload() {
+            if (payload == null) {
+                final ByteBuffer buffer = payloadBuffer.duplicate();
+                payload = new byte[buffer.remaining()];
+                buffer.get(payload);
+            }
             return payload;
         }
+
+        /**
+         * Returns a read-only view of the payload.
+         */
+        public ByteBuffer getPayloadBuffer() {
+            if (payloadBuffer == null) {
+                return ByteBuffer.wrap(payload).asReadOnlyBuffer();
+            }
+            return payloadBuffer.asReadOnlyBuffer();
+        }
+
+        public int getPayloadSize() {
+            return payloadBuffer == null ? payload.length : payloadBuffer.remaining();
+        }
     }
 }
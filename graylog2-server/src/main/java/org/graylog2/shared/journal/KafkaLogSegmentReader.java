@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the segment files of the Kafka 0.9 based {@link LocalKafkaJournal}, so their contents can be migrated to the
+ * {@link MappedSegmentJournal}.
+ * <p>
+ * A Kafka log file contains the messages back to back: {@code offset (int64), size (int32), crc (int32),
+ * magic (int8), attributes (int8), [timestamp (int64) if magic > 0], key length (int32), key, value length (int32),
+ * value}. The CRC covers everything from the magic byte to the end of the message. Compressed message sets aren't
+ * supported.
+ */
+class KafkaLogSegmentReader {
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaLogSegmentReader.class);
+
+    static final String LOG_SUFFIX = ".log";
+    private static final int LOG_OVERHEAD = Long.BYTES + Integer.BYTES;
+    private static final int COMPRESSION_CODEC_MASK = 0x07;
+
+    interface RecordConsumer {
+        void accept(long offset, byte[] key, byte[] payload) throws IOException;
+    }
+
+    private KafkaLogSegmentReader() {
+    }
+
+    /**
+     * Reads all valid messages with an offset larger than {@code minimumOffset} from the given log file. Reading stops
+     * at the first incomplete or corrupt message.
+     *
+     * @return the number of messages which have been passed to the consumer
+     * @throws IOException if the file can't be read or contains a compressed message set
+     */
+    static int read(Path logFile, long minimumOffset, RecordConsumer consumer) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        final CRC32 crc = new CRC32();
+        int count = 0;
+        int position = 0;
+        while (position + LOG_OVERHEAD <= buffer.limit()) {
+            final long offset = buffer.getLong(position);
+            final int size = buffer.getInt(position + Long.BYTES);
+            final int messageStart = position + LOG_OVERHEAD;
+            if (size < Integer.BYTES + 2 || (long) messageStart + size > buffer.limit()) {
+                break;
+            }
+            final ByteBuffer message = buffer.slice(messageStart, size);
+            position = messageStart + size;
+
+            crc.reset();
+            crc.update(message.slice(Integer.BYTES, size - Integer.BYTES));
+            if ((int) crc.getValue() != message.getInt(0)) {
+                LOG.warn("Found corrupt message at offset {} in {}, stopping migration of this file.", offset, logFile);
+                break;
+            }
+            if (offset <= minimumOffset) {
+                continue;
+            }
+
+            final byte magic = message.get(Integer.BYTES);
+            final byte attributes = message.get(Integer.BYTES + 1);
+            if ((attributes & COMPRESSION_CODEC_MASK) != 0) {
+                // The journal never compresses messages. Failing keeps the Kafka journal, so its messages can still
+                // be read by switching back to the Kafka journal implementation.
+                throw new IOException("Unable to migrate compressed message at offset " + offset + " in " + logFile
+                        + ", please process the remaining messages with message_journal_implementation = kafka first.");
+            }
+            int fieldPosition = Integer.BYTES + 2 + (magic > 0 ? Long.BYTES : 0);
+            final byte[] key = readBytes(message, fieldPosition);
+            fieldPosition += Integer.BYTES + key.length;
+            final byte[] payload = readBytes(message, fieldPosition);
+
+            consumer.accept(offset, key, payload);
+            count++;
+        }
+        return count;
+    }
+
+    private static byte[] readBytes(ByteBuffer message, int position) {
+        final int length = message.getInt(position);
+        if (length < 0) {
+            return new byte[0];
+        }
+        final byte[] bytes = new byte[length];
+        message.get(position + Integer.BYTES, bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import org.graylog2.plugin.ThrottleState;
+
+/**
+ * A {@link Journal} which stores its entries in segments on the local disk. This is the part of the journal API which
+ * is used to report the journal state and to throttle the node.
+ */
+public interface LocalJournal extends Journal {
+    /**
+     * Returns the offset of the last message which has been successfully processed.
+     */
+    long getCommittedOffset();
+
+    /**
+     * Returns the offset of the next message the reader will read.
+     */
+    long getNextReadOffset();
+
+    /**
+     * Returns the first valid offset in the entire journal.
+     */
+    long getLogStartOffset();
+
+    /**
+     * Returns the offset for the next value to be inserted in the entire journal.
+     */
+    long getLogEndOffset();
+
+    /**
+     * Returns the journal size in bytes, excluding index files.
+     */
+    long size();
+
+    /**
+     * Returns the number of segments this journal consists of.
+     */
+    int numberOfSegments();
+
+    /**
+     * Returns the creation time in milliseconds since the epoch of the oldest segment.
+     */
+    long getOldestSegmentCreationTime();
+
+    int getPurgedSegmentsInLastRetention();
+
+    ThrottleState getThrottleState();
+
+    void setThrottleState(ThrottleState state);
+}
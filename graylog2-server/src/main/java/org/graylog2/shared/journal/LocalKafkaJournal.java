@@ -101,7 +101,7 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.graylog2.plugin.Tools.bytesToHex;
 
 @Singleton
-public class LocalKafkaJournal extends AbstractIdleService implements Journal {
+public class LocalKafkaJournal extends AbstractIdleService implements LocalJournal {
     private static final Logger LOG = LoggerFactory.getLogger(LocalKafkaJournal.class);
 
     private static final String LEGACY_CLASS_NAME = "org.graylog2.shared.journal.KafkaJournal";
@@ -354,12 +354,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
             this.metricRegistry.register(getOldestSegmentMetricName(), (Gauge<Date>) new Gauge<Date>() {
                 @Override
                 public Date getValue() {
-                    long oldestSegment = Long.MAX_VALUE;
-                    for (final LogSegment segment : LocalKafkaJournal.this.getSegments()) {
-                        oldestSegment = Math.min(oldestSegment, segment.created());
-                    }
-
-                    return new Date(oldestSegment);
+                    return new Date(getOldestSegmentCreationTime());
                 }
             });
 
@@ -444,6 +439,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         }
     }
 
+    @Override
     public int getPurgedSegmentsInLastRetention() {
         return purgedSegmentsInLastRetention.get();
     }
@@ -789,10 +785,12 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         }
     }
 
+    @Override
     public long getCommittedOffset() {
         return committedOffset.get();
     }
 
+    @Override
     public long getNextReadOffset() {
         return nextReadOffset;
     }
@@ -897,11 +895,21 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         return JavaConversions.asJavaIterable(kafkaLog.logSegments());
     }
 
+    @Override
+    public long getOldestSegmentCreationTime() {
+        long oldestSegment = Long.MAX_VALUE;
+        for (final LogSegment segment : getSegments()) {
+            oldestSegment = Math.min(oldestSegment, segment.created());
+        }
+        return oldestSegment;
+    }
+
     /**
      * Returns the journal size in bytes, exluding index files.
      *
      * @return journal size in bytes
      */
+    @Override
     public long size() {
         return kafkaLog.size();
     }
@@ -911,6 +919,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
      *
      * @return number of segments
      */
+    @Override
     public int numberOfSegments() {
         return kafkaLog.numberOfSegments();
     }
@@ -943,6 +952,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
      *
      * @return first offset
      */
+    @Override
     public long getLogStartOffset() {
         final Iterable<LogSegment> logSegments = JavaConversions.asJavaIterable(kafkaLog.logSegments());
         final LogSegment segment = Iterables.getFirst(logSegments, null);
@@ -957,6 +967,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
      *
      * @return the next offset value (last valid offset is this number - 1)
      */
+    @Override
     public long getLogEndOffset() {
         return kafkaLog.logEndOffset();
     }
@@ -966,10 +977,12 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
      *
      * @return the journal state for throttling purposes
      */
+    @Override
     public ThrottleState getThrottleState() {
         return throttleState.get();
     }
 
+    @Override
     public void setThrottleState(ThrottleState state) {
         throttleState.set(state);
     }
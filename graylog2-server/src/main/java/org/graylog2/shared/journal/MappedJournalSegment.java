@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+
+/**
+ * A single memory-mapped segment of the {@link MappedSegmentJournal}.
+ * <p>
+ * The segment file contains the records back to back. Every record is laid out as follows:
+ * <pre>
+ * int    length      number of bytes following this field
+ * int    crc         CRC32C of the key length, key and payload
+ * int    keyLength
+ * byte[] key
+ * byte[] payload
+ * </pre>
+ * The index file contains the position of every record in the segment file as a dense array of ints, so the record
+ * for an offset can be found without scanning the segment.
+ * <p>
+ * The active segment is pre-allocated with its full capacity. Once it is full, it gets sealed: the files are truncated
+ * to their actual size and mapped read-only.
+ */
+class MappedJournalSegment {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedJournalSegment.class);
+
+    static final String SEGMENT_SUFFIX = ".segment";
+    static final String INDEX_SUFFIX = ".index";
+    static final int RECORD_HEADER_SIZE = 3 * Integer.BYTES;
+    private static final int INDEX_ENTRY_SIZE = Integer.BYTES;
+
+    private final long baseOffset;
+    private final Path segmentFile;
+    private final Path indexFile;
+    private final long created;
+    private final int capacity;
+    private final int indexCapacity;
+
+    private volatile MappedByteBuffer data;
+    private volatile MappedByteBuffer index;
+    private volatile int count;
+    private volatile int size;
+    private volatile boolean sealed;
+    private volatile long lastModified;
+    private int flushedCount;
+
+    private MappedJournalSegment(long baseOffset, Path segmentFile, Path indexFile, long created, int capacity,
+                                 int indexCapacity) {
+        this.baseOffset = baseOffset;
+        this.segmentFile = segmentFile;
+        this.indexFile = indexFile;
+        this.created = created;
+        this.capacity = capacity;
+        this.indexCapacity = indexCapacity;
+    }
+
+    static String fileName(long baseOffset, String suffix) {
+        return String.format(Locale.ROOT, "%020d%s", baseOffset, suffix);
+    }
+
+    /**
+     * Creates a new, empty active segment.
+     */
+    static MappedJournalSegment create(Path directory, long baseOffset, int capacity, int indexCapacity) throws IOException {
+        final Path segmentFile = directory.resolve(fileName(baseOffset, SEGMENT_SUFFIX));
+        final Path indexFile = directory.resolve(fileName(baseOffset, INDEX_SUFFIX));
+        final long now = System.currentTimeMillis();
+        final MappedJournalSegment segment = new MappedJournalSegment(baseOffset, segmentFile, indexFile, now, capacity, indexCapacity);
+        segment.data = map(segmentFile, FileChannel.MapMode.READ_WRITE, capacity);
+        segment.index = map(indexFile, FileChannel.MapMode.READ_WRITE, (long) indexCapacity * INDEX_ENTRY_SIZE);
+        segment.lastModified = now;
+        return segment;
+    }
+
+    /**
+     * Opens an existing segment. Sealed segments are trusted if their index is consistent with the segment file,
+     * the active segment and inconsistent segments are recovered by scanning and validating all records.
+     */
+    static MappedJournalSegment open(Path directory, long baseOffset, int capacity, int indexCapacity, boolean active) throws IOException {
+        final Path segmentFile = directory.resolve(fileName(baseOffset, SEGMENT_SUFFIX));
+        final Path indexFile = directory.resolve(fileName(baseOffset, INDEX_SUFFIX));
+        final BasicFileAttributes attributes = Files.readAttributes(segmentFile, BasicFileAttributes.class);
+        final long fileSize = attributes.size();
+        final long indexSize = Files.exists(indexFile) ? Files.size(indexFile) : 0L;
+
+        final MappedJournalSegment segment = new MappedJournalSegment(baseOffset, segmentFile, indexFile,
+                attributes.creationTime().toMillis(), Math.max(capacity, (int) Math.min(Integer.MAX_VALUE, fileSize)),
+                Math.max(indexCapacity, (int) Math.min(Integer.MAX_VALUE, indexSize / INDEX_ENTRY_SIZE)));
+        segment.lastModified = attributes.lastModifiedTime().toMillis();
+
+        if (!active && segment.openSealed(fileSize, indexSize)) {
+            return segment;
+        }
+
+        segment.data = map(segmentFile, FileChannel.MapMode.READ_WRITE, segment.capacity);
+        segment.index = map(indexFile, FileChannel.MapMode.READ_WRITE, (long) segment.indexCapacity * INDEX_ENTRY_SIZE);
+        segment.recover();
+        if (!active) {
+            segment.seal();
+        }
+        return segment;
+    }
+
+    private boolean openSealed(long fileSize, long indexSize) throws IOException {
+        if (indexSize % INDEX_ENTRY_SIZE != 0) {
+            return false;
+        }
+        final int entries = (int) (indexSize / INDEX_ENTRY_SIZE);
+        final MappedByteBuffer sealedData = map(segmentFile, FileChannel.MapMode.READ_ONLY, fileSize);
+        final MappedByteBuffer sealedIndex = map(indexFile, FileChannel.MapMode.READ_ONLY, indexSize);
+        if (entries == 0) {
+            if (fileSize != 0) {
+                return false;
+            }
+        } else {
+            final int lastPosition = sealedIndex.getInt((entries - 1) * INDEX_ENTRY_SIZE);
+            if (lastPosition < 0 || lastPosition + Integer.BYTES > fileSize
+                    || lastPosition + Integer.BYTES + (long) sealedData.getInt(lastPosition) != fileSize) {
+                return false;
+            }
+        }
+        this.data = sealedData;
+        this.index = sealedIndex;
+        this.count = entries;
+        this.size = (int) fileSize;
+        this.flushedCount = entries;
+        this.sealed = true;
+        return true;
+    }
+
+    private static MappedByteBuffer map(Path file, FileChannel.MapMode mode, long size) throws IOException {
+        final StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE};
+        // The mapping stays valid after the channel has been closed.
+        try (FileChannel channel = FileChannel.open(file, options)) {
+            return channel.map(mode, 0, size);
+        }
+    }
+
+    /**
+     * Scans the segment file and rebuilds the index. The scan stops at the first record which is incomplete or fails
+     * the CRC check, everything after it is considered to be a torn write and will be overwritten.
+     */
+    private void recover() {
+        final CRC32C crc = new CRC32C();
+        int position = 0;
+        int entries = 0;
+        while (entries < indexCapacity && position + RECORD_HEADER_SIZE <= capacity) {
+            final int length = data.getInt(position);
+            if (length < RECORD_HEADER_SIZE - Integer.BYTES || (long) position + Integer.BYTES + length > capacity) {
+                break;
+            }
+            final int keyLength = data.getInt(position + 2 * Integer.BYTES);
+            if (keyLength < 0 || keyLength > length - (RECORD_HEADER_SIZE - Integer.BYTES)) {
+                break;
+            }
+            crc.reset();
+            crc.update(data.slice(position + 2 * Integer.BYTES, length - Integer.BYTES));
+            if ((int) crc.getValue() != data.getInt(position + Integer.BYTES)) {
+                break;
+            }
+            index.putInt(entries * INDEX_ENTRY_SIZE, position);
+            position += Integer.BYTES + length;
+            entries++;
+        }
+        if (position + Integer.BYTES <= capacity && data.getInt(position) != 0) {
+            LOG.warn("Discarding incomplete or corrupt data at position {} of journal segment {}", position, segmentFile);
+            // Make sure that a subsequent recovery doesn't pick up the corrupt record again.
+            data.putInt(position, 0);
+        }
+        this.count = entries;
+        this.size = position;
+        this.flushedCount = entries;
+    }
+
+    /**
+     * Returns {@code true} if a record with the given key and payload sizes fits into the segment.
+     */
+    boolean hasRoomFor(int keyLength, int payloadLength) {
+        return !sealed && count < indexCapacity
+                && (long) size + RECORD_HEADER_SIZE + keyLength + payloadLength <= capacity;
+    }
+
+    /**
+     * Appends a record. Only one thread may append at a time, the caller must check {@link #hasRoomFor(int, int)}.
+     *
+     * @return the offset of the appended record
+     */
+    long append(byte[] key, ByteBuffer payload, CRC32C crc) {
+        final int position = size;
+        final int length = RECORD_HEADER_SIZE - Integer.BYTES + key.length + payload.remaining();
+
+        data.putInt(position + 2 * Integer.BYTES, key.length);
+        data.put(position + RECORD_HEADER_SIZE, key);
+        data.put(position + RECORD_HEADER_SIZE + key.length, payload, payload.position(), payload.remaining());
+        crc.reset();
+        crc.update(data.slice(position + 2 * Integer.BYTES, length - Integer.BYTES));
+        data.putInt(position + Integer.BYTES, (int) crc.getValue());
+        data.putInt(position, length);
+
+        final int entry = count;
+        index.putInt(entry * INDEX_ENTRY_SIZE, position);
+        size = position + Integer.BYTES + length;
+        lastModified = System.currentTimeMillis();
+        // Publishes the record to readers.
+        count = entry + 1;
+        return baseOffset + entry;
+    }
+
+    /**
+     * Returns a read-only view of the payload of the record at the given position in the segment without copying
+     * it, or {@code null} if the record fails the CRC check.
+     *
+     * @param entry the position of the record, i.e. {@code offset - baseOffset}
+     */
+    @Nullable
+    ByteBuffer readPayload(int entry, CRC32C crc) {
+        final ByteBuffer data = this.data;
+        final int position = index.getInt(entry * INDEX_ENTRY_SIZE);
+        final int length = data.getInt(position);
+        crc.reset();
+        crc.update(data.slice(position + 2 * Integer.BYTES, length - Integer.BYTES));
+        if ((int) crc.getValue() != data.getInt(position + Integer.BYTES)) {
+            return null;
+        }
+        final int keyLength = data.getInt(position + 2 * Integer.BYTES);
+        final int payloadLength = length - (RECORD_HEADER_SIZE - Integer.BYTES) - keyLength;
+        return data.slice(position + RECORD_HEADER_SIZE + keyLength, payloadLength).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes all appended records to the storage device.
+     *
+     * @return the number of records which have been flushed
+     */
+    int flush() {
+        final int currentCount = count;
+        if (sealed || currentCount == flushedCount) {
+            return 0;
+        }
+        data.force();
+        index.force();
+        final int flushed = currentCount - flushedCount;
+        flushedCount = currentCount;
+        return flushed;
+    }
+
+    /**
+     * Flushes the segment, truncates the files to their actual size and maps them read-only.
+     */
+    void seal() throws IOException {
+        if (sealed) {
+            return;
+        }
+        flush();
+        sealed = true;
+        try {
+            try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.WRITE)) {
+                channel.truncate(size);
+            }
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+                channel.truncate((long) count * INDEX_ENTRY_SIZE);
+            }
+            data = map(segmentFile, FileChannel.MapMode.READ_ONLY, size);
+            index = map(indexFile, FileChannel.MapMode.READ_ONLY, (long) count * INDEX_ENTRY_SIZE);
+        } catch (IOException e) {
+            // Some platforms don't allow truncating mapped files. The pre-allocated segment is still readable.
+            LOG.debug("Unable to truncate journal segment {}", segmentFile, e);
+        }
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(segmentFile);
+        Files.deleteIfExists(indexFile);
+    }
+
+    long baseOffset() {
+        return baseOffset;
+    }
+
+    /**
+     * Returns the offset after the last record in this segment.
+     */
+    long nextOffset() {
+        return baseOffset + count;
+    }
+
+    int count() {
+        return count;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long created() {
+        return created;
+    }
+
+    long lastModified() {
+        return lastModified;
+    }
+
+    int unflushedCount() {
+        return count - flushedCount;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedJournalSegment{baseOffset=" + baseOffset + ", count=" + count + ", size=" + size + ", sealed=" + sealed + "}";
+    }
+}
@@ -0,0 +1,768 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.AbstractIdleService;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import org.graylog2.plugin.GlobalMetricNames;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.ThrottleState;
+import org.graylog2.plugin.lifecycles.LoadBalancerStatus;
+import org.graylog2.shared.metrics.HdrTimer;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
+
+/**
+ * A journal which stores the messages in memory-mapped segment files instead of using an embedded Kafka log.
+ * <ul>
+ *     <li>Records are CRC-checked and found through a dense per-segment index, see {@link MappedJournalSegment}.</li>
+ *     <li>Reads return slices of the mapped segments, which are decoded without copying them first.</li>
+ *     <li>Segments are written to disk after {@code message_journal_flush_interval} messages or after
+ *     {@code message_journal_flush_age}, whichever comes first.</li>
+ *     <li>The committed offset is stored in a CRC-checked checkpoint file which is replaced atomically.</li>
+ * </ul>
+ * On startup, uncommitted messages of an existing {@link LocalKafkaJournal} in the same directory are migrated.
+ */
+@Singleton
+public class MappedSegmentJournal extends AbstractIdleService implements LocalJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedSegmentJournal.class);
+
+    // The processing status recorder and the web interface look up the journal metrics by this name.
+    static final String METRIC_PREFIX = LocalKafkaJournal.class.getName();
+    static final String CHECKPOINT_FILE = "committed-offset.checkpoint";
+    private static final String LOCK_FILE = ".mapped-journal.lock";
+    static final String KAFKA_LOG_DIRECTORY = "messagejournal-0";
+    static final String KAFKA_COMMITTED_OFFSET_FILE = "graylog2-committed-read-offset";
+    private static final String KAFKA_RECOVERY_POINT_FILE = "recovery-point-offset-checkpoint";
+    // Present while the Kafka journal is being migrated, the migration is redone if it was interrupted.
+    static final String MIGRATION_STARTED_FILE = ".kafka-migration-started";
+    // Present after the migration finished until the Kafka journal has been deleted.
+    static final String MIGRATION_FINISHED_FILE = ".kafka-migration-finished";
+
+    // Reading more than this per call doesn't help, the process buffer can't take it anyway.
+    private static final int MAX_READ_BYTES = 5 * 1024 * 1024;
+    // Assumed minimum record size to size the index of a segment. Segments with smaller records are rolled early.
+    private static final int MIN_INDEXED_RECORD_SIZE = 64;
+    private static final int CHECKPOINT_SIZE = Long.BYTES + Integer.BYTES;
+
+    private final Path journalDirectory;
+    private final ScheduledExecutorService scheduler;
+    private final int maxSegmentSize;
+    private final int indexCapacity;
+    private final long segmentAgeMillis;
+    private final long maxRetentionSize;
+    private final long retentionAgeMillis;
+    private final long flushInterval;
+    private final long flushAgeMillis;
+    private final int throttleThresholdPercentage;
+    private final MetricRegistry metricRegistry;
+    private final ServerStatus serverStatus;
+
+    private final Meter writtenMessages;
+    private final Meter readMessages;
+    private final Meter writeDiscardedMessages;
+    private final Timer writeTime;
+    private final Timer readTime;
+
+    private final Object writeLock = new Object();
+    private final ConcurrentSkipListMap<Long, MappedJournalSegment> segments = new ConcurrentSkipListMap<>();
+    private final CRC32C writeCrc = new CRC32C();
+    private final CRC32C readCrc = new CRC32C();
+    private final AtomicLong committedOffset = new AtomicLong(LocalKafkaJournal.DEFAULT_COMMITTED_OFFSET);
+    private final AtomicReference<ThrottleState> throttleState = new AtomicReference<>();
+    private final AtomicInteger purgedSegmentsInLastRetention = new AtomicInteger();
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    private volatile MappedJournalSegment activeSegment;
+    private volatile long nextReadOffset;
+    private volatile long lastFlushTime = System.currentTimeMillis();
+    private volatile boolean shuttingDown;
+    private long lastCheckpointedOffset = LocalKafkaJournal.DEFAULT_COMMITTED_OFFSET;
+    // Number of deleted segments with uncommitted messages, guarded by the write lock.
+    private int purgedInRetention;
+    private ScheduledFuture<?> flushFuture;
+    private ScheduledFuture<?> retentionFuture;
+    private ScheduledFuture<?> checkpointFuture;
+
+    @Inject
+    public MappedSegmentJournal(@Named("message_journal_dir") Path journalDirectory,
+                                @Named("scheduler") ScheduledExecutorService scheduler,
+                                @Named("message_journal_segment_size") Size segmentSize,
+                                @Named("message_journal_segment_age") Duration segmentAge,
+                                @Named("message_journal_max_size") Size retentionSize,
+                                @Named("message_journal_max_age") Duration retentionAge,
+                                @Named("message_journal_flush_interval") long flushInterval,
+                                @Named("message_journal_flush_age") Duration flushAge,
+                                @Named("lb_throttle_threshold_percentage") int throttleThresholdPercentage,
+                                MetricRegistry metricRegistry,
+                                ServerStatus serverStatus) {
+        this.journalDirectory = journalDirectory;
+        this.scheduler = scheduler;
+        this.maxSegmentSize = Ints.saturatedCast(segmentSize.toBytes());
+        this.indexCapacity = Math.max(1024, maxSegmentSize / MIN_INDEXED_RECORD_SIZE);
+        this.segmentAgeMillis = segmentAge.getMillis();
+        this.maxRetentionSize = retentionSize.toBytes();
+        this.retentionAgeMillis = retentionAge.getMillis();
+        this.flushInterval = flushInterval;
+        this.flushAgeMillis = flushAge.getMillis();
+        this.throttleThresholdPercentage = throttleThresholdPercentage == LocalKafkaJournal.THRESHOLD_THROTTLING_DISABLED
+                ? throttleThresholdPercentage
+                : Integer.min(Integer.max(0, throttleThresholdPercentage), 100);
+        this.metricRegistry = metricRegistry;
+        this.serverStatus = serverStatus;
+
+        this.writtenMessages = metricRegistry.meter(name(METRIC_PREFIX, LocalKafkaJournal.METER_WRITTEN_MESSAGES));
+        this.readMessages = metricRegistry.meter(name(METRIC_PREFIX, LocalKafkaJournal.METER_READ_MESSAGES));
+        this.writeDiscardedMessages = metricRegistry.meter(name(METRIC_PREFIX, "writeDiscardedMessages"));
+        this.writeTime = safelyRegister(metricRegistry, name(METRIC_PREFIX, "writeTime"), new HdrTimer(1, MINUTES, 1));
+        this.readTime = safelyRegister(metricRegistry, name(METRIC_PREFIX, "readTime"), new HdrTimer(1, MINUTES, 1));
+
+        try {
+            Files.createDirectories(journalDirectory);
+            lockChannel = FileChannel.open(journalDirectory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lock = lockChannel.tryLock();
+            if (lock == null) {
+                lockChannel.close();
+                throw new IllegalStateException("The journal directory " + journalDirectory + " is used by another process.");
+            }
+        } catch (IOException e) {
+            LOG.error("Unable to open journal at {}, please check the permissions", journalDirectory.toAbsolutePath());
+            throw new UncheckedIOException(e);
+        }
+
+        try {
+            recoverKafkaMigration();
+            readCheckpoint();
+            loadSegments();
+            if (segments.isEmpty()) {
+                migrateKafkaJournal();
+            }
+            if (segments.isEmpty()) {
+                final long committed = committedOffset.get();
+                roll(committed == LocalKafkaJournal.DEFAULT_COMMITTED_OFFSET ? 0L : committed + 1);
+            }
+        } catch (IOException e) {
+            LOG.error("Unable to open journal at {}", journalDirectory.toAbsolutePath(), e);
+            releaseLock();
+            throw new UncheckedIOException(e);
+        }
+
+        final long committed = committedOffset.get();
+        nextReadOffset = committed == LocalKafkaJournal.DEFAULT_COMMITTED_OFFSET ? getLogStartOffset() : committed + 1;
+
+        registerGauges();
+        LOG.info("Initialized memory-mapped journal at {} with {} segments, offsets [{}, {})", journalDirectory,
+                segments.size(), getLogStartOffset(), getLogEndOffset());
+    }
+
+    private void registerGauges() {
+        safelyRegister(metricRegistry, name(METRIC_PREFIX, LocalKafkaJournal.GAUGE_UNCOMMITTED_MESSAGES), (Gauge<Long>) () -> {
+            if (size() == 0) {
+                return 0L;
+            }
+            final long committed = committedOffset.get();
+            if (committed == LocalKafkaJournal.DEFAULT_COMMITTED_OFFSET) {
+                return getLogEndOffset() - getLogStartOffset();
+            }
+            return Math.max(0, getLogEndOffset() - 1 - committed);
+        });
+        safelyRegister(metricRegistry, name(METRIC_PREFIX, "size"), (Gauge<Long>) this::size);
+        safelyRegister(metricRegistry, name(METRIC_PREFIX, "logEndOffset"), (Gauge<Long>) this::getLogEndOffset);
+        safelyRegister(metricRegistry, name(METRIC_PREFIX, "numberOfSegments"), (Gauge<Integer>) this::numberOfSegments);
+        safelyRegister(metricRegistry, name(METRIC_PREFIX, "unflushedMessages"), (Gauge<Long>) this::unflushedMessages);
+        safelyRegister(metricRegistry, name(METRIC_PREFIX, "lastFlushTime"), (Gauge<Long>) () -> lastFlushTime);
+        // must not be a lambda, because the serialization cannot determine the proper Metric type :(
+        safelyRegister(metricRegistry, GlobalMetricNames.JOURNAL_OLDEST_SEGMENT, new Gauge<Date>() {
+            @Override
+            public Date getValue() {
+                return new Date(getOldestSegmentCreationTime());
+            }
+        });
+    }
+
+    private void teardownMetrics() {
+        metricRegistry.removeMatching((name, metric) -> name.startsWith(METRIC_PREFIX + "."));
+        metricRegistry.remove(GlobalMetricNames.JOURNAL_OLDEST_SEGMENT);
+    }
+
+    private void loadSegments() throws IOException {
+        final List<Long> baseOffsets = new ArrayList<>();
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(fileName -> fileName.endsWith(MappedJournalSegment.SEGMENT_SUFFIX))
+                    .forEach(fileName -> baseOffsets.add(Long.parseLong(
+                            fileName.substring(0, fileName.length() - MappedJournalSegment.SEGMENT_SUFFIX.length()))));
+        }
+        Collections.sort(baseOffsets);
+        for (int i = 0; i < baseOffsets.size(); i++) {
+            final boolean active = i == baseOffsets.size() - 1;
+            final MappedJournalSegment segment = MappedJournalSegment.open(journalDirectory, baseOffsets.get(i),
+                    maxSegmentSize, indexCapacity, active);
+            segments.put(segment.baseOffset(), segment);
+            if (active) {
+                activeSegment = segment;
+            }
+        }
+    }
+
+    /**
+     * Completes a migration of the Kafka journal which has been interrupted. If the messages haven't been copied
+     * completely, the partly written segments are discarded, so the migration starts over from the Kafka journal.
+     */
+    private void recoverKafkaMigration() throws IOException {
+        if (Files.exists(journalDirectory.resolve(MIGRATION_STARTED_FILE))) {
+            LOG.warn("The migration of the Kafka journal in {} has been interrupted, starting it over.", journalDirectory);
+            try (Stream<Path> files = Files.list(journalDirectory)) {
+                for (Path file : files.toList()) {
+                    final String fileName = file.getFileName().toString();
+                    if (fileName.endsWith(MappedJournalSegment.SEGMENT_SUFFIX) || fileName.endsWith(MappedJournalSegment.INDEX_SUFFIX)) {
+                        Files.delete(file);
+                    }
+                }
+            }
+            Files.deleteIfExists(journalDirectory.resolve(CHECKPOINT_FILE));
+        } else if (Files.exists(journalDirectory.resolve(MIGRATION_FINISHED_FILE))) {
+            deleteKafkaJournal();
+        }
+    }
+
+    /**
+     * Copies all uncommitted messages of a Kafka based journal in the journal directory, keeping their offsets. The
+     * Kafka journal files are removed afterwards.
+     */
+    private void migrateKafkaJournal() throws IOException {
+        final Path kafkaLogDirectory = journalDirectory.resolve(KAFKA_LOG_DIRECTORY);
+        if (!Files.isDirectory(kafkaLogDirectory)) {
+            return;
+        }
+        final Path startedFile = journalDirectory.resolve(MIGRATION_STARTED_FILE);
+        Files.write(startedFile, new byte[0]);
+        final Path kafkaOffsetFile = journalDirectory.resolve(KAFKA_COMMITTED_OFFSET_FILE);
+        if (committedOffset.get() == LocalKafkaJournal.DEFAULT_COMMITTED_OFFSET && Files.exists(kafkaOffsetFile)) {
+            final String line = Files.readString(kafkaOffsetFile, StandardCharsets.UTF_8).trim();
+            if (!line.isEmpty()) {
+                committedOffset.set(Long.parseLong(line));
+            }
+        }
+
+        final List<Path> logFiles;
+        try (Stream<Path> files = Files.list(kafkaLogDirectory)) {
+            logFiles = files.filter(file -> file.getFileName().toString().endsWith(KafkaLogSegmentReader.LOG_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        LOG.info("Migrating {} segments of the Kafka journal in {}, starting after committed offset {}",
+                logFiles.size(), kafkaLogDirectory, committedOffset.get());
+
+        int migrated = 0;
+        final long committed = committedOffset.get();
+        for (Path logFile : logFiles) {
+            migrated += KafkaLogSegmentReader.read(logFile, committed, this::append);
+        }
+        synchronized (writeLock) {
+            flushSegments();
+        }
+        if (committed != LocalKafkaJournal.DEFAULT_COMMITTED_OFFSET) {
+            writeCheckpoint(committed);
+        }
+        Files.move(startedFile, journalDirectory.resolve(MIGRATION_FINISHED_FILE), StandardCopyOption.ATOMIC_MOVE);
+        LOG.info("Migrated {} uncommitted messages from the Kafka journal.", migrated);
+
+        deleteKafkaJournal();
+    }
+
+    private void deleteKafkaJournal() throws IOException {
+        final Path kafkaLogDirectory = journalDirectory.resolve(KAFKA_LOG_DIRECTORY);
+        if (Files.exists(kafkaLogDirectory)) {
+            MoreFiles.deleteRecursively(kafkaLogDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+        }
+        Files.deleteIfExists(journalDirectory.resolve(KAFKA_COMMITTED_OFFSET_FILE));
+        Files.deleteIfExists(journalDirectory.resolve(KAFKA_RECOVERY_POINT_FILE));
+        Files.delete(journalDirectory.resolve(MIGRATION_FINISHED_FILE));
+    }
+
+    private void readCheckpoint() throws IOException {
+        final Path checkpointFile = journalDirectory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(checkpointFile)) {
+            return;
+        }
+        final ByteBuffer checkpoint = ByteBuffer.wrap(Files.readAllBytes(checkpointFile));
+        if (checkpoint.remaining() != CHECKPOINT_SIZE) {
+            LOG.warn("Ignoring journal checkpoint file {} with unexpected size {}", checkpointFile, checkpoint.remaining());
+            return;
+        }
+        final CRC32C crc = new CRC32C();
+        crc.update(checkpoint.array(), 0, Long.BYTES);
+        if ((int) crc.getValue() != checkpoint.getInt(Long.BYTES)) {
+            LOG.warn("Ignoring corrupt journal checkpoint file {}", checkpointFile);
+            return;
+        }
+        final long offset = checkpoint.getLong(0);
+        committedOffset.set(offset);
+        lastCheckpointedOffset = offset;
+    }
+
+    private synchronized void writeCheckpoint(long offset) throws IOException {
+        if (offset == lastCheckpointedOffset) {
+            return;
+        }
+        final ByteBuffer checkpoint = ByteBuffer.allocate(CHECKPOINT_SIZE);
+        checkpoint.putLong(0, offset);
+        final CRC32C crc = new CRC32C();
+        crc.update(checkpoint.array(), 0, Long.BYTES);
+        checkpoint.putInt(Long.BYTES, (int) crc.getValue());
+
+        final Path checkpointFile = journalDirectory.resolve(CHECKPOINT_FILE);
+        final Path temporaryFile = journalDirectory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream outputStream = Channels.newOutputStream(channel)) {
+            outputStream.write(checkpoint.array());
+            outputStream.flush();
+            channel.force(true);
+        }
+        Files.move(temporaryFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastCheckpointedOffset = offset;
+    }
+
+    /**
+     * Must be called while holding the write lock, or before the journal is published.
+     */
+    private void roll(long baseOffset) throws IOException {
+        final MappedJournalSegment previous = activeSegment;
+        if (previous != null) {
+            previous.seal();
+        }
+        final MappedJournalSegment segment = MappedJournalSegment.create(journalDirectory, baseOffset, maxSegmentSize, indexCapacity);
+        segments.put(baseOffset, segment);
+        activeSegment = segment;
+        LOG.debug("Rolled new journal segment at offset {}", baseOffset);
+    }
+
+    private void append(long offset, byte[] key, byte[] payload) throws IOException {
+        synchronized (writeLock) {
+            final MappedJournalSegment segment = activeSegment;
+            if (segment == null || segment.nextOffset() != offset || !segment.hasRoomFor(key.length, payload.length)) {
+                if (segment != null && segment.count() == 0) {
+                    // Don't leave empty segments behind.
+                    segments.remove(segment.baseOffset());
+                    activeSegment = null;
+                    segment.delete();
+                }
+                roll(offset);
+            }
+            activeSegment.append(key, ByteBuffer.wrap(payload), writeCrc);
+        }
+    }
+
+    @Override
+    public Entry createEntry(byte[] idBytes, byte[] messageBytes) {
+        return new Entry(idBytes, messageBytes);
+    }
+
+    @Override
+    public long write(List<Entry> entries) {
+        try (Timer.Context ignored = writeTime.time()) {
+            long lastWriteOffset = -1L;
+            int written = 0;
+            synchronized (writeLock) {
+                for (final Entry entry : entries) {
+                    final byte[] idBytes = entry.getIdBytes();
+                    // Pooled encoding buffers are copied straight into the segment.
+                    final ByteBuffer messageBuffer = entry.getMessageBuffer();
+                    final int messageSize = messageBuffer.remaining();
+                    final long recordSize = (long) MappedJournalSegment.RECORD_HEADER_SIZE + idBytes.length + messageSize;
+                    if (recordSize > maxSegmentSize) {
+                        writeDiscardedMessages.mark();
+                        LOG.warn("Message with ID <{}> is too large to store in journal, skipping! (size: {} bytes / max: {} bytes)",
+                                new String(idBytes, StandardCharsets.UTF_8), recordSize, maxSegmentSize);
+                        continue;
+                    }
+
+                    MappedJournalSegment segment = activeSegment;
+                    if (!segment.hasRoomFor(idBytes.length, messageSize)
+                            || (segment.count() > 0 && System.currentTimeMillis() - segment.created() > segmentAgeMillis)) {
+                        roll(segment.nextOffset());
+                        segment = activeSegment;
+                    }
+                    lastWriteOffset = segment.append(idBytes, messageBuffer, writeCrc);
+                    written++;
+                }
+                if (unflushedMessages() >= flushInterval) {
+                    flushSegments();
+                }
+            }
+            writtenMessages.mark(written);
+            return lastWriteOffset;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long write(byte[] idBytes, byte[] messageBytes) {
+        return write(Collections.singletonList(createEntry(idBytes, messageBytes)));
+    }
+
+    @Override
+    public List<JournalReadEntry> read(long requestedMaximumCount) {
+        // Always read at least one!
+        final long maximumCount = Math.max(1, requestedMaximumCount);
+        if (shuttingDown) {
+            return Collections.emptyList();
+        }
+
+        final List<JournalReadEntry> messages = new ArrayList<>(Ints.saturatedCast(Math.min(maximumCount, 1024)));
+        try (Timer.Context ignored = readTime.time()) {
+            long offset = nextReadOffset;
+            final long logStartOffset = getLogStartOffset();
+            if (offset < logStartOffset) {
+                LOG.info("Read offset {} before start of log at {}, starting to read from the beginning of the journal.",
+                        offset, logStartOffset);
+                offset = logStartOffset;
+            }
+
+            long totalBytes = 0;
+            while (messages.size() < maximumCount && totalBytes < MAX_READ_BYTES) {
+                final Map.Entry<Long, MappedJournalSegment> entry = segments.floorEntry(offset);
+                if (entry == null) {
+                    break;
+                }
+                final MappedJournalSegment segment = entry.getValue();
+                final long position = offset - segment.baseOffset();
+                if (position >= segment.count()) {
+                    // Continue with the next segment, if there is one. Offsets between segments might be missing.
+                    final Long nextBaseOffset = segments.higherKey(segment.baseOffset());
+                    if (nextBaseOffset == null) {
+                        break;
+                    }
+                    offset = Math.max(offset, nextBaseOffset);
+                    continue;
+                }
+
+                final ByteBuffer payload = segment.readPayload((int) position, readCrc);
+                if (payload == null) {
+                    LOG.warn("Skipping corrupt journal entry at offset {}", offset);
+                } else {
+                    totalBytes += payload.remaining();
+                    messages.add(new JournalReadEntry(payload, offset));
+                }
+                offset++;
+            }
+            nextReadOffset = offset;
+        }
+        readMessages.mark(messages.size());
+        return messages;
+    }
+
+    /**
+     * Upon fully processing, and persistently storing, a batch of messages, the system should mark the message with the
+     * highest offset as committed. A background job will write the last position to disk periodically.
+     *
+     * @param offset the offset of the latest committed message
+     */
+    @Override
+    public void markJournalOffsetCommitted(long offset) {
+        // the caller will not care about offsets going backwards, so we need to make sure we don't backtrack
+        committedOffset.accumulateAndGet(offset, Math::max);
+    }
+
+    /**
+     * Writes the committed offset to disk.
+     */
+    @Override
+    public void flush() {
+        final long offset = committedOffset.get();
+        // Do not write the file if committedOffset has never been updated.
+        if (offset == LocalKafkaJournal.DEFAULT_COMMITTED_OFFSET) {
+            return;
+        }
+        try {
+            writeCheckpoint(offset);
+        } catch (IOException e) {
+            LOG.error("Cannot write journal checkpoint to disk.", e);
+        }
+    }
+
+    /**
+     * Must be called while holding the write lock.
+     */
+    private void flushSegments() {
+        for (MappedJournalSegment segment : segments.values()) {
+            segment.flush();
+        }
+        lastFlushTime = System.currentTimeMillis();
+    }
+
+    private void flushSegmentsIfDue() {
+        if (System.currentTimeMillis() - lastFlushTime >= flushAgeMillis && unflushedMessages() > 0) {
+            synchronized (writeLock) {
+                flushSegments();
+            }
+        }
+    }
+
+    private long unflushedMessages() {
+        final MappedJournalSegment segment = activeSegment;
+        return segment == null ? 0 : segment.unflushedCount();
+    }
+
+    @Override
+    public Optional<Double> getJournalUtilization() {
+        return Optional.of(calculateUtilization(size()));
+    }
+
+    private double calculateUtilization(long size) {
+        return maxRetentionSize > 0 ? (double) (size * 100) / maxRetentionSize : 0.0;
+    }
+
+    @Override
+    public int runRetention() {
+        try {
+            synchronized (writeLock) {
+                purgedInRetention = 0;
+                final int expired = deleteSealedSegments(segment ->
+                        System.currentTimeMillis() - segment.lastModified() > retentionAgeMillis, "age");
+                final int oversized = deleteSegmentsToMaintainSize();
+                final int committed = deleteSealedSegments(segment ->
+                        segment.nextOffset() - 1 <= committedOffset.get(), "committed");
+                purgedSegmentsInLastRetention.set(purgedInRetention);
+                return expired + oversized + committed;
+            }
+        } catch (Exception e) {
+            LOG.error("Unable to delete expired segments.", e);
+            return 0;
+        }
+    }
+
+    private int deleteSegmentsToMaintainSize() throws IOException {
+        final double utilizationPercentage = calculateUtilization(size());
+        if (utilizationPercentage > LocalKafkaJournal.NOTIFY_ON_UTILIZATION_PERCENTAGE) {
+            LOG.warn("Journal utilization ({}%) has gone over {}%.", utilizationPercentage,
+                    LocalKafkaJournal.NOTIFY_ON_UTILIZATION_PERCENTAGE);
+        }
+        if (throttleThresholdPercentage != LocalKafkaJournal.THRESHOLD_THROTTLING_DISABLED) {
+            updateLoadBalancerStatus(utilizationPercentage);
+        }
+
+        final long[] excess = {size() - maxRetentionSize};
+        if (maxRetentionSize < 0 || excess[0] <= 0) {
+            return 0;
+        }
+        return deleteSealedSegments(segment -> {
+            if (excess[0] - segment.size() >= 0) {
+                excess[0] -= segment.size();
+                return true;
+            }
+            return false;
+        }, "size");
+    }
+
+    /**
+     * Deletes the oldest sealed segments as long as they match the given condition. Must be called while holding the
+     * write lock.
+     */
+    private int deleteSealedSegments(Predicate<MappedJournalSegment> condition, String reason) throws IOException {
+        int deleted = 0;
+        final Iterator<MappedJournalSegment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+            final MappedJournalSegment segment = iterator.next();
+            if (!segment.isSealed() || !condition.test(segment)) {
+                break;
+            }
+            LOG.debug("[cleanup-{}] Removing segment {}", reason, segment);
+            if (segment.nextOffset() - 1 > committedOffset.get()) {
+                purgedInRetention++;
+            }
+            iterator.remove();
+            segment.delete();
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Change the load balancer status from ALIVE to THROTTLE, or vice versa depending on the
+     * journal utilization percentage.
+     */
+    private void updateLoadBalancerStatus(double utilizationPercentage) {
+        final LoadBalancerStatus currentStatus = serverStatus.getLifecycle().getLoadbalancerStatus();
+        if (currentStatus == LoadBalancerStatus.THROTTLED && utilizationPercentage < throttleThresholdPercentage) {
+            serverStatus.running();
+            LOG.info(String.format(Locale.ENGLISH,
+                    "Journal usage is %.2f%% (threshold %d%%), changing load balancer status from THROTTLED to ALIVE",
+                    utilizationPercentage, throttleThresholdPercentage));
+        } else if (currentStatus == LoadBalancerStatus.ALIVE && utilizationPercentage >= throttleThresholdPercentage) {
+            serverStatus.throttle();
+            LOG.info(String.format(Locale.ENGLISH,
+                    "Journal usage is %.2f%% (threshold %d%%), changing load balancer status from ALIVE to THROTTLED",
+                    utilizationPercentage, throttleThresholdPercentage));
+        }
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        flushFuture = scheduler.scheduleAtFixedRate(this::runSafely, 1, 1, SECONDS);
+        retentionFuture = scheduler.scheduleAtFixedRate(this::runRetention, SECONDS.toMillis(30), MINUTES.toMillis(1), MILLISECONDS);
+        checkpointFuture = scheduler.scheduleAtFixedRate(this::flush, 1, 1, SECONDS);
+    }
+
+    private void runSafely() {
+        try {
+            flushSegmentsIfDue();
+        } catch (Exception e) {
+            LOG.error("Unable to flush journal segments. Will try again.", e);
+        }
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        LOG.debug("Shutting down journal!");
+        shuttingDown = true;
+
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            retentionFuture.cancel(false);
+            checkpointFuture.cancel(false);
+        }
+        synchronized (writeLock) {
+            flushSegments();
+        }
+        // final flush
+        flush();
+        releaseLock();
+
+        // Teardown metrics to prevent errors when restarting instances.
+        teardownMetrics();
+    }
+
+    private void releaseLock() {
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to release the lock of journal directory {}", journalDirectory, e);
+        }
+    }
+
+    @Override
+    public long getCommittedOffset() {
+        return committedOffset.get();
+    }
+
+    @Override
+    public long getNextReadOffset() {
+        return nextReadOffset;
+    }
+
+    @Override
+    public long getLogStartOffset() {
+        final Map.Entry<Long, MappedJournalSegment> first = segments.firstEntry();
+        return first == null ? 0 : first.getKey();
+    }
+
+    @Override
+    public long getLogEndOffset() {
+        return activeSegment.nextOffset();
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (MappedJournalSegment segment : segments.values()) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public int numberOfSegments() {
+        return segments.size();
+    }
+
+    @Override
+    public long getOldestSegmentCreationTime() {
+        long oldestSegment = Long.MAX_VALUE;
+        for (MappedJournalSegment segment : segments.values()) {
+            oldestSegment = Math.min(oldestSegment, segment.created());
+        }
+        return oldestSegment;
+    }
+
+    @Override
+    public int getPurgedSegmentsInLastRetention() {
+        return purgedSegmentsInLastRetention.get();
+    }
+
+    @Override
+    public ThrottleState getThrottleState() {
+        return throttleState.get();
+    }
+
+    @Override
+    public void setThrottleState(ThrottleState state) {
+        throttleState.set(state);
+    }
+}
@@ -22,6 +22,8 @@ import org.graylog2.plugin.PluginModule;
 import org.graylog2.shared.journal.Journal;
 import org.graylog2.shared.journal.LocalKafkaJournal;
 import org.graylog2.shared.journal.LocalKafkaJournalModule;
+import org.graylog2.shared.journal.MappedSegmentJournal;
+import org.graylog2.shared.journal.MappedSegmentJournalModule;
 import org.graylog2.shared.journal.NoopJournal;
 import org.graylog2.shared.messageq.localkafka.LocalKafkaMessageQueueAcknowledger;
 import org.graylog2.shared.messageq.localkafka.LocalKafkaMessageQueueReader;
@@ -33,6 +35,8 @@ import org.graylog2.shared.messageq.noop.NoopMessageQueueWriter;
 public class MessageQueueModule extends PluginModule {
     public static final String DISK_JOURNAL_MODE = "disk";
     public static final String NOOP_JOURNAL_MODE = "noop";
+    public static final String KAFKA_JOURNAL_IMPLEMENTATION = "kafka";
+    public static final String MAPPED_JOURNAL_IMPLEMENTATION = "mapped";
 
     private final Configuration configuration;
 
@@ -56,7 +60,11 @@ public class MessageQueueModule extends PluginModule {
                 break;
         }
 
-        if (configuration.getMessageJournalMode().equals(DISK_JOURNAL_MODE)) {
+        if (configuration.getMessageJournalMode().equals(DISK_JOURNAL_MODE)
+                && configuration.getMessageJournalImplementation().equals(MAPPED_JOURNAL_IMPLEMENTATION)) {
+            install(new MappedSegmentJournalModule());
+            serviceBinder().addBinding().to(MappedSegmentJournal.class).in(Scopes.SINGLETON);
+        } else if (configuration.getMessageJournalMode().equals(DISK_JOURNAL_MODE)) {
             install(new LocalKafkaJournalModule());
             serviceBinder().addBinding().to(LocalKafkaJournal.class).in(Scopes.SINGLETON);
         } else {
@@ -127,9 +127,9 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
                 readerMetrics.readMessages().mark(encodedRawMessages.size());
                 log.debug("Processing {} messages from journal.", encodedRawMessages.size());
                 for (final Journal.JournalReadEntry encodedRawMessage : encodedRawMessages) {
-                    final RawMessage rawMessage = RawMessage.decode(encodedRawMessage.getPayload(),
+                    final RawMessage rawMessage = RawMessage.decode(encodedRawMessage.getPayloadBuffer(),
                             encodedRawMessage.getOffset());
-                    readerMetrics.readBytes().mark(encodedRawMessage.getPayload().length);
+                    readerMetrics.readBytes().mark(encodedRawMessage.getPayloadSize());
                     if (rawMessage == null) {
                         // never insert null objects into the ringbuffer, as that is useless
                         log.error("Found null raw message!");
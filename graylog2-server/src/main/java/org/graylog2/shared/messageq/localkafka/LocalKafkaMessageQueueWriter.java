@@ -24,7 +24,6 @@ import jakarta.inject.Named;
 import jakarta.inject.Singleton;
 import org.graylog2.shared.buffers.RawMessageEvent;
 import org.graylog2.shared.journal.Journal;
-import org.graylog2.shared.journal.LocalKafkaJournal;
 import org.graylog2.shared.messageq.MessageQueueException;
 import org.graylog2.shared.messageq.MessageQueueWriter;
 import org.slf4j.Logger;
@@ -42,13 +41,13 @@ import java.util.stream.Collectors;
 public class LocalKafkaMessageQueueWriter extends AbstractIdleService implements MessageQueueWriter {
     private static final Logger LOG = LoggerFactory.getLogger(LocalKafkaMessageQueueWriter.class);
 
-    private LocalKafkaJournal kafkaJournal;
+    private Journal kafkaJournal;
     private Semaphore journalFilled;
     private final Metrics metrics;
     private final Retryer<Void> writeRetryer;
 
     @Inject
-    public LocalKafkaMessageQueueWriter(LocalKafkaJournal kafkaJournal,
+    public LocalKafkaMessageQueueWriter(Journal kafkaJournal,
                                         @Named("JournalSignal") Semaphore journalFilled,
                                         MessageQueueWriter.Metrics metrics) {
         this.kafkaJournal = kafkaJournal;
@@ -64,8 +63,8 @@ public class LocalKafkaMessageQueueWriter extends AbstractIdleService implements
 
         final List<Journal.Entry> journalEntries = entries.stream()
                 .filter(Objects::nonNull)
-                .map(e -> new Journal.Entry(e.getMessageIdBytes(), e.getEncodedRawMessage()))
-                .peek(e -> msgBytes.addAndGet(e.getMessageBytes().length))
+                .map(e -> new Journal.Entry(e.getMessageIdBytes(), e.getEncodedRawMessageBuffer()))
+                .peek(e -> msgBytes.addAndGet(e.getMessageSize()))
                 .collect(Collectors.toList());
 
         try {
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.SimpleTimeLimiter;
+import com.google.common.util.concurrent.TimeLimiter;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.google.inject.assistedinject.Assisted;
+import jakarta.inject.Inject;
+import jakarta.inject.Provider;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.DefaultStream;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.utilities.InterruptibleCharSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * Stream routing engine that compiles all stream rules into a decision structure instead of evaluating every rule
+ * of every stream for each message.
+ * <ul>
+ *     <li>Non-inverted {@link StreamRuleType#EXACT} and {@link StreamRuleType#MATCH_INPUT} rules are grouped per
+ *     field into a hash map from the expected value to the matching rules, so each field value is looked up once.</li>
+ *     <li>Non-inverted {@link StreamRuleType#PRESENCE} rules are grouped per field, so each field is checked once.</li>
+ *     <li>Non-inverted {@link StreamRuleType#REGEX} rules on the same field are combined into a single alternation
+ *     which is used as a prefilter. Only if the combined pattern matches, the individual rules are evaluated.</li>
+ *     <li>All other rules are evaluated one by one, like in {@link StreamRouterEngine}.</li>
+ * </ul>
+ * The AND/OR semantics of the streams are resolved with a per-stream counter of matched rules.
+ * <p>
+ * Execution timers are only recorded for rules that are evaluated individually. Like {@link StreamRouterEngine},
+ * instances are immutable and rebuilt by {@link StreamRouter} when the {@link StreamListFingerprint} changes.
+ */
+public class CompiledStreamRouterEngine extends StreamRouterEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledStreamRouterEngine.class);
+
+    // Backreferences can't be combined into an alternation because the group numbers change.
+    private static final Pattern BACKREFERENCE_PATTERN = Pattern.compile("\\\\(\\d|k<)");
+    // Group names must be unique within a pattern, so two rules using the same name can't be combined.
+    private static final Pattern NAMED_GROUP_PATTERN = Pattern.compile("\\(\\?<[a-zA-Z]");
+    // Quoting without an end and comments in COMMENTS mode run to the end of the pattern, so they would swallow the
+    // closing parenthesis and the rules that follow in the alternation.
+    private static final Pattern QUOTE_OR_COMMENTS_PATTERN = Pattern.compile("\\\\Q|\\(\\?[a-zA-Z-]*x");
+
+    private final TimeLimiter timeLimiter;
+    private final long streamProcessingTimeout;
+
+    private final Stream[] streams;
+    private final boolean[] orMatching;
+    private final int[] ruleCounts;
+    // The number of rules per stream that are resolved through the field indexes
+    private final int[] indexedRuleCounts;
+
+    private final Map<String, Map<String, int[]>> exactIndex;
+    private final Map<String, int[]> presenceIndex;
+    private final Map<String, int[]> matchInputIndex;
+    private final List<RegexGroup> regexGroups;
+    private final List<IndividualRule> individualRules;
+
+    @Inject
+    public CompiledStreamRouterEngine(@Assisted List<Stream> streams,
+                                      @Assisted ExecutorService executorService,
+                                      StreamFaultManager streamFaultManager,
+                                      StreamMetrics streamMetrics,
+                                      @DefaultStream Provider<Stream> defaultStreamProvider,
+                                      MetricRegistry metricRegistry) {
+        super(streams, executorService, streamFaultManager, streamMetrics, defaultStreamProvider, metricRegistry);
+        this.timeLimiter = SimpleTimeLimiter.create(executorService);
+        this.streamProcessingTimeout = streamFaultManager.getStreamProcessingTimeout();
+
+        this.streams = streams.toArray(new Stream[0]);
+        this.orMatching = new boolean[this.streams.length];
+        this.ruleCounts = new int[this.streams.length];
+        this.indexedRuleCounts = new int[this.streams.length];
+
+        final Map<String, Map<String, List<Integer>>> exactRules = new HashMap<>();
+        final Map<String, List<Integer>> presenceRules = new HashMap<>();
+        final Map<String, List<Integer>> matchInputRules = new HashMap<>();
+        final Map<String, List<IndividualRule>> regexRules = new HashMap<>();
+        final List<IndividualRule> individual = new ArrayList<>();
+
+        for (int i = 0; i < this.streams.length; i++) {
+            final Stream stream = this.streams[i];
+            orMatching[i] = stream.getMatchingType() == Stream.MatchingType.OR;
+
+            for (StreamRule streamRule : stream.getStreamRules()) {
+                final Rule rule;
+                try {
+                    rule = new Rule(stream, streamRule, stream.getMatchingType());
+                } catch (InvalidStreamRuleTypeException e) {
+                    LOG.warn("Invalid stream rule type. Skipping matching for this rule. " + e.getMessage(), e);
+                    continue;
+                }
+                ruleCounts[i]++;
+
+                final StreamRuleType type = streamRule.getType();
+                if (streamRule.getInverted() || type == null || (type != StreamRuleType.PRESENCE && streamRule.getValue() == null)) {
+                    individual.add(new IndividualRule(i, rule));
+                    continue;
+                }
+                switch (type) {
+                    case EXACT -> {
+                        exactRules.computeIfAbsent(streamRule.getField(), k -> new HashMap<>())
+                                .computeIfAbsent(streamRule.getValue(), k -> new ArrayList<>())
+                                .add(i);
+                        indexedRuleCounts[i]++;
+                    }
+                    case MATCH_INPUT -> {
+                        matchInputRules.computeIfAbsent(streamRule.getValue().toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(i);
+                        indexedRuleCounts[i]++;
+                    }
+                    case PRESENCE -> {
+                        presenceRules.computeIfAbsent(streamRule.getField(), k -> new ArrayList<>()).add(i);
+                        indexedRuleCounts[i]++;
+                    }
+                    case REGEX -> regexRules.computeIfAbsent(streamRule.getField(), k -> new ArrayList<>()).add(new IndividualRule(i, rule));
+                    default -> individual.add(new IndividualRule(i, rule));
+                }
+            }
+        }
+
+        this.exactIndex = new HashMap<>(exactRules.size());
+        exactRules.forEach((field, values) -> {
+            final Map<String, int[]> valueIndex = new HashMap<>(values.size());
+            values.forEach((value, streamIndexes) -> valueIndex.put(value, toArray(streamIndexes)));
+            exactIndex.put(field, valueIndex);
+        });
+        this.presenceIndex = new HashMap<>(presenceRules.size());
+        presenceRules.forEach((field, streamIndexes) -> presenceIndex.put(field, toArray(streamIndexes)));
+        this.matchInputIndex = new HashMap<>(matchInputRules.size());
+        matchInputRules.forEach((value, streamIndexes) -> matchInputIndex.put(value, toArray(streamIndexes)));
+
+        this.regexGroups = new ArrayList<>(regexRules.size());
+        regexRules.forEach((field, rules) -> {
+            final List<IndividualRule> combinable = rules.stream()
+                    .filter(rule -> isCombinable(rule.rule().getStreamRule().getValue()))
+                    .toList();
+            if (combinable.size() < 2) {
+                individual.addAll(rules);
+                return;
+            }
+            rules.stream().filter(rule -> !combinable.contains(rule)).forEach(individual::add);
+            final Optional<Pattern> combined = combine(combinable.stream().map(rule -> rule.rule().getStreamRule().getValue()).toList());
+            if (combined.isPresent()) {
+                regexGroups.add(new RegexGroup(field, combined.get(), combinable));
+            } else {
+                LOG.warn("Unable to combine regex rules for field <{}>, matching them individually", field);
+                individual.addAll(combinable);
+            }
+        });
+        this.individualRules = List.copyOf(individual);
+    }
+
+    private static boolean isCombinable(String regex) {
+        if (BACKREFERENCE_PATTERN.matcher(regex).find()
+                || NAMED_GROUP_PATTERN.matcher(regex).find()
+                || QUOTE_OR_COMMENTS_PATTERN.matcher(regex).find()) {
+            return false;
+        }
+        try {
+            Pattern.compile("(?:" + regex + ")", Pattern.DOTALL);
+            return true;
+        } catch (PatternSyntaxException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Combines the regular expressions into one alternation, or returns an empty optional if the alternation doesn't
+     * compile.
+     */
+    @VisibleForTesting
+    static Optional<Pattern> combine(List<String> regexes) {
+        final String alternation = regexes.stream()
+                .map(regex -> "(?:" + regex + ")")
+                .collect(Collectors.joining("|"));
+        try {
+            return Optional.of(Pattern.compile(alternation, Pattern.DOTALL));
+        } catch (PatternSyntaxException e) {
+            LOG.debug("Unable to compile combined pattern <{}>", alternation, e);
+            return Optional.empty();
+        }
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Override
+    public List<Stream> match(Message message) {
+        final int[] matchedRules = new int[streams.length];
+        final boolean[] failed = new boolean[streams.length];
+
+        for (Map.Entry<String, Map<String, int[]>> entry : exactIndex.entrySet()) {
+            final Object value = message.getField(entry.getKey());
+            if (value != null) {
+                increment(matchedRules, entry.getValue().get(value.toString().trim()));
+            }
+        }
+        if (!matchInputIndex.isEmpty()) {
+            final Object input = message.getField(Message.FIELD_GL2_SOURCE_INPUT);
+            if (input != null) {
+                increment(matchedRules, matchInputIndex.get(input.toString().trim().toLowerCase(Locale.ROOT)));
+            }
+        }
+        for (Map.Entry<String, int[]> entry : presenceIndex.entrySet()) {
+            final Object value = message.getField(entry.getKey());
+            if (value != null && !(value instanceof String string && string.trim().isEmpty())) {
+                increment(matchedRules, entry.getValue());
+            }
+        }
+
+        for (IndividualRule individualRule : individualRules) {
+            final int streamIndex = individualRule.streamIndex();
+            if (isDecided(streamIndex, matchedRules, failed)) {
+                continue;
+            }
+            final Rule rule = individualRule.rule();
+            final StreamRule streamRule = rule.getStreamRule();
+            final Stream matched;
+            if (streamRule.getType() == StreamRuleType.GREATER || streamRule.getType() == StreamRuleType.SMALLER) {
+                matched = message.hasField(streamRule.getField()) ? rule.match(message) : null;
+            } else if (streamRule.getType() == StreamRuleType.REGEX) {
+                matched = rule.matchWithTimeOut(message, streamProcessingTimeout, TimeUnit.MILLISECONDS);
+            } else {
+                matched = rule.match(message);
+            }
+            record(streamIndex, matched != null, matchedRules, failed);
+        }
+
+        for (RegexGroup group : regexGroups) {
+            final Object value = message.getField(group.field());
+            if (value == null) {
+                continue;
+            }
+            if (!anyUndecided(group, matchedRules, failed) || !prefilterMatches(group, value)) {
+                continue;
+            }
+            for (IndividualRule individualRule : group.rules()) {
+                final int streamIndex = individualRule.streamIndex();
+                if (!isDecided(streamIndex, matchedRules, failed)) {
+                    final Stream matched = individualRule.rule().matchWithTimeOut(message, streamProcessingTimeout, TimeUnit.MILLISECONDS);
+                    record(streamIndex, matched != null, matchedRules, failed);
+                }
+            }
+        }
+
+        final ImmutableList.Builder<Stream> result = ImmutableList.builder();
+        for (int i = 0; i < streams.length; i++) {
+            final boolean matches = orMatching[i]
+                    ? matchedRules[i] > 0
+                    : ruleCounts[i] > 0 && matchedRules[i] == ruleCounts[i];
+            if (matches) {
+                result.add(streams[i]);
+            }
+        }
+        final List<Stream> matchedStreams = result.build();
+
+        removeFromDefaultStream(message, matchedStreams);
+
+        return matchedStreams;
+    }
+
+    private static void increment(int[] matchedRules, int[] streamIndexes) {
+        if (streamIndexes != null) {
+            for (int streamIndex : streamIndexes) {
+                matchedRules[streamIndex]++;
+            }
+        }
+    }
+
+    private void record(int streamIndex, boolean matched, int[] matchedRules, boolean[] failed) {
+        if (matched) {
+            matchedRules[streamIndex]++;
+        } else if (!orMatching[streamIndex]) {
+            failed[streamIndex] = true;
+        }
+    }
+
+    /**
+     * A stream is decided if it's an OR stream with at least one matching rule, or an AND stream with at least one
+     * rule that didn't match. Further rules of decided streams don't have to be evaluated.
+     */
+    private boolean isDecided(int streamIndex, int[] matchedRules, boolean[] failed) {
+        if (orMatching[streamIndex]) {
+            return matchedRules[streamIndex] > 0;
+        }
+        return failed[streamIndex] || matchedRules[streamIndex] < indexedRuleCounts[streamIndex];
+    }
+
+    private boolean anyUndecided(RegexGroup group, int[] matchedRules, boolean[] failed) {
+        for (IndividualRule rule : group.rules()) {
+            if (!isDecided(rule.streamIndex(), matchedRules, failed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the combined pattern of the group with the stream processing timeout. If the prefilter times out or fails,
+     * the individual rules are evaluated so that timeouts are attributed to the streams they belong to.
+     */
+    private boolean prefilterMatches(RegexGroup group, Object value) {
+        try {
+            return timeLimiter.callWithTimeout(
+                    () -> group.pattern().matcher(new InterruptibleCharSequence(value.toString())).find(),
+                    streamProcessingTimeout, TimeUnit.MILLISECONDS);
+        } catch (UncheckedTimeoutException e) {
+            LOG.debug("Combined regex prefilter for field <{}> timed out, evaluating rules individually", group.field());
+            return true;
+        } catch (Exception e) {
+            LOG.debug("Combined regex prefilter for field <{}> failed, evaluating rules individually", group.field(), e);
+            return true;
+        }
+    }
+
+    private record IndividualRule(int streamIndex, Rule rule) {}
+
+    private record RegexGroup(String field, Pattern pattern, List<IndividualRule> rules) {}
+}
@@ -221,6 +221,18 @@ public class StreamRouterEngine {
             }
         }
 
+        removeFromDefaultStream(message, result);
+
+        return ImmutableList.copyOf(result);
+    }
+
+    /**
+     * Removes the default stream from the message if any of the matched streams is configured to do so.
+     *
+     * @param message the message
+     * @param result  the matched streams
+     */
+    void removeFromDefaultStream(Message message, Iterable<Stream> result) {
         final Stream defaultStream = defaultStreamProvider.get();
         boolean alreadyRemovedDefaultStream = false;
         for (Stream stream : result) {
@@ -242,8 +254,6 @@ public class StreamRouterEngine {
                 }
             }
         }
-
-        return ImmutableList.copyOf(result);
     }
 
     /**
@@ -275,7 +285,7 @@ public class StreamRouterEngine {
         return matches;
     }
 
-    private class Rule {
+    class Rule {
         private final Stream stream;
         private final StreamRule rule;
         private final String streamId;
@@ -319,7 +329,7 @@ public class StreamRouterEngine {
         }
 
         @Nullable
-        private Stream matchWithTimeOut(final Message message, long timeout, TimeUnit unit) {
+        Stream matchWithTimeOut(final Message message, long timeout, TimeUnit unit) {
             Stream matchedStream = null;
             try (final Timer.Context ignored = streamMetrics.getExecutionTimer(streamId, streamRuleId).time()) {
                 matchedStream = timeLimiter.callWithTimeout(new Callable<Stream>() {
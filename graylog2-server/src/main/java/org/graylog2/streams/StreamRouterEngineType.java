@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.github.joschi.jadconfig.ParameterException;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+public enum StreamRouterEngineType {
+    /**
+     * Evaluates all stream rules one by one. See {@link StreamRouterEngine}.
+     */
+    LINEAR,
+    /**
+     * Compiles the stream rules into field indexes. See {@link CompiledStreamRouterEngine}.
+     */
+    COMPILED;
+
+    @Override
+    public String toString() {
+        return super.toString().toLowerCase(Locale.ROOT);
+    }
+
+    public static class Converter implements com.github.joschi.jadconfig.Converter<StreamRouterEngineType> {
+        @Override
+        public StreamRouterEngineType convertFrom(String value) {
+            try {
+                return StreamRouterEngineType.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException("Unable to parse stream router engine <" + value + ">. Valid engines are: " +
+                        Arrays.stream(StreamRouterEngineType.values()).map(StreamRouterEngineType::toString)
+                                .collect(Collectors.toList()) + ".");
+            }
+        }
+
+        @Override
+        public String convertTo(StreamRouterEngineType value) {
+            return value.toString();
+        }
+    }
+}
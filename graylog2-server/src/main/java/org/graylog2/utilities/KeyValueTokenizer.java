@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import com.google.common.base.CharMatcher;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Splits text like {@code a=1 b="two words" c=3} into key-value pairs in a single pass over the input.
+ * <p>
+ * The input is split into pairs at the {@link Builder#pairDelimiters(CharMatcher) pair delimiters}, unless they
+ * appear within {@link Builder#quoteCharacters(String) quotes} or directly after the escape character {@code \}.
+ * Each pair is then split into key and value at its first {@link Builder#keyValueDelimiters(CharMatcher) key-value
+ * delimiter}. Quotes and escape characters are never removed, that's up to the caller.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class KeyValueTokenizer {
+    private static final char ESCAPE_CHARACTER = '\\';
+
+    private final CharMatcher pairDelimiters;
+    private final CharMatcher keyValueDelimiters;
+    private final CharMatcher trimCharacters;
+    private final char[] quoteCharacters;
+    private final boolean useEscapeCharacter;
+    private final boolean skipEmptyTokens;
+
+    private KeyValueTokenizer(Builder builder) {
+        this.pairDelimiters = builder.pairDelimiters;
+        this.keyValueDelimiters = builder.keyValueDelimiters;
+        this.trimCharacters = builder.trimCharacters;
+        this.quoteCharacters = builder.quoteCharacters.toCharArray();
+        this.useEscapeCharacter = builder.useEscapeCharacter;
+        this.skipEmptyTokens = builder.skipEmptyTokens;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Tokenizes the given input and passes the pairs to the handler in the order in which they appear.
+     */
+    public void tokenize(CharSequence input, Handler handler) {
+        final int length = input.length();
+        // Bit i is set while we are within a quote started by quoteCharacters[i].
+        int quoted = 0;
+        // Whether the previous character outside of quotes was the escape character.
+        boolean escaped = false;
+        int pairStart = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = input.charAt(i);
+            boolean splits = true;
+            // A quote character only starts or ends a quote if we aren't within one of the preceding quote
+            // characters, e.g. single quotes within double quotes are literal characters.
+            for (int q = 0; q < quoteCharacters.length; q++) {
+                final int bit = 1 << q;
+                if (c == quoteCharacters[q]) {
+                    quoted ^= bit;
+                }
+                if ((quoted & bit) != 0) {
+                    splits = false;
+                    break;
+                }
+            }
+            if (splits && useEscapeCharacter) {
+                splits = !escaped;
+                escaped = c == ESCAPE_CHARACTER;
+            }
+            if (splits && pairDelimiters.matches(c)) {
+                pair(input, pairStart, i, handler);
+                pairStart = i + 1;
+            }
+        }
+        pair(input, pairStart, length, handler);
+    }
+
+    private void pair(CharSequence input, int start, int end, Handler handler) {
+        start = trimStart(input, start, end);
+        end = trimEnd(input, start, end);
+        if (start == end) {
+            return;
+        }
+
+        final int keyStart = skipEmptyTokens ? skipDelimiters(input, start, end) : start;
+        if (keyStart == end) {
+            return;
+        }
+        int delimiter = keyStart;
+        while (delimiter < end && !keyValueDelimiters.matches(input.charAt(delimiter))) {
+            delimiter++;
+        }
+        final String key = input.subSequence(keyStart, trimEnd(input, keyStart, delimiter)).toString();
+        if (delimiter == end) {
+            handler.keyWithoutValue(key);
+            return;
+        }
+
+        final int valueStart = skipEmptyTokens ? skipDelimiters(input, delimiter + 1, end) : trimStart(input, delimiter + 1, end);
+        if (skipEmptyTokens && valueStart == end) {
+            handler.keyWithoutValue(key);
+            return;
+        }
+        handler.pair(key, input.subSequence(valueStart, end).toString());
+    }
+
+    private int trimStart(CharSequence input, int start, int end) {
+        while (start < end && trimCharacters.matches(input.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(CharSequence input, int start, int end) {
+        while (end > start && trimCharacters.matches(input.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private int skipDelimiters(CharSequence input, int start, int end) {
+        while (start < end) {
+            final char c = input.charAt(start);
+            if (!keyValueDelimiters.matches(c) && !trimCharacters.matches(c)) {
+                break;
+            }
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Receives the tokenized pairs. Fields can be written straight into a message with {@code message::addField}.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        void pair(String key, String value);
+
+        /**
+         * Called for pairs without a key-value delimiter or, if empty tokens are skipped, without a value.
+         * The whole pair is passed as the key in the first case. Such pairs are ignored by default.
+         */
+        default void keyWithoutValue(String key) {
+        }
+    }
+
+    public static class Builder {
+        private CharMatcher pairDelimiters = CharMatcher.whitespace();
+        private CharMatcher keyValueDelimiters = CharMatcher.is('=');
+        private CharMatcher trimCharacters = CharMatcher.whitespace();
+        private String quoteCharacters = "";
+        private boolean useEscapeCharacter = false;
+        private boolean skipEmptyTokens = false;
+
+        private Builder() {
+        }
+
+        /**
+         * The characters separating the pairs, defaults to whitespace.
+         */
+        public Builder pairDelimiters(CharMatcher pairDelimiters) {
+            this.pairDelimiters = requireNonNull(pairDelimiters, "pairDelimiters");
+            return this;
+        }
+
+        /**
+         * The characters separating keys from values, defaults to {@code =}.
+         */
+        public Builder keyValueDelimiters(CharMatcher keyValueDelimiters) {
+            this.keyValueDelimiters = requireNonNull(keyValueDelimiters, "keyValueDelimiters");
+            return this;
+        }
+
+        /**
+         * The characters trimmed from pairs, keys and values, defaults to whitespace.
+         */
+        public Builder trimCharacters(CharMatcher trimCharacters) {
+            this.trimCharacters = requireNonNull(trimCharacters, "trimCharacters");
+            return this;
+        }
+
+        /**
+         * The characters quoting pair delimiters, none by default. Earlier characters take precedence over later
+         * ones, i.e. with {@code "'} single quotes within double quotes are ignored but not vice versa.
+         */
+        public Builder quoteCharacters(String quoteCharacters) {
+            if (quoteCharacters.length() >= Integer.SIZE) {
+                throw new IllegalArgumentException("Too many quote characters: " + quoteCharacters);
+            }
+            this.quoteCharacters = quoteCharacters;
+            return this;
+        }
+
+        /**
+         * Whether a {@code \} in front of a pair delimiter escapes it, defaults to {@code false}.
+         */
+        public Builder useEscapeCharacter(boolean useEscapeCharacter) {
+            this.useEscapeCharacter = useEscapeCharacter;
+            return this;
+        }
+
+        /**
+         * Whether empty keys and values are skipped, defaults to {@code false}.
+         * <p>
+         * If enabled, key-value delimiters in front of keys and values are ignored, i.e. {@code =a==b} results in
+         * {@code a} &rarr; {@code b} instead of {@code ""} &rarr; {@code a==b}, and pairs without a value are
+         * passed to {@link Handler#keyWithoutValue(String)}. If disabled, {@code a=} results in {@code a} &rarr;
+         * {@code ""}.
+         */
+        public Builder skipEmptyTokens(boolean skipEmptyTokens) {
+            this.skipEmptyTokens = skipEmptyTokens;
+            return this;
+        }
+
+        public KeyValueTokenizer build() {
+            return new KeyValueTokenizer(this);
+        }
+    }
+}
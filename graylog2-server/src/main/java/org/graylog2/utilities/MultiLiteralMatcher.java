@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Finds out which of a fixed set of literal strings occur in a text with a single pass over the text, using an
+ * Aho–Corasick automaton. This is cheaper than calling {@link String#contains(CharSequence)} for each literal once
+ * there are more than a handful of them.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class MultiLiteralMatcher {
+    private final int literalCount;
+    private final char[] alphabet;
+    private final int[] asciiClasses = new int[128];
+    private final int width;
+    private final int[] transitions;
+    private final int[][] outputs;
+    private final BitSet emptyLiterals = new BitSet();
+
+    public MultiLiteralMatcher(List<String> literals) {
+        this.literalCount = literals.size();
+
+        final TreeSet<Character> chars = new TreeSet<>();
+        for (String literal : literals) {
+            for (int i = 0; i < literal.length(); i++) {
+                chars.add(literal.charAt(i));
+            }
+        }
+        alphabet = new char[chars.size()];
+        int index = 0;
+        for (Character c : chars) {
+            alphabet[index++] = c;
+        }
+        for (char c = 0; c < asciiClasses.length; c++) {
+            asciiClasses[c] = Math.max(0, Arrays.binarySearch(alphabet, c) + 1);
+        }
+        // Class 0 is every character which doesn't occur in any of the literals.
+        width = alphabet.length + 1;
+
+        // Build the trie
+        final List<int[]> trie = new ArrayList<>();
+        final List<List<Integer>> trieOutputs = new ArrayList<>();
+        trie.add(new int[width]);
+        trieOutputs.add(new ArrayList<>());
+        for (int literal = 0; literal < literals.size(); literal++) {
+            final String value = literals.get(literal);
+            if (value.isEmpty()) {
+                emptyLiterals.set(literal);
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < value.length(); i++) {
+                final int charClass = charClass(value.charAt(i));
+                if (trie.get(state)[charClass] == 0) {
+                    trie.get(state)[charClass] = trie.size();
+                    trie.add(new int[width]);
+                    trieOutputs.add(new ArrayList<>());
+                }
+                state = trie.get(state)[charClass];
+            }
+            trieOutputs.get(state).add(literal);
+        }
+
+        // Turn it into a DFA by following the failure links in breadth-first order. A state's failure link always
+        // points to a shallower state whose transitions are complete by then.
+        transitions = new int[trie.size() * width];
+        outputs = new int[trie.size()][];
+        final int[] failure = new int[trie.size()];
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (int charClass = 0; charClass < width; charClass++) {
+            final int next = trie.get(0)[charClass];
+            transitions[charClass] = next;
+            if (next != 0) {
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            final List<Integer> stateOutputs = trieOutputs.get(state);
+            if (outputs[failure[state]] != null) {
+                for (int literal : outputs[failure[state]]) {
+                    stateOutputs.add(literal);
+                }
+            }
+            outputs[state] = stateOutputs.isEmpty() ? null : stateOutputs.stream().mapToInt(Integer::intValue).toArray();
+
+            for (int charClass = 0; charClass < width; charClass++) {
+                final int next = trie.get(state)[charClass];
+                final int fallback = transitions[failure[state] * width + charClass];
+                if (next == 0) {
+                    transitions[state * width + charClass] = fallback;
+                } else {
+                    transitions[state * width + charClass] = next;
+                    failure[next] = fallback;
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return literalCount;
+    }
+
+    /**
+     * @return the indices of the literals which occur in the given text
+     */
+    public BitSet find(CharSequence text) {
+        final BitSet found = (BitSet) emptyLiterals.clone();
+        int remaining = literalCount - found.cardinality();
+        int state = 0;
+        for (int i = 0; i < text.length() && remaining > 0; i++) {
+            state = transitions[state * width + charClass(text.charAt(i))];
+            final int[] stateOutputs = outputs[state];
+            if (stateOutputs != null) {
+                for (int literal : stateOutputs) {
+                    if (!found.get(literal)) {
+                        found.set(literal);
+                        remaining--;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int charClass(char c) {
+        if (c < asciiClasses.length) {
+            return asciiClasses[c];
+        }
+        return Math.max(0, Arrays.binarySearch(alphabet, c) + 1);
+    }
+}
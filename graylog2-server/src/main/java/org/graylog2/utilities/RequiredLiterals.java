@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Extracts literal strings from a regular expression which occur in every input the expression finds a match in.
+ * <p>
+ * Checking for those with {@link String#contains(CharSequence)} is a lot cheaper than a failing regex match, which is
+ * what most inputs are when a list of Grok patterns is tried in order. The extraction is conservative: everything
+ * which is optional, part of an alternation, a character class or otherwise not understood is skipped, and
+ * expressions with embedded flags (e.g. {@code (?i)}) don't yield any literals at all.
+ */
+public final class RequiredLiterals {
+    private static final int NONE = 0;
+    private static final int REPEATED = 1;
+    private static final int OPTIONAL = 2;
+
+    private final String regex;
+    private int pos = 0;
+
+    private RequiredLiterals(String regex) {
+        this.regex = regex;
+    }
+
+    /**
+     * @return the required literals, longest first, or an empty list if there are none
+     */
+    public static List<String> of(String regex) {
+        final List<String> literals;
+        try {
+            final RequiredLiterals parser = new RequiredLiterals(regex);
+            literals = parser.sequence();
+            if (parser.pos != regex.length()) {
+                return List.of();
+            }
+        } catch (RuntimeException e) {
+            return List.of();
+        }
+
+        // Literals contained in longer ones don't need to be checked separately.
+        literals.sort(Comparator.comparingInt(String::length).reversed());
+        final List<String> result = new ArrayList<>(literals.size());
+        for (String literal : literals) {
+            if (result.stream().noneMatch(longer -> longer.contains(literal))) {
+                result.add(literal);
+            }
+        }
+        return List.copyOf(result);
+    }
+
+    private List<String> sequence() {
+        final List<String> required = new ArrayList<>();
+        final StringBuilder current = new StringBuilder();
+        boolean alternation = false;
+        while (pos < regex.length() && regex.charAt(pos) != ')') {
+            final char c = regex.charAt(pos);
+            if (c == '|') {
+                alternation = true;
+                flush(current, required);
+                pos++;
+                continue;
+            }
+
+            String literal = null;
+            List<String> groupLiterals = List.of();
+            switch (c) {
+                case '(' -> groupLiterals = group();
+                case '[' -> skipCharacterClass();
+                case '\\' -> literal = escape();
+                case '.', '^', '$' -> pos++;
+                case '*', '+', '?', '{' -> throw new IllegalArgumentException("Dangling quantifier at index " + pos);
+                default -> {
+                    literal = String.valueOf(c);
+                    pos++;
+                }
+            }
+
+            final int quantifier = quantifier();
+            if (literal != null) {
+                if (quantifier == NONE) {
+                    current.append(literal);
+                } else {
+                    // The quantifier only applies to the last character. If it's repeated, what comes before
+                    // and what comes after it are still adjacent to one occurrence of it.
+                    final char last = literal.charAt(literal.length() - 1);
+                    current.append(literal, 0, literal.length() - 1);
+                    if (quantifier == REPEATED) {
+                        current.append(last);
+                    }
+                    flush(current, required);
+                    if (quantifier == REPEATED) {
+                        current.append(last);
+                    }
+                }
+            } else {
+                flush(current, required);
+                if (quantifier != OPTIONAL) {
+                    required.addAll(groupLiterals);
+                }
+            }
+        }
+        flush(current, required);
+        return alternation ? new ArrayList<>() : required;
+    }
+
+    private List<String> group() {
+        pos++;
+        boolean required = true;
+        if (regex.charAt(pos) == '?') {
+            pos++;
+            final char type = regex.charAt(pos);
+            if (type == ':' || type == '>') {
+                pos++;
+            } else if (type == '=' || type == '!') {
+                pos++;
+                required = false;
+            } else if (type == '<' && (regex.charAt(pos + 1) == '=' || regex.charAt(pos + 1) == '!')) {
+                pos += 2;
+                required = false;
+            } else if (type == '<') {
+                pos = closing('>');
+            } else {
+                throw new IllegalArgumentException("Unsupported embedded flags at index " + pos);
+            }
+        }
+        final List<String> literals = sequence();
+        if (regex.charAt(pos) != ')') {
+            throw new IllegalArgumentException("Unclosed group at index " + pos);
+        }
+        pos++;
+        return required ? literals : List.of();
+    }
+
+    private void skipCharacterClass() {
+        int depth = 0;
+        do {
+            final char c = regex.charAt(pos++);
+            if (c == '[') {
+                depth++;
+                // A closing bracket right at the start of a class is a literal.
+                if (regex.charAt(pos) == '^') {
+                    pos++;
+                }
+                if (regex.charAt(pos) == ']') {
+                    pos++;
+                }
+            } else if (c == ']') {
+                depth--;
+            } else if (c == '\\') {
+                if (regex.charAt(pos) == 'Q') {
+                    skipQuote();
+                } else {
+                    pos++;
+                }
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * @return the literal text of the escape sequence or {@code null} if it doesn't stand for a literal
+     */
+    private String escape() {
+        pos++;
+        final char c = regex.charAt(pos);
+        if (c == 'Q') {
+            final int start = pos + 1;
+            final int end = skipQuote();
+            if (start == end) {
+                throw new IllegalArgumentException("Empty quote at index " + start);
+            }
+            return regex.substring(start, end);
+        }
+        pos++;
+        if (!Character.isLetterOrDigit(c)) {
+            return String.valueOf(c);
+        }
+        // Everything else is a predefined character class, a boundary, a back reference or a special character.
+        // Skipping too much is fine, skipping too little would turn parts of it into literals.
+        switch (c) {
+            case 'x' -> pos = regex.charAt(pos) == '{' ? closing('}') : pos + 2;
+            case 'u' -> pos += 4;
+            case 'c' -> pos += 1;
+            case 'p', 'P', 'N', 'b', 'B' -> {
+                if (regex.charAt(pos) == '{') {
+                    pos = closing('}');
+                } else if (c == 'p' || c == 'P') {
+                    pos++;
+                }
+            }
+            case 'k' -> pos = closing('>');
+            default -> {
+                if (Character.isDigit(c)) {
+                    while (pos < regex.length() && Character.isDigit(regex.charAt(pos))) {
+                        pos++;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Skips a {@code \Q...\E} quote, starting at the {@code Q}.
+     *
+     * @return the end of the quoted text
+     */
+    private int skipQuote() {
+        final int end = regex.indexOf("\\E", pos + 1);
+        if (end < 0) {
+            pos = regex.length();
+            return pos;
+        }
+        pos = end + 2;
+        return end;
+    }
+
+    private int quantifier() {
+        int result = NONE;
+        while (pos < regex.length()) {
+            final char c = regex.charAt(pos);
+            if (c == '?' || c == '*') {
+                result = OPTIONAL;
+                pos++;
+            } else if (c == '+') {
+                result = Math.max(result, REPEATED);
+                pos++;
+            } else if (c == '{') {
+                final int close = closing('}');
+                final String bounds = regex.substring(pos + 1, close - 1);
+                final int comma = bounds.indexOf(',');
+                final int min = Integer.parseInt(comma < 0 ? bounds : bounds.substring(0, comma));
+                result = min == 0 ? OPTIONAL : Math.max(result, REPEATED);
+                pos = close;
+            } else {
+                break;
+            }
+            // Lazy and possessive quantifiers
+            if (pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) {
+                pos++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the index after the next occurrence of the given character
+     */
+    private int closing(char c) {
+        final int index = regex.indexOf(c, pos);
+        if (index < 0) {
+            throw new IllegalArgumentException("Missing '" + c + "' after index " + pos);
+        }
+        return index + 1;
+    }
+
+    private static void flush(StringBuilder current, List<String> required) {
+        if (!current.isEmpty()) {
+            required.add(current.toString());
+            current.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.beats;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.graylog2.plugin.buffers.InputBuffer;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.journal.RawMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class BeatsBatchHandlerTest {
+    @Mock
+    private MessageInput input;
+    @Captor
+    private ArgumentCaptor<List<RawMessage>> messages;
+    @Captor
+    private ArgumentCaptor<InputBuffer.InsertCallback> callbacks;
+
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    void setUp() {
+        channel = new EmbeddedChannel(new BeatsBatchHandler(input));
+    }
+
+    @Test
+    void acknowledgesWindowOnceAllEventsAreJournaled() {
+        channel.writeInbound(new BeatsBatch(List.of(event("a"), event("b")), List.of(2L)));
+
+        verify(input).processRawMessages(messages.capture(), callbacks.capture());
+        assertThat(messages.getValue())
+                .extracting(message -> new String(message.getPayload(), StandardCharsets.UTF_8))
+                .containsExactly("a", "b");
+
+        callbacks.getValue().journaled();
+        channel.runPendingTasks();
+        assertThat((Object) channel.readOutbound()).isNull();
+
+        callbacks.getValue().journaled();
+        channel.runPendingTasks();
+        assertThat(sequenceNumber(channel.readOutbound())).isEqualTo(2L);
+    }
+
+    @Test
+    void acknowledgesWindowsInOrder() {
+        channel.writeInbound(new BeatsBatch(List.of(event("a")), List.of()));
+        channel.writeInbound(new BeatsBatch(List.of(event("b")), List.of(2L)));
+        channel.writeInbound(new BeatsBatch(List.of(event("c")), List.of(1L)));
+        verify(input, times(3)).processRawMessages(messages.capture(), callbacks.capture());
+
+        // The later batches are journaled first, but they have to wait for the first one.
+        callbacks.getAllValues().get(2).journaled();
+        callbacks.getAllValues().get(1).journaled();
+        channel.runPendingTasks();
+        assertThat((Object) channel.readOutbound()).isNull();
+
+        callbacks.getAllValues().get(0).journaled();
+        channel.runPendingTasks();
+        assertThat(sequenceNumber(channel.readOutbound())).isEqualTo(2L);
+        assertThat(sequenceNumber(channel.readOutbound())).isEqualTo(1L);
+        assertThat((Object) channel.readOutbound()).isNull();
+    }
+
+    @Test
+    void acknowledgesEmptyWindowAfterEarlierEvents() {
+        channel.writeInbound(new BeatsBatch(List.of(event("a")), List.of()));
+        channel.writeInbound(new BeatsBatch(List.of(), List.of(0L)));
+        verify(input).processRawMessages(messages.capture(), callbacks.capture());
+        assertThat((Object) channel.readOutbound()).isNull();
+
+        callbacks.getValue().journaled();
+        channel.runPendingTasks();
+        assertThat(sequenceNumber(channel.readOutbound())).isEqualTo(0L);
+    }
+
+    @Test
+    void closesChannelIfEventsCouldNotBeJournaled() {
+        channel.writeInbound(new BeatsBatch(List.of(event("a"), event("b")), List.of(2L)));
+        verify(input).processRawMessages(messages.capture(), callbacks.capture());
+
+        callbacks.getValue().journaled();
+        callbacks.getValue().failed(new IllegalStateException("journal full"));
+        channel.runPendingTasks();
+
+        assertThat(channel.isOpen()).isFalse();
+        assertThat((Object) channel.readOutbound()).isNull();
+    }
+
+    private static byte[] event(String payload) {
+        return payload.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long sequenceNumber(ByteBuf buffer) {
+        assertThat(buffer.readByte()).isEqualTo((byte) '2');
+        assertThat(buffer.readByte()).isEqualTo((byte) 'A');
+        final long sequenceNum = buffer.readUnsignedInt();
+        assertThat(buffer.readableBytes()).isZero();
+        buffer.release();
+        return sequenceNum;
+    }
+}
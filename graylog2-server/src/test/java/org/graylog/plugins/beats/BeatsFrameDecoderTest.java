@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableMap;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
 import io.netty.handler.logging.LoggingHandler;
 import org.graylog2.jackson.TypeReferences;
 import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
@@ -32,6 +33,7 @@ import java.util.Map;
 import java.util.zip.Deflater;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class BeatsFrameDecoderTest {
     private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
@@ -80,12 +82,11 @@ public class BeatsFrameDecoderTest {
 
         assertThat(buffer.readableBytes()).isEqualTo(0);
 
-        final ByteBuf replyBuffer = channel.readOutbound();
-        assertThat(extractSequenceNumber(replyBuffer)).isEqualTo(0L);
+        final BeatsBatch batch = channel.readInbound();
+        assertThat(batch.acks()).containsExactly(0L);
+        assertThat(batch.events()).hasSize(1);
 
-        final ByteBuf resultBuffer = channel.readInbound();
-        final byte[] resultBytes = new byte[resultBuffer.readableBytes()];
-        resultBuffer.readBytes(resultBytes);
+        final byte[] resultBytes = batch.events().get(0);
         final Map<String, Object> result = objectMapper.readValue(resultBytes, TypeReferences.MAP_STRING_OBJECT);
         assertThat(result)
                 .hasSize(1)
@@ -120,12 +121,11 @@ public class BeatsFrameDecoderTest {
 
         assertThat(buffer.readableBytes()).isEqualTo(0);
 
-        final ByteBuf replyBuffer = channel.readOutbound();
-        assertThat(extractSequenceNumber(replyBuffer)).isEqualTo(0L);
+        final BeatsBatch batch = channel.readInbound();
+        assertThat(batch.acks()).containsExactly(0L);
+        assertThat(batch.events()).hasSize(1);
 
-        final ByteBuf resultBuffer = channel.readInbound();
-        final byte[] resultBytes = new byte[resultBuffer.readableBytes()];
-        resultBuffer.readBytes(resultBytes);
+        final byte[] resultBytes = batch.events().get(0);
         final Map<String, Object> result = objectMapper.readValue(resultBytes, TypeReferences.MAP_STRING_OBJECT);
         assertThat(result).isEqualTo(data);
     }
@@ -165,12 +165,11 @@ public class BeatsFrameDecoderTest {
 
         assertThat(buffer.readableBytes()).isEqualTo(0);
 
-        final ByteBuf replyBuffer = channel.readOutbound();
-        assertThat(extractSequenceNumber(replyBuffer)).isEqualTo(0L);
+        final BeatsBatch batch = channel.readInbound();
+        assertThat(batch.acks()).containsExactly(0L);
+        assertThat(batch.events()).hasSize(1);
 
-        final ByteBuf resultBuffer = channel.readInbound();
-        final byte[] resultBytes = new byte[resultBuffer.readableBytes()];
-        resultBuffer.readBytes(resultBytes);
+        final byte[] resultBytes = batch.events().get(0);
         final Map<String, Object> result = objectMapper.readValue(resultBytes, TypeReferences.MAP_STRING_OBJECT);
         assertThat(result)
                 .hasSize(1)
@@ -213,29 +212,56 @@ public class BeatsFrameDecoderTest {
 
         assertThat(buffer.readableBytes()).isEqualTo(0);
 
-        final ByteBuf output1 = channel.readInbound();
-        final ByteBuf output2 = channel.readInbound();
-        final ByteBuf output3 = channel.readInbound();
+        final BeatsBatch batch = channel.readInbound();
         assertThat(decoder.getWindowSize()).isEqualTo(2);
         assertThat(decoder.getSequenceNum()).isEqualTo(2L);
+        assertThat(batch.acks()).containsExactly(2L);
+        assertThat(batch.events()).hasSize(3);
 
-        final ByteBuf replyBuffer = channel.readOutbound();
-        assertThat(extractSequenceNumber(replyBuffer)).isEqualTo(2L);
-
-        final ByteBuf[] received = {output1, output2, output3};
-        for (ByteBuf resultBuffer : received) {
-            final byte[] resultBytes = new byte[resultBuffer.readableBytes()];
-            resultBuffer.readBytes(resultBytes);
+        for (byte[] resultBytes : batch.events()) {
             final Map<String, Object> result = objectMapper.readValue(resultBytes, TypeReferences.MAP_STRING_OBJECT);
             assertThat(result).isEqualTo(data);
         }
     }
 
-    private long extractSequenceNumber(ByteBuf buffer) {
-        assertThat(buffer.readByte()).isEqualTo((byte) '2');
-        assertThat(buffer.readByte()).isEqualTo((byte) 'A');
-        final long seqNum = buffer.readUnsignedInt();
-        assertThat(buffer.readableBytes()).isEqualTo(0);
-        return seqNum;
+    @Test
+    public void decodeCompressedWindowsSplitAcrossReads() throws Exception {
+        final Map<String, String> data = ImmutableMap.of("foo", "bar");
+        final ByteBuf inner = Unpooled.copiedBuffer(
+                buildWindowSizeFrame(2),
+                buildDataFrame(data, 1),
+                buildJsonFrame("{\"answer\": 42}".getBytes(StandardCharsets.UTF_8), 2),
+                buildWindowSizeFrame(1),
+                buildDataFrame(data, 1));
+        final byte[] innerBytes = new byte[inner.readableBytes()];
+        inner.readBytes(innerBytes);
+        final ByteBuf buffer = Unpooled.copiedBuffer(buildCompressedFrame(innerBytes, 6), buildDataFrame(data, 2));
+
+        // Nothing is decoded before a frame is complete
+        while (buffer.isReadable()) {
+            channel.writeInbound(buffer.readRetainedSlice(1));
+        }
+        channel.finish();
+
+        final BeatsBatch compressed = channel.readInbound();
+        assertThat(compressed.events()).hasSize(3);
+        assertThat(compressed.acks()).containsExactly(2L, 1L);
+
+        final BeatsBatch uncompressed = channel.readInbound();
+        assertThat(uncompressed.events()).hasSize(1);
+        assertThat(uncompressed.acks()).isEmpty();
+        assertThat((Object) channel.readInbound()).isNull();
+        assertThat((Object) channel.readOutbound()).isNull();
+    }
+
+    @Test
+    public void rejectsTruncatedCompressedPayload() {
+        final ByteBuf inner = buildJsonFrame("{}".getBytes(StandardCharsets.UTF_8), 1);
+        final byte[] innerBytes = new byte[inner.readableBytes() - 1];
+        inner.readBytes(innerBytes);
+        final ByteBuf buffer = buildCompressedFrame(innerBytes, 6);
+
+        assertThatThrownBy(() -> channel.writeInbound(buffer))
+                .isInstanceOf(CorruptedFrameException.class);
     }
 }
\ No newline at end of file
@@ -19,7 +19,6 @@ package org.graylog.plugins.beats;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.primitives.Ints;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
@@ -72,21 +71,23 @@ public class ConsolePrinter {
         }
     }
 
-    public static class BeatsCodecHandler extends SimpleChannelInboundHandler<ByteBuf> {
+    public static class BeatsCodecHandler extends SimpleChannelInboundHandler<BeatsBatch> {
         private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
         private final Beats2Codec beatsCodec = new Beats2Codec(Configuration.EMPTY_CONFIGURATION, objectMapper, new TestMessageFactory());
 
         @Override
-        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf message) {
-            final int readableBytes = message.readableBytes();
-            final byte[] messageBytes = new byte[readableBytes];
-            message.readBytes(messageBytes);
-            final RawMessage rawMessage = new RawMessage(messageBytes);
+        protected void channelRead0(ChannelHandlerContext ctx, BeatsBatch batch) {
+            for (byte[] event : batch.events()) {
+                final RawMessage rawMessage = new RawMessage(event);
 
-            final Message decodedMessage = beatsCodec.decodeSafe(rawMessage).get();
-            System.out.println(decodedMessage);
+                final Message decodedMessage = beatsCodec.decodeSafe(rawMessage).get();
+                System.out.println(decodedMessage);
 
-            ctx.fireChannelRead(decodedMessage);
+                ctx.fireChannelRead(decodedMessage);
+            }
+            for (long sequenceNum : batch.acks()) {
+                ctx.writeAndFlush(BeatsBatchHandler.ackFrame(ctx.alloc(), sequenceNum));
+            }
         }
     }
 }
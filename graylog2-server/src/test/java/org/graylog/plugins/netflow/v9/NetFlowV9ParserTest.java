@@ -26,10 +26,15 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -116,6 +121,48 @@ public class NetFlowV9ParserTest {
                 .isThrownBy(() -> NetFlowV9Parser.parsePacket(Unpooled.wrappedBuffer(b), typeRegistry));
     }
 
+    @Test
+    public void forEachRecordReadsSameFieldsAsParsePacket() throws IOException {
+        final Map<Integer, NetFlowV9Template> cache = Maps.newHashMap();
+        final Map<Integer, NetFlowV9RecordLayout> layouts = Maps.newHashMap();
+        final Set<Integer> optionTemplateIds = new HashSet<>();
+        final NetFlowV9RecordView view = new NetFlowV9RecordView();
+
+        for (String resource : List.of("netflow-data/netflow-v9-2-1.dat", "netflow-data/netflow-v9-2-2.dat", "netflow-data/netflow-v9-2-3.dat")) {
+            final byte[] bytes = Resources.toByteArray(Resources.getResource(resource));
+            final List<Map<String, Object>> expected = NetFlowV9Parser.parsePacket(Unpooled.wrappedBuffer(bytes), typeRegistry, cache, null)
+                    .records().stream()
+                    .filter(record -> record instanceof NetFlowV9Record)
+                    .map(NetFlowV9BaseRecord::fields)
+                    .map(fields -> (Map<String, Object>) fields)
+                    .toList();
+
+            final List<Map<String, Object>> actual = new ArrayList<>();
+            NetFlowV9Parser.forEachRecord(Unpooled.wrappedBuffer(bytes), typeRegistry, layouts, optionTemplateIds, view, (header, record) -> {
+                final Map<String, Object> fields = new HashMap<>();
+                for (int i = 0; i < record.size(); i++) {
+                    if (record.value(i) != null) {
+                        fields.put(record.name(i), record.value(i));
+                    }
+                }
+                actual.add(fields);
+            });
+
+            assertThat(actual).as(resource).isEqualTo(expected);
+        }
+        assertThat(layouts).containsOnlyKeys(257, 258);
+        assertThat(view.get("in_bytes")).isNotNull();
+        assertThat(view.get("does_not_exist")).isNull();
+    }
+
+    @Test
+    public void forEachRecordFailsWithoutTemplate() throws Exception {
+        final byte[] b = Resources.toByteArray(Resources.getResource("netflow-data/netflow-v9-3_incomplete.dat"));
+        assertThatExceptionOfType(EmptyTemplateException.class)
+                .isThrownBy(() -> NetFlowV9Parser.forEachRecord(Unpooled.wrappedBuffer(b), typeRegistry, new HashMap<>(), new HashSet<>(),
+                        new NetFlowV9RecordView(), (header, record) -> {}));
+    }
+
     private String name(NetFlowV9FieldDef def) {
         return def.type().name().toLowerCase(Locale.ROOT);
     }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import org.graylog.plugins.pipelineprocessor.BaseParserTest;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.exceptions.FunctionEvaluationException;
+import org.graylog.plugins.pipelineprocessor.ast.functions.AbstractFunction;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.DoubleConversion;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.LongConversion;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.Tools;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.google.common.collect.ImmutableList.of;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RuleConditionCompilerTest extends BaseParserTest {
+    private static final AtomicInteger calls = new AtomicInteger();
+
+    private final MessageFactory messageFactory = new TestMessageFactory();
+
+    @BeforeAll
+    public static void registerFunctions() {
+        final Map<String, Function<?>> functions = commonFunctions();
+        functions.put(DoubleConversion.NAME, new DoubleConversion());
+        functions.put(HasField.NAME, new HasField());
+        functions.put(LongConversion.NAME, new LongConversion());
+        functions.put(StringConversion.NAME, new StringConversion());
+        functions.put("count_call", booleanFunction("count_call", () -> {
+            calls.incrementAndGet();
+            return true;
+        }));
+        functions.put("fail", booleanFunction("fail", () -> {
+            throw new IllegalStateException("failed on purpose");
+        }));
+        functionRegistry = new FunctionRegistry(functions);
+    }
+
+    @BeforeEach
+    void resetCalls() {
+        calls.set(0);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "true",
+            "false",
+            "true && false || true",
+            "not (1 > 2)",
+            "has_field(\"level\") && to_long($message.level) > 3",
+            "has_field(\"level\") && to_long($message.level) <= 3",
+            "to_long($message.level) >= 6 || to_double($message.ratio) < 0.5",
+            "to_double($message.ratio) > 0.5 && to_double($message.ratio) < 1.0",
+            "to_string($message.source) == \"source\" && to_string($message.facility) != \"kernel\"",
+            "to_string($message.source) == \"other\" || has_field(\"missing\") || !has_field(\"level\")",
+            "to_long($message.level) == 6 && to_long($message.level) > to_long($message.low)",
+            "1 > 2 || 2.5 >= 2.0 && \"a\" == \"a\"",
+            "has_field(\"a\") && has_field(\"b\") && has_field(\"c\") && has_field(\"level\")",
+            "to_string($message.missing) == \"\" && !(to_long($message.level) < 0)"
+    })
+    void compiledConditionMatchesInterpreter(String condition) {
+        final Rule rule = parseCondition(condition);
+        final CompiledCondition compiled = RuleConditionCompiler.compile(rule.when());
+
+        for (Message message : messages()) {
+            final boolean interpreted = rule.when().evaluateBool(new EvaluationContext(message));
+            assertThat(compiled.evaluate(new EvaluationContext(message)))
+                    .as("condition <%s> on message %s", condition, message.getFields())
+                    .isEqualTo(interpreted);
+        }
+    }
+
+    @Test
+    void ruleUsesCompiledConditionAfterCompilation() {
+        final Rule rule = parseCondition("has_field(\"level\") && count_call()");
+        final Message message = messages().get(0);
+
+        assertThat(rule.evaluateCondition(new EvaluationContext(message))).isTrue();
+        rule.compileCondition();
+        assertThat(rule.evaluateCondition(new EvaluationContext(message))).isTrue();
+
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void constantOperandsShortCircuitLikeTheInterpreter() {
+        assertThat(compileAndEvaluate("false && count_call()")).isFalse();
+        assertThat(calls).hasValue(0);
+
+        assertThat(compileAndEvaluate("true || count_call()")).isTrue();
+        assertThat(calls).hasValue(0);
+
+        // the interpreter evaluates the left operand before it sees the constant, so must the compiled condition
+        assertThat(compileAndEvaluate("count_call() && false")).isFalse();
+        assertThat(calls).hasValue(1);
+
+        assertThat(compileAndEvaluate("1 > 2 || count_call() && 3 >= 3")).isTrue();
+        assertThat(calls).hasValue(2);
+
+        assertThat(compileAndEvaluate("count_call() && count_call() && count_call()")).isTrue();
+        assertThat(calls).hasValue(5);
+    }
+
+    @Test
+    void functionErrorsAreReportedLikeTheInterpreter() {
+        final Rule rule = parseCondition("has_field(\"level\") && fail()");
+        final CompiledCondition compiled = RuleConditionCompiler.compile(rule.when());
+        final Message message = messages().get(0);
+
+        assertThatThrownBy(() -> rule.when().evaluateBool(new EvaluationContext(message)))
+                .isInstanceOf(FunctionEvaluationException.class);
+        assertThatThrownBy(() -> compiled.evaluate(new EvaluationContext(message)))
+                .isInstanceOf(FunctionEvaluationException.class)
+                .hasRootCauseMessage("failed on purpose")
+                .satisfies(e -> assertThat(((FunctionEvaluationException) e).getFunctionExpression().getFunction().descriptor().name())
+                        .isEqualTo("fail"));
+    }
+
+    @Test
+    void missingLeftOperandIsNeverEqual() {
+        assertThat(compileAndEvaluate("$message.missing == \"value\"")).isFalse();
+        assertThat(compileAndEvaluate("$message.missing != \"value\"")).isFalse();
+        assertThat(compileAndEvaluate("$message.missing != $message.source")).isFalse();
+    }
+
+    private boolean compileAndEvaluate(String condition) {
+        return RuleConditionCompiler.compile(parseCondition(condition).when())
+                .evaluate(new EvaluationContext(messages().get(0)));
+    }
+
+    private List<Message> messages() {
+        final Message info = messageFactory.createMessage("hello test", "source", Tools.nowUTC());
+        info.addField("level", 6L);
+        info.addField("low", 2L);
+        info.addField("ratio", 0.75d);
+        info.addField("facility", "daemon");
+
+        final Message debug = messageFactory.createMessage("debug test", "other", Tools.nowUTC());
+        debug.addField("level", "7");
+        debug.addField("low", 9L);
+        debug.addField("ratio", "0.25");
+        debug.addField("facility", "kernel");
+
+        final Message plain = messageFactory.createMessage("plain test", "source", Tools.nowUTC());
+
+        return List.of(info, debug, plain);
+    }
+
+    private static Rule parseCondition(String condition) {
+        return new PipelineRuleParser(functionRegistry).parseRule("rule \"compiled\" when " + condition + " then end", false);
+    }
+
+    private static Function<Boolean> booleanFunction(String name, Supplier<Boolean> body) {
+        return new AbstractFunction<>() {
+            @Override
+            public Boolean evaluate(FunctionArgs args, EvaluationContext context) {
+                return body.get();
+            }
+
+            @Override
+            public FunctionDescriptor<Boolean> descriptor() {
+                return FunctionDescriptor.<Boolean>builder()
+                        .name(name)
+                        .returnType(Boolean.class)
+                        .params(of())
+                        .build();
+            }
+        };
+    }
+}
@@ -392,7 +392,8 @@ public class FunctionsSnippetsTest extends BaseParserTest {
         final EventBus clusterBus = new EventBus();
         final GrokPatternRegistry grokPatternRegistry = new GrokPatternRegistry(clusterBus,
                 grokPatternService,
-                Executors.newScheduledThreadPool(1));
+                Executors.newScheduledThreadPool(1),
+                metricRegistry);
         functions.put(GrokMatch.NAME, new GrokMatch(grokPatternRegistry));
         functions.put(MultiGrokMatch.NAME, new MultiGrokMatch(grokPatternRegistry));
         functions.put(GrokExists.NAME, new GrokExists(grokPatternRegistry));
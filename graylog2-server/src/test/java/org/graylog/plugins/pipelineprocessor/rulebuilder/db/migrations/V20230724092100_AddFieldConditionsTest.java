@@ -16,6 +16,7 @@
  */
 package org.graylog.plugins.pipelineprocessor.rulebuilder.db.migrations;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
 import org.graylog.plugins.pipelineprocessor.ast.Rule;
@@ -125,7 +126,8 @@ class V20230724092100_AddFieldConditionsTest extends BaseFragmentTest {
         final EventBus clusterBus = new EventBus();
         final GrokPatternRegistry grokPatternRegistry = new GrokPatternRegistry(clusterBus,
                 grokPatternService,
-                Executors.newScheduledThreadPool(1));
+                Executors.newScheduledThreadPool(1),
+                new MetricRegistry());
         functions.put(GrokMatch.NAME, new GrokMatch(grokPatternRegistry));
         functionRegistry = new FunctionRegistry(functions);
     }
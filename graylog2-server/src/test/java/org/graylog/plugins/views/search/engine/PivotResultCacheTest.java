@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.Search;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Time;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.TimeUnitInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Values;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Average;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PivotResultCacheTest {
+    private static final String PIVOT_ID = "pivot";
+
+    private final PivotResultCache cache = new PivotResultCache(new ObjectMapperProvider().get(), 10, Duration.minutes(5), Duration.minutes(1));
+    private final SearchJob searchJob = new SearchJob("job", Search.builder().build(), "admin", "node");
+
+    @AfterEach
+    void resetTime() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    void splitsPivotIntoHeadAndRest() {
+        DateTimeUtils.setCurrentMillisFixed(time("12:05").getMillis());
+        final Query query = query(time("10:05"), time("12:03"), pivot(true));
+
+        final PivotResultCache.PreparedQuery prepared = cache.prepare(searchJob, query);
+
+        assertThat(prepared.query().searchTypes()).extracting(SearchType::id)
+                .containsExactlyInAnyOrder(PIVOT_ID + PivotResultCache.HEAD_SUFFIX, PIVOT_ID + PivotResultCache.REST_SUFFIX);
+        assertThat(searchType(prepared, PivotResultCache.HEAD_SUFFIX).timerange()).hasValueSatisfying(range ->
+                assertThat(range.effectiveTimeRange(query, null)).isEqualTo(AbsoluteRange.create(time("10:05"), time("10:10"))));
+        assertThat(searchType(prepared, PivotResultCache.REST_SUFFIX).timerange()).hasValueSatisfying(range ->
+                assertThat(range.effectiveTimeRange(query, null)).isEqualTo(AbsoluteRange.create(time("10:10"), time("12:03"))));
+    }
+
+    @Test
+    void reusesSettledBucketsOnNextExecution() {
+        DateTimeUtils.setCurrentMillisFixed(time("12:05").getMillis());
+        final Query first = query(time("10:05"), time("12:03"), pivot(true));
+        final PivotResultCache.PreparedQuery firstPrepared = cache.prepare(searchJob, first);
+        final QueryResult firstResult = cache.complete(firstPrepared, first, result(firstPrepared,
+                headResult(PIVOT_ID + PivotResultCache.HEAD_SUFFIX, "10:00", 1),
+                restResult(PIVOT_ID + PivotResultCache.REST_SUFFIX, "10:10", 12, 2)));
+
+        final PivotResult firstPivot = (PivotResult) firstResult.searchTypes().get(PIVOT_ID);
+        assertThat(firstResult.searchTypes()).containsOnlyKeys(PIVOT_ID);
+        assertThat(firstPivot.total()).isEqualTo(1 + 12 * 2);
+        assertThat(firstPivot.rows()).hasSize(1 + 12 + 1);
+        assertThat(firstPivot.rows()).allSatisfy(row -> assertThat(row.values())
+                .noneSatisfy(value -> assertThat(value.key()).containsExactly(PivotResultCache.BUCKET_COUNT_SERIES_ID)));
+        assertThat(firstPivot.rows().get(firstPivot.rows().size() - 1).values())
+                .containsExactly(PivotResult.Value.create(List.of("count()"), 25L, true, "row-inner"));
+
+        DateTimeUtils.setCurrentMillisFixed(time("12:15").getMillis());
+        final Query second = query(time("10:15"), time("12:13"), pivot(true));
+        final PivotResultCache.PreparedQuery secondPrepared = cache.prepare(searchJob, second);
+
+        assertThat(searchType(secondPrepared, PivotResultCache.REST_SUFFIX).timerange()).hasValueSatisfying(range ->
+                assertThat(range.effectiveTimeRange(second, null)).isEqualTo(AbsoluteRange.create(time("12:00"), time("12:13"))));
+
+        final QueryResult secondResult = cache.complete(secondPrepared, second, result(secondPrepared,
+                headResult(PIVOT_ID + PivotResultCache.HEAD_SUFFIX, "10:10", 1),
+                restResult(PIVOT_ID + PivotResultCache.REST_SUFFIX, "12:00", 2, 3)));
+        final PivotResult secondPivot = (PivotResult) secondResult.searchTypes().get(PIVOT_ID);
+
+        // head bucket 10:10, cached buckets 10:20 to 11:50, queried buckets 12:00 and 12:10, rollup
+        assertThat(secondPivot.rows()).hasSize(1 + 10 + 2 + 1);
+        assertThat(secondPivot.rows()).extracting(row -> row.key().isEmpty() ? "" : row.key().get(0))
+                .startsWith(key("10:10"), key("10:20"))
+                .contains(key("11:50"), key("12:00"), key("12:10"));
+        assertThat(secondPivot.total()).isEqualTo(1 + 10 * 2 + 2 * 3);
+        assertThat(secondResult.query()).isEqualTo(second);
+    }
+
+    @Test
+    void doesNotSplitPivotsWhichCannotBeMerged() {
+        DateTimeUtils.setCurrentMillisFixed(time("12:05").getMillis());
+        final Pivot withColumns = pivot(false).toBuilder().columnGroups(List.of(Values.builder().field("source").limit(10).build())).build();
+        final Pivot withAverageRollup = pivot(true).toBuilder().series(List.of(Average.builder().field("took_ms").build())).build();
+
+        assertThat(cache.prepare(searchJob, query(time("10:05"), time("12:03"), withColumns)).splits()).isEmpty();
+        assertThat(cache.prepare(searchJob, query(time("10:05"), time("12:03"), withAverageRollup)).splits()).isEmpty();
+        // not a single settled bucket
+        assertThat(cache.prepare(searchJob, query(time("11:55"), time("12:03"), pivot(true))).splits()).isEmpty();
+    }
+
+    private static Pivot pivot(boolean rollup) {
+        return Pivot.builder()
+                .id(PIVOT_ID)
+                .rowGroups(List.of(Time.builder().field("timestamp").interval(TimeUnitInterval.Builder.builder().timeunit("10m").build()).build()))
+                .series(List.of(Count.builder().build()))
+                .rollup(rollup)
+                .build();
+    }
+
+    private static Query query(DateTime from, DateTime to, Pivot pivot) {
+        return Query.builder()
+                .id("query")
+                .query(ElasticsearchQueryString.of("source:example"))
+                .timerange(AbsoluteRange.create(from, to))
+                .searchTypes(ImmutableSet.of(pivot))
+                .build();
+    }
+
+    private static SearchType searchType(PivotResultCache.PreparedQuery prepared, String suffix) {
+        return prepared.query().searchTypes().stream()
+                .filter(searchType -> searchType.id().equals(PIVOT_ID + suffix))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static QueryResult result(PivotResultCache.PreparedQuery prepared, PivotResult... results) {
+        final Map<String, SearchType.Result> searchTypes = new HashMap<>();
+        for (PivotResult result : results) {
+            searchTypes.put(result.id(), result);
+        }
+        return QueryResult.builder()
+                .query(prepared.query())
+                .searchTypes(searchTypes)
+                .build();
+    }
+
+    private static PivotResult headResult(String id, String bucket, long count) {
+        return PivotResult.builder()
+                .id(id)
+                .total(count)
+                .effectiveTimerange(AbsoluteRange.create(time(bucket), time(bucket)))
+                .addRow(row(key(bucket), count, false))
+                .build();
+    }
+
+    private static PivotResult restResult(String id, String firstBucket, int buckets, long countPerBucket) {
+        final PivotResult.Builder result = PivotResult.builder()
+                .id(id)
+                .total(buckets * countPerBucket)
+                .effectiveTimerange(AbsoluteRange.create(time(firstBucket), time(firstBucket)));
+        for (int i = 0; i < buckets; i++) {
+            result.addRow(row(time(firstBucket).plusMinutes(10 * i).toString(), countPerBucket, true));
+        }
+        return result.build();
+    }
+
+    private static PivotResult.Row row(String key, long count, boolean withBucketCount) {
+        final PivotResult.Row.Builder row = PivotResult.Row.builder()
+                .key(ImmutableList.of(key))
+                .source("leaf")
+                .addValue(PivotResult.Value.create(List.of("count()"), count, true, "row-leaf"));
+        if (withBucketCount) {
+            row.addValue(PivotResult.Value.create(List.of(PivotResultCache.BUCKET_COUNT_SERIES_ID), count, true, "row-leaf"));
+        }
+        return row.build();
+    }
+
+    private static String key(String time) {
+        return time(time).toString();
+    }
+
+    private static DateTime time(String time) {
+        return DateTime.parse("2024-01-01T" + time + ":00.000Z").withZone(DateTimeZone.UTC);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.Search;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.errors.QueryError;
+import org.graylog.plugins.views.search.errors.SearchError;
+import org.graylog.plugins.views.search.filter.StreamFilter;
+import org.graylog2.plugin.indexer.searches.timeranges.RelativeRange;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class QueryCoalescerTest {
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final QueryCoalescer coalescer = new QueryCoalescer(new ObjectMapperProvider().get(), metricRegistry, true);
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("query-coalescer-test-%d").build());
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void identicalConcurrentQueriesShareOneExecution() throws Exception {
+        final Query query = query("stream-1");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final QueryError error = new QueryError(query, "partial failure");
+
+        final CompletableFuture<QueryCoalescer.Execution> first = run(searchJob("job-1"), query, Set.of(), () -> {
+            started.countDown();
+            await(release);
+            return execution(query, error);
+        });
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        final CompletableFuture<QueryCoalescer.Execution> second = run(searchJob("job-2"), query, Set.of(), () -> execution(query));
+
+        waitForCoalescedQueries(1);
+        release.countDown();
+
+        assertThat(second.get(10, TimeUnit.SECONDS)).isSameAs(first.get(10, TimeUnit.SECONDS));
+        assertThat(second.get().errors()).containsExactly(error);
+        assertThat(executions).hasValue(1);
+        assertThat(metricRegistry.meter(name(QueryCoalescer.class, "executed-queries")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void queriesForDifferentStreamsAreNotShared() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Query query = query("stream-1");
+        final CompletableFuture<QueryCoalescer.Execution> first = run(searchJob("job-1"), query, Set.of(), () -> {
+            started.countDown();
+            await(release);
+            return execution(query);
+        });
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+        final Query otherStreams = query("stream-1", "stream-2");
+        assertThat(coalescer.execute(searchJob("job-2"), otherStreams, Set.of(), DateTimeZone.UTC, () -> execution(otherStreams)).result().query())
+                .isEqualTo(otherStreams);
+        release.countDown();
+
+        assertThat(first.get(10, TimeUnit.SECONDS).result().query()).isEqualTo(query);
+        assertThat(executions).hasValue(2);
+        assertThat(metricRegistry.meter(name(QueryCoalescer.class, "coalesced-queries")).getCount()).isZero();
+    }
+
+    @Test
+    void failureOfSharedExecutionIsPassedToAllCallers() throws Exception {
+        final Query query = query("stream-1");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<QueryCoalescer.Execution> first = run(searchJob("job-1"), query, Set.of(), () -> {
+            started.countDown();
+            await(release);
+            throw new IllegalStateException("backend failed");
+        });
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        final CompletableFuture<QueryCoalescer.Execution> second = run(searchJob("job-2"), query, Set.of(), () -> execution(query));
+
+        waitForCoalescedQueries(1);
+        release.countDown();
+
+        assertThatThrownBy(() -> first.get(10, TimeUnit.SECONDS)).hasRootCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> second.get(10, TimeUnit.SECONDS)).hasRootCauseInstanceOf(IllegalStateException.class);
+
+        // the failed execution is not kept around
+        assertThat(coalescer.execute(searchJob("job-3"), query, Set.of(), DateTimeZone.UTC, () -> execution(query)).result().query())
+                .isEqualTo(query);
+    }
+
+    @Test
+    void queriesWithValidationErrorsAreNotShared() throws Exception {
+        final Query query = query("stream-1");
+        final Set<SearchError> validationErrors = Set.of(new QueryError(query, "invalid"));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<QueryCoalescer.Execution> first = run(searchJob("job-1"), query, validationErrors, () -> {
+            started.countDown();
+            await(release);
+            return execution(query);
+        });
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        coalescer.execute(searchJob("job-2"), query, validationErrors, DateTimeZone.UTC, () -> execution(query));
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+
+        assertThat(executions).hasValue(2);
+    }
+
+    private CompletableFuture<QueryCoalescer.Execution> run(SearchJob searchJob, Query query, Set<SearchError> validationErrors,
+                                                            Supplier<QueryCoalescer.Execution> execution) {
+        return CompletableFuture.supplyAsync(() -> coalescer.execute(searchJob, query, validationErrors, DateTimeZone.UTC, execution), executor);
+    }
+
+    private void waitForCoalescedQueries(long count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (metricRegistry.meter(name(QueryCoalescer.class, "coalesced-queries")).getCount() < count) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private QueryCoalescer.Execution execution(Query query, SearchError... errors) {
+        executions.incrementAndGet();
+        return new QueryCoalescer.Execution(QueryResult.emptyResult().toBuilder().query(query).build(), List.of(errors));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static SearchJob searchJob(String id) {
+        return new SearchJob(id, Search.builder().id("search").build(), "user", "node");
+    }
+
+    private static Query query(String... streams) {
+        return Query.builder()
+                .id("query")
+                .query(ElasticsearchQueryString.of("source:example"))
+                .timerange(RelativeRange.create(300))
+                .filter(StreamFilter.anyIdOf(streams))
+                .searchTypes(ImmutableSet.of())
+                .build();
+    }
+}
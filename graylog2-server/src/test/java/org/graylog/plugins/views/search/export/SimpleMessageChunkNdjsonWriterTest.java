@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.graylog.plugins.views.search.Search;
+import org.graylog2.rest.MoreMediaTypes;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.graylog.plugins.views.search.export.LinkedHashSetUtil.linkedHashSetOf;
+import static org.graylog.plugins.views.search.export.TestData.simpleMessage;
+import static org.graylog.plugins.views.search.export.TestData.simpleMessageChunk;
+
+class SimpleMessageChunkNdjsonWriterTest {
+    private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+    private final SimpleMessageChunkNdjsonWriter sut = new SimpleMessageChunkNdjsonWriter(objectMapper);
+
+    @Test
+    void isWritableForSimpleMessagesAsNdjson() {
+        assertThat(sut.isWriteable(SimpleMessageChunk.class, null, null, MoreMediaTypes.APPLICATION_NDJSON_TYPE)).isTrue();
+        assertThat(sut.isWriteable(AutoValue_SimpleMessageChunk.class, SimpleMessageChunk.class, null, MoreMediaTypes.APPLICATION_NDJSON_GZIP_TYPE)).isTrue();
+    }
+
+    @Test
+    void isNotWritableForOtherClassesOrFormats() {
+        assertThat(sut.isWriteable(Search.class, null, null, MoreMediaTypes.APPLICATION_NDJSON_TYPE)).isFalse();
+        assertThat(sut.isWriteable(SimpleMessageChunk.class, null, null, MoreMediaTypes.TEXT_CSV_TYPE)).isFalse();
+    }
+
+    @Test
+    void writesOneObjectPerMessageInFieldOrder() throws IOException {
+        final SimpleMessageChunk chunk = SimpleMessageChunk.from(
+                linkedHashSetOf("timestamp", "source", "message"),
+                simpleMessage("message,timestamp,source", new Object[]{"Behold the \"tap dancing\" chimp!", "2015-01-01 01:00:00.000", "source-1"}),
+                simpleMessage("timestamp,message", new Object[]{"2015-01-02 01:00:00.000", "no source"}));
+
+        final String result = new String(write(chunk, false), StandardCharsets.UTF_8);
+
+        assertThat(result.split("\n")).containsExactly(
+                "{\"timestamp\":\"2015-01-01 01:00:00.000\",\"source\":\"source-1\",\"message\":\"Behold the \\\"tap dancing\\\" chimp!\"}",
+                "{\"timestamp\":\"2015-01-02 01:00:00.000\",\"message\":\"no source\"}");
+    }
+
+    @Test
+    void writesAllFieldsIfNoFieldsWereChosen() throws IOException {
+        final SimpleMessageChunk chunk = SimpleMessageChunk.from(
+                ExportMessagesCommand.ALL_FIELDS,
+                simpleMessage("source,count", new Object[]{"source-1", 42}));
+
+        final String result = new String(write(chunk, false), StandardCharsets.UTF_8);
+
+        assertThat(result).isEqualTo("{\"source\":\"source-1\",\"count\":42}\n");
+    }
+
+    @Test
+    void writesGzipMemberPerChunk() throws IOException {
+        final SimpleMessageChunk first = simpleMessageChunk("source,message", new Object[]{"source-1", "first"});
+        final SimpleMessageChunk second = simpleMessageChunk("source,message", new Object[]{"source-2", "second"});
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        outputStream.writeBytes(write(first, true));
+        outputStream.writeBytes(write(second, true));
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")).containsExactly(
+                    "{\"source\":\"source-1\",\"message\":\"first\"}",
+                    "{\"source\":\"source-2\",\"message\":\"second\"}");
+        }
+    }
+
+    private byte[] write(SimpleMessageChunk chunk, boolean gzip) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        sut.writeTo(chunk, SimpleMessageChunk.class, null, null,
+                gzip ? MoreMediaTypes.APPLICATION_NDJSON_GZIP_TYPE : MoreMediaTypes.APPLICATION_NDJSON_TYPE, null, outputStream);
+        return outputStream.toByteArray();
+    }
+}
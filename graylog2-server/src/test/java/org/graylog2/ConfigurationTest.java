@@ -178,6 +178,27 @@ public class ConfigurationTest {
                 .hasMessageContaining("needs to be greater than");
     }
 
+    @Test
+    public void adaptiveConcurrencyMustNotExceedInFlightRequestsWithPipelining() {
+        validProperties.put("output_batch_adaptive_sizing", "true");
+        validProperties.put("output_indexer_pipelining", "true");
+        validProperties.put("output_batch_adaptive_max_concurrency", "32");
+        validProperties.put("output_indexer_max_in_flight_requests", "16");
+
+        assertThatThrownBy(() -> initConfig(new Configuration(), validProperties))
+                .isInstanceOf(ValidationException.class)
+                .hasMessageContaining("\"output_batch_adaptive_max_concurrency\" (32) must not be greater than");
+    }
+
+    @Test
+    public void adaptiveConcurrencyIsIndependentWithoutPipelining() throws Exception {
+        validProperties.put("output_batch_adaptive_sizing", "true");
+        validProperties.put("output_batch_adaptive_max_concurrency", "32");
+        validProperties.put("output_indexer_max_in_flight_requests", "16");
+
+        initConfig(new Configuration(), validProperties);
+    }
+
     @Test
     public void isLeaderByDefault() throws Exception {
         final Configuration configuration = initConfig(new Configuration(), validProperties);
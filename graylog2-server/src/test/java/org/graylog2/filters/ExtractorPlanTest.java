@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.filters;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.inputs.extractors.RegexExtractor;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.inputs.Extractor;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExtractorPlanTest {
+    private static final List<String> REGEXES = List.of(
+            "user=(\\S+)", "id:(\\d+)", "(\\d+) ms", "src=([0-9.]+)", "\\[(\\w+)\\]", "action=(allow|deny)", "(.+)");
+    private static final List<String> STRING_CONDITIONS = List.of("user=", "id:", " ms", "src=", "[", "deny", "zzz", "");
+    private static final List<String> REGEX_CONDITIONS = List.of("^<\\d+>", "user=\\w+ ", "(?i)ACTION", "a|b", "src=1[0-9]\\.", "\\d{3}");
+    private static final List<String> MESSAGES = List.of(
+            "<13> [sshd] user=alice id:42 src=10.0.0.1 action=deny took 12 ms",
+            "<14> [cron] user=bob id:7 took 300 ms",
+            "src=192.168.1.1 action=allow",
+            "no structure at all",
+            "[kernel] id:1 id:2 id:3 src=10.1.1.1 user=root ");
+
+    private final MessageFactory messageFactory = new TestMessageFactory();
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test
+    void sharesConditionResultsWhileTheSourceFieldIsUnchanged() throws Exception {
+        final Extractor first = extractor(0, "payload", "a", "id:(\\d+)", Extractor.ConditionType.REGEX, "id:\\d", Extractor.CursorStrategy.COPY);
+        final Extractor second = extractor(1, "payload", "b", "user=(\\w+)", Extractor.ConditionType.REGEX, "id:\\d", Extractor.CursorStrategy.CUT);
+        final Extractor third = extractor(2, "payload", "c", "src=(\\S+)", Extractor.ConditionType.REGEX, "id:\\d", Extractor.CursorStrategy.COPY);
+        final ExtractorPlan plan = new ExtractorPlan(List.of(first, second, third));
+        final Message message = message("user=alice id:42 src=10.0.0.1");
+
+        final ExtractorPlan.Evaluation evaluation = plan.newEvaluation();
+        for (Extractor extractor : plan.extractors()) {
+            evaluation.run(extractor, message);
+        }
+
+        assertThat(message.getFields()).containsEntry("a", "42").containsEntry("b", "alice").containsEntry("c", "10.0.0.1");
+        assertThat(message.getField("payload")).isEqualTo("user= id:42 src=10.0.0.1");
+        assertThat(metricRegistry.counter(first.getConditionHitsCounterName()).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.counter(third.getConditionHitsCounterName()).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void producesSameResultsAsRunningExtractorsOneByOne() throws Exception {
+        final Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            final List<Extractor> extractors = new ArrayList<>();
+            final List<String> fields = new ArrayList<>(List.of("message", "payload"));
+            final int count = 1 + random.nextInt(30);
+            for (int i = 0; i < count; i++) {
+                final String source = fields.get(random.nextInt(fields.size()));
+                final String target = "field_" + i;
+                final Extractor.ConditionType conditionType = Extractor.ConditionType.values()[random.nextInt(3)];
+                final String conditionValue = switch (conditionType) {
+                    case NONE -> null;
+                    case STRING -> pick(random, STRING_CONDITIONS);
+                    case REGEX -> pick(random, REGEX_CONDITIONS);
+                };
+                final Extractor.CursorStrategy cursorStrategy = random.nextBoolean() ? Extractor.CursorStrategy.CUT : Extractor.CursorStrategy.COPY;
+                extractors.add(extractor(i, source, target, pick(random, REGEXES), conditionType, conditionValue, cursorStrategy));
+                fields.add(target);
+            }
+            final ExtractorPlan plan = new ExtractorPlan(extractors);
+
+            for (String text : MESSAGES) {
+                final Message expected = message(text);
+                for (Extractor extractor : extractors) {
+                    extractor.runExtractor(expected);
+                }
+
+                final Message actual = message(text);
+                final ExtractorPlan.Evaluation evaluation = plan.newEvaluation();
+                for (Extractor extractor : plan.extractors()) {
+                    evaluation.run(extractor, actual);
+                }
+
+                assertThat(actual.getFields())
+                        .usingRecursiveComparison()
+                        .ignoringFields(Message.FIELD_ID)
+                        .isEqualTo(expected.getFields());
+            }
+        }
+    }
+
+    private Message message(String text) {
+        // The message field is reserved and can't be cut.
+        final Message message = messageFactory.createMessage(text, "source", new DateTime(2024, 1, 1, 0, 0, DateTimeZone.UTC));
+        message.addField("payload", text);
+        return message;
+    }
+
+    private Extractor extractor(int order, String source, String target, String regex, Extractor.ConditionType conditionType,
+                                String conditionValue, Extractor.CursorStrategy cursorStrategy) throws Exception {
+        return new RegexExtractor(metricRegistry, "extractor-" + order, "Extractor " + order, order, cursorStrategy,
+                source, target, Map.of("regex_value", regex), "admin", List.of(), conditionType, conditionValue);
+    }
+
+    private static String pick(Random random, List<String> values) {
+        return values.get(random.nextInt(values.size()));
+    }
+}
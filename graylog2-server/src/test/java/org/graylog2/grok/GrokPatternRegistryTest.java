@@ -16,6 +16,7 @@
  */
 package org.graylog2.grok;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.krakens.grok.api.Grok;
@@ -47,6 +48,7 @@ public class GrokPatternRegistryTest {
     public final ExpectedException expectedException = ExpectedException.none();
 
     private GrokPatternRegistry grokPatternRegistry;
+    private MetricRegistry metricRegistry;
     private EventBus eventBus;
     @Mock
     private GrokPatternService grokPatternService;
@@ -56,7 +58,8 @@ public class GrokPatternRegistryTest {
         eventBus = new EventBus("Test");
         final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("updater-%d").build());
         when(grokPatternService.loadAll()).thenReturn(GROK_PATTERNS);
-        grokPatternRegistry = new GrokPatternRegistry(eventBus, grokPatternService, executor);
+        metricRegistry = new MetricRegistry();
+        grokPatternRegistry = new GrokPatternRegistry(eventBus, grokPatternService, executor, metricRegistry);
     }
 
     @Test
@@ -106,6 +109,53 @@ public class GrokPatternRegistryTest {
         grokPatternRegistry.cachedGrokForPattern("%{EMPTY}", true);
     }
 
+    @Test
+    public void cachedGrokMatcherForPatternRecordsMetrics() {
+        final GrokMatcher matcher = grokPatternRegistry.cachedGrokMatcherForPattern("id=%{TESTNUM:id}", true);
+        assertThat(matcher.requiredLiterals()).containsExactly("id=");
+
+        assertThat(matcher.match("id=42").captureFlattened()).containsEntry("id", "42");
+        assertThat(matcher.match("id=").isNull()).isTrue();
+        assertThat(matcher.match("no identifier").isNull()).isTrue();
+
+        final String prefix = GrokPatternRegistry.class.getName() + ".namedCapturesOnly." + GrokPatternRegistry.patternId("id=%{TESTNUM:id}") + ".";
+        assertThat(metricRegistry.getNames()).allSatisfy(name -> assertThat(name).doesNotContain("TESTNUM"));
+        assertThat(metricRegistry.timer(prefix + "matches").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.timer(prefix + "misses").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.counter(prefix + "skipped").getCount()).isEqualTo(1);
+
+        eventBus.post(GrokPatternsUpdatedEvent.create(Collections.singleton("TESTNUM")));
+
+        assertThat(metricRegistry.getMetrics()).isEmpty();
+    }
+
+    @Test
+    public void cachedGrokMatcherMetricsAreRemovedWithThePattern() {
+        grokPatternRegistry.cachedGrokMatcherForPattern("%{TESTNUM}", false).match("42");
+        assertThat(metricRegistry.getMetrics()).isNotEmpty();
+
+        when(grokPatternService.loadAll()).thenReturn(Collections.emptySet());
+        eventBus.post(GrokPatternsDeletedEvent.create(Collections.singleton("TESTNUM")));
+
+        assertThat(metricRegistry.getMetrics()).isEmpty();
+    }
+
+    @Test
+    public void lateRemovalOfEvictedMatcherKeepsMetricsOfReloadedMatcher() {
+        final GrokMatcher evicted = grokPatternRegistry.cachedGrokMatcherForPattern("%{TESTNUM}", false);
+        eventBus.post(GrokPatternsUpdatedEvent.create(Collections.singleton("TESTNUM")));
+        final GrokMatcher reloaded = grokPatternRegistry.cachedGrokMatcherForPattern("%{TESTNUM}", false);
+
+        // the removal notification of the evicted matcher arrives after the pattern has been loaded again
+        grokPatternRegistry.removeMetrics("%{TESTNUM}", false, evicted);
+
+        final String prefix = GrokPatternRegistry.class.getName() + ".allCaptures." + GrokPatternRegistry.patternId("%{TESTNUM}") + ".";
+        assertThat(metricRegistry.getMetrics())
+                .containsEntry(prefix + "matches", reloaded.matches())
+                .containsEntry(prefix + "misses", reloaded.misses())
+                .containsEntry(prefix + "skipped", reloaded.skipped());
+    }
+
     @Test
     public void patterns() {
         assertThat(grokPatternRegistry.patterns()).isEqualTo(GROK_PATTERNS);
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import org.graylog2.outputs.BatchSizeConfig;
+import org.graylog2.shared.SuppressForbidden;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveBulkSizeControllerTest {
+    private static final long LATENCY_TARGET_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private AdaptiveBulkSizeController controller;
+
+    @BeforeEach
+    void setUp() {
+        controller = new AdaptiveBulkSizeController(new MetricRegistry(), true, BatchSizeConfig.forCount(1600),
+                Duration.seconds(1), 8);
+    }
+
+    @Test
+    void startsAtMaximum() {
+        final var state = controller.state();
+
+        assertThat(state.documentLimit()).isEqualTo(1600);
+        assertThat(state.byteLimit()).isEqualTo(AdaptiveBulkSizeController.DEFAULT_MAX_BYTES);
+        assertThat(state.concurrencyLimit()).isEqualTo(8);
+        assertThat(state.latencyTargetMs()).isEqualTo(1000);
+    }
+
+    @Test
+    void decreasesMultiplicativelyAndIncreasesAdditively() throws Exception {
+        controller.acquire();
+        controller.acquire();
+        controller.onRejected(new ChunkedBulkIndexer.TooManyRequestsException(0, IndexingResults.empty()), 1600);
+        controller.release();
+        controller.release();
+
+        // Halved sizes, and the concurrency limit is based on the two requests which have been in flight.
+        assertThat(controller.state().documentLimit()).isEqualTo(800);
+        assertThat(controller.state().concurrencyLimit()).isEqualTo(1);
+
+        controller.onSuccess(LATENCY_TARGET_NANOS / 2, 800);
+        assertThat(controller.state().documentLimit()).isEqualTo(900);
+        assertThat(controller.state().concurrencyLimit()).isEqualTo(2);
+
+        controller.onSuccess(LATENCY_TARGET_NANOS * 2, 900);
+        assertThat(controller.state().documentLimit()).isEqualTo(675);
+        assertThat(controller.state().concurrencyLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void entityTooLargeDoesNotReduceConcurrency() {
+        controller.onRejected(new ChunkedBulkIndexer.EntityTooLargeException(0, IndexingResults.empty()), 1600);
+
+        assertThat(controller.state().documentLimit()).isEqualTo(800);
+        assertThat(controller.state().byteLimit()).isEqualTo(AdaptiveBulkSizeController.DEFAULT_MAX_BYTES / 2);
+        assertThat(controller.state().concurrencyLimit()).isEqualTo(8);
+    }
+
+    @Test
+    void nextChunkSizeReturnsAtLeastOneRequest() {
+        assertThat(controller.nextChunkSize(List.of(), 10)).isEqualTo(1);
+        assertThat(controller.nextChunkSize(List.of(), 5000)).isEqualTo(1);
+    }
+
+    @Test
+    @SuppressForbidden("Using Executors.newSingleThreadExecutor() is okay in tests")
+    void acquireBlocksAtConcurrencyLimit() throws Exception {
+        controller.onRejected(new ChunkedBulkIndexer.TooManyRequestsException(0, IndexingResults.empty()), 1600);
+        assertThat(controller.state().concurrencyLimit()).isEqualTo(1);
+
+        controller.acquire();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> blocked = executor.submit(() -> {
+                controller.acquire();
+                controller.release();
+                return null;
+            });
+            Thread.sleep(100);
+            assertThat(blocked).isNotDone();
+
+            controller.release();
+            blocked.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(controller.state().inFlightRequests()).isZero();
+    }
+
+    @Test
+    void disabledControllerDoesNotLimit() throws Exception {
+        final var disabled = AdaptiveBulkSizeController.disabled();
+
+        disabled.onRejected(new ChunkedBulkIndexer.TooManyRequestsException(0, IndexingResults.empty()), 10);
+        disabled.acquire();
+        disabled.acquire();
+
+        assertThat(disabled.nextChunkSize(List.of(), 5000)).isEqualTo(5000);
+        assertThat(disabled.state().inFlightRequests()).isZero();
+    }
+}
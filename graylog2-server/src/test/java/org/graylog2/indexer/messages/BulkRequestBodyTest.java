@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BulkRequestBodyTest {
+    private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+    private final SerializationContext context = SerializationContext.of(objectMapper, new Meter());
+    private final MessageFactory messageFactory = new TestMessageFactory();
+
+    @Test
+    void writesActionAndDocumentLinePerRequest() throws IOException {
+        final Message first = messageFactory.createMessage("first", "source", DateTime.now(DateTimeZone.UTC));
+        final Message second = messageFactory.createMessage("second", "source", DateTime.now(DateTimeZone.UTC));
+
+        try (BulkRequestBody body = BulkRequestBody.write(List.of(request("graylog_deflector", first), request("other_deflector", second)), context, false)) {
+            assertThat(body.gzipped()).isFalse();
+            final String[] lines = new String(body.array(), 0, body.length(), StandardCharsets.UTF_8).split("\n");
+
+            assertThat(lines).hasSize(4);
+            assertThat(objectMapper.readTree(lines[0]).path("index").path("_index").asText()).isEqualTo("graylog_deflector");
+            assertThat(objectMapper.readTree(lines[0]).path("index").path("_id").asText()).isEqualTo(first.getId());
+            assertThat(objectMapper.readTree(lines[1]).path("message").asText()).isEqualTo("first");
+            assertThat(objectMapper.readTree(lines[2]).path("index").path("_index").asText()).isEqualTo("other_deflector");
+            assertThat(objectMapper.readTree(lines[3]).path("message").asText()).isEqualTo("second");
+        }
+    }
+
+    @Test
+    void escapesIndexNameAndId() throws IOException {
+        final Indexable message = mock(Indexable.class);
+        when(message.getId()).thenReturn("with\"quote\\and\ttab");
+
+        try (BulkRequestBody body = BulkRequestBody.write(List.of(request("index\"name", message)), context, false)) {
+            final String action = new String(body.array(), 0, body.length(), StandardCharsets.UTF_8).split("\n")[0];
+            final JsonNode index = objectMapper.readTree(action).path("index");
+
+            assertThat(index.path("_index").asText()).isEqualTo("index\"name");
+            assertThat(index.path("_id").asText()).isEqualTo("with\"quote\\and\ttab");
+        }
+    }
+
+    @Test
+    void gzipCompressesBody() throws IOException {
+        final Message message = messageFactory.createMessage("compressed", "source", DateTime.now(DateTimeZone.UTC));
+        final byte[] plain;
+        try (BulkRequestBody body = BulkRequestBody.write(List.of(request("graylog_deflector", message)), context, false)) {
+            plain = Arrays.copyOf(body.array(), body.length());
+        }
+
+        try (BulkRequestBody body = BulkRequestBody.write(List.of(request("graylog_deflector", message)), context, true)) {
+            assertThat(body.gzipped()).isTrue();
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body.array(), 0, body.length()))) {
+                assertThat(in.readAllBytes()).isEqualTo(plain);
+            }
+        }
+    }
+
+    @Test
+    void bodyCannotBeUsedAfterClose() throws IOException {
+        final Message message = messageFactory.createMessage("message", "source", DateTime.now(DateTimeZone.UTC));
+        final BulkRequestBody body = BulkRequestBody.write(List.of(request("graylog_deflector", message)), context, false);
+        body.close();
+
+        assertThatThrownBy(body::array).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(body::length).isInstanceOf(IllegalStateException.class);
+    }
+
+    private IndexingRequest request(String writeIndexAlias, Indexable message) {
+        final IndexSet indexSet = mock(IndexSet.class);
+        when(indexSet.getWriteIndexAlias()).thenReturn(writeIndexAlias);
+        return IndexingRequest.create(indexSet, message);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.TestMessageFactory;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class BulkResponseParserTest {
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final MessageFactory messageFactory = new TestMessageFactory();
+    private final IndexSet indexSet = mock(IndexSet.class);
+
+    @Test
+    void matchesItemsToRequestsByPosition() throws IOException {
+        final Message first = messageFactory.createMessage("first", "source", DateTime.now(DateTimeZone.UTC));
+        final Message second = messageFactory.createMessage("second", "source", DateTime.now(DateTimeZone.UTC));
+        final Message third = messageFactory.createMessage("third", "source", DateTime.now(DateTimeZone.UTC));
+        final String response = """
+                {"took": 30, "errors": true, "items": [
+                  {"index": {"_index": "graylog_0", "_id": "1", "_version": 1, "result": "created",
+                             "_shards": {"total": 2, "successful": 1, "failed": 0}, "status": 201}},
+                  {"index": {"_index": "graylog_0", "_id": "2", "status": 400,
+                             "error": {"type": "mapper_parsing_exception", "reason": "failed to parse field [count]",
+                                       "caused_by": {"type": "number_format_exception", "reason": "For input string"}}}},
+                  {"index": {"_index": "graylog_1", "_id": "3", "status": 201}}
+                ]}
+                """;
+
+        final BulkResponseParser.Result result = BulkResponseParser.parse(jsonFactory, stream(response),
+                List.of(IndexingRequest.create(indexSet, first), IndexingRequest.create(indexSet, second), IndexingRequest.create(indexSet, third)),
+                (message, index, type, reason) -> IndexingError.create(message, index, IndexingError.Type.MappingError, type + ": " + reason));
+
+        assertThat(result.items()).isEqualTo(3);
+        assertThat(result.indexingResults().successes()).containsExactly(
+                IndexingSuccess.create(first, "graylog_0"),
+                IndexingSuccess.create(third, "graylog_1"));
+        assertThat(result.indexingResults().errors()).containsExactly(
+                IndexingError.create(second, "graylog_0", IndexingError.Type.MappingError, "mapper_parsing_exception: failed to parse field [count]"));
+        assertThat(result.failureMessage()).contains(second.getId(), "failed to parse field [count]");
+    }
+
+    @Test
+    void reportsNoItemsForEmptyResponse() throws IOException {
+        final BulkResponseParser.Result result = BulkResponseParser.parse(jsonFactory, stream("{\"took\": 0, \"errors\": false, \"items\": []}"),
+                List.of(), (message, index, type, reason) -> {
+                    throw new AssertionError("No failures expected");
+                });
+
+        assertThat(result.items()).isZero();
+        assertThat(result.indexingResults().successes()).isEmpty();
+        assertThat(result.indexingResults().errors()).isEmpty();
+    }
+
+    @Test
+    void failsOnMalformedResponse() {
+        assertThatThrownBy(() -> BulkResponseParser.parse(jsonFactory, stream("[]"), List.of(),
+                (message, index, type, reason) -> null))
+                .isInstanceOf(JsonParseException.class);
+    }
+
+    private static InputStream stream(String value) {
+        return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
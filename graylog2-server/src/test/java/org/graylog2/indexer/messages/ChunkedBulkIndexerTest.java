@@ -16,9 +16,13 @@
  */
 package org.graylog2.indexer.messages;
 
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
 import com.google.common.base.Strings;
 import org.graylog2.indexer.ElasticsearchException;
 import org.graylog2.indexer.IndexSet;
+import org.graylog2.outputs.BatchSizeConfig;
 import org.graylog2.plugin.MessageFactory;
 import org.graylog2.plugin.TestMessageFactory;
 import org.joda.time.DateTime;
@@ -84,6 +88,48 @@ class ChunkedBulkIndexerTest {
                 .hasMessageContaining("Bulk index cannot split output batch any further.");
     }
 
+    @Test
+    void adaptiveSizingLimitsChunksToByteLimit() throws IOException {
+        final var sizeController = new AdaptiveBulkSizeController(new MetricRegistry(), true,
+                BatchSizeConfig.parse("128kb"), Duration.seconds(10), 4);
+        final var chunkSizes = new ArrayList<Integer>();
+        final ChunkedBulkIndexer.BulkIndex bulkIndex = (indexed, previous, chunk) -> {
+            chunkSizes.add(chunk.size());
+            return success(chunk);
+        };
+
+        final var result = new ChunkedBulkIndexer(sizeController).index(indexingRequests, bulkIndex);
+
+        assertThat(result.successes()).hasSize(indexingRequests.size());
+        final long messageSize = indexingRequests.get(0).message().getSize();
+        assertThat(chunkSizes).hasSizeGreaterThan(1)
+                .allSatisfy(chunkSize -> assertThat(chunkSize * messageSize).isLessThanOrEqualTo(Size.kilobytes(128).toBytes()));
+    }
+
+    @Test
+    void adaptiveSizingShrinksChunksAfterRejection() throws IOException {
+        final var sizeController = new AdaptiveBulkSizeController(new MetricRegistry(), true,
+                BatchSizeConfig.forCount(1024), Duration.seconds(10), 4);
+        final ChunkedBulkIndexer.BulkIndex bulkIndex = new ChunkedBulkIndexer.BulkIndex() {
+            private boolean rejected = false;
+
+            @Override
+            public ChunkedBulkIndexer.BulkIndexResult apply(int indexedSuccessfully, IndexingResults previousResults, List<IndexingRequest> chunk) throws ChunkedBulkIndexer.EntityTooLargeException {
+                if (!rejected) {
+                    rejected = true;
+                    throw new ChunkedBulkIndexer.TooManyRequestsException(indexedSuccessfully, previousResults);
+                }
+                return success(chunk);
+            }
+        };
+
+        final var result = new ChunkedBulkIndexer(sizeController).index(indexingRequests, bulkIndex);
+
+        assertThat(result.successes()).hasSize(indexingRequests.size());
+        assertThat(sizeController.state().documentLimit()).isLessThan(1024);
+        assertThat(sizeController.state().inFlightRequests()).isZero();
+    }
+
     private ChunkedBulkIndexer.BulkIndexResult success(List<IndexingRequest> requests) {
         final var results = requests.stream()
                 .map(request -> IndexingSuccess.create(request.message(), request.indexSet().getNewestIndex()))
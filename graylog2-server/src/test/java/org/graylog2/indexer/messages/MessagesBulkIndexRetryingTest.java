@@ -18,6 +18,7 @@ package org.graylog2.indexer.messages;
 
 import org.graylog.failure.FailureSubmissionService;
 import org.graylog2.Configuration;
+import org.graylog2.indexer.ElasticsearchException;
 import org.graylog2.indexer.IndexSet;
 import org.graylog2.plugin.Message;
 import org.graylog2.system.processing.ProcessingStatusRecorder;
@@ -33,6 +34,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.graylog2.indexer.messages.IndexingError.Type.IndexBlocked;
 import static org.graylog2.indexer.messages.IndexingError.Type.MappingError;
 import static org.graylog2.indexer.messages.IndexingError.Type.Unknown;
@@ -109,6 +111,31 @@ class MessagesBulkIndexRetryingTest {
         verify(messagesAdapter, times(2)).bulkIndex(any());
     }
 
+    @Test
+    public void bulkIndexingShouldRetryServerErrors() throws Exception {
+        when(messagesAdapter.bulkIndex(any()))
+                .thenThrow(ChunkedBulkIndexer.bulkRequestFailed(503, new IOException("503 Service Unavailable")))
+                .thenReturn(IndexingResults.empty());
+
+        var result = messages.bulkIndex(messageListWith(mock(Message.class)));
+
+        assertThat(result.allResults()).isEmpty();
+        verify(messagesAdapter, times(2)).bulkIndex(any());
+    }
+
+    @Test
+    public void bulkIndexingShouldNotRetryClientErrors() throws Exception {
+        when(messagesAdapter.bulkIndex(any()))
+                .thenThrow(ChunkedBulkIndexer.bulkRequestFailed(400, new IOException("400 Bad Request")))
+                .thenReturn(IndexingResults.empty());
+
+        assertThatThrownBy(() -> messages.bulkIndex(messageListWith(mock(Message.class))))
+                .hasRootCauseInstanceOf(ElasticsearchException.class)
+                .hasMessageContaining("400 Bad Request");
+
+        verify(messagesAdapter, times(1)).bulkIndex(any());
+    }
+
     @Test
     public void bulkIndexingShouldRetryIfIndexBlocked() throws IOException {
         final IndexingResults errorResult =
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndexRangeCacheTest {
+    private final IndexRangeCache cache = new IndexRangeCache();
+
+    @Test
+    void loadsOnceUntilInvalidated() {
+        final AtomicInteger loads = new AtomicInteger();
+        final IndexRangeIntervalTree tree = new IndexRangeIntervalTree(List.of());
+
+        assertThat(cache.get(() -> countedLoad(loads, tree))).isSameAs(tree);
+        assertThat(cache.get(() -> countedLoad(loads, tree))).isSameAs(tree);
+        assertThat(loads).hasValue(1);
+
+        cache.invalidate();
+        assertThat(cache.get(() -> countedLoad(loads, tree))).isSameAs(tree);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void doesNotPublishRangesLoadedBeforeAConcurrentInvalidation() throws Exception {
+        final IndexRangeIntervalTree stale = new IndexRangeIntervalTree(List.of());
+        final IndexRangeIntervalTree fresh = new IndexRangeIntervalTree(List.of());
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch invalidated = new CountDownLatch(1);
+
+        final CompletableFuture<IndexRangeIntervalTree> load = CompletableFuture.supplyAsync(() -> cache.get(() -> {
+            loading.countDown();
+            try {
+                assertThat(invalidated.await(10, TimeUnit.SECONDS)).isTrue();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return stale;
+        }));
+
+        assertThat(loading.await(10, TimeUnit.SECONDS)).isTrue();
+        cache.invalidate();
+        invalidated.countDown();
+
+        // The caller which started the load gets its result, but it must not be cached.
+        assertThat(load.get(10, TimeUnit.SECONDS)).isSameAs(stale);
+        assertThat(cache.get(() -> fresh)).isSameAs(fresh);
+        assertThat(cache.get(() -> stale)).isSameAs(fresh);
+    }
+
+    private static IndexRangeIntervalTree countedLoad(AtomicInteger loads, IndexRangeIntervalTree tree) {
+        loads.incrementAndGet();
+        return tree;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndexRangeIntervalTreeTest {
+    private static final DateTime NOW = new DateTime(2024, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    @Test
+    void findsOverlappingRangesInclusively() {
+        final IndexRange first = range("graylog_1", 0, 10);
+        final IndexRange second = range("graylog_2", 10, 20);
+        final IndexRange third = range("graylog_3", 20, 30);
+        final IndexRangeIntervalTree tree = new IndexRangeIntervalTree(List.of(third, first, second));
+
+        assertThat(tree.find(10_000, 10_000)).containsExactly(first, second);
+        assertThat(tree.find(11_000, 19_000)).containsExactly(second);
+        assertThat(tree.find(31_000, 40_000)).isEmpty();
+        assertThat(tree.find(Long.MIN_VALUE, Long.MAX_VALUE)).containsExactly(first, second, third);
+    }
+
+    @Test
+    void includesRangesOfSecondTimeRange() {
+        final IndexRange unknown = range("graylog_0", 0, 0);
+        final IndexRange current = range("graylog_1", 100, 200);
+        final IndexRangeIntervalTree tree = new IndexRangeIntervalTree(List.of(current, unknown));
+
+        assertThat(tree.find(150_000, 160_000)).containsExactly(current);
+        assertThat(tree.find(150_000, 160_000, 0, 0)).containsExactly(unknown, current);
+    }
+
+    @Test
+    void findsSameRangesAsLinearScan() {
+        final Random random = new Random(42);
+        final List<IndexRange> ranges = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final int begin = random.nextInt(10_000);
+            ranges.add(range("graylog_" + i, begin, begin + random.nextInt(500)));
+        }
+        final IndexRangeIntervalTree tree = new IndexRangeIntervalTree(ranges);
+
+        for (int i = 0; i < 200; i++) {
+            final long from = random.nextInt(11_000) * 1000L;
+            final long to = from + random.nextInt(1_000) * 1000L;
+            final List<IndexRange> expected = ranges.stream()
+                    .filter(range -> range.begin().getMillis() <= to && range.end().getMillis() >= from)
+                    .sorted(IndexRange.COMPARATOR)
+                    .toList();
+
+            assertThat(tree.find(from, to)).containsExactlyElementsOf(expected);
+        }
+    }
+
+    @Test
+    void looksUpRangesByIndexName() {
+        final IndexRange range = range("graylog_1", 0, 10);
+        final IndexRangeIntervalTree tree = new IndexRangeIntervalTree(List.of(range));
+
+        assertThat(tree.get("graylog_1")).contains(range);
+        assertThat(tree.get("graylog_2")).isEmpty();
+        assertThat(tree.all()).containsExactly(range);
+    }
+
+    private static IndexRange range(String indexName, long beginSeconds, long endSeconds) {
+        return MongoIndexRange.create(indexName, new DateTime(beginSeconds * 1000, DateTimeZone.UTC),
+                new DateTime(endSeconds * 1000, DateTimeZone.UTC), NOW, 0);
+    }
+}
@@ -26,6 +26,7 @@ import org.graylog2.audit.NullAuditEventSender;
 import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
 import org.graylog2.database.MongoCollections;
 import org.graylog2.database.NotFoundException;
+import org.graylog2.events.ClusterEventBus;
 import org.graylog2.indexer.ElasticsearchException;
 import org.graylog2.indexer.IndexSetRegistry;
 import org.graylog2.indexer.indices.HealthStatus;
@@ -75,7 +76,7 @@ public class MongoIndexRangeServiceTest {
         localEventBus = new EventBus("local-event-bus");
         indexRangeService = new MongoIndexRangeService(
                 new MongoCollections(objectMapperProvider, mongodb.mongoConnection()), indices, indexSetRegistry,
-                new NullAuditEventSender(), new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"), localEventBus);
+                new NullAuditEventSender(), new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"), localEventBus, new ClusterEventBus());
     }
 
     @Test
@@ -256,6 +257,21 @@ public class MongoIndexRangeServiceTest {
         assertThat(indexRangeService.findAll()).hasSize(1);
     }
 
+    @Test
+    @MongoDBFixtures("MongoIndexRangeServiceTest.json")
+    public void reloadsIndexRangesChangedOnOtherNodes() throws Exception {
+        final MongoIndexRangeService otherNodeService = new MongoIndexRangeService(
+                new MongoCollections(objectMapperProvider, mongodb.mongoConnection()), indices, indexSetRegistry,
+                new NullAuditEventSender(), new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000001"), new EventBus(), new ClusterEventBus());
+        assertThat(indexRangeService.findAll()).hasSize(2);
+
+        otherNodeService.remove("graylog_1");
+        assertThat(indexRangeService.findAll()).hasSize(2);
+
+        localEventBus.post(IndexRangesUpdatedEvent.create(Set.of("graylog_1")));
+        assertThat(indexRangeService.findAll()).hasSize(1);
+    }
+
     @Test
     @MongoDBFixtures("MongoIndexRangeServiceTest.json")
     public void testHandleIndexDeletion() throws Exception {
@@ -16,9 +16,12 @@
  */
 package org.graylog2.inputs.codecs;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.eventbus.EventBus;
 import com.jayway.jsonpath.PathNotFoundException;
 import org.graylog.testing.messages.MessagesExtension;
 import org.graylog2.inputs.codecs.gelf.GELFBulkDroppedMsgService;
+import org.graylog2.inputs.codecs.gelf.GELFDecompressor;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.MessageFactory;
 import org.graylog2.plugin.configuration.Configuration;
@@ -60,7 +63,7 @@ class EncodingTest {
 
     @Test
     void GelfCodecTestUTF8(MessageFactory messageFactory) {
-        GelfCodec gelfCodecUTF8 = new GelfCodec(configUTF8, Mockito.mock(GelfChunkAggregator.class), messageFactory, gelfBulkDroppedMsgService);
+        GelfCodec gelfCodecUTF8 = new GelfCodec(configUTF8, Mockito.mock(GelfChunkAggregator.class), messageFactory, gelfBulkDroppedMsgService, new GELFDecompressor(new MetricRegistry(), new EventBus()));
 
         final Message message = gelfCodecUTF8.decodeSafe(rawUTF8).get();
         assertThat(message.getMessage()).isEqualTo(MESSAGE);
@@ -70,7 +73,7 @@ class EncodingTest {
 
     @Test
     void GelfCodecTestUTF16(MessageFactory messageFactory) {
-        GelfCodec gelfCodecUTF16 = new GelfCodec(configUTF16, Mockito.mock(GelfChunkAggregator.class), messageFactory, gelfBulkDroppedMsgService);
+        GelfCodec gelfCodecUTF16 = new GelfCodec(configUTF16, Mockito.mock(GelfChunkAggregator.class), messageFactory, gelfBulkDroppedMsgService, new GELFDecompressor(new MetricRegistry(), new EventBus()));
 
         final Message message = gelfCodecUTF16.decodeSafe(rawUTF16).get();
         assertThat(message.getMessage()).isEqualTo(MESSAGE);
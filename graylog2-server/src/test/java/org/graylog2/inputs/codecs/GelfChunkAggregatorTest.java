@@ -19,6 +19,7 @@ package org.graylog2.inputs.codecs;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.graylog2.plugin.InstantMillisProvider;
@@ -34,14 +35,14 @@ import org.junit.Test;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
-import static org.assertj.core.api.Assertions.assertThat;
+import static org.graylog2.inputs.codecs.GelfChunkAggregator.BYTES_HELD;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.CHUNK_COUNTER;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.COMPLETE_MESSAGES;
-import static org.graylog2.inputs.codecs.GelfChunkAggregator.ChunkEntry;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.DUPLICATE_CHUNKS;
+import static org.graylog2.inputs.codecs.GelfChunkAggregator.EVICTED_CHUNKS;
+import static org.graylog2.inputs.codecs.GelfChunkAggregator.EVICTED_MESSAGES;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.EXPIRED_CHUNKS;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.EXPIRED_MESSAGES;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.WAITING_MESSAGES;
@@ -259,44 +260,82 @@ public class GelfChunkAggregatorTest {
     }
 
     @Test
-    public void testChunkEntryCompareTo() throws Exception {
-        // Test if the ChunkEntry#compareTo() method can handle ChunkEntry objects which have the same timestamp.
-        // See: https://github.com/Graylog2/graylog2-server/issues/1462
-
-        final ConcurrentSkipListSet<GelfChunkAggregator.ChunkEntry> sortedEvictionSet = new ConcurrentSkipListSet<>();
-        final long currentTime = System.currentTimeMillis();
-
-        for (int i = 0; i < 10; i++) {
-            sortedEvictionSet.add(new GelfChunkAggregator.ChunkEntry(1, currentTime, "a" + i));
-        }
-
-        final int size = sortedEvictionSet.size();
+    public void bytesHeldByIncompleteMessages() {
+        final ByteBuf[] chunks = createChunkedMessage(4096 + 512, 1024); // creates 5 chunks
 
-        for (int i = 0; i < size; i++) {
-            sortedEvictionSet.remove(sortedEvictionSet.first());
+        for (int i = 0; i < chunks.length - 1; i++) {
+            aggregator.addChunk(chunks[i]);
         }
+        assertEquals(4096, gaugeValueNamed(metricRegistry, BYTES_HELD));
 
-        assertTrue("eviction set should be empty", sortedEvictionSet.isEmpty());
+        assertNotNull("message should be complete", aggregator.addChunk(chunks[4]).getMessage());
+        assertEquals(0, gaugeValueNamed(metricRegistry, BYTES_HELD));
     }
 
     @Test
-    public void testChunkEntryEquals() throws Exception {
-        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, "id");
+    public void oldestMessagesAreEvictedWhenExceedingMaxSize() {
+        final DateTime initialTime = new DateTime(2014, 1, 1, 1, 59, 59, 0, DateTimeZone.UTC);
+        final InstantMillisProvider clock = new InstantMillisProvider(initialTime);
+        DateTimeUtils.setCurrentMillisProvider(clock);
 
-        assertThat(entry).isEqualTo(new ChunkEntry(1, 0L, "id"));
-        assertThat(entry).isEqualTo(new ChunkEntry(2, 0L, "id"));
-        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 1L, "id"));
-        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 0L, "foo"));
+        poolExecutor = mock(ScheduledThreadPoolExecutor.class);
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        aggregator = new GelfChunkAggregator(poolExecutor, metricRegistry, Size.kilobytes(3L));
+
+        final ByteBuf[] msg1 = createChunkedMessage(3072, 1024, generateMessageId(1));
+        final ByteBuf[] msg2 = createChunkedMessage(3072, 1024, generateMessageId(2));
+
+        aggregator.addChunk(msg1[0]);
+        aggregator.addChunk(msg1[1]);
+        // messages within the same second are evicted in no particular order
+        clock.tick(Period.seconds(1));
+        aggregator.addChunk(msg2[0]);
+        assertEquals(3072, gaugeValueNamed(metricRegistry, BYTES_HELD));
+        assertEquals(0, counterValueNamed(metricRegistry, EVICTED_MESSAGES));
+
+        // exceeds the limit, the first message has to go
+        assertTrue(aggregator.addChunk(msg2[1]).isValid());
+        assertEquals(2048, gaugeValueNamed(metricRegistry, BYTES_HELD));
+        assertEquals(1, counterValueNamed(metricRegistry, EVICTED_MESSAGES));
+        assertEquals(2, counterValueNamed(metricRegistry, EVICTED_CHUNKS));
+        assertEquals(1, counterValueNamed(metricRegistry, WAITING_MESSAGES));
+
+        assertNull("message 1 has been evicted", aggregator.addChunk(msg1[2]).getMessage());
+        assertEquals(3072, gaugeValueNamed(metricRegistry, BYTES_HELD));
+
+        // exceeds the limit again, but completes message 2 which releases its chunks
+        assertNotNull("message 2 should be complete", aggregator.addChunk(msg2[2]).getMessage());
+        assertEquals(1024, gaugeValueNamed(metricRegistry, BYTES_HELD));
+        assertEquals(1, counterValueNamed(metricRegistry, EVICTED_MESSAGES));
+        assertEquals(1, counterValueNamed(metricRegistry, WAITING_MESSAGES));
     }
 
     @Test
-    public void testChunkEntryHashCode() throws Exception {
-        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, "id");
+    public void completedMessagesAreNotExpired() {
+        final DateTime initialTime = new DateTime(2014, 1, 1, 1, 59, 59, 0, DateTimeZone.UTC);
+        final InstantMillisProvider clock = new InstantMillisProvider(initialTime);
+        DateTimeUtils.setCurrentMillisProvider(clock);
+
+        poolExecutor = mock(ScheduledThreadPoolExecutor.class);
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        aggregator = new GelfChunkAggregator(poolExecutor, metricRegistry);
+        final GelfChunkAggregator.ChunkEvictionTask evictionTask = aggregator.new ChunkEvictionTask();
+
+        final ByteBuf[] complete = createChunkedMessage(2048, 1024, generateMessageId(1));
+        final ByteBuf[] incomplete = createChunkedMessage(2048, 1024, generateMessageId(2));
+        aggregator.addChunk(complete[0]);
+        aggregator.addChunk(incomplete[0]);
+        clock.tick(Period.seconds(2));
+        assertNotNull(aggregator.addChunk(complete[1]).getMessage());
 
-        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(1, 0L, "id").hashCode());
-        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(2, 0L, "id").hashCode());
-        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 1L, "id").hashCode());
-        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 0L, "foo").hashCode());
+        clock.tick(Period.seconds(10));
+        evictionTask.run();
+
+        assertEquals(1, counterValueNamed(metricRegistry, COMPLETE_MESSAGES));
+        assertEquals(1, counterValueNamed(metricRegistry, EXPIRED_MESSAGES));
+        assertEquals(1, counterValueNamed(metricRegistry, EXPIRED_CHUNKS));
+        assertEquals(0, counterValueNamed(metricRegistry, WAITING_MESSAGES));
+        assertEquals(0, gaugeValueNamed(metricRegistry, BYTES_HELD));
     }
 
     private ByteBuf[] createChunkedMessage(int messageSize, int maxChunkSize) {
@@ -318,7 +357,7 @@ public class GelfChunkAggregatorTest {
             // fake payload, we don't care about actually parsing it in this test
             int payloadSize = maxChunkSize;
             // correctly size the last chunk
-            if (sequenceNumber + 1 == sequenceCount) {
+            if (sequenceNumber + 1 == sequenceCount && messageSize % maxChunkSize != 0) {
                 payloadSize = (messageSize % maxChunkSize);
             }
 
@@ -358,6 +397,10 @@ public class GelfChunkAggregatorTest {
         return metricRegistry.getCounters(new SingleNameMatcher(name)).get(name).getCount();
     }
 
+    private static long gaugeValueNamed(MetricRegistry metricRegistry, String name) {
+        return (Long) metricRegistry.getGauges(new SingleNameMatcher(name)).get(name).getValue();
+    }
+
     private static class SingleNameMatcher implements MetricFilter {
         private final String metricName;
 
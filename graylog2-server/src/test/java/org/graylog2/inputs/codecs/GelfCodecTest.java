@@ -16,7 +16,10 @@
  */
 package org.graylog2.inputs.codecs;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.eventbus.EventBus;
 import org.graylog2.inputs.codecs.gelf.GELFBulkDroppedMsgService;
+import org.graylog2.inputs.codecs.gelf.GELFDecompressor;
 import org.graylog2.plugin.MessageFactory;
 import org.graylog2.plugin.TestMessageFactory;
 import org.graylog2.plugin.configuration.Configuration;
@@ -45,7 +48,7 @@ public class GelfCodecTest {
 
     @Before
     public void setUp() {
-        codec = new GelfCodec(new Configuration(Collections.emptyMap()), aggregator, messageFactory, gelfBulkDroppedMsgService);
+        codec = new GelfCodec(new Configuration(Collections.emptyMap()), aggregator, messageFactory, gelfBulkDroppedMsgService, new GELFDecompressor(new MetricRegistry(), new EventBus()));
     }
 
     @Test
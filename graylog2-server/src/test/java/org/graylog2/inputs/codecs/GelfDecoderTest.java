@@ -16,10 +16,13 @@
  */
 package org.graylog2.inputs.codecs;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.google.common.eventbus.EventBus;
 import org.glassfish.grizzly.utils.Charsets;
 import org.graylog2.inputs.TestHelper;
 import org.graylog2.inputs.codecs.gelf.GELFBulkDroppedMsgService;
+import org.graylog2.inputs.codecs.gelf.GELFDecompressor;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.TestMessageFactory;
 import org.graylog2.plugin.inputs.failure.InputProcessingException;
@@ -31,6 +34,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.math.BigInteger;
 import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
@@ -55,7 +59,7 @@ public class GelfDecoderTest {
     @BeforeEach
     void setUp() {
         messageFactory = new TestMessageFactory();
-        decoder = new GelfDecoder(messageFactory, DEFAULT_DECOMPRESS_SIZE_LIMIT, CHARSET, gelfBulkDroppedMsgService);
+        decoder = new GelfDecoder(messageFactory, DEFAULT_DECOMPRESS_SIZE_LIMIT, CHARSET, gelfBulkDroppedMsgService, new GELFDecompressor(new MetricRegistry(), new EventBus()));
     }
 
     @Test
@@ -135,7 +139,7 @@ public class GelfDecoderTest {
         final byte[] payload = TestHelper.zlibCompress(json);
         assumeTrue(payload.length > 100);
         final RawMessage rawMessage = new RawMessage(payload);
-        final GelfDecoder smallerDecompressLimitCodec = new GelfDecoder(messageFactory, 100, CHARSET, gelfBulkDroppedMsgService);
+        final GelfDecoder smallerDecompressLimitCodec = new GelfDecoder(messageFactory, 100, CHARSET, gelfBulkDroppedMsgService, new GELFDecompressor(new MetricRegistry(), new EventBus()));
         assertThatThrownBy(() -> smallerDecompressLimitCodec.decode(rawMessage))
                 .isInstanceOf(InputProcessingException.class)
                 .hasCauseInstanceOf(JsonParseException.class)
@@ -428,4 +432,60 @@ public class GelfDecoderTest {
                 .isInstanceOf(InputProcessingException.class)
                 .hasMessageContaining("JSON is null/could not be parsed (invalid JSON)");
     }
+
+    @Test
+    public void decodeConvertsAdditionalFieldValues() {
+        final String json = """
+                {"host":"example.org", "short_message":"test", "_number":1, "_nested":{"a":[1, 2.5, "b"]},
+                 "_array":[true, null], "_bool":true, "_null":null, "_double":1.5,
+                 "_big":123456789012345678901234567890, "_number":"again"}
+                """;
+
+        final Message message = decoder.decode(new RawMessage(json.getBytes(StandardCharsets.UTF_8))).get();
+
+        assertThat(message.getField("number")).isEqualTo("again");
+        assertThat(message.getField("nested")).isEqualTo("{\"a\":[1,2.5,\"b\"]}");
+        assertThat(message.getField("array")).isEqualTo("[true,null]");
+        assertThat(message.getField("double")).isEqualTo(1.5d);
+        assertThat(message.getField("big")).isEqualTo(new BigInteger("123456789012345678901234567890").longValue());
+        assertThat(message.hasField("bool")).isFalse();
+        assertThat(message.hasField("null")).isFalse();
+    }
+
+    @Test
+    public void decodeConvertsStandardFieldsLeniently() {
+        final String json = """
+                {"_level":"ignored", "host":"example.org", "short_message":"test", "full_message":42, "line":"17",
+                 "level":"not a number", "facility":"", "_facility":"kern", "timestamp":"1385053862.3072"}
+                """;
+
+        final Message message = decoder.decode(new RawMessage(json.getBytes(StandardCharsets.UTF_8))).get();
+
+        assertThat(message.getField("full_message")).isEqualTo("42");
+        assertThat(message.getField("line")).isEqualTo(17L);
+        // an invalid level isn't set by the standard field handling, the first additional field with that name wins
+        assertThat(message.getField("level")).isEqualTo("ignored");
+        assertThat(message.getField("facility")).isEqualTo("kern");
+        assertThat(message.getTimestamp()).isEqualTo(DateTime.parse("2013-11-21T17:11:02.307Z"));
+    }
+
+    @Test
+    public void decodeUsesLastValueOfDuplicateStandardFields() {
+        final String json = """
+                {"host":"first.example.org", "short_message":"test", "host":"example.org", "level":3, "level":5}
+                """;
+
+        final Message message = decoder.decode(new RawMessage(json.getBytes(StandardCharsets.UTF_8))).get();
+
+        assertThat(message.getSource()).isEqualTo("example.org");
+        assertThat(message.getField("level")).isEqualTo(5);
+    }
+
+    @Test
+    public void decodeFailsOnNonObjectNode() {
+        final RawMessage rawMessage = new RawMessage("[{\"host\":\"example.org\"}]".getBytes(StandardCharsets.UTF_8));
+        assertThatThrownBy(() -> decoder.decode(rawMessage))
+                .isInstanceOf(InputProcessingException.class)
+                .hasMessageContaining("is missing mandatory \"short_message\" or \"message\" field.");
+    }
 }
@@ -19,6 +19,7 @@ package org.graylog2.inputs.codecs;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableMap;
+import org.graylog2.inputs.codecs.syslog.SyslogFormat;
 import org.graylog2.plugin.MessageFactory;
 import org.graylog2.plugin.TestMessageFactory;
 import org.graylog2.plugin.configuration.Configuration;
@@ -37,7 +38,7 @@ import java.util.Map;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
@@ -123,7 +124,7 @@ public class StructuredSyslogTest {
 
     @Test
     public void testExtractFieldsOfNonStructuredMessageNotPossible() {
-        assertFalse(SyslogCodec.STRUCTURED_SYSLOG_PATTERN.matcher(ValidNonStructuredMessage).matches());
+        assertNotEquals(SyslogFormat.STRUCTURED, SyslogFormat.detect(ValidNonStructuredMessage));
     }
 
     @Test
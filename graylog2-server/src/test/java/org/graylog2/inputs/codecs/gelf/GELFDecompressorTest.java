@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.gelf;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.eventbus.EventBus;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import com.google.common.primitives.Bytes;
+import org.graylog2.inputs.TestHelper;
+import org.graylog2.plugin.IOState;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.events.inputs.IOStateChangedEvent;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class GELFDecompressorTest {
+    private static final String JSON = "{\"version\": \"1.1\", \"host\": \"example.org\", \"short_message\": \"A short message ü\", " +
+            "\"full_message\": \"" + "Backtrace here ".repeat(200) + "\"}";
+
+    private MetricRegistry metricRegistry;
+    private EventBus eventBus;
+    private GELFDecompressor decompressor;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = new MetricRegistry();
+        eventBus = new EventBus();
+        decompressor = new GELFDecompressor(metricRegistry, eventBus);
+    }
+
+    @Test
+    void decompressesZlib() throws IOException {
+        final byte[] payload = TestHelper.zlibCompress(JSON);
+
+        assertThat(decompress(GELFMessage.Type.ZLIB, payload, Long.MAX_VALUE)).isEqualTo(JSON);
+    }
+
+    @Test
+    void decompressesGzip() throws IOException {
+        final byte[] payload = TestHelper.gzipCompress(JSON);
+
+        assertThat(decompress(GELFMessage.Type.GZIP, payload, Long.MAX_VALUE)).isEqualTo(JSON);
+    }
+
+    @Test
+    void decompressesGzipWithOptionalHeaderFields() throws IOException {
+        final byte[] payload = gzipWithOptionalHeaderFields(JSON);
+
+        assertThat(decompress(GELFMessage.Type.GZIP, payload, Long.MAX_VALUE))
+                .isEqualTo(Tools.decompressGzip(payload))
+                .isEqualTo(JSON);
+    }
+
+    @Test
+    void decompressesConcatenatedGzipMembersAndIgnoresTrailingGarbage() throws IOException {
+        final byte[] payload = Bytes.concat(TestHelper.gzipCompress("{\"a\":"), TestHelper.gzipCompress("1}"), new byte[]{1, 2, 3});
+
+        assertThat(decompress(GELFMessage.Type.GZIP, payload, Long.MAX_VALUE))
+                .isEqualTo(Tools.decompressGzip(payload))
+                .isEqualTo("{\"a\":1}");
+    }
+
+    @Test
+    void stopsAtTheSizeLimit() throws IOException {
+        final byte[] payload = TestHelper.zlibCompress(JSON);
+
+        assertThat(decompress(GELFMessage.Type.ZLIB, payload, 100))
+                .isEqualTo(Tools.decompressZlib(payload, 100))
+                .satisfies(json -> assertThat(json.getBytes(StandardCharsets.UTF_8)).hasSize(100));
+        assertThat(metricRegistry.counter("org.graylog2.inputs.input-id.gelf.decompression.limit_exceeded").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void payloadOfExactlyTheSizeLimitDoesNotExceedIt() throws IOException {
+        final int size = JSON.getBytes(StandardCharsets.UTF_8).length;
+
+        assertThat(decompress(GELFMessage.Type.ZLIB, TestHelper.zlibCompress(JSON), size)).isEqualTo(JSON);
+        assertThat(decompress(GELFMessage.Type.GZIP, TestHelper.gzipCompress(JSON), size)).isEqualTo(JSON);
+        assertThat(metricRegistry.counter("org.graylog2.inputs.input-id.gelf.decompression.limit_exceeded").getCount()).isZero();
+
+        decompress(GELFMessage.Type.GZIP, TestHelper.gzipCompress(JSON), size - 1);
+        assertThat(metricRegistry.counter("org.graylog2.inputs.input-id.gelf.decompression.limit_exceeded").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void removesMetricsOfStoppedInputs() throws IOException {
+        decompress(GELFMessage.Type.ZLIB, TestHelper.zlibCompress(JSON), Long.MAX_VALUE);
+        assertThat(metricRegistry.getNames()).anySatisfy(name -> assertThat(name).startsWith("org.graylog2.inputs.input-id."));
+
+        final MessageInput input = mock(MessageInput.class);
+        when(input.getId()).thenReturn("input-id");
+        eventBus.post(IOStateChangedEvent.create(IOState.Type.STOPPING, IOState.Type.STOPPED, new IOState<>(eventBus, input)));
+
+        assertThat(metricRegistry.getNames()).noneSatisfy(name -> assertThat(name).startsWith("org.graylog2.inputs.input-id."));
+
+        // the metrics are registered again once the input receives messages again
+        decompress(GELFMessage.Type.ZLIB, TestHelper.zlibCompress(JSON), Long.MAX_VALUE);
+        assertThat(metricRegistry.timer("org.graylog2.inputs.input-id.gelf.decompression.time").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void reportsMetricsPerInput() throws IOException {
+        final byte[] payload = TestHelper.zlibCompress(JSON);
+
+        decompress(GELFMessage.Type.ZLIB, payload, Long.MAX_VALUE);
+        decompress(GELFMessage.Type.ZLIB, payload, Long.MAX_VALUE);
+
+        assertThat(metricRegistry.timer("org.graylog2.inputs.input-id.gelf.decompression.time").getCount()).isEqualTo(2);
+        assertThat(metricRegistry.histogram("org.graylog2.inputs.input-id.gelf.decompression.ratio").getSnapshot().getMax())
+                .isEqualTo(JSON.getBytes(StandardCharsets.UTF_8).length * 100L / payload.length);
+        assertThat(metricRegistry.counter("org.graylog2.inputs.input-id.gelf.decompression.limit_exceeded").getCount()).isZero();
+    }
+
+    @Test
+    void reusesPooledInflatersAcrossPayloadTypes() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            final String json = "{\"iteration\":" + i + "}";
+            assertThat(decompress(GELFMessage.Type.ZLIB, TestHelper.zlibCompress(json), Long.MAX_VALUE)).isEqualTo(json);
+            assertThat(decompress(GELFMessage.Type.GZIP, TestHelper.gzipCompress(json), Long.MAX_VALUE)).isEqualTo(json);
+        }
+    }
+
+    @Test
+    void supportsNestedStreamsOnTheSameThread() throws IOException {
+        try (InputStream outer = decompressor.decompress(GELFMessage.Type.ZLIB, TestHelper.zlibCompress("outer"), -1, null);
+             InputStream inner = decompressor.decompress(GELFMessage.Type.ZLIB, TestHelper.zlibCompress("inner"), -1, null)) {
+            assertThat(new String(ByteStreams.toByteArray(inner), StandardCharsets.UTF_8)).isEqualTo("inner");
+            assertThat(new String(ByteStreams.toByteArray(outer), StandardCharsets.UTF_8)).isEqualTo("outer");
+        }
+    }
+
+    @Test
+    void failsOnTruncatedPayload() throws IOException {
+        final byte[] zlib = TestHelper.zlibCompress(JSON);
+        final byte[] gzip = TestHelper.gzipCompress(JSON);
+
+        assertThatThrownBy(() -> decompress(GELFMessage.Type.ZLIB, Arrays.copyOf(zlib, zlib.length / 2), Long.MAX_VALUE))
+                .isInstanceOf(GELFDecompressor.DecompressionException.class);
+        assertThatThrownBy(() -> decompress(GELFMessage.Type.GZIP, Arrays.copyOf(gzip, gzip.length - 4), Long.MAX_VALUE))
+                .isInstanceOf(GELFDecompressor.DecompressionException.class);
+    }
+
+    @Test
+    void failsOnCorruptPayload() throws IOException {
+        final byte[] payload = TestHelper.zlibCompress(JSON);
+        Arrays.fill(payload, 2, 12, (byte) 0xff);
+
+        assertThatThrownBy(() -> decompress(GELFMessage.Type.ZLIB, payload, Long.MAX_VALUE))
+                .isInstanceOf(GELFDecompressor.DecompressionException.class);
+    }
+
+    @Test
+    void decodesUtf8LikeString() throws IOException {
+        // a supplementary character, a truncated sequence and an invalid start byte
+        final byte[] content = Bytes.concat("{\"a\": \"\uD83D\uDE00 ".getBytes(StandardCharsets.UTF_8),
+                new byte[]{(byte) 0xe2, (byte) 0x82, ' ', (byte) 0xff},
+                "\"}".getBytes(StandardCharsets.UTF_8));
+        final byte[] payload = zlibCompress(content);
+
+        try (Reader reader = decompressor.decompressUtf8(GELFMessage.Type.ZLIB, payload, Long.MAX_VALUE, "input-id")) {
+            assertThat(CharStreams.toString(reader)).isEqualTo(new String(content, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void readsSupplementaryCharactersOneCharAtATime() throws IOException {
+        final String content = "\uD83D\uDE00x\uD83D\uDE01";
+        final byte[] payload = TestHelper.zlibCompress(content);
+
+        final StringBuilder result = new StringBuilder();
+        try (Reader reader = decompressor.decompressUtf8(GELFMessage.Type.ZLIB, payload, Long.MAX_VALUE, "input-id")) {
+            int c;
+            while ((c = reader.read()) >= 0) {
+                result.append((char) c);
+            }
+        }
+        assertThat(result.toString()).isEqualTo(content);
+    }
+
+    private String decompress(GELFMessage.Type type, byte[] payload, long maxBytes) throws IOException {
+        try (InputStream in = decompressor.decompress(type, payload, maxBytes, "input-id")) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    // GZIPOutputStream never writes the optional header fields
+    private static byte[] gzipWithOptionalHeaderFields(String content) throws IOException {
+        final byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // magic, deflate, FHCRC | FEXTRA | FNAME | FCOMMENT, mtime, xfl, os
+        out.write(new byte[]{0x1f, (byte) 0x8b, 8, 2 | 4 | 8 | 16, 0, 0, 0, 0, 0, 3});
+        out.write(new byte[]{4, 0, 'a', 'b', 2, 0});
+        out.write("message.json\0".getBytes(StandardCharsets.ISO_8859_1));
+        out.write("a comment\0".getBytes(StandardCharsets.ISO_8859_1));
+        final CRC32 headerCrc = new CRC32();
+        headerCrc.update(out.toByteArray());
+        writeShort(out, (int) headerCrc.getValue());
+
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+            deflater.write(data);
+            deflater.finish();
+            final CRC32 crc = new CRC32();
+            crc.update(data);
+            writeInt(out, (int) crc.getValue());
+            writeInt(out, data.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] zlibCompress(byte[] content) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+            deflater.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value & 0xffff);
+        writeShort(out, (value >> 16) & 0xffff);
+    }
+}
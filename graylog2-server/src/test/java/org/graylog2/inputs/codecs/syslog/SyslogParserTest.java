@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.syslog;
+
+import com.google.common.io.Resources;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+
+/**
+ * Differential test which compares the fast path parser with the syslog4j based parser on a corpus of syslog
+ * messages.
+ */
+class SyslogParserTest {
+    private static final List<DateTimeZone> TIME_ZONES = Arrays.asList(null, DateTimeZone.UTC,
+            DateTimeZone.forID("Europe/Berlin"), DateTimeZone.forID("America/New_York"), DateTimeZone.forOffsetHoursMinutes(5, 30));
+    private static final List<Charset> CHARSETS = List.of(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1);
+
+    private final Syslog4jParser syslog4jParser = new Syslog4jParser();
+
+    static Stream<Arguments> corpus() throws IOException {
+        final List<String> lines = Resources.readLines(Resources.getResource(SyslogParserTest.class, "syslog-corpus.txt"), StandardCharsets.UTF_8);
+        final List<Arguments> arguments = new ArrayList<>();
+        for (String line : lines) {
+            for (Charset charset : CHARSETS) {
+                for (DateTimeZone timeZone : TIME_ZONES) {
+                    arguments.add(Arguments.of(line.getBytes(StandardCharsets.UTF_8), charset, timeZone));
+                }
+            }
+        }
+        return arguments.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("corpus")
+    void producesSameResultAsSyslog4j(byte[] payload, Charset charset, DateTimeZone timeZone) {
+        assertSameResult(payload, charset, timeZone);
+    }
+
+    @Test
+    void producesSameResultForUnusualBytes() {
+        final List<String> messages = List.of(
+                "<14>1\t2012-12-25T22:14:15.003Z host app - - - tab after version",
+                "<14>1 2012-12-25T22:14:15.003Z\thost app - - - tab after timestamp",
+                "<14>1 2012-12-25T22:14:15.003Z host\tapp - - - tab in header",
+                "<34>Oct 11 22:14:15\thost tab after timestamp",
+                "<34>Oct 11\t22:14:15 host tab in timestamp",
+                "<34>Oct 11 22:14:15 host message\nwith\nnew lines",
+                "<189>1:\tcisco with tab");
+        for (String message : messages) {
+            for (DateTimeZone timeZone : TIME_ZONES) {
+                assertSameResult(message.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8, timeZone);
+            }
+        }
+
+        final List<byte[]> payloads = List.of(
+                bytes("<34>Oct 11 22:14:15 höst ", new byte[]{(byte) 0xc3}, " truncated sequence"),
+                bytes("<34>Oct 11 22:14:15 host ", new byte[]{(byte) 0xff, (byte) 0xfe}, " invalid bytes"),
+                bytes("<34>Oct 1 22:14:15 ", new byte[]{(byte) 0xc3, (byte) 0xa4}),
+                bytes("<34>", new byte[]{(byte) 0xc3, (byte) 0xa4, (byte) 0xc3, (byte) 0xa4, (byte) 0xc3, (byte) 0xa4,
+                        (byte) 0xc3, (byte) 0xa4, (byte) 0xc3, (byte) 0xa4, (byte) 0xc3, (byte) 0xa4, (byte) 0xc3, (byte) 0xa4,
+                        (byte) 0xc3, (byte) 0xa4, (byte) 0xc3}, " multibyte"),
+                bytes("<165>1 2012-12-25T22:14:15.003Z host app - ID47 [meta a=\"", new byte[]{(byte) 0xc3}, "\\", new byte[]{(byte) 0xa4}, "\"] split sequence"),
+                bytes("<165>1 2012-12-25T22:14:15.003Z host app - ID47 [meta a=\"1\"]", new byte[]{(byte) 0xc3, (byte) 0xa4}, "message"));
+        for (byte[] payload : payloads) {
+            for (Charset charset : CHARSETS) {
+                for (DateTimeZone timeZone : TIME_ZONES) {
+                    assertSameResult(payload, charset, timeZone);
+                }
+            }
+        }
+    }
+
+    @Test
+    void parsesCommonMessagesWithoutFallback() {
+        final SyslogParser parser = new SyslogParser(StandardCharsets.UTF_8);
+        final List<String> messages = List.of(
+                "<34>Oct 11 22:14:15 mymachine su: 'su root' failed for lonvick on /dev/pts/8",
+                "<13>Feb  5 17:32:18 10.0.0.99 Use the BFG!",
+                "<6>2016-10-12T14:10:18.123456+02:00 hostname testmsg[20]: Test",
+                "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"] An application event log entry...",
+                "<165>1 2012-12-25T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\"][examplePriority@32473 class=\"high\"] BOMAn application event log entry",
+                "<14>1 2024-04-04T10:22:31.412+02:00 app-03.example.org orders 4412 ORDER - Order 8812 processed",
+                "<128>1 2015-01-11T16:35:21.335797+01:00 s000000.example.com - - - - tralala",
+                "<165>1 2012-12-25T22:14:15 mymachine.example.com evntslog - ID47 - no offset");
+
+        for (String message : messages) {
+            assertThat(parser.parse(message.getBytes(StandardCharsets.UTF_8), DateTimeZone.UTC)).as(message).isNotNull();
+        }
+    }
+
+    @Test
+    void producesSameResultForFortiGateMessages() {
+        final List<String> messages = List.of(
+                "<189>date=2024-04-04 time=10:22:31 devname=\"FG100E\" msg=\"User's login failed\" count=3",
+                "<189>date=2024-04-04 time=10:22:31 tz=\"+0200\" devname=FG100E",
+                "<189>date=2024-04-04 time=10:22:31.5 tz=\"-05:00\" devname=FG100E",
+                "<189>date=2024-04-04 time=10:22:31 tz=\"bogus\" devname=FG100E",
+                "<189>date=2024-02-30 time=10:22:31 devname=FG100E invalid date",
+                "<189>date=2024-04-04 time=10:22 devname=FG100E",
+                "<189>date=2024-03-31 time=02:30:00 devname=FG100E in a DST gap",
+                "<189>date=2024-04-04 time=10:22:31 url=/index.php?a=b&c=d empty= quoted=\"\"",
+                "<189>date=2024-04-04 time=10:22:31 msg=\"nested key=value\" devname=FG100E",
+                "<189>date=2024-04-04 time=10:22:31 msg=\"unterminated devname=FG100E",
+                "<189>date=2024-04-04 time=10:22:31 devname=FG100E devname=FG200E",
+                "<189>date=2024-04-04 time=10:22:31 devname=FG100E dst-ip=10.0.0.1",
+                "<189>date=2024-04-04 time=10:22:31 a=b\"c d\" e=f",
+                "<189>date=2024-04-04 time=10:22:31 \"quoted token\" a==b =c",
+                "<189>date=2024-04-04\ttime=10:22:31\u000Bdevname=FG100E   trailing   ",
+                "<189>date=2024-04-04 time=10:22:31 devname=FG100E\nsecond line",
+                "<189>date=2024-04-04 time=10:22:31 devname=FG100E msg=\"gr\u00fc\u00dfe\u00a0aus\"",
+                "<189>date=2024-04-04 devname=FG100E without time",
+                "<189>date= devname=FG100E");
+        final SyslogParser parser = new SyslogParser(StandardCharsets.UTF_8);
+        int parsed = 0;
+        for (String message : messages) {
+            for (DateTimeZone timeZone : TIME_ZONES) {
+                assertSameResult(message.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8, timeZone);
+                if (parser.parse(message.getBytes(StandardCharsets.UTF_8), timeZone) != null) {
+                    parsed++;
+                }
+            }
+        }
+        assertThat(parsed).isGreaterThan(messages.size());
+    }
+
+    @Test
+    void parsesCommonFortiGateMessagesWithoutFallback() {
+        final SyslogParser parser = new SyslogParser(StandardCharsets.UTF_8);
+        final String message = "<189>date=2024-04-04 time=10:22:31 devname=\"FG100E\" devid=\"FG100E4Q17000001\" logid=\"0000000013\" " +
+                "type=\"traffic\" subtype=\"forward\" level=\"notice\" vd=\"root\" srcip=10.12.4.77 srcport=51122 " +
+                "dstip=93.184.216.34 dstport=443 action=\"accept\" policyid=12 service=\"HTTPS\" sentbyte=1420 rcvdbyte=5821";
+
+        final SyslogEvent event = parser.parse(message.getBytes(StandardCharsets.UTF_8), null);
+
+        assertThat(event).isNotNull();
+        assertThat(event.host()).isEqualTo("FG100E");
+        assertThat(event.fortiGateFields())
+                .containsEntry("srcip", "10.12.4.77")
+                .containsEntry("service", "HTTPS")
+                .hasSize(18);
+    }
+
+    @Test
+    void leavesCiscoMessagesToSyslog4j() {
+        final SyslogParser parser = new SyslogParser(StandardCharsets.UTF_8);
+
+        assertThat(parser.parse("<189>101: *Apr  4 10:22:31.412: %LINK-3-UPDOWN: Interface up".getBytes(StandardCharsets.UTF_8), null)).isNull();
+    }
+
+    @Test
+    void supportsOnlyAsciiCompatibleCharsets() {
+        assertThat(SyslogParser.supports(StandardCharsets.UTF_8)).isTrue();
+        assertThat(SyslogParser.supports(StandardCharsets.ISO_8859_1)).isTrue();
+        assertThat(SyslogParser.supports(StandardCharsets.US_ASCII)).isTrue();
+        assertThat(SyslogParser.supports(StandardCharsets.UTF_16)).isFalse();
+    }
+
+    private void assertSameResult(byte[] payload, Charset charset, DateTimeZone timeZone) {
+        final String description = new String(payload, charset) + " (" + charset + ", " + timeZone + ")";
+        final SyslogEvent actual = new SyslogParser(charset).parse(payload, timeZone);
+        if (actual == null) {
+            return;
+        }
+
+        final String message = new String(payload, charset);
+        assertThatCode(() -> syslog4jParser.parse(message, InetAddress.getLoopbackAddress(), timeZone))
+                .as(description)
+                .doesNotThrowAnyException();
+        final SyslogEvent expected = syslog4jParser.parse(message, InetAddress.getLoopbackAddress(), timeZone);
+
+        assertThat(actual.facility()).as(description).isEqualTo(expected.facility());
+        assertThat(actual.level()).as(description).isEqualTo(expected.level());
+        assertThat(actual.message()).as(description).isEqualTo(expected.message());
+        assertThat(actual.host()).as(description).isEqualTo(expected.host());
+        if (actual.fortiGateFields() != null && !(actual.fortiGateFields().containsKey("date") && actual.fortiGateFields().containsKey("time"))) {
+            // Both parsers fall back to the current time.
+            assertThat(actual.date()).as(description).isCloseTo(expected.date(), 60_000L);
+        } else {
+            assertThat(actual.date()).as(description).isEqualTo(expected.date());
+        }
+        assertThat(actual.applicationName()).as(description).isEqualTo(expected.applicationName());
+        assertThat(actual.processId()).as(description).isEqualTo(expected.processId());
+        assertThat(actual.structuredData()).as(description).isEqualTo(expected.structuredData());
+        if (actual.structuredData() != null) {
+            // Iteration order decides which value wins for duplicate keys when the elements are merged.
+            assertThat(actual.structuredData().keySet()).as(description).containsExactlyElementsOf(expected.structuredData().keySet());
+        }
+        assertThat(actual.sequenceNumber()).as(description).isEqualTo(expected.sequenceNumber());
+        assertThat(actual.fortiGateFields()).as(description).isEqualTo(expected.fortiGateFields());
+        assertThat(actual.rawMessage() == null ? message : actual.rawMessage()).as(description).isEqualTo(expected.rawMessage());
+    }
+
+    private static byte[] bytes(Object... parts) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object part : parts) {
+            out.writeBytes(part instanceof byte[] b ? b : ((String) part).getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.graylog2.inputs.extractors;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Lists;
 import com.google.common.eventbus.EventBus;
 import org.graylog2.ConfigurationException;
@@ -229,7 +230,7 @@ public class GrokExtractorTest {
         } catch (Exception e) {
             fail("Could not save grok patter: " + e.getMessage());
         }
-        final GrokPatternRegistry grokPatternRegistry = new GrokPatternRegistry(clusterBus, grokPatternService, Executors.newScheduledThreadPool(1));
+        final GrokPatternRegistry grokPatternRegistry = new GrokPatternRegistry(clusterBus, grokPatternService, Executors.newScheduledThreadPool(1), new MetricRegistry());
 
         try {
             return new GrokExtractor(new LocalMetricRegistry(),
@@ -21,12 +21,15 @@ import com.github.joschi.jadconfig.util.Size;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.Uninterruptibles;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandler;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.ReferenceCountUtil;
@@ -216,8 +219,111 @@ public class UdpTransportTest {
         assertThat(gauges.get(ThroughputCounter.READ_BYTES_TOTAL).getValue()).isEqualTo(1024L);
     }
 
+    @Test
+    public void batchedReceiveIsNotUsedWithNio() {
+        final Bootstrap bootstrap = udpTransport.getBootstrap(mock(MessageInput.class));
+
+        assertThat(bootstrap.config().options()).doesNotContainKey(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE);
+    }
+
+    @Test
+    public void batchedReceiveIsNotUsedWithEpollByDefault() {
+        assumeTrue("Skipping test intended for systems supporting epoll", Epoll.isAvailable());
+
+        final NettyTransportConfiguration epollConfiguration = new NettyTransportConfiguration("epoll", "jdk", 1);
+        final UdpTransport transport = new UdpTransport(CONFIGURATION, new EventLoopGroupFactory(epollConfiguration),
+                epollConfiguration, throughputCounter, new LocalMetricRegistry());
+        try {
+            final Bootstrap bootstrap = transport.getBootstrap(mock(MessageInput.class));
+            assertThat(bootstrap.config().options()).doesNotContainKey(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE);
+        } finally {
+            transport.stop();
+        }
+    }
+
+    @Test
+    public void batchedReceiveIsUsedWithEpoll() {
+        assumeTrue("Skipping test intended for systems supporting epoll", Epoll.isAvailable());
+
+        final NettyTransportConfiguration epollConfiguration = new NettyTransportConfiguration("epoll", "jdk", 1, 8);
+        final Configuration configuration = new Configuration(ImmutableMap.of(
+                NettyTransport.CK_BIND_ADDRESS, BIND_ADDRESS,
+                NettyTransport.CK_PORT, PORT,
+                NettyTransport.CK_RECV_BUFFER_SIZE, Ints.saturatedCast(Size.megabytes(1L).toBytes())));
+        final UdpTransport transport = new UdpTransport(configuration, new EventLoopGroupFactory(epollConfiguration),
+                epollConfiguration, throughputCounter, new LocalMetricRegistry());
+        try {
+            final Bootstrap bootstrap = transport.getBootstrap(mock(MessageInput.class));
+            assertThat(bootstrap.config().options()).containsEntry(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, 65535);
+        } finally {
+            transport.stop();
+        }
+    }
+
+    @Test
+    public void batchSizeIsLimitedByReceiveBufferSize() {
+        assertThat(UdpTransport.udpBatchSize(8, Ints.saturatedCast(Size.megabytes(1L).toBytes()))).isEqualTo(8);
+        assertThat(UdpTransport.udpBatchSize(8, 65535 * 3)).isEqualTo(3);
+        assertThat(UdpTransport.udpBatchSize(8, 1024)).isEqualTo(1);
+        assertThat(UdpTransport.udpBatchSize(1, Ints.saturatedCast(Size.megabytes(1L).toBytes()))).isEqualTo(1);
+    }
+
+    @Test
+    public void epollTransportReceivesBatchedDatagrams() throws Exception {
+        assumeTrue("Skipping test intended for systems supporting epoll", Epoll.isAvailable());
+
+        final NettyTransportConfiguration epollConfiguration = new NettyTransportConfiguration("epoll", "jdk", 1, 8);
+        final LocalMetricRegistry metricRegistry = new LocalMetricRegistry();
+        final CountingChannelUpstreamHandler handler = new CountingChannelUpstreamHandler();
+        // the tiny default receive buffer of the tests would drop datagrams arriving at the same time
+        final Configuration configuration = new Configuration(ImmutableMap.of(
+                NettyTransport.CK_BIND_ADDRESS, BIND_ADDRESS,
+                NettyTransport.CK_PORT, PORT,
+                NettyTransport.CK_RECV_BUFFER_SIZE, Ints.saturatedCast(Size.megabytes(1L).toBytes()),
+                NettyTransport.CK_NUMBER_WORKER_THREADS, 1));
+        final UdpTransport transport = launchTransportForBootStrapTest(handler, configuration, epollConfiguration, metricRegistry);
+        try {
+            await().atMost(5, TimeUnit.SECONDS).until(() -> transport.getLocalAddress() != null);
+            final InetSocketAddress localAddress = (InetSocketAddress) transport.getLocalAddress();
+
+            sendUdpDatagram(BIND_ADDRESS, localAddress.getPort(), 100);
+            sendUdpDatagram(BIND_ADDRESS, localAddress.getPort(), 200);
+            sendUdpDatagram(BIND_ADDRESS, localAddress.getPort(), 300);
+            await().atMost(5, TimeUnit.SECONDS).until(() -> handler.getBytesWritten().size() == 3);
+
+            assertThat(handler.getBytesWritten()).containsExactlyInAnyOrder(100, 200, 300);
+            assertThat(metricRegistry.getGauges()).containsKeys("udp_socket.0.receive_buffer_size", "udp_socket.0.drops");
+        } finally {
+            transport.stop();
+        }
+    }
+
+    @Test
+    public void socketMetricsAreRegisteredWhileRunning() throws Exception {
+        final LocalMetricRegistry metricRegistry = new LocalMetricRegistry();
+        final UdpTransport transport = launchTransportForBootStrapTest(new CountingChannelUpstreamHandler(), CONFIGURATION,
+                nettyTransportConfiguration, metricRegistry);
+        try {
+            await().atMost(5, TimeUnit.SECONDS).until(() -> transport.getLocalAddress() != null);
+            // the kernel might round up the requested size
+            assertThat((Integer) metricRegistry.getGauges().get("udp_socket.0.receive_buffer_size").getValue()).isGreaterThanOrEqualTo(RECV_BUFFER_SIZE);
+        } finally {
+            transport.stop();
+        }
+
+        assertThat(metricRegistry.getGauges()).doesNotContainKey("udp_socket.0.receive_buffer_size");
+    }
+
     private UdpTransport launchTransportForBootStrapTest(final ChannelInboundHandler channelHandler) throws MisfireException {
-        final UdpTransport transport = new UdpTransport(CONFIGURATION, eventLoopGroupFactory, nettyTransportConfiguration, throughputCounter, new LocalMetricRegistry()) {
+        return launchTransportForBootStrapTest(channelHandler, CONFIGURATION, nettyTransportConfiguration, new LocalMetricRegistry());
+    }
+
+    private UdpTransport launchTransportForBootStrapTest(final ChannelInboundHandler channelHandler,
+                                                         Configuration configuration,
+                                                         NettyTransportConfiguration transportConfiguration,
+                                                         LocalMetricRegistry metricRegistry) throws MisfireException {
+        final UdpTransport transport = new UdpTransport(configuration, new EventLoopGroupFactory(transportConfiguration),
+                transportConfiguration, throughputCounter, metricRegistry) {
             @Override
             protected LinkedHashMap<String, Callable<? extends ChannelHandler>> getChannelHandlers(MessageInput input) {
                 final LinkedHashMap<String, Callable<? extends ChannelHandler>> handlers = new LinkedHashMap<>();
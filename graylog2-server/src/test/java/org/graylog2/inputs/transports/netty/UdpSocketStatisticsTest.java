@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports.netty;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UdpSocketStatisticsTest {
+    @Test
+    void parsesReceiveQueueAndDropsByInode() {
+        final List<String> lines = List.of(
+                "   sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops",
+                "  263: 00000000:3039 00000000:0000 07 00000000:00000000 00:00000000 00000000     0        0 41236 2 0000000000000000 0",
+                "  263: 00000000:3039 00000000:0000 07 00000000:00001A00 00:00000000 00000000     0        0 41237 2 0000000000000000 17",
+                "  264: malformed");
+
+        final Map<Long, UdpSocketStatistics.Stats> stats = new HashMap<>();
+        UdpSocketStatistics.parse(lines, stats);
+
+        assertThat(stats).containsOnly(
+                Map.entry(41236L, new UdpSocketStatistics.Stats(0L, 0L)),
+                Map.entry(41237L, new UdpSocketStatistics.Stats(0x1A00L, 17L)));
+    }
+}
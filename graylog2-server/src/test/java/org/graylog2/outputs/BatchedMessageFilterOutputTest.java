@@ -135,7 +135,8 @@ class BatchedMessageFilterOutputTest {
                 gracefulShutdownService,
                 outputFlushInterval,
                 shutdownTimeoutMs,
-                Executors.newSingleThreadScheduledExecutor()
+                Executors.newSingleThreadScheduledExecutor(),
+                false
         );
     }
 
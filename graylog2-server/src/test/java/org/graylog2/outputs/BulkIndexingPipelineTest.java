@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.outputs;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog.testing.messages.MessagesExtension;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.messages.ImmutableMessage;
+import org.graylog2.indexer.messages.IndexingResults;
+import org.graylog2.indexer.messages.MessageWithIndex;
+import org.graylog2.indexer.messages.Messages;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.Tools;
+import org.graylog2.shared.SuppressForbidden;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@ExtendWith(MessagesExtension.class)
+class BulkIndexingPipelineTest {
+    @Mock
+    private Messages messages;
+    @Mock
+    private IndexSet slowIndexSet;
+    @Mock
+    private IndexSet fastIndexSet;
+
+    private MessageFactory messageFactory;
+    private BulkIndexingPipeline pipeline;
+
+    @BeforeEach
+    void setUp(MessageFactory messageFactory) {
+        this.messageFactory = messageFactory;
+        this.pipeline = new BulkIndexingPipeline(messages, new MetricRegistry(), 4, 1);
+    }
+
+    @Test
+    void sendsOneRequestPerIndexSet() throws Exception {
+        when(messages.bulkIndex(anyList())).thenReturn(IndexingResults.empty());
+        final var first = entry("first", slowIndexSet);
+        final var second = entry("second", fastIndexSet);
+        final var third = entry("third", slowIndexSet);
+
+        pipeline.bulkIndex(List.of(first, second, third)).get(10, TimeUnit.SECONDS);
+
+        verify(messages, times(1)).bulkIndex(eq(List.of(first, third)));
+        verify(messages, times(1)).bulkIndex(eq(List.of(second)));
+        assertThat(pipeline.getInFlightRequests()).isZero();
+    }
+
+    @Test
+    @SuppressForbidden("Using Executors.newSingleThreadExecutor() is okay in tests")
+    void slowIndexSetDoesNotBlockOtherIndexSets() throws Exception {
+        final CountDownLatch slowRequestsRelease = new CountDownLatch(1);
+        when(messages.bulkIndex(anyList())).thenAnswer(invocation -> {
+            final List<MessageWithIndex> request = invocation.getArgument(0);
+            if (request.get(0).indexSet() == slowIndexSet) {
+                slowRequestsRelease.await();
+            }
+            return IndexingResults.empty();
+        });
+
+        final CompletableFuture<IndexingResults> slowRequest = pipeline.bulkIndex(List.of(entry("slow", slowIndexSet)));
+        pipeline.bulkIndex(List.of(entry("fast", fastIndexSet))).get(10, TimeUnit.SECONDS);
+        assertThat(slowRequest).isNotDone();
+
+        // Only one request per index set may be in flight, so the next one for the slow index set has to wait.
+        final ExecutorService submitter = Executors.newSingleThreadExecutor();
+        try {
+            final var blockedSubmit = submitter.submit(() -> pipeline.bulkIndex(List.of(entry("blocked", slowIndexSet))));
+            Thread.sleep(100);
+            assertThat(blockedSubmit).isNotDone();
+
+            slowRequestsRelease.countDown();
+            slowRequest.get(10, TimeUnit.SECONDS);
+            blockedSubmit.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+        } finally {
+            submitter.shutdownNow();
+        }
+
+        verify(messages, times(3)).bulkIndex(anyList());
+        assertThat(pipeline.getInFlightRequests()).isZero();
+    }
+
+    @Test
+    void failedRequestFailsBatch() {
+        when(messages.bulkIndex(anyList())).thenThrow(new IllegalStateException("Boom"));
+
+        final var request = pipeline.bulkIndex(List.of(entry("message", fastIndexSet)));
+
+        assertThat(request).failsWithin(10, TimeUnit.SECONDS);
+        assertThat(pipeline.getInFlightRequests()).isZero();
+    }
+
+    private MessageWithIndex entry(String message, IndexSet indexSet) {
+        return new MessageWithIndex(ImmutableMessage.wrap(messageFactory.createMessage(message, "test", Tools.nowUTC())), indexSet);
+    }
+}
@@ -38,6 +38,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.graylog2.indexer.messages.ImmutableMessage.wrap;
@@ -79,12 +80,13 @@ public class ElasticSearchOutputTest {
     public void setUp(MessageFactory messageFactory) throws Exception {
         this.messageFactory = messageFactory;
 
-        output = new ElasticSearchOutput(new MetricRegistry(), messages);
+        output = new ElasticSearchOutput(new MetricRegistry(), messages, new BulkIndexingPipeline(messages, new MetricRegistry(), 4, 1));
         output.initialize();
 
         lenient().when(defaultStream.getIndexSet()).thenReturn(defaultIndexSet);
         lenient().when(testStream.getIndexSet()).thenReturn(testIndexSet);
         lenient().when(indexingResults.errors()).thenReturn(ImmutableList.of());
+        lenient().when(indexingResults.successes()).thenReturn(ImmutableList.of());
         lenient().when(messages.bulkIndex(any())).thenReturn(indexingResults);
     }
 
@@ -199,6 +201,28 @@ public class ElasticSearchOutputTest {
         verifyNoMoreInteractions(messages);
     }
 
+    @Test
+    public void writeFilteredAsyncSendsOneRequestPerIndexSet() throws Exception {
+        final List<Message> messageList = buildMessages(2);
+
+        messageList.get(1).addStream(testStream);
+
+        output.writeFilteredAsync(List.of(
+                DefaultFilteredMessage.forDestinationKeys(messageList.get(0), Set.of(ElasticSearchOutput.FILTER_KEY)),
+                DefaultFilteredMessage.forDestinationKeys(messageList.get(1), Set.of(ElasticSearchOutput.FILTER_KEY))
+        )).get(10, TimeUnit.SECONDS);
+
+        verify(messages, times(1)).bulkIndex(eq(List.of(
+                new MessageWithIndex(wrap(messageList.get(0)), defaultIndexSet),
+                new MessageWithIndex(wrap(messageList.get(1)), defaultIndexSet)
+        )));
+        verify(messages, times(1)).bulkIndex(eq(List.of(
+                new MessageWithIndex(wrap(messageList.get(1)), testIndexSet)
+        )));
+
+        verifyNoMoreInteractions(messages);
+    }
+
     private List<Message> buildMessages(final int count) {
         final ImmutableList.Builder<Message> builder = ImmutableList.builder();
         for (int i = 0; i < count; i++) {
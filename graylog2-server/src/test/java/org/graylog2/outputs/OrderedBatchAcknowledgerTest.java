@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.outputs;
+
+import org.graylog2.shared.messageq.Acknowledgeable;
+import org.graylog2.shared.messageq.MessageQueueAcknowledger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class OrderedBatchAcknowledgerTest {
+    @Mock
+    private MessageQueueAcknowledger acknowledger;
+    @Captor
+    private ArgumentCaptor<List<Acknowledgeable>> acknowledged;
+
+    private OrderedBatchAcknowledger orderedAcknowledger;
+
+    @BeforeEach
+    void setUp() {
+        orderedAcknowledger = new OrderedBatchAcknowledger(acknowledger);
+    }
+
+    @Test
+    void acknowledgesBatchesInRegistrationOrder() throws Exception {
+        final long first = orderedAcknowledger.register();
+        final long second = orderedAcknowledger.register();
+        final long third = orderedAcknowledger.register();
+
+        orderedAcknowledger.complete(third, List.of(message(5L)));
+        orderedAcknowledger.complete(second, List.of(message(3L), message(4L)));
+
+        // The first batch is still in flight, so nothing must be acknowledged yet.
+        verifyNoInteractions(acknowledger);
+        assertThat(orderedAcknowledger.pendingBatches()).isEqualTo(3);
+        assertThat(orderedAcknowledger.awaitAcknowledged(Duration.ofMillis(10))).isFalse();
+
+        orderedAcknowledger.complete(first, List.of(message(1L), message(2L)));
+
+        verify(acknowledger, times(1)).acknowledge(acknowledged.capture());
+        assertThat(acknowledged.getValue())
+                .extracting(Acknowledgeable::getMessageQueueId)
+                .containsExactly(1L, 2L, 3L, 4L, 5L);
+        assertThat(orderedAcknowledger.pendingBatches()).isZero();
+        assertThat(orderedAcknowledger.awaitAcknowledged(Duration.ofMillis(10))).isTrue();
+    }
+
+    @Test
+    void acknowledgesCompletedBatchesImmediately() {
+        final long first = orderedAcknowledger.register();
+        final long second = orderedAcknowledger.register();
+
+        orderedAcknowledger.complete(first, List.of(message(1L)));
+        orderedAcknowledger.complete(second, List.of(message(2L)));
+
+        verify(acknowledger, times(2)).acknowledge(acknowledged.capture());
+        assertThat(acknowledged.getAllValues())
+                .map(batch -> batch.get(0).getMessageQueueId())
+                .containsExactly(1L, 2L);
+    }
+
+    private static Acknowledgeable message(long offset) {
+        return () -> offset;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageFieldsTest {
+    @Test
+    public void putGetAndRemove() {
+        final MessageFields fields = new MessageFields(4);
+
+        assertThat(fields.put("source", "example.org")).isNull();
+        assertThat(fields.put("level", 3)).isNull();
+        assertThat(fields.put("source", "example.com")).isEqualTo("example.org");
+
+        assertThat(fields).hasSize(2);
+        assertThat(fields.get("source")).isEqualTo("example.com");
+        assertThat(fields.containsKey("level")).isTrue();
+        assertThat(fields.containsKey("facility")).isFalse();
+        assertThat(fields.get("facility")).isNull();
+
+        assertThat(fields.remove("source")).isEqualTo("example.com");
+        assertThat(fields.remove("source")).isNull();
+        assertThat(fields).containsExactly(Map.entry("level", 3));
+    }
+
+    @Test
+    public void keepsInsertionOrderWhileGrowing() {
+        final MessageFields fields = new MessageFields(4);
+        final Map<String, Object> expected = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            fields.put("field_" + i, i);
+            expected.put("field_" + i, i);
+        }
+        fields.remove("field_10");
+        expected.remove("field_10");
+
+        assertThat(fields).containsExactlyEntriesOf(expected);
+        assertThat(fields).isEqualTo(expected);
+        assertThat(fields.hashCode()).isEqualTo(expected.hashCode());
+    }
+
+    @Test
+    public void behavesLikeHashMap() {
+        final Random random = new Random(42L);
+        final MessageFields fields = new MessageFields();
+        final Map<String, Object> expected = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            final String key = "random_" + random.nextInt(200);
+            switch (random.nextInt(3)) {
+                case 0 -> assertThat(fields.put(key, i)).isEqualTo(expected.put(key, i));
+                case 1 -> assertThat(fields.remove(key)).isEqualTo(expected.remove(key));
+                default -> assertThat(fields.get(key)).isEqualTo(expected.get(key));
+            }
+        }
+        assertThat(fields).isEqualTo(expected);
+    }
+
+    @Test
+    public void iteratorRemovesEntries() {
+        final MessageFields fields = new MessageFields();
+        fields.put("a", 1);
+        fields.put("b", 2);
+        fields.put("c", 3);
+
+        final Iterator<Map.Entry<String, Object>> iterator = fields.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey().equals("b")) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(fields).containsExactly(Map.entry("a", 1), Map.entry("c", 3));
+    }
+
+    @Test
+    public void supportsNullValues() {
+        final MessageFields fields = new MessageFields();
+        fields.put("source", null);
+
+        assertThat(fields.containsKey("source")).isTrue();
+        assertThat(fields.get("source")).isNull();
+        assertThat(fields).hasSize(1);
+    }
+
+    @Test
+    public void internsFieldNames() {
+        final String name = new String("interned_field_name");
+        final int id = MessageFields.FieldNames.intern(name);
+
+        assertThat(MessageFields.FieldNames.intern(new String("interned_field_name"))).isEqualTo(id);
+        assertThat(MessageFields.FieldNames.idOf("interned_field_name")).isEqualTo(id);
+        assertThat(MessageFields.FieldNames.name(id)).isSameAs(name);
+
+        final MessageFields fields = new MessageFields();
+        fields.put(new String("interned_field_name"), 1);
+        assertThat(fields.keySet().iterator().next()).isSameAs(name);
+    }
+}
@@ -19,6 +19,7 @@ package org.graylog2.plugin;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.eaio.uuid.UUID;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
@@ -27,6 +28,7 @@ import com.google.common.collect.Sets;
 import org.graylog.failure.FailureCause;
 import org.graylog.failure.ProcessingFailureCause;
 import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.messages.SerializationContext;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.shared.SuppressForbidden;
 import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
@@ -463,6 +465,45 @@ public class MessageTest {
                 .isEqualTo(43L);
     }
 
+    @Test
+    public void testSerializeMatchesToElasticSearchObject() throws Exception {
+        final Stream stream = mock(Stream.class);
+        when(stream.getId()).thenReturn("stream-id");
+        when(stream.getIndexSet()).thenReturn(mock(IndexSet.class));
+
+        message.addStream(stream);
+        message.addField(Message.FIELD_STREAMS, Collections.singletonList("test-stream"));
+        message.addField("string", "wat");
+        message.addField("long", 42L);
+        message.addField("double", 23.5d);
+        message.addField("boolean", true);
+        message.addField("list", List.of("a", "b"));
+        message.addField("map", Map.of("key", "value"));
+        message.addField("date_time", new DateTime(2015, 9, 8, 0, 0, DateTimeZone.UTC));
+        message.addField("field.3", "dot");
+        // Conflicting keys in both orders, the field without the "." always wins.
+        message.addField("conflict.1", "dotted");
+        message.addField("conflict_1", "plain");
+        message.addField("conflict_2", "plain");
+        message.addField("conflict.2", "dotted");
+
+        assertThat(objectMapper.readTree(message.serialize(SerializationContext.of(objectMapper, invalidTimestampMeter))))
+                .isEqualTo(objectMapper.readTree(objectMapper.writeValueAsBytes(message.toElasticSearchObject(objectMapper, invalidTimestampMeter))));
+    }
+
+    @Test
+    public void testSerializeWithoutDateTimeTimestamp() throws Exception {
+        message.addField("timestamp", "time!");
+
+        final Meter errorMeter = metricRegistry.meter("test-meter");
+        final JsonNode object = objectMapper.readTree(message.serialize(SerializationContext.of(objectMapper, errorMeter)));
+
+        assertThat(object.path("timestamp").asText()).isNotEqualTo("time!");
+        assertThat(object.path(Message.FIELD_GL2_PROCESSING_ERROR).asText()).startsWith("Replaced invalid timestamp value");
+        assertThat(object.path(Message.FIELD_GL2_ACCOUNTED_MESSAGE_SIZE).asLong()).isEqualTo(message.getSize());
+        assertEquals(1, errorMeter.getCount());
+    }
+
     @Test
     public void messageSizes() {
         final Message message = new Message("1234567890", "12345", Tools.nowUTC());
@@ -16,15 +16,19 @@
  */
 package org.graylog2.plugin.journal;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.system.SimpleNodeId;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class RawMessageTest {
     @Test
@@ -44,4 +48,30 @@ public class RawMessageTest {
         assertEquals("inputid", decodedMsg.getSourceNodes().get(0).inputId);
         assertEquals("5ca1ab1e-0000-4000-a000-000000000000", decodedMsg.getSourceNodes().get(0).nodeId);
     }
+
+    @Test
+    public void pooledEncodeDecode() {
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        rawMessage.addSourceNode("inputid", new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"));
+        rawMessage.setCodecName("raw");
+        rawMessage.setCodecConfig(Configuration.EMPTY_CONFIGURATION);
+
+        final ByteBuf encoded = rawMessage.encode(new PooledByteBufAllocator(true));
+        assertNotNull(encoded);
+        try {
+            final byte[] expected = rawMessage.encode();
+            assertEquals(expected.length, encoded.readableBytes());
+
+            final ByteBuffer buffer = encoded.nioBuffer();
+            final RawMessage decodedMsg = RawMessage.decode(buffer, 1L);
+
+            assertNotNull(decodedMsg);
+            assertEquals(1L, decodedMsg.getMessageQueueId());
+            assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), decodedMsg.getPayload());
+            assertEquals("raw", decodedMsg.getCodecName());
+            assertEquals(rawMessage.getId(), decodedMsg.getId());
+        } finally {
+            assertTrue(encoded.release());
+        }
+    }
 }
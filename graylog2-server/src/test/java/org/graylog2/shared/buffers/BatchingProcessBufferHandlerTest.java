@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.shared.buffers.processors.ProcessBufferProcessor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class BatchingProcessBufferHandlerTest {
+    private ProcessBufferProcessor processor;
+    private List<List<Message>> dispatchedBatches;
+
+    @Before
+    public void setUp() throws Exception {
+        processor = mock(ProcessBufferProcessor.class);
+        dispatchedBatches = new ArrayList<>();
+        doAnswer(invocation -> {
+            final List<Message> batch = invocation.getArgument(1);
+            batch.add(mock(Message.class));
+            return null;
+        }).when(processor).decodeInto(any(), any());
+        doAnswer(invocation -> {
+            dispatchedBatches.add(List.copyOf(invocation.getArgument(0)));
+            return null;
+        }).when(processor).dispatchMessages(any());
+    }
+
+    @Test
+    public void processesAvailableEventsAsOneBatch() throws Exception {
+        final BatchingProcessBufferHandler handler = new BatchingProcessBufferHandler(processor, 0, 1, 100);
+
+        handler.onEvent(new MessageEvent(), 0, false);
+        handler.onEvent(new MessageEvent(), 1, false);
+        handler.onEvent(new MessageEvent(), 2, true);
+
+        assertThat(dispatchedBatches).hasSize(1);
+        assertThat(dispatchedBatches.get(0)).hasSize(3);
+    }
+
+    @Test
+    public void splitsBatchesAtMaximumSize() throws Exception {
+        final BatchingProcessBufferHandler handler = new BatchingProcessBufferHandler(processor, 0, 1, 2);
+
+        for (int sequence = 0; sequence < 5; sequence++) {
+            handler.onEvent(new MessageEvent(), sequence, sequence == 4);
+        }
+
+        assertThat(dispatchedBatches).extracting(List::size).containsExactly(2, 2, 1);
+    }
+
+    @Test
+    public void onlyHandlesOwnPartitionButFlushesAtEndOfBatch() throws Exception {
+        final BatchingProcessBufferHandler handler = new BatchingProcessBufferHandler(processor, 1, 2, 100);
+
+        // The first batch ends with an event of the other consumer.
+        for (int sequence = 0; sequence < 5; sequence++) {
+            handler.onEvent(new MessageEvent(), sequence, sequence == 4);
+        }
+        handler.onEvent(new MessageEvent(), 5, true);
+
+        assertThat(dispatchedBatches).extracting(List::size).containsExactly(2, 1);
+    }
+
+    @Test
+    public void flushesRemainingMessagesOnShutdown() throws Exception {
+        final BatchingProcessBufferHandler handler = new BatchingProcessBufferHandler(processor, 0, 1, 100);
+
+        handler.onEvent(new MessageEvent(), 0, false);
+        handler.onShutdown();
+
+        assertThat(dispatchedBatches).extracting(List::size).containsExactly(1);
+    }
+
+    @Test
+    public void clearsBatchIfDispatchingFails() throws Exception {
+        final BatchingProcessBufferHandler handler = new BatchingProcessBufferHandler(processor, 0, 1, 100);
+        doThrow(new IllegalStateException("boom")).doAnswer(invocation -> {
+            dispatchedBatches.add(List.copyOf(invocation.getArgument(0)));
+            return null;
+        }).when(processor).dispatchMessages(any());
+
+        handler.onEvent(new MessageEvent(), 0, false);
+        assertThatThrownBy(() -> handler.onEvent(new MessageEvent(), 1, true))
+                .isInstanceOf(IllegalStateException.class);
+
+        // The failed messages must not be dispatched again with the next batch.
+        handler.onEvent(new MessageEvent(), 2, true);
+
+        assertThat(dispatchedBatches).extracting(List::size).containsExactly(1);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.plugin.buffers.InputBuffer;
+import org.graylog2.shared.messageq.MessageQueueException;
+import org.graylog2.shared.messageq.MessageQueueWriter;
+import org.graylog2.system.processing.ProcessingStatusRecorder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+
+@ExtendWith(MockitoExtension.class)
+class JournallingMessageHandlerTest {
+    @Mock
+    private MessageQueueWriter messageQueueWriter;
+    @Mock
+    private ProcessingStatusRecorder processingStatusRecorder;
+
+    @Test
+    void notifiesCallbacksAfterTheBatchHasBeenWritten() throws Exception {
+        final JournallingMessageHandler handler = new JournallingMessageHandler(new MetricRegistry(), messageQueueWriter, processingStatusRecorder);
+        final CountingCallback callback = new CountingCallback();
+        doAnswer(invocation -> {
+            assertThat(callback.journaled).hasValue(0);
+            return null;
+        }).when(messageQueueWriter).write(anyList());
+
+        handler.onEvent(event(callback), 0, false);
+        handler.onEvent(event(null), 1, false);
+        handler.onEvent(event(callback), 2, true);
+
+        assertThat(callback.journaled).hasValue(2);
+        assertThat(callback.failed).hasValue(0);
+    }
+
+    @Test
+    void notifiesCallbacksIfTheBatchCouldNotBeWritten() throws Exception {
+        final JournallingMessageHandler handler = new JournallingMessageHandler(new MetricRegistry(), messageQueueWriter, processingStatusRecorder);
+        final CountingCallback callback = new CountingCallback();
+        doThrow(new MessageQueueException("journal full")).when(messageQueueWriter).write(anyList());
+
+        handler.onEvent(event(callback), 0, false);
+        assertThatThrownBy(() -> handler.onEvent(event(callback), 1, true))
+                .isInstanceOf(MessageQueueException.class);
+
+        assertThat(callback.journaled).hasValue(0);
+        assertThat(callback.failed).hasValue(2);
+    }
+
+    @Test
+    void notifiesCallbackOfMessagesWhichWereNotEncoded() throws Exception {
+        final JournallingMessageHandler handler = new JournallingMessageHandler(new MetricRegistry(), messageQueueWriter, processingStatusRecorder);
+        final CountingCallback callback = new CountingCallback();
+        final RawMessageEvent notEncoded = new RawMessageEvent();
+        notEncoded.setInsertCallback(callback);
+
+        handler.onEvent(notEncoded, 0, false);
+        handler.onEvent(event(callback), 1, true);
+
+        assertThat(callback.journaled).hasValue(1);
+        assertThat(callback.failed).hasValue(1);
+    }
+
+    private static RawMessageEvent event(InputBuffer.InsertCallback callback) {
+        final RawMessageEvent event = new RawMessageEvent();
+        event.setEncodedRawMessage(new byte[]{1, 2, 3});
+        event.setInsertCallback(callback);
+        return event;
+    }
+
+    private static class CountingCallback implements InputBuffer.InsertCallback {
+        private final AtomicInteger journaled = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        @Override
+        public void journaled() {
+            journaled.incrementAndGet();
+        }
+
+        @Override
+        public void failed(Throwable cause) {
+            failed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import jakarta.inject.Provider;
+import org.graylog.failure.FailureSubmissionService;
+import org.graylog2.buffers.OutputBuffer;
+import org.graylog2.messageprocessors.OrderedMessageProcessors;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageCollection;
+import org.graylog2.plugin.MessageFactory;
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.streams.StreamMetrics;
+import org.graylog2.system.processing.ProcessingStatusRecorder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ProcessBufferProcessorTest {
+    private final MessageFactory messageFactory = new TestMessageFactory();
+
+    private MetricRegistry metricRegistry;
+    private OutputBuffer outputBuffer;
+    private FailureSubmissionService failureSubmissionService;
+    private ClusterConfigService clusterConfigService;
+    private Provider<Stream> defaultStreamProvider;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        metricRegistry = new MetricRegistry();
+        outputBuffer = mock(OutputBuffer.class);
+        failureSubmissionService = mock(FailureSubmissionService.class);
+        when(failureSubmissionService.submitProcessingErrors(any())).thenReturn(true);
+        clusterConfigService = mock(ClusterConfigService.class);
+        when(clusterConfigService.getOrDefault(eq(TimeStampConfig.class), any())).thenReturn(TimeStampConfig.getDefault());
+        defaultStreamProvider = mock(Provider.class);
+        when(defaultStreamProvider.get()).thenReturn(mock(Stream.class));
+    }
+
+    @Test
+    void runsBatchThroughProcessorsAsOneCollection() {
+        final RecordingProcessor recordingProcessor = new RecordingProcessor();
+        final ProcessBufferProcessor processor = createProcessor(recordingProcessor);
+        final List<Message> batch = List.of(message("one"), message("two"), message("three"));
+
+        processor.dispatchMessages(batch);
+
+        assertThat(recordingProcessor.calls).containsExactly(3);
+        batch.forEach(message -> verify(outputBuffer).insertBlocking(message));
+        assertThat(metricRegistry.meter(name(ProcessBufferProcessor.class, "incomingMessages")).getCount()).isEqualTo(3);
+        assertThat(metricRegistry.meter(name(ProcessBufferProcessor.class, "outgoingMessages")).getCount()).isEqualTo(3);
+        assertThat(metricRegistry.timer(name(ProcessBufferProcessor.class, "batchProcessTime")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.timer(name(ProcessBufferProcessor.class, "processTime")).getCount()).isZero();
+        assertThat(processor.getCurrentMessage()).isEmpty();
+    }
+
+    @Test
+    void failingMessageDoesNotFailTheWholeBatch() {
+        final RecordingProcessor recordingProcessor = new RecordingProcessor();
+        final ProcessBufferProcessor processor = createProcessor(new FailingProcessor(), recordingProcessor);
+        final Message first = message("one");
+        final Message poison = message("poison");
+        final Message last = message("three");
+
+        processor.dispatchMessages(List.of(first, poison, last));
+
+        // The failing processor is run once for the batch and once per message, the next one only gets the good messages
+        assertThat(recordingProcessor.calls).containsExactly(2);
+        verify(outputBuffer).insertBlocking(first);
+        verify(outputBuffer).insertBlocking(last);
+        verify(outputBuffer, never()).insertBlocking(poison);
+        verify(failureSubmissionService).submitUnknownProcessingError(eq(poison), anyString());
+        verify(failureSubmissionService, never()).submitUnknownProcessingError(eq(first), anyString());
+        verify(failureSubmissionService, never()).submitUnknownProcessingError(eq(last), anyString());
+        assertThat(first.getField("failing_processor")).isEqualTo(true);
+        assertThat(last.getField("failing_processor")).isEqualTo(true);
+        assertThat(metricRegistry.meter(name(ProcessBufferProcessor.class, "outgoingMessages")).getCount()).isEqualTo(3);
+        assertThat(processor.getCurrentMessage()).isEmpty();
+    }
+
+    @Test
+    void failureAfterProcessingOnlyAffectsTheFailingMessage() {
+        final ProcessBufferProcessor processor = createProcessor(new RecordingProcessor());
+        final Message first = message("one");
+        final Message second = message("two");
+        when(failureSubmissionService.submitProcessingErrors(first)).thenThrow(new IllegalStateException("boom"));
+
+        processor.dispatchMessages(List.of(first, second));
+
+        verify(failureSubmissionService).submitUnknownProcessingError(eq(first), anyString());
+        verify(outputBuffer).insertBlocking(second);
+        assertThat(metricRegistry.meter(name(ProcessBufferProcessor.class, "outgoingMessages")).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    void singleMessageUsesTheMessagePath() {
+        final RecordingProcessor recordingProcessor = new RecordingProcessor();
+        final ProcessBufferProcessor processor = createProcessor(recordingProcessor);
+        final Message message = message("one");
+
+        processor.dispatchMessages(List.of(message));
+
+        assertThat(recordingProcessor.calls).containsExactly(1);
+        verify(outputBuffer).insertBlocking(message);
+        assertThat(metricRegistry.timer(name(ProcessBufferProcessor.class, "processTime")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.timer(name(ProcessBufferProcessor.class, "batchProcessTime")).getCount()).isZero();
+    }
+
+    private Message message(String text) {
+        return messageFactory.createMessage(text, "localhost", Tools.nowUTC());
+    }
+
+    private ProcessBufferProcessor createProcessor(MessageProcessor... processors) {
+        final OrderedMessageProcessors orderedMessageProcessors = new OrderedMessageProcessors(
+                ImmutableSet.copyOf(processors),
+                clusterConfigService,
+                mock(EventBus.class)
+        );
+
+        return new ProcessBufferProcessor(
+                metricRegistry,
+                orderedMessageProcessors,
+                outputBuffer,
+                mock(ProcessingStatusRecorder.class),
+                mock(MessageULIDGenerator.class),
+                mock(DecodingProcessor.class),
+                defaultStreamProvider,
+                failureSubmissionService,
+                new StreamMetrics(metricRegistry),
+                clusterConfigService,
+                mock(EventBus.class)
+        );
+    }
+
+    // Processors are ordered by class name, so this one runs first.
+    private static class FailingProcessor implements MessageProcessor {
+        @Override
+        public Messages process(Messages messages) {
+            final List<Message> result = new ArrayList<>();
+            for (Message message : messages) {
+                if ("poison".equals(message.getMessage())) {
+                    throw new IllegalArgumentException("Poison message");
+                }
+                message.addField("failing_processor", true);
+                result.add(message);
+            }
+            return new MessageCollection(result);
+        }
+    }
+
+    private static class RecordingProcessor implements MessageProcessor {
+        private final List<Integer> calls = new ArrayList<>();
+
+        @Override
+        public Messages process(Messages messages) {
+            int size = 0;
+            for (Message ignored : messages) {
+                size++;
+            }
+            calls.add(size);
+            return messages;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.Configuration;
+import org.graylog2.audit.NullAuditEventSender;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.system.FilePersistedNodeIdProvider;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MappedSegmentJournalTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ServerStatus serverStatus;
+    private ScheduledThreadPoolExecutor scheduler;
+    private Path journalDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.prestartCoreThread();
+        journalDirectory = temporaryFolder.newFolder().toPath();
+
+        final File nodeId = temporaryFolder.newFile("node-id");
+        Files.write(nodeId.toPath(), UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+
+        final var nodeIdProvider = new FilePersistedNodeIdProvider(nodeId.getAbsolutePath());
+        final var configuration = new Configuration() {
+            @Override
+            public String getNodeIdFile() {
+                return nodeId.getAbsolutePath();
+            }
+        };
+        serverStatus = new ServerStatus(configuration, EnumSet.of(ServerStatus.Capability.SERVER), new EventBus("MappedSegmentJournalTest"), NullAuditEventSender::new, nodeIdProvider.get());
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    private MappedSegmentJournal createJournal(Size segmentSize) {
+        final MappedSegmentJournal journal = new MappedSegmentJournal(journalDirectory,
+                scheduler,
+                segmentSize,
+                Duration.standardHours(1),
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                new MetricRegistry(),
+                serverStatus);
+        journal.startAsync().awaitRunning();
+        return journal;
+    }
+
+    private static void writeMessages(Journal journal, int from, int to) {
+        final List<Journal.Entry> entries = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            entries.add(journal.createEntry(("id-" + i).getBytes(UTF_8), ("message-" + i).getBytes(UTF_8)));
+        }
+        journal.write(entries);
+    }
+
+    private static List<String> readAll(Journal journal) {
+        final List<String> messages = new ArrayList<>();
+        List<Journal.JournalReadEntry> entries;
+        while (!(entries = journal.read(10)).isEmpty()) {
+            for (Journal.JournalReadEntry entry : entries) {
+                messages.add(entry.getOffset() + ":" + new String(entry.getPayload(), UTF_8));
+            }
+        }
+        return messages;
+    }
+
+    @Test
+    public void writeAndRead() {
+        final MappedSegmentJournal journal = createJournal(Size.megabytes(1L));
+
+        final long offset = journal.write("id".getBytes(UTF_8), "message".getBytes(UTF_8));
+        final List<Journal.JournalReadEntry> messages = journal.read(10);
+
+        assertThat(offset).isEqualTo(0L);
+        assertThat(messages).hasSize(1);
+        assertThat(messages.get(0).getOffset()).isEqualTo(0L);
+        assertThat(messages.get(0).getPayloadSize()).isEqualTo(7);
+        assertThat(new String(messages.get(0).getPayload(), UTF_8)).isEqualTo("message");
+        assertThat(journal.read(10)).isEmpty();
+
+        journal.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    public void rollsSegmentsAndReadsAcrossThem() {
+        final MappedSegmentJournal journal = createJournal(Size.kilobytes(1L));
+
+        writeMessages(journal, 0, 200);
+
+        assertThat(journal.numberOfSegments()).isGreaterThan(1);
+        assertThat(journal.getLogEndOffset()).isEqualTo(200L);
+        final List<String> messages = readAll(journal);
+        assertThat(messages).hasSize(200);
+        assertThat(messages.get(0)).isEqualTo("0:message-0");
+        assertThat(messages.get(199)).isEqualTo("199:message-199");
+
+        journal.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    public void resumesAfterCommittedOffsetOnRestart() {
+        final MappedSegmentJournal journal = createJournal(Size.kilobytes(1L));
+        writeMessages(journal, 0, 100);
+        journal.markJournalOffsetCommitted(41L);
+        journal.stopAsync().awaitTerminated();
+
+        final MappedSegmentJournal reopened = createJournal(Size.kilobytes(1L));
+        assertThat(reopened.getCommittedOffset()).isEqualTo(41L);
+        assertThat(reopened.getLogEndOffset()).isEqualTo(100L);
+
+        final List<String> messages = readAll(reopened);
+        assertThat(messages).hasSize(58);
+        assertThat(messages.get(0)).isEqualTo("42:message-42");
+
+        writeMessages(reopened, 100, 101);
+        assertThat(readAll(reopened)).containsExactly("100:message-100");
+        reopened.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    public void retentionDeletesCommittedSegments() {
+        final MappedSegmentJournal journal = createJournal(Size.kilobytes(1L));
+        writeMessages(journal, 0, 200);
+        final int segments = journal.numberOfSegments();
+
+        assertThat(journal.runRetention()).isZero();
+
+        journal.markJournalOffsetCommitted(199L);
+        assertThat(journal.runRetention()).isEqualTo(segments - 1);
+        assertThat(journal.numberOfSegments()).isEqualTo(1);
+        assertThat(journal.getPurgedSegmentsInLastRetention()).isZero();
+
+        journal.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    public void discardsCorruptTailOnRestart() throws IOException {
+        final MappedSegmentJournal journal = createJournal(Size.megabytes(1L));
+        writeMessages(journal, 0, 10);
+        journal.stopAsync().awaitTerminated();
+
+        // Flip a byte in the payload of the last record, as if the write had been torn.
+        final Path segmentFile = journalDirectory.resolve(MappedJournalSegment.fileName(0L, MappedJournalSegment.SEGMENT_SUFFIX));
+        final byte[] lastPayload = "message-9".getBytes(UTF_8);
+        final byte[] content = Files.readAllBytes(segmentFile);
+        final int position = indexOf(content, lastPayload);
+        assertThat(position).isPositive();
+        content[position] = 'X';
+        Files.write(segmentFile, content);
+
+        final MappedSegmentJournal reopened = createJournal(Size.megabytes(1L));
+        assertThat(reopened.getLogEndOffset()).isEqualTo(9L);
+        assertThat(readAll(reopened)).hasSize(9).last().isEqualTo("8:message-8");
+
+        writeMessages(reopened, 9, 10);
+        assertThat(readAll(reopened)).containsExactly("9:message-9");
+        reopened.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    public void migratesUncommittedMessagesFromKafkaJournal() {
+        writeKafkaJournal();
+
+        final MappedSegmentJournal journal = createJournal(Size.megabytes(1L));
+
+        assertThat(journalDirectory.resolve(MappedSegmentJournal.KAFKA_LOG_DIRECTORY)).doesNotExist();
+        assertThat(journalDirectory.resolve(MappedSegmentJournal.KAFKA_COMMITTED_OFFSET_FILE)).doesNotExist();
+        assertThat(journal.getCommittedOffset()).isEqualTo(4L);
+        final List<String> messages = readAll(journal);
+        assertThat(messages).hasSize(15);
+        assertThat(messages.get(0)).isEqualTo("5:message-5");
+        assertThat(messages.get(14)).isEqualTo("19:message-19");
+
+        writeMessages(journal, 20, 21);
+        assertThat(readAll(journal)).containsExactly("20:message-20");
+        journal.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    public void redoesInterruptedKafkaJournalMigration() throws IOException {
+        writeKafkaJournal();
+
+        // Simulate a migration which has been interrupted after copying the first two messages.
+        Files.write(journalDirectory.resolve(MappedSegmentJournal.MIGRATION_STARTED_FILE), new byte[0]);
+        final MappedJournalSegment partialSegment = MappedJournalSegment.create(journalDirectory, 5L, 1024 * 1024, 1024);
+        final CRC32C crc = new CRC32C();
+        partialSegment.append("id-5".getBytes(UTF_8), ByteBuffer.wrap("message-5".getBytes(UTF_8)), crc);
+        partialSegment.append("id-6".getBytes(UTF_8), ByteBuffer.wrap("message-6".getBytes(UTF_8)), crc);
+        partialSegment.flush();
+        partialSegment.seal();
+
+        final MappedSegmentJournal journal = createJournal(Size.megabytes(1L));
+
+        assertThat(journalDirectory.resolve(MappedSegmentJournal.MIGRATION_STARTED_FILE)).doesNotExist();
+        assertThat(journalDirectory.resolve(MappedSegmentJournal.MIGRATION_FINISHED_FILE)).doesNotExist();
+        assertThat(journalDirectory.resolve(MappedSegmentJournal.KAFKA_LOG_DIRECTORY)).doesNotExist();
+        assertThat(journal.getCommittedOffset()).isEqualTo(4L);
+        final List<String> messages = readAll(journal);
+        assertThat(messages).hasSize(15);
+        assertThat(messages.get(0)).isEqualTo("5:message-5");
+        assertThat(messages.get(14)).isEqualTo("19:message-19");
+        journal.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    public void keepsKafkaJournalIfMigrationFails() throws IOException {
+        final Path kafkaLogDirectory = Files.createDirectories(journalDirectory.resolve(MappedSegmentJournal.KAFKA_LOG_DIRECTORY));
+        final Path logFile = kafkaLogDirectory.resolve("00000000000000000000" + KafkaLogSegmentReader.LOG_SUFFIX);
+        Files.write(logFile, compressedKafkaMessage(0L, "compressed".getBytes(UTF_8)));
+
+        assertThatThrownBy(() -> createJournal(Size.megabytes(1L)))
+                .isInstanceOf(UncheckedIOException.class)
+                .hasMessageContaining("compressed message at offset 0");
+
+        assertThat(logFile).exists();
+        assertThat(journalDirectory.resolve(MappedSegmentJournal.MIGRATION_STARTED_FILE)).exists();
+    }
+
+    private void writeKafkaJournal() {
+        final LocalKafkaJournal kafkaJournal = new LocalKafkaJournal(journalDirectory,
+                scheduler,
+                Size.megabytes(1L),
+                Duration.standardHours(1),
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                new MetricRegistry(),
+                serverStatus);
+        kafkaJournal.startAsync().awaitRunning();
+        writeMessages(kafkaJournal, 0, 20);
+        kafkaJournal.markJournalOffsetCommitted(4L);
+        kafkaJournal.stopAsync().awaitTerminated();
+    }
+
+    private static byte[] compressedKafkaMessage(long offset, byte[] value) {
+        // crc, magic, attributes (gzip), key length (null key), value length, value
+        final ByteBuffer message = ByteBuffer.allocate(Integer.BYTES + 2 + Integer.BYTES * 2 + value.length);
+        message.position(Integer.BYTES);
+        message.put((byte) 0).put((byte) 1).putInt(-1).putInt(value.length).put(value);
+        final CRC32 crc = new CRC32();
+        crc.update(message.array(), Integer.BYTES, message.capacity() - Integer.BYTES);
+        message.putInt(0, (int) crc.getValue());
+
+        return ByteBuffer.allocate(Long.BYTES + Integer.BYTES + message.capacity())
+                .putLong(offset)
+                .putInt(message.capacity())
+                .put(message.array())
+                .array();
+    }
+
+    private static int indexOf(byte[] content, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= content.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (content[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
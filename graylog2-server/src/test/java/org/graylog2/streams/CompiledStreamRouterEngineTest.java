@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.bson.types.ObjectId;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.shared.SuppressForbidden;
+import org.graylog2.streams.matchers.StreamRuleMock;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs all {@link StreamRouterEngineTest} tests against the {@link CompiledStreamRouterEngine}.
+ */
+public class CompiledStreamRouterEngineTest extends StreamRouterEngineTest {
+    @Override
+    @SuppressForbidden("Executors#newSingleThreadExecutor() is okay for tests")
+    protected StreamRouterEngine newEngine(List<Stream> streams) {
+        return new CompiledStreamRouterEngine(streams, Executors.newSingleThreadExecutor(), streamFaultManager, streamMetrics,
+                defaultStreamProvider, new MetricRegistry());
+    }
+
+    @Test
+    public void testExactMatchWithSharedField() {
+        final StreamMock stream1 = getStreamMock("test1");
+        final StreamMock stream2 = getStreamMock("test2");
+        final StreamMock stream3 = getStreamMock("test3", Stream.MatchingType.OR);
+
+        stream1.setStreamRules(Lists.newArrayList(rule(stream1, StreamRuleType.EXACT, "source", "web01", false)));
+        stream2.setStreamRules(Lists.newArrayList(
+                rule(stream2, StreamRuleType.EXACT, "source", "web01", false),
+                rule(stream2, StreamRuleType.EXACT, "facility", "nginx", false)));
+        stream3.setStreamRules(Lists.newArrayList(
+                rule(stream3, StreamRuleType.EXACT, "source", "web02", false),
+                rule(stream3, StreamRuleType.EXACT, "facility", "nginx", false)));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream1, stream2, stream3));
+
+        assertThat(engine.match(message(Map.of("source", "web01")))).containsExactlyInAnyOrder(stream1);
+        assertThat(engine.match(message(Map.of("source", " web01 ", "facility", "nginx")))).containsExactlyInAnyOrder(stream1, stream2, stream3);
+        assertThat(engine.match(message(Map.of("source", "web02")))).containsExactlyInAnyOrder(stream3);
+        assertThat(engine.match(message(Map.of("source", "web03")))).isEmpty();
+    }
+
+    @Test
+    public void testCombinedRegexRules() {
+        final StreamMock stream1 = getStreamMock("test1");
+        final StreamMock stream2 = getStreamMock("test2");
+        final StreamMock stream3 = getStreamMock("test3");
+        final StreamMock stream4 = getStreamMock("test4");
+
+        stream1.setStreamRules(Lists.newArrayList(rule(stream1, StreamRuleType.REGEX, "message", "^error", false)));
+        stream2.setStreamRules(Lists.newArrayList(rule(stream2, StreamRuleType.REGEX, "message", "(?i)timeout", false)));
+        stream3.setStreamRules(Lists.newArrayList(
+                rule(stream3, StreamRuleType.REGEX, "message", "(\\w+) \\1", false),
+                rule(stream3, StreamRuleType.PRESENCE, "source", null, false)));
+        // An invalid pattern must not break the other rules on the same field
+        stream4.setStreamRules(Lists.newArrayList(rule(stream4, StreamRuleType.REGEX, "message", "[invalid", false)));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream1, stream2, stream3, stream4));
+
+        assertThat(engine.match(message(Map.of("message", "error: connection TIMEOUT")))).containsExactlyInAnyOrder(stream1, stream2);
+        assertThat(engine.match(message(Map.of("message", "warning: Timeout")))).containsExactlyInAnyOrder(stream2);
+        assertThat(engine.match(message(Map.of("message", "warning: disk full")))).isEmpty();
+        assertThat(engine.match(message(Map.of("message", "error error", "source", "host")))).containsExactlyInAnyOrder(stream1, stream3);
+    }
+
+    @Test
+    public void testRegexRulesWithSameNamedGroup() {
+        final StreamMock stream1 = getStreamMock("test1");
+        final StreamMock stream2 = getStreamMock("test2");
+
+        stream1.setStreamRules(Lists.newArrayList(rule(stream1, StreamRuleType.REGEX, "message", "^(?<verb>GET) ", false)));
+        stream2.setStreamRules(Lists.newArrayList(rule(stream2, StreamRuleType.REGEX, "message", "^(?<verb>POST) ", false)));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream1, stream2));
+
+        assertThat(engine.match(message(Map.of("message", "GET /")))).containsExactly(stream1);
+        assertThat(engine.match(message(Map.of("message", "POST /")))).containsExactly(stream2);
+        assertThat(engine.match(message(Map.of("message", "PUT /")))).isEmpty();
+    }
+
+    @Test
+    public void testRegexRulesWithOpenQuoteOrComments() {
+        final StreamMock stream1 = getStreamMock("test1");
+        final StreamMock stream2 = getStreamMock("test2");
+        final StreamMock stream3 = getStreamMock("test3");
+
+        stream1.setStreamRules(Lists.newArrayList(rule(stream1, StreamRuleType.REGEX, "message", "^\\Qa.b", false)));
+        stream2.setStreamRules(Lists.newArrayList(rule(stream2, StreamRuleType.REGEX, "message", "(?x)^ c d # comment", false)));
+        stream3.setStreamRules(Lists.newArrayList(rule(stream3, StreamRuleType.REGEX, "message", "^error", false)));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream1, stream2, stream3));
+
+        assertThat(engine.match(message(Map.of("message", "a.b")))).containsExactly(stream1);
+        assertThat(engine.match(message(Map.of("message", "axb")))).isEmpty();
+        assertThat(engine.match(message(Map.of("message", "cd")))).containsExactly(stream2);
+        assertThat(engine.match(message(Map.of("message", "error")))).containsExactly(stream3);
+    }
+
+    @Test
+    public void testCombineFallsBackIfAlternationDoesNotCompile() {
+        assertThat(CompiledStreamRouterEngine.combine(List.of("^error", "(?i)timeout"))).hasValueSatisfying(pattern -> {
+            assertThat(pattern.matcher("TIMEOUT").find()).isTrue();
+            assertThat(pattern.matcher("warning").find()).isFalse();
+        });
+        assertThat(CompiledStreamRouterEngine.combine(List.of("(?<verb>GET)", "(?<verb>POST)"))).isEmpty();
+        assertThat(CompiledStreamRouterEngine.combine(List.of("\\Qa", "b"))).isEmpty();
+    }
+
+    @Test
+    public void testInvertedAndIndexedRulesCombined() {
+        final StreamMock stream = getStreamMock("test");
+
+        stream.setStreamRules(Lists.newArrayList(
+                rule(stream, StreamRuleType.EXACT, "source", "web01", false),
+                rule(stream, StreamRuleType.EXACT, "level", "7", true),
+                rule(stream, StreamRuleType.REGEX, "message", "^GET", false)));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream));
+
+        assertThat(engine.match(message(Map.of("source", "web01", "level", 6, "message", "GET /")))).containsExactly(stream);
+        assertThat(engine.match(message(Map.of("source", "web01", "level", 7, "message", "GET /")))).isEmpty();
+        assertThat(engine.match(message(Map.of("source", "web01", "message", "POST /")))).isEmpty();
+        assertThat(engine.match(message(Map.of("source", "web02", "message", "GET /")))).isEmpty();
+    }
+
+    private StreamRuleMock rule(Stream stream, StreamRuleType type, String field, String value, boolean inverted) {
+        final ImmutableMap.Builder<String, Object> builder = ImmutableMap.<String, Object>builder()
+                .put("_id", new ObjectId())
+                .put("field", field)
+                .put("type", type.toInteger())
+                .put("inverted", inverted)
+                .put("stream_id", stream.getId());
+        if (value != null) {
+            builder.put("value", value);
+        }
+        return new StreamRuleMock(builder.build());
+    }
+
+    private Message message(Map<String, Object> fields) {
+        final Message message = getMessage();
+        message.addFields(fields);
+        return message;
+    }
+}
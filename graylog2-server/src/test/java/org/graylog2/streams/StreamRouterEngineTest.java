@@ -57,12 +57,12 @@ public class StreamRouterEngineTest {
     public final MockitoRule mockitoRule = MockitoJUnit.rule();
 
     @Mock
-    private StreamFaultManager streamFaultManager;
+    protected StreamFaultManager streamFaultManager;
     @Mock
     private Stream defaultStream;
-    private Provider<Stream> defaultStreamProvider;
+    protected Provider<Stream> defaultStreamProvider;
 
-    private StreamMetrics streamMetrics;
+    protected StreamMetrics streamMetrics;
     private final MessageFactory messageFactory = new TestMessageFactory();
 
     @Before
@@ -73,7 +73,7 @@ public class StreamRouterEngineTest {
     }
 
     @SuppressForbidden("Executors#newSingleThreadExecutor() is okay for tests")
-    private StreamRouterEngine newEngine(List<Stream> streams) {
+    protected StreamRouterEngine newEngine(List<Stream> streams) {
         return new StreamRouterEngine(streams, Executors.newSingleThreadExecutor(), streamFaultManager, streamMetrics,
                 defaultStreamProvider, new MetricRegistry());
     }
@@ -768,11 +768,11 @@ public class StreamRouterEngineTest {
                 Lists.newArrayList(stream), engine.match(message2));
     }
 
-    private StreamMock getStreamMock(String title) {
+    protected StreamMock getStreamMock(String title) {
         return getStreamMock(title, Stream.MatchingType.AND);
     }
 
-    private StreamMock getStreamMock(String title, Stream.MatchingType matchingType) {
+    protected StreamMock getStreamMock(String title, Stream.MatchingType matchingType) {
         return new StreamMock(ImmutableMap.of("_id", new ObjectId(), "title", title, "matching_type", matchingType));
     }
 
@@ -786,7 +786,7 @@ public class StreamRouterEngineTest {
         return result;
     }
 
-    private Message getMessage() {
+    protected Message getMessage() {
         return messageFactory.createMessage("test message", "localhost", new DateTime(DateTimeZone.UTC));
     }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.TestMessageFactory;
+import org.graylog2.plugin.Tools;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeyValueTokenizerTest {
+    @Test
+    void splitsOnWhitespaceAndEqualsSignByDefault() {
+        assertThat(tokenize(KeyValueTokenizer.builder().build(), " a=1  b=2\tc=3=4 d= =f g "))
+                .containsExactly("a=1", "b=2", "c=3=4", "d=", "=f", "g");
+    }
+
+    @Test
+    void doesNotSplitWithinQuotes() {
+        final KeyValueTokenizer tokenizer = KeyValueTokenizer.builder().quoteCharacters("\"'").build();
+
+        assertThat(tokenize(tokenizer, "a=\"x y\" b='p q' c=\"it's here\" d=1"))
+                .containsExactly("a=\"x y\"", "b='p q'", "c=\"it's here\"", "d=1");
+    }
+
+    @Test
+    void honorsEscapedDelimitersIfEnabled() {
+        final KeyValueTokenizer.Builder builder = KeyValueTokenizer.builder().pairDelimiters(CharMatcher.is(','));
+
+        assertThat(tokenize(builder.build(), "a=x\\,y,b=2")).containsExactly("a=x\\", "y", "b=2");
+        assertThat(tokenize(builder.useEscapeCharacter(true).build(), "a=x\\,y,b=2")).containsExactly("a=x\\,y", "b=2");
+    }
+
+    @Test
+    void skipsEmptyTokensIfEnabled() {
+        final KeyValueTokenizer tokenizer = KeyValueTokenizer.builder()
+                .keyValueDelimiters(CharMatcher.anyOf("=:"))
+                .skipEmptyTokens(true)
+                .build();
+
+        assertThat(tokenize(tokenizer, "=a==b c:=:d e= f g=h=i")).containsExactly("a=b", "c=d", "e", "f", "g=h=i");
+    }
+
+    @Test
+    void writesFieldsIntoMessages() {
+        final Message message = new TestMessageFactory().createMessage("message", "source", Tools.nowUTC());
+
+        KeyValueTokenizer.builder().build().tokenize("action=accept srcport=51122", message::addField);
+
+        assertThat(message.getFields()).containsEntry("action", "accept").containsEntry("srcport", "51122");
+    }
+
+    @Test
+    void producesSameResultAsSplitters() {
+        // The key_value pipeline function used to be implemented with Guava splitters and stateful char matchers.
+        final Random random = new Random(42);
+        final String alphabet = "ab=:, \t\"'\\[]";
+        for (int i = 0; i < 50_000; i++) {
+            final StringBuilder input = new StringBuilder();
+            final int length = random.nextInt(24);
+            for (int j = 0; j < length; j++) {
+                input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            final boolean escaping = random.nextBoolean();
+            final CharMatcher pairDelimiters = random.nextBoolean() ? CharMatcher.whitespace() : CharMatcher.anyOf(",[");
+            final CharMatcher keyValueDelimiters = random.nextBoolean() ? CharMatcher.is('=') : CharMatcher.anyOf("=:");
+
+            final KeyValueTokenizer tokenizer = KeyValueTokenizer.builder()
+                    .pairDelimiters(pairDelimiters)
+                    .keyValueDelimiters(keyValueDelimiters)
+                    .quoteCharacters("\"'")
+                    .useEscapeCharacter(escaping)
+                    .skipEmptyTokens(true)
+                    .build();
+
+            assertThat(tokenize(tokenizer, input.toString()))
+                    .as("<%s> (escaping: %s)", input, escaping)
+                    .isEqualTo(split(input.toString(), pairDelimiters, keyValueDelimiters, escaping));
+        }
+    }
+
+    private static List<String> tokenize(KeyValueTokenizer tokenizer, String input) {
+        final List<String> pairs = new ArrayList<>();
+        tokenizer.tokenize(input, new KeyValueTokenizer.Handler() {
+            @Override
+            public void pair(String key, String value) {
+                pairs.add(key + "=" + value);
+            }
+
+            @Override
+            public void keyWithoutValue(String key) {
+                pairs.add(key);
+            }
+        });
+        return pairs;
+    }
+
+    private static List<String> split(String input, CharMatcher pairDelimiters, CharMatcher keyValueDelimiters, boolean escaping) {
+        CharMatcher matcher = new QuoteMatcher('"').and(new QuoteMatcher('\''));
+        if (escaping) {
+            matcher = matcher.and(new NotEscapedMatcher());
+        }
+        final Splitter outerSplitter = Splitter.on(matcher.and(pairDelimiters)).omitEmptyStrings().trimResults();
+        final Splitter entrySplitter = Splitter.on(keyValueDelimiters).omitEmptyStrings().limit(2).trimResults();
+
+        final List<String> pairs = new ArrayList<>();
+        for (String entry : outerSplitter.split(input)) {
+            final Iterator<String> fields = entrySplitter.split(entry).iterator();
+            if (fields.hasNext()) {
+                final String key = fields.next();
+                pairs.add(fields.hasNext() ? key + "=" + fields.next() : key);
+            }
+        }
+        return pairs;
+    }
+
+    private static class QuoteMatcher extends CharMatcher {
+        private final char quote;
+        private boolean quoted = false;
+
+        QuoteMatcher(char quote) {
+            this.quote = quote;
+        }
+
+        @Override
+        public boolean matches(char c) {
+            if (c == quote) {
+                quoted = !quoted;
+            }
+            return !quoted;
+        }
+    }
+
+    private static class NotEscapedMatcher extends CharMatcher {
+        private char lastChar = '\u0000';
+
+        @Override
+        public boolean matches(char c) {
+            final boolean escaped = lastChar == '\\';
+            lastChar = c;
+            return !escaped;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MultiLiteralMatcherTest {
+    @Test
+    void findsOverlappingAndNestedLiterals() {
+        final MultiLiteralMatcher matcher = new MultiLiteralMatcher(List.of("he", "she", "his", "hers", "xyz"));
+
+        assertThat(matcher.find("ushers")).isEqualTo(bits(0, 1, 3));
+        assertThat(matcher.find("this")).isEqualTo(bits(2));
+        assertThat(matcher.find("")).isEqualTo(bits());
+    }
+
+    @Test
+    void handlesNonAsciiAndEmptyLiterals() {
+        final MultiLiteralMatcher matcher = new MultiLiteralMatcher(List.of("grüße", "", "€"));
+
+        assertThat(matcher.size()).isEqualTo(3);
+        assertThat(matcher.find("viele grüße")).isEqualTo(bits(0, 1));
+        assertThat(matcher.find("5€")).isEqualTo(bits(1, 2));
+        assertThat(matcher.find("grüsse")).isEqualTo(bits(1));
+    }
+
+    @Test
+    void handlesNoLiterals() {
+        assertThat(new MultiLiteralMatcher(List.of()).find("anything")).isEqualTo(bits());
+    }
+
+    @Test
+    void agreesWithStringContains() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 2_000; i++) {
+            final List<String> literals = new ArrayList<>();
+            final int count = random.nextInt(20);
+            for (int j = 0; j < count; j++) {
+                literals.add(randomString(random, 1 + random.nextInt(4)));
+            }
+            final MultiLiteralMatcher matcher = new MultiLiteralMatcher(literals);
+
+            for (int j = 0; j < 20; j++) {
+                final String text = randomString(random, random.nextInt(30));
+                final BitSet expected = new BitSet();
+                for (int literal = 0; literal < literals.size(); literal++) {
+                    if (text.contains(literals.get(literal))) {
+                        expected.set(literal);
+                    }
+                }
+                assertThat(matcher.find(text)).as("%s in %s", literals, text).isEqualTo(expected);
+            }
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        final String alphabet = "abcä€";
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private static BitSet bits(int... indices) {
+        final BitSet bits = new BitSet();
+        for (int index : indices) {
+            bits.set(index);
+        }
+        return bits;
+    }
+}
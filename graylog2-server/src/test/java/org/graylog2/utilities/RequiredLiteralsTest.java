@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import io.krakens.grok.api.Grok;
+import io.krakens.grok.api.GrokCompiler;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequiredLiteralsTest {
+    private static final List<String> LOG_LINES = List.of(
+            "Oct 17 10:00:01 web-1 sshd[1234]: Failed password for invalid user admin from 10.0.0.1 port 22 ssh2",
+            "Oct 17 10:00:02 web-1 CRON[99]: (root) CMD (run-parts /etc/cron.hourly)",
+            "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET /apache_pb.gif HTTP/1.0\" 200 2326",
+            "10.1.2.3 - - [17/Oct/2026:10:00:00 +0000] \"POST /api/v1/messages?id=42 HTTP/1.1\" 500 12 \"-\" \"curl/8.0\"",
+            "2026-10-17T10:00:00.123Z INFO [main] org.example.App - Started in 1.2s",
+            "<34>1 2026-10-17T22:14:15.003Z mymachine.example.com su - ID47 - 'su root' failed for lonvick on /dev/pts/8",
+            "user=alice uid=1000 mac=00:1A:2B:3C:4D:5E path=C:\\Windows\\System32 uuid=123e4567-e89b-12d3-a456-426614174000",
+            "",
+            " ",
+            "no digits or punctuation here");
+
+    @Test
+    void extractsLiteralSequences() {
+        assertThat(RequiredLiterals.of("sshd\\[(?<pid>\\d+)\\]: ")).containsExactly("sshd[", "]: ");
+        assertThat(RequiredLiterals.of("abc")).containsExactly("abc");
+        assertThat(RequiredLiterals.of("GET (?:/[a-z]+)+ HTTP")).containsExactly(" HTTP", "GET ", "/");
+        assertThat(RequiredLiterals.of("\\Qa.b\\E+c")).containsExactly("a.b", "bc");
+        assertThat(RequiredLiterals.of("x{2,}y")).containsExactly("xy");
+        assertThat(RequiredLiterals.of("[]x]abc[^]y]def")).containsExactly("abc", "def");
+        assertThat(RequiredLiterals.of("(?<a>foo)(?<b>bar)")).containsExactly("foo", "bar");
+    }
+
+    @Test
+    void dropsOptionalParts() {
+        assertThat(RequiredLiterals.of("abc?d")).containsExactly("ab", "d");
+        assertThat(RequiredLiterals.of("ab*")).containsExactly("a");
+        assertThat(RequiredLiterals.of("ab+c")).containsExactly("ab", "bc");
+        assertThat(RequiredLiterals.of("ab{0,3}")).containsExactly("a");
+        assertThat(RequiredLiterals.of("a(?:foo)?b")).containsExactly("a", "b");
+        assertThat(RequiredLiterals.of("a(?:foo){0}b")).containsExactly("a", "b");
+        assertThat(RequiredLiterals.of("(?=foo)bar(?!baz)")).containsExactly("bar");
+    }
+
+    @Test
+    void ignoresAlternations() {
+        assertThat(RequiredLiterals.of("foo|bar")).isEmpty();
+        assertThat(RequiredLiterals.of("x(?:foo|bar)y")).containsExactly("x", "y");
+    }
+
+    @Test
+    void ignoresEscapedCharacterClassesAndBackReferences() {
+        assertThat(RequiredLiterals.of("a\\d\\x41\\u0041\\p{Alpha}\\k<n>\\12b")).containsExactly("a", "b");
+        assertThat(RequiredLiterals.of("a\\.b")).containsExactly("a.b");
+        assertThat(RequiredLiterals.of("a.b")).containsExactly("a", "b");
+    }
+
+    @Test
+    void removesRedundantLiterals() {
+        assertThat(RequiredLiterals.of("abc(?:x)*b(?:y)*abc")).containsExactly("abc");
+    }
+
+    @Test
+    void doesNotExtractFromUnsupportedExpressions() {
+        assertThat(RequiredLiterals.of("(?i)abc")).isEmpty();
+        assertThat(RequiredLiterals.of("a(?i:b)c")).isEmpty();
+        assertThat(RequiredLiterals.of("abc)")).isEmpty();
+        assertThat(RequiredLiterals.of("(abc")).isEmpty();
+        assertThat(RequiredLiterals.of("")).isEmpty();
+    }
+
+    @Test
+    void literalsOfDefaultPatternsAreContainedInEveryMatch() {
+        final GrokCompiler compiler = GrokCompiler.newInstance();
+        compiler.registerDefaultPatterns();
+
+        for (String name : compiler.getPatternDefinitions().keySet()) {
+            final Grok grok = compiler.compile("%{" + name + "}");
+            final List<String> literals = RequiredLiterals.of(grok.getNamedRegex());
+            for (String line : LOG_LINES) {
+                if (!grok.match(line).isNull()) {
+                    assertContainsAll(line, literals, name);
+                }
+            }
+        }
+    }
+
+    @Test
+    void literalsOfRandomExpressionsAreContainedInEveryMatch() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            final String regex = new RandomRegex(random).sequence(0);
+            final Pattern pattern;
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                // Unbounded look-behinds aren't supported
+                continue;
+            }
+            final List<String> literals = RequiredLiterals.of(regex);
+            for (int j = 0; j < 20; j++) {
+                final String input = randomInput(random);
+                if (pattern.matcher(input).find()) {
+                    assertContainsAll(input, literals, regex);
+                }
+            }
+        }
+    }
+
+    private static void assertContainsAll(String input, List<String> literals, String description) {
+        for (String literal : literals) {
+            assertThat(input).as(description).contains(literal);
+        }
+    }
+
+    private static String randomInput(Random random) {
+        final String alphabet = "ab-].";
+        final StringBuilder sb = new StringBuilder();
+        final int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private static class RandomRegex {
+        private static final List<String> ATOMS = List.of(
+                "a", "b", "-", "]", "\\.", "\\]", "\\Qa]\\E", ".", "^", "$", "\\d", "\\w", "\\b", "\\x61",
+                "[ab]", "[^a]", "[]a]", "[a[]b]]", "[\\Q]\\E]");
+        private static final List<String> QUANTIFIERS = List.of(
+                "", "", "", "?", "*", "+", "{0,2}", "{1}", "{2,}", "{1,2}{2}");
+
+        private final Random random;
+        private int groups = 0;
+
+        RandomRegex(Random random) {
+            this.random = random;
+        }
+
+        String sequence(int depth) {
+            final List<String> alternatives = new ArrayList<>();
+            final int count = random.nextInt(8) == 0 ? 2 : 1;
+            for (int a = 0; a < count; a++) {
+                final StringBuilder sb = new StringBuilder();
+                final int length = 1 + random.nextInt(6);
+                for (int i = 0; i < length; i++) {
+                    sb.append(atom(depth)).append(quantifier());
+                }
+                alternatives.add(sb.toString());
+            }
+            return String.join("|", alternatives);
+        }
+
+        private String atom(int depth) {
+            if (depth < 3 && random.nextInt(5) == 0) {
+                final String open = switch (random.nextInt(6)) {
+                    case 0 -> "(";
+                    case 1 -> "(?:";
+                    case 2 -> "(?<g" + groups++ + ">";
+                    case 3 -> "(?>";
+                    case 4 -> "(?=";
+                    default -> "(?<!";
+                };
+                return open + sequence(depth + 1) + ")";
+            }
+            return ATOMS.get(random.nextInt(ATOMS.size()));
+        }
+
+        private String quantifier() {
+            final String quantifier = QUANTIFIERS.get(random.nextInt(QUANTIFIERS.size()));
+            if (!quantifier.isEmpty() && random.nextInt(4) == 0) {
+                return quantifier + (random.nextBoolean() ? "?" : "+");
+            }
+            return quantifier;
+        }
+    }
+}